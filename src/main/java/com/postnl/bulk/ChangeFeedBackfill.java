@@ -0,0 +1,34 @@
+package com.postnl.bulk;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.dao.ProductStore;
+
+/**
+ * Records a change for every product stored before the change feed was enabled, so a reader that
+ * starts the feed from the beginning sees every product. Products written after the feed was
+ * enabled already have one and are left alone, so the backfill can be run again, e.g. after it
+ * was interrupted. Run it once after enabling PRODUCT_CHANGES_ENABLED on an existing table.
+ *
+ * <pre>
+ * java -cp target/package-service-1.0.0.jar com.postnl.bulk.ChangeFeedBackfill [--segments 4]
+ * </pre>
+ */
+public class ChangeFeedBackfill {
+
+    public static void main(final String[] args) {
+        int segments = 4;
+        for (int i = 0; i < args.length; i++) {
+            if ("--segments".equals(args[i])) {
+                segments = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final ProductStore productStore = DaggerProductComponent.builder().build().provideProductStore();
+        final long startedAt = System.currentTimeMillis();
+        final long stamped = productStore.backfillChanges(segments);
+        System.err.printf("Recorded a change for %d products in %d ms%n", stamped,
+                System.currentTimeMillis() - startedAt);
+    }
+}
@@ -0,0 +1,25 @@
+package com.postnl.bulk;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Outcome of a {@link ProductCompactor} run.
+ */
+@Getter
+@Builder
+@ToString
+public class CompactionReport {
+    private final long archived;
+    private final long deleted;
+    /**
+     * Products changed after they were archived so that they no longer expire, left in the table.
+     */
+    private final long kept;
+    private final long failed;
+    private final long elapsedMillis;
+    private final List<String> archives;
+}
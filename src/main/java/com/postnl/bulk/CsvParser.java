@@ -0,0 +1,45 @@
+package com.postnl.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a single RFC 4180 CSV line. Fields may be quoted, with doubled quotes as escapes;
+ * quoted fields spanning several lines are not supported.
+ */
+final class CsvParser {
+
+    private CsvParser() {
+    }
+
+    static List<String> parse(final String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
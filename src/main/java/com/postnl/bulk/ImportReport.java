@@ -0,0 +1,26 @@
+package com.postnl.bulk;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Progress or outcome of a {@link ProductImporter} run.
+ */
+@Getter
+@Builder
+@ToString
+public class ImportReport {
+    private final long read;
+    private final long rejected;
+    private final long written;
+    private final long failed;
+    private final long elapsedMillis;
+    private final List<String> errors;
+
+    public double getWrittenPerSecond() {
+        return elapsedMillis == 0 ? 0 : written * 1000.0 / elapsedMillis;
+    }
+}
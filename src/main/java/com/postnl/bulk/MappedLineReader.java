@@ -0,0 +1,80 @@
+package com.postnl.bulk;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads UTF-8 lines from a file through a sliding memory-mapped window, so files larger than
+ * the 2 GB a single mapping can address are streamed without copying them onto the heap.
+ */
+class MappedLineReader implements AutoCloseable {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] line = new byte[256];
+
+    MappedLineReader(final Path file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedLineReader(final Path file, final int windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        map(0);
+    }
+
+    /**
+     * Reads the next line without its line terminator.
+     * @return the line, or null at the end of the file
+     * @throws IOException if the file could not be mapped
+     */
+    String readLine() throws IOException {
+        if (windowStart + window.position() >= size) {
+            return null;
+        }
+        int length = 0;
+        while (true) {
+            if (!window.hasRemaining()) {
+                final long next = windowStart + window.position();
+                if (next >= size) {
+                    break;
+                }
+                map(next);
+            }
+            final byte b = window.get();
+            if (b == '\n') {
+                break;
+            }
+            if (length == line.length) {
+                final byte[] grown = new byte[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void map(final long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+    }
+}
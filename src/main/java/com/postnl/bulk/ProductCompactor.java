@@ -0,0 +1,187 @@
+package com.postnl.bulk;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.archive.LocalProductArchive;
+import com.postnl.dao.archive.ProductArchive;
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.model.Product;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves delivered products out of the hot table. Products whose delivery window ended more than
+ * the archive delay ago are found with a filtered parallel scan, written to a
+ * {@link ProductArchive} page by page and only then deleted, each only if it still has the
+ * version that was archived. A product changed in between is read again and, if it still
+ * expires, archived and deleted once more; otherwise it stays. The archive delay is meant to be
+ * much shorter than the retention, so products are archived well before the DynamoDB TTL would
+ * delete them unarchived.
+ *
+ * <pre>
+ * java -cp target/package-service-1.0.0.jar com.postnl.bulk.ProductCompactor \
+ *     --archive-dir /data/archive [--archive-after-hours 24] [--segments 4]
+ * </pre>
+ */
+public class ProductCompactor {
+
+    private static final int MAX_DELETE_ATTEMPTS = 2;
+
+    private final ProductStore productStore;
+    private final ProductArchive archive;
+    private final ProductExpiry productExpiry;
+    private final int totalSegments;
+
+    /**
+     * Constructs a ProductCompactor.
+     * @param productStore store used for the scan and the deletes
+     * @param archive archive the products are moved to
+     * @param productExpiry expiry the products were created with
+     * @param totalSegments number of scan segments to read concurrently
+     */
+    public ProductCompactor(final ProductStore productStore, final ProductArchive archive,
+                            final ProductExpiry productExpiry, final int totalSegments) {
+        this.productStore = productStore;
+        this.archive = archive;
+        this.productExpiry = productExpiry;
+        this.totalSegments = totalSegments;
+    }
+
+    /**
+     * Archives and deletes every product delivered more than archiveAfterSeconds ago.
+     * @param archiveAfterSeconds time after delivery at which products are archived
+     * @return the report of the run
+     * @throws IOException if a page or a changed product could not be archived, it is then left in
+     *     the table
+     */
+    public CompactionReport compact(final long archiveAfterSeconds) throws IOException {
+        if (!productExpiry.isEnabled()) {
+            throw new IllegalStateException("Products do not expire, set PRODUCT_RETENTION_DAYS to compact them");
+        }
+        final long startedAt = System.currentTimeMillis();
+        final AtomicLong archived = new AtomicLong();
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong kept = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final List<String> archives = Collections.synchronizedList(new ArrayList<>());
+        try {
+            final long cutoff = productExpiry.archiveCutoff(archiveAfterSeconds);
+            productStore.scanExpiringProducts(totalSegments, cutoff, page -> {
+                try {
+                    archives.add(archive.archive(page));
+                    archived.addAndGet(page.size());
+                    for (Product product : page) {
+                        switch (remove(product, cutoff, archives, archived)) {
+                            case DELETED:
+                                deleted.incrementAndGet();
+                                break;
+                            case KEPT:
+                                kept.incrementAndGet();
+                                break;
+                            case FAILED:
+                                failed.incrementAndGet();
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return CompactionReport.builder()
+                .archived(archived.get())
+                .deleted(deleted.get())
+                .kept(kept.get())
+                .failed(failed.get())
+                .elapsedMillis(System.currentTimeMillis() - startedAt)
+                .archives(new ArrayList<>(archives))
+                .build();
+    }
+
+    /**
+     * Deletes an archived product if it still has the archived version. A product changed since
+     * it was archived is read again and, if it still expires, archived and deleted once more.
+     */
+    private Removal remove(final Product archivedProduct, final long cutoff, final List<String> archives,
+                           final AtomicLong archived) throws IOException {
+        Product current = archivedProduct;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                productStore.deleteProduct(current.getProductId(), current.getVersion() == null ? 0L : current.getVersion());
+                return Removal.DELETED;
+            } catch (ProductDoesNotExistException e) {
+                // deleted meanwhile, e.g. by the TTL
+                return Removal.GONE;
+            } catch (UnableToDeleteException e) {
+                if (attempt == MAX_DELETE_ATTEMPTS) {
+                    return Removal.FAILED;
+                }
+            }
+            final Optional<Product> changed = productStore.findProduct(current.getProductId(), ReadConsistency.STRONG);
+            if (!changed.isPresent()) {
+                return Removal.GONE;
+            }
+            current = changed.get();
+            final OptionalLong expiresAt = productExpiry.expiresAt(current.getDeliveryDate());
+            if (!expiresAt.isPresent() || expiresAt.getAsLong() > cutoff) {
+                return Removal.KEPT;
+            }
+            archives.add(archive.archive(Collections.singletonList(current)));
+            archived.incrementAndGet();
+        }
+    }
+
+    private enum Removal {
+        DELETED, GONE, KEPT, FAILED
+    }
+
+    public static void main(final String[] args) throws IOException {
+        String archiveDir = null;
+        long archiveAfterHours = 24;
+        int segments = 4;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--archive-dir":
+                    archiveDir = args[++i];
+                    break;
+                case "--archive-after-hours":
+                    archiveAfterHours = Long.parseLong(args[++i]);
+                    break;
+                case "--segments":
+                    segments = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (archiveDir == null) {
+            throw new IllegalArgumentException("--archive-dir is required");
+        }
+
+        final ProductComponent component = DaggerProductComponent.builder().build();
+        final ProductCompactor compactor = new ProductCompactor(component.provideProductStore(),
+                new LocalProductArchive(Paths.get(archiveDir), component.provideObjectMapper()),
+                component.provideProductExpiry(), segments);
+        final CompactionReport report = compactor.compact(TimeUnit.HOURS.toSeconds(archiveAfterHours));
+        System.err.printf("Archived %d products to %d files, deleted %d, kept %d, failed %d in %d ms%n",
+                report.getArchived(), report.getArchives().size(), report.getDeleted(), report.getKept(),
+                report.getFailed(), report.getElapsedMillis());
+    }
+}
@@ -0,0 +1,161 @@
+package com.postnl.bulk;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.ProductStore;
+import com.postnl.model.Product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams every product as newline-delimited JSON. Scan segments hand their pages to the writer
+ * through a bounded queue, so a slow output blocks the scan instead of buffering the table.
+ *
+ * <pre>
+ * java -cp target/package-service-1.0.0.jar com.postnl.bulk.ProductExporter \
+ *     [--output packages.ndjson.gz] [--gzip] [--segments 4] [--buffered-pages 8]
+ * </pre>
+ */
+public class ProductExporter {
+
+    private static final List<Product> END_OF_SCAN = new ArrayList<>(0);
+    private static final byte NEWLINE = '\n';
+
+    private final ProductStore productStore;
+    private final ObjectWriter writer;
+    private final int totalSegments;
+    private final int bufferedPages;
+
+    /**
+     * Constructs a ProductExporter.
+     * @param productStore store used for the parallel scan
+     * @param objectMapper mapper used to serialize products
+     * @param totalSegments number of scan segments to read concurrently
+     * @param bufferedPages number of scanned pages that may wait for the writer
+     */
+    public ProductExporter(final ProductStore productStore, final ObjectMapper objectMapper,
+                           final int totalSegments, final int bufferedPages) {
+        this.productStore = productStore;
+        this.writer = objectMapper.writerFor(Product.class);
+        this.totalSegments = totalSegments;
+        this.bufferedPages = bufferedPages;
+    }
+
+    /**
+     * Writes every product as one JSON line.
+     * @param output stream to write to, not closed
+     * @return number of products written
+     * @throws IOException if the output could not be written
+     */
+    public long export(final OutputStream output) throws IOException {
+        final BlockingQueue<List<Product>> pages = new ArrayBlockingQueue<>(bufferedPages);
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        final CompletableFuture<Void> scan = CompletableFuture.runAsync(() -> {
+            try {
+                productStore.scanProducts(totalSegments, page -> put(pages, page, abandoned));
+            } finally {
+                if (!abandoned.get()) {
+                    put(pages, END_OF_SCAN, abandoned);
+                }
+            }
+        });
+
+        long count = 0;
+        try {
+            for (List<Product> page = pages.take(); page != END_OF_SCAN; page = pages.take()) {
+                for (Product product : page) {
+                    output.write(writer.writeValueAsBytes(product));
+                    output.write(NEWLINE);
+                }
+                count += page.size();
+            }
+            output.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        } finally {
+            if (!scan.isDone()) {
+                // stops the scan segments at their next page if the writer failed
+                abandoned.set(true);
+                pages.clear();
+            }
+        }
+
+        try {
+            scan.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return count;
+    }
+
+    private static void put(final BlockingQueue<List<Product>> pages, final List<Product> page,
+                            final AtomicBoolean abandoned) {
+        try {
+            while (!pages.offer(page, 100, TimeUnit.MILLISECONDS)) {
+                if (abandoned.get()) {
+                    throw new IllegalStateException("export was abandoned by the writer");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("export was abandoned by the writer", e);
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        String path = null;
+        boolean gzip = false;
+        int segments = 4;
+        int bufferedPages = 8;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output":
+                    path = args[++i];
+                    break;
+                case "--gzip":
+                    gzip = true;
+                    break;
+                case "--segments":
+                    segments = Integer.parseInt(args[++i]);
+                    break;
+                case "--buffered-pages":
+                    bufferedPages = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        final ProductComponent component = DaggerProductComponent.builder().build();
+        final ProductExporter exporter = new ProductExporter(component.provideProductStore(),
+                component.provideObjectMapper(), segments, bufferedPages);
+        final OutputStream target = path == null || "-".equals(path) ? System.out : new FileOutputStream(path);
+        final long started = System.currentTimeMillis();
+        final long count;
+        try (OutputStream output = new BufferedOutputStream(
+                gzip ? new GZIPOutputStream(target, 1 << 16) : target, 1 << 16)) {
+            count = exporter.export(output);
+        }
+        System.err.printf("Exported %d products in %d ms%n", count, System.currentTimeMillis() - started);
+    }
+}
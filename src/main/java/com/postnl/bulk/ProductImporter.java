@@ -0,0 +1,257 @@
+package com.postnl.bulk;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.ProductDao;
+import com.postnl.dao.ProductStore;
+import com.postnl.dto.request.CreateProductRequest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Loads products from a CSV or NDJSON manifest. The file is read through a memory-mapped window
+ * and every record is validated with the rules createProduct applies. Valid records are grouped
+ * into batches of 25 and handed through a bounded queue to concurrent BatchWriteItem workers,
+ * so parsing never runs more than a few batches ahead of DynamoDB.
+ *
+ * <pre>
+ * java -cp target/package-service-1.0.0.jar com.postnl.bulk.ProductImporter \
+ *     --input depot.csv [--format csv|ndjson] [--workers 8] [--report-seconds 5]
+ * </pre>
+ *
+ * CSV manifests need a header row naming the productType and deliveryDate columns.
+ */
+public class ProductImporter {
+
+    /**
+     * Supported manifest formats.
+     */
+    public enum Format {
+        CSV, NDJSON;
+
+        static Format of(final Path file) {
+            return file.toString().toLowerCase().endsWith(".csv") ? CSV : NDJSON;
+        }
+    }
+
+    private static final int BATCH_SIZE = 25;
+    private static final int MAX_ERRORS_REPORTED = 100;
+    private static final List<CreateProductRequest> END_OF_INPUT = new ArrayList<>(0);
+
+    private final ProductStore productStore;
+    private final ObjectMapper objectMapper;
+    private final int workers;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private long startedAt;
+
+    /**
+     * Constructs a ProductImporter.
+     * @param productStore store used for the batch writes
+     * @param objectMapper mapper used to parse NDJSON records
+     * @param workers number of concurrent BatchWriteItem workers
+     */
+    public ProductImporter(final ProductStore productStore, final ObjectMapper objectMapper, final int workers) {
+        this.productStore = productStore;
+        this.objectMapper = objectMapper;
+        this.workers = workers;
+    }
+
+    /**
+     * Imports every record of the manifest.
+     * @param file manifest to import
+     * @param format format of the manifest
+     * @param reportIntervalMillis interval between progress reports
+     * @param progress receives progress reports while the import runs
+     * @return the final report
+     * @throws IOException if the manifest could not be read
+     */
+    public ImportReport importFile(final Path file, final Format format, final long reportIntervalMillis,
+                                   final Consumer<ImportReport> progress) throws IOException {
+        startedAt = System.currentTimeMillis();
+        read.set(0);
+        rejected.set(0);
+        written.set(0);
+        failed.set(0);
+        errors.clear();
+        final BlockingQueue<List<CreateProductRequest>> batches = new ArrayBlockingQueue<>(workers * 2);
+        final ExecutorService writers = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            writers.execute(() -> write(batches));
+        }
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> progress.accept(report()),
+                reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+
+        try (MappedLineReader reader = new MappedLineReader(file)) {
+            parse(reader, format, batches);
+            for (int i = 0; i < workers; i++) {
+                batches.put(END_OF_INPUT);
+            }
+            writers.shutdown();
+            writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("import interrupted");
+        } finally {
+            writers.shutdownNow();
+            reporter.shutdownNow();
+        }
+        return report();
+    }
+
+    private void parse(final MappedLineReader reader, final Format format,
+                       final BlockingQueue<List<CreateProductRequest>> batches)
+            throws IOException, InterruptedException {
+        long lineNumber = 0;
+        int[] columns = null;
+        List<CreateProductRequest> batch = new ArrayList<>(BATCH_SIZE);
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            if (format == Format.CSV && columns == null) {
+                columns = csvColumns(CsvParser.parse(line));
+                continue;
+            }
+            read.incrementAndGet();
+            final CreateProductRequest request;
+            try {
+                request = format == Format.CSV ? fromCsv(CsvParser.parse(line), columns)
+                        : objectMapper.readValue(line, CreateProductRequest.class);
+                ProductDao.validate(request);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                reject(lineNumber, e.getMessage());
+                continue;
+            }
+            batch.add(request);
+            if (batch.size() == BATCH_SIZE) {
+                batches.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.put(batch);
+        }
+    }
+
+    private void write(final BlockingQueue<List<CreateProductRequest>> batches) {
+        try {
+            for (List<CreateProductRequest> batch = batches.take(); batch != END_OF_INPUT; batch = batches.take()) {
+                int created;
+                try {
+                    created = productStore.batchCreateProducts(batch).size();
+                } catch (RuntimeException e) {
+                    created = 0;
+                    error("batch of " + batch.size() + " failed: " + e.getMessage());
+                }
+                written.addAndGet(created);
+                failed.addAndGet(batch.size() - created);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reject(final long lineNumber, final String message) {
+        rejected.incrementAndGet();
+        error("line " + lineNumber + ": " + message);
+    }
+
+    private void error(final String message) {
+        if (errors.size() < MAX_ERRORS_REPORTED) {
+            errors.add(message);
+        }
+    }
+
+    private ImportReport report() {
+        return ImportReport.builder()
+                .read(read.get())
+                .rejected(rejected.get())
+                .written(written.get())
+                .failed(failed.get())
+                .elapsedMillis(System.currentTimeMillis() - startedAt)
+                .errors(new ArrayList<>(errors))
+                .build();
+    }
+
+    private static int[] csvColumns(final List<String> header) {
+        final int productType = header.indexOf("productType");
+        final int deliveryDate = header.indexOf("deliveryDate");
+        if (productType < 0 || deliveryDate < 0) {
+            throw new IllegalArgumentException("CSV header must name the productType and deliveryDate columns");
+        }
+        return new int[] {productType, deliveryDate};
+    }
+
+    private static CreateProductRequest fromCsv(final List<String> fields, final int[] columns) {
+        return CreateProductRequest.builder()
+                .productType(columns[0] < fields.size() ? fields.get(columns[0]) : null)
+                .deliveryDate(columns[1] < fields.size() ? fields.get(columns[1]) : null)
+                .build();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        Path input = null;
+        Format format = null;
+        int workers = 8;
+        long reportSeconds = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--input":
+                    input = Paths.get(args[++i]);
+                    break;
+                case "--format":
+                    format = Format.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(args[++i]);
+                    break;
+                case "--report-seconds":
+                    reportSeconds = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (input == null) {
+            throw new IllegalArgumentException("--input is required");
+        }
+
+        final ProductComponent component = DaggerProductComponent.builder().build();
+        final ImportReport report = new ProductImporter(component.provideProductStore(),
+                component.provideObjectMapper(), workers)
+                .importFile(input, format == null ? Format.of(input) : format,
+                        TimeUnit.SECONDS.toMillis(reportSeconds), ProductImporter::print);
+        print(report);
+        report.getErrors().forEach(System.err::println);
+    }
+
+    private static void print(final ImportReport report) {
+        System.err.printf("read %d, rejected %d, written %d, failed %d, %.0f products/s%n",
+                report.getRead(), report.getRejected(), report.getWritten(), report.getFailed(),
+                report.getWrittenPerSecond());
+    }
+}
@@ -1,9 +1,18 @@
 package com.postnl.config;
 
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.handler.CreatePackageHandler;
 import com.postnl.handler.CreateProductHandler;
+import com.postnl.handler.DeleteProductHandler;
+import com.postnl.handler.GetPackageHandler;
+import com.postnl.handler.GetProductChangesHandler;
 import com.postnl.handler.GetProductHandler;
 import com.postnl.handler.GetPackagesHandler;
+import com.postnl.handler.PurgeProductsHandler;
+import com.postnl.handler.UpdateProductHandler;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dagger.Component;
 
 import javax.inject.Singleton;
@@ -12,10 +21,28 @@ import javax.inject.Singleton;
 @Component(modules = {ProductModule.class})
 public interface ProductComponent {
 
+    ProductStore provideProductStore();
+
+    ObjectMapper provideObjectMapper();
+
+    ProductExpiry provideProductExpiry();
+
     void inject(CreateProductHandler requestHandler);
 
     void inject(GetProductHandler requestHandler);
 
     void inject(GetPackagesHandler requestHandler);
 
+    void inject(CreatePackageHandler requestHandler);
+
+    void inject(GetPackageHandler requestHandler);
+
+    void inject(UpdateProductHandler requestHandler);
+
+    void inject(DeleteProductHandler requestHandler);
+
+    void inject(PurgeProductsHandler requestHandler);
+
+    void inject(GetProductChangesHandler requestHandler);
+
 }
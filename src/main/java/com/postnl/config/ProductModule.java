@@ -1,17 +1,44 @@
 package com.postnl.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.postnl.dao.PackageDao;
 import com.postnl.dao.ProductDao;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.batch.WriteBatcher;
+import com.postnl.dao.changes.ChangeFeed;
+import com.postnl.dao.coalesce.ReadCoalescer;
+import com.postnl.dao.consistency.SessionTokens;
+import com.postnl.dao.filter.ProductIdFilter;
+import com.postnl.dao.hedge.HedgingPolicy;
+import com.postnl.dao.http.HttpTransport;
+import com.postnl.dao.memory.InMemoryProductStore;
+import com.postnl.dao.packed.PackedProductCodec;
+import com.postnl.dao.prefetch.PagePrefetcher;
+import com.postnl.dao.replica.Replica;
+import com.postnl.dao.replica.ReplicaSelector;
+import com.postnl.dao.snapshot.ProductSnapshotEngine;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
 
 import dagger.Module;
 import dagger.Provides;
-import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
 
 import java.net.URI;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 
@@ -21,6 +48,8 @@ import javax.inject.Singleton;
 @Module
 public class ProductModule {
 
+    private static final int PAGE_SIZE = 10;
+
     @Singleton
     @Provides
     @Named("tableName")
@@ -30,14 +59,81 @@ public class ProductModule {
 
     @Singleton
     @Provides
-    DynamoDbClient dynamoDb() {
-        final String endpoint = System.getenv("ENDPOINT_OVERRIDE");
-        DynamoDbClientBuilder builder = DynamoDbClient.builder();
-        builder.httpClient(ApacheHttpClient.builder().build());
-        if (endpoint != null && !endpoint.isEmpty()) {
-            builder.endpointOverride(URI.create(endpoint));
+    @Named("packagesTableName")
+    String packagesTableName() {
+        return env("PACKAGES_TABLE_NAME", "packages_table");
+    }
+
+    @Singleton
+    @Provides
+    @Named("productCacheControl")
+    String productCacheControl() {
+        return "max-age=" + env("PRODUCT_CACHE_MAX_AGE_SECONDS", "0") + ", must-revalidate";
+    }
+
+    @Singleton
+    @Provides
+    @Named("packagesCacheControl")
+    String packagesCacheControl() {
+        return "max-age=" + env("PACKAGES_CACHE_MAX_AGE_SECONDS", "5") + ", must-revalidate";
+    }
+
+    @Singleton
+    @Provides
+    DynamoDbClient dynamoDb(HttpTransport httpTransport) {
+        try (Span init = Profiling.initPhase("dynamodb client")) {
+            return dynamoDbClient(System.getenv("AWS_REGION"), System.getenv("ENDPOINT_OVERRIDE"), httpTransport);
+        }
+    }
+
+    /**
+     * PRODUCT_HTTP_CLIENT chooses between the Apache client, whose pool the other settings tune,
+     * and url-connection, which starts faster and only takes the timeouts and maxConnections.
+     */
+    @Singleton
+    @Provides
+    HttpTransport httpTransport() {
+        return HttpTransport.builder()
+                .client("url-connection".equalsIgnoreCase(env("PRODUCT_HTTP_CLIENT", "apache"))
+                        ? HttpTransport.Client.URL_CONNECTION : HttpTransport.Client.APACHE)
+                .maxConnections(Integer.parseInt(env("PRODUCT_HTTP_MAX_CONNECTIONS", "50")))
+                .connectTimeoutMillis(Long.parseLong(env("PRODUCT_HTTP_CONNECT_TIMEOUT_MILLIS", "2000")))
+                .socketTimeoutMillis(Long.parseLong(env("PRODUCT_HTTP_SOCKET_TIMEOUT_MILLIS", "30000")))
+                .acquireTimeoutMillis(Long.parseLong(env("PRODUCT_HTTP_ACQUIRE_TIMEOUT_MILLIS", "10000")))
+                .connectionTtlMillis(Long.parseLong(env("PRODUCT_HTTP_CONNECTION_TTL_MILLIS", "0")))
+                .connectionMaxIdleMillis(Long.parseLong(env("PRODUCT_HTTP_MAX_IDLE_MILLIS", "60000")))
+                .reapIdleConnections(Boolean.parseBoolean(env("PRODUCT_HTTP_REAP_IDLE_CONNECTIONS", "true")))
+                .statsEvery(Integer.parseInt(env("PRODUCT_HTTP_STATS_EVERY", "1000")))
+                .build();
+    }
+
+    /**
+     * PRODUCT_REPLICA_ENDPOINTS lists the other replicas of a global table, comma separated, each
+     * a region or region=endpoint; eventually consistent reads then go to the fastest of them and
+     * the home region.
+     */
+    @Singleton
+    @Provides
+    ReplicaSelector replicaSelector(DynamoDbClient dynamoDb, HttpTransport httpTransport) {
+        final String endpoints = env("PRODUCT_REPLICA_ENDPOINTS", "");
+        if (endpoints.trim().isEmpty()) {
+            return ReplicaSelector.disabled();
+        }
+        try (Span init = Profiling.initPhase("dynamodb replica clients")) {
+            final List<Replica> replicas = new ArrayList<>();
+            replicas.add(new Replica(env("AWS_REGION", "home"), dynamoDb));
+            for (String replica : endpoints.split(",")) {
+                final String[] regionAndEndpoint = replica.trim().split("=", 2);
+                if (!regionAndEndpoint[0].isEmpty()) {
+                    replicas.add(new Replica(replica.trim(), dynamoDbClient(regionAndEndpoint[0],
+                            regionAndEndpoint.length > 1 ? regionAndEndpoint[1] : null, httpTransport)));
+                }
+            }
+            return new ReplicaSelector(replicas,
+                    Double.parseDouble(env("PRODUCT_REPLICA_SMOOTHING", "0.2")),
+                    Integer.parseInt(env("PRODUCT_REPLICA_PROBE_EVERY", "20")),
+                    Double.parseDouble(env("PRODUCT_REPLICA_MAX_ERROR_RATE", "0.5")));
         }
-        return builder.build();
     }
 
     @Singleton
@@ -48,8 +144,170 @@ public class ProductModule {
 
     @Singleton
     @Provides
-    public ProductDao productDao(DynamoDbClient dynamoDb, @Named("tableName") String tableName) {
-        return new ProductDao(dynamoDb, tableName,10);
+    ProductIdFilter productIdFilter() {
+        return new ProductIdFilter(
+                Boolean.parseBoolean(System.getenv("PRODUCT_ID_FILTER_ENABLED")),
+                Long.parseLong(env("PRODUCT_ID_FILTER_EXPECTED_ITEMS", "1000000")),
+                Double.parseDouble(env("PRODUCT_ID_FILTER_FALSE_POSITIVE_RATE", "0.01")),
+                Long.parseLong(env("PRODUCT_ID_FILTER_MAX_AGE_SECONDS", "300")) * 1000L,
+                Integer.parseInt(env("PRODUCT_ID_FILTER_SCAN_SEGMENTS", "4")),
+                Long.parseLong(env("PRODUCT_ID_FILTER_CATCH_UP_MILLIS", "1000")));
+    }
+
+    @Singleton
+    @Provides
+    ProductSnapshotEngine productSnapshotEngine() {
+        return new ProductSnapshotEngine(
+                Boolean.parseBoolean(System.getenv("PRODUCT_SNAPSHOT_ENABLED")),
+                Paths.get(env("PRODUCT_SNAPSHOT_DIRECTORY", "/tmp/product-snapshots")),
+                Long.parseLong(env("PRODUCT_SNAPSHOT_MAX_AGE_SECONDS", "30")) * 1000L,
+                Integer.parseInt(env("PRODUCT_SNAPSHOT_SCAN_SEGMENTS", "4")));
+    }
+
+    @Singleton
+    @Provides
+    ProductExpiry productExpiry() {
+        return new ProductExpiry(
+                Long.parseLong(env("PRODUCT_RETENTION_DAYS", "0")) * 24L * 60L * 60L,
+                ZoneId.of(env("PRODUCT_TIME_ZONE", "Europe/Amsterdam")),
+                Clock.systemUTC());
+    }
+
+    @Singleton
+    @Provides
+    HedgingPolicy hedgingPolicy() {
+        return new HedgingPolicy(
+                Boolean.parseBoolean(System.getenv("PRODUCT_HEDGING_ENABLED")),
+                Double.parseDouble(env("PRODUCT_HEDGING_PERCENTILE", "0.95")),
+                Long.parseLong(env("PRODUCT_HEDGING_MIN_DELAY_MILLIS", "5")),
+                Double.parseDouble(env("PRODUCT_HEDGING_BUDGET", "0.05")),
+                Integer.parseInt(env("PRODUCT_HEDGING_MIN_SAMPLES", "20")),
+                60_000L);
+    }
+
+    @Singleton
+    @Provides
+    PackedProductCodec packedProductCodec() {
+        return new PackedProductCodec(
+                "packed".equalsIgnoreCase(env("PRODUCT_ITEM_FORMAT", "attributes")),
+                Integer.parseInt(env("PRODUCT_PACKED_COMPRESSION_THRESHOLD_BYTES", "256")));
+    }
+
+    @Singleton
+    @Provides
+    PagePrefetcher pagePrefetcher() {
+        return new PagePrefetcher(
+                Boolean.parseBoolean(System.getenv("PRODUCT_PREFETCH_ENABLED")),
+                Long.parseLong(env("PRODUCT_PREFETCH_TTL_MILLIS", "10000")),
+                Long.parseLong(env("PRODUCT_PREFETCH_MAX_BYTES", "1048576")));
+    }
+
+    @Singleton
+    @Provides
+    ReadCoalescer readCoalescer() {
+        return new ReadCoalescer(
+                Boolean.parseBoolean(System.getenv("PRODUCT_COALESCE_ENABLED")),
+                Integer.parseInt(env("PRODUCT_COALESCE_STRIPES", "64")));
+    }
+
+    @Singleton
+    @Provides
+    ChangeFeed changeFeed() {
+        return new ChangeFeed(
+                Boolean.parseBoolean(System.getenv("PRODUCT_CHANGES_ENABLED")),
+                env("PRODUCT_CHANGES_INDEX", "changes-index"),
+                Integer.parseInt(env("PRODUCT_CHANGES_SHARDS", "4")),
+                Long.parseLong(env("PRODUCT_CHANGES_SETTLE_MILLIS", "5000")),
+                Long.parseLong(env("PRODUCT_CHANGES_RETENTION_DAYS", "7")) * 24L * 60L * 60L * 1000L,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * PRODUCT_WRITE_BATCH_ENABLED gathers the puts of concurrent creates, worth it where one
+     * container handles many requests at once, such as a bulk worker; a Lambda container handles
+     * one at a time and would only wait out the linger time.
+     */
+    @Singleton
+    @Provides
+    WriteBatcher<Map<String, AttributeValue>, Boolean> writeBatcher() {
+        return new WriteBatcher<>(
+                Boolean.parseBoolean(System.getenv("PRODUCT_WRITE_BATCH_ENABLED")),
+                Integer.parseInt(env("PRODUCT_WRITE_BATCH_SIZE", "25")),
+                Long.parseLong(env("PRODUCT_WRITE_BATCH_LINGER_MILLIS", "5")));
+    }
+
+    @Singleton
+    @Provides
+    SessionTokens sessionTokens() {
+        return new SessionTokens(Long.parseLong(env("PRODUCT_SESSION_WINDOW_MILLIS", "2000")),
+                System::currentTimeMillis);
+    }
+
+    @Singleton
+    @Provides
+    public ProductDao productDao(DynamoDbClient dynamoDb, @Named("tableName") String tableName,
+                                 ProductIdFilter productIdFilter, ProductSnapshotEngine productSnapshotEngine,
+                                 ProductExpiry productExpiry, HedgingPolicy hedgingPolicy,
+                                 PackedProductCodec packedProductCodec, PagePrefetcher pagePrefetcher,
+                                 ReadCoalescer readCoalescer, ReplicaSelector replicaSelector,
+                                 ChangeFeed changeFeed,
+                                 WriteBatcher<Map<String, AttributeValue>, Boolean> writeBatcher) {
+        return new ProductDao(dynamoDb, tableName, ProductDao.Options.builder()
+                .pageSize(PAGE_SIZE)
+                .productIdFilter(productIdFilter)
+                .snapshotEngine(productSnapshotEngine)
+                .productExpiry(productExpiry)
+                .hedgingPolicy(hedgingPolicy)
+                .itemCodec(packedProductCodec)
+                .pagePrefetcher(pagePrefetcher)
+                .readCoalescer(readCoalescer)
+                .replicaSelector(replicaSelector)
+                .changeFeed(changeFeed)
+                .writeBatcher(writeBatcher)
+                .build());
+    }
+
+    /**
+     * PRODUCT_STORE=memory keeps products in memory, for local runs and benchmarks; the DynamoDB
+     * client is then never built.
+     */
+    @Singleton
+    @Provides
+    public ProductStore productStore(Provider<ProductDao> productDao, ProductExpiry productExpiry) {
+        if ("memory".equalsIgnoreCase(env("PRODUCT_STORE", "dynamodb"))) {
+            return new InMemoryProductStore(PAGE_SIZE, Integer.parseInt(env("PRODUCT_STORE_STRIPES", "64")),
+                    productExpiry);
+        }
+        return productDao.get();
+    }
+
+    @Singleton
+    @Provides
+    public PackageDao packageDao(DynamoDbClient dynamoDb, @Named("packagesTableName") String packagesTableName,
+                                 ProductStore productStore, ProductExpiry productExpiry) {
+        return new PackageDao(dynamoDb, packagesTableName, productStore, productExpiry);
+    }
+
+    private static DynamoDbClient dynamoDbClient(String region, String endpoint, HttpTransport httpTransport) {
+        DynamoDbClientBuilder builder = DynamoDbClient.builder();
+        builder.httpClient(httpTransport.create(region == null || region.isEmpty() ? "home" : region));
+        if (endpoint != null && !endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        // Lambda always sets these; naming them skips the default provider chains, which read
+        // profile files and look up optional providers reflectively during the cold start
+        if (region != null && !region.isEmpty()) {
+            builder.region(Region.of(region));
+        }
+        if (System.getenv("AWS_ACCESS_KEY_ID") != null) {
+            builder.credentialsProvider(EnvironmentVariableCredentialsProvider.create());
+        }
+        return builder.build();
+    }
+
+    private static String env(String name, String defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
     }
 
 }
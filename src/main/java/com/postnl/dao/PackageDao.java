@@ -0,0 +1,255 @@
+package com.postnl.dao;
+
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.dto.request.CreatePackageRequest;
+import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.exception.CouldNotCreatePackageException;
+import com.postnl.exception.TableDoesNotExistException;
+import com.postnl.model.Package;
+import com.postnl.model.Product;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Stores packages single-table: the package id is the partition key, and the package item and
+ * one item per product share that item collection under different sort keys. The products
+ * themselves are ordinary products of the {@link ProductStore}, so they are listed, read,
+ * updated and deleted like any other; the item of a product in the package only holds its id.
+ * The package item and its product items are written with one TransactWriteItems call and read
+ * back with one Query, after which the products are read with one batch read.
+ */
+public class PackageDao {
+
+    private static final Logger LOG = LogManager.getLogger(PackageDao.class);
+
+    static final String PACKAGE_ID = "packageId";
+    static final String SORT_KEY = "sortKey";
+    static final String PACKAGE_SORT_KEY = "PACKAGE";
+    static final String PRODUCT_SORT_KEY_PREFIX = "PRODUCT#";
+    private static final String CREATED_AT = "createdAt";
+    private static final String EXPIRES_AT = ProductItemMapper.EXPIRES_AT;
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    /** TransactWriteItems takes at most 25 items, one of which is the package item. */
+    private static final int MAX_PRODUCTS = 24;
+
+    private final DynamoDbClient dynamoDb;
+    private final String tableName;
+    private final ProductStore productStore;
+    private final ProductExpiry productExpiry;
+
+    /**
+     * Constructs a PackageDao.
+     * @param dynamoDb dynamodb client
+     * @param tableName name of table to use for packages
+     * @param productStore stores the products of the packages
+     * @param productExpiry derives the expiresAt TTL attribute of created packages
+     */
+    public PackageDao(final DynamoDbClient dynamoDb, final String tableName, final ProductStore productStore,
+                      final ProductExpiry productExpiry) {
+        this.dynamoDb = dynamoDb;
+        this.tableName = tableName;
+        this.productStore = productStore;
+        this.productExpiry = productExpiry;
+    }
+
+    /**
+     * Looks up a package with a single Query and its products with a single batch read. Products
+     * deleted since the package was created are left out.
+     * @param packageId id of package to get
+     * @return the package, or empty if it does not exist
+     * @throws TableDoesNotExistException if the package or product table does not exist
+     */
+    public Optional<Package> findPackage(final String packageId) {
+        Map<String, AttributeValue> header = null;
+        final List<String> productIds = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final QueryResponse result;
+            try {
+                result = dynamoDb.query(QueryRequest.builder()
+                        .tableName(tableName)
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .keyConditionExpression(PACKAGE_ID + " = :packageId")
+                        .expressionAttributeValues(Collections.singletonMap(":packageId",
+                                AttributeValue.builder().s(packageId).build()))
+                        .exclusiveStartKey(startKey)
+                        .build());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Package table %s does not exist", tableName));
+            }
+            for (Map<String, AttributeValue> item : result.items()) {
+                final String sortKey = item.get(SORT_KEY).s();
+                if (PACKAGE_SORT_KEY.equals(sortKey)) {
+                    header = item;
+                } else if (sortKey.startsWith(PRODUCT_SORT_KEY_PREFIX)) {
+                    productIds.add(item.get(ProductItemMapper.PRODUCT_ID).s());
+                }
+            }
+            startKey = result.lastEvaluatedKey();
+        } while (startKey != null && !startKey.isEmpty());
+
+        if (header == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new Package(packageId, header.get(CREATED_AT).s(), productStore.findProducts(productIds)));
+    }
+
+    /**
+     * Creates the products of a package with one batch write, then the package with one
+     * transaction. If either fails the created products are deleted again, so a package is never
+     * stored partially; a product whose delete fails as well is left as a product of no package.
+     * @param request details of the package to create
+     * @return the created package
+     * @throws IllegalArgumentException if the request is invalid
+     * @throws CouldNotCreatePackageException if not every product could be created or the
+     *     transaction was cancelled
+     * @throws TableDoesNotExistException if the package or product table does not exist
+     */
+    public Package createPackage(final CreatePackageRequest request) {
+        if (request == null || request.getProducts() == null || request.getProducts().isEmpty()) {
+            throw new IllegalArgumentException("A package needs at least one product");
+        }
+        if (request.getProducts().size() > MAX_PRODUCTS) {
+            throw new IllegalArgumentException("A package holds at most " + MAX_PRODUCTS + " products");
+        }
+        for (CreateProductRequest product : request.getProducts()) {
+            ProductDao.validate(product);
+        }
+        final List<Product> products = productStore.batchCreateProducts(request.getProducts());
+        try {
+            if (products.size() < request.getProducts().size()) {
+                throw new CouldNotCreatePackageException("Only " + products.size() + " of the "
+                        + request.getProducts().size() + " products of the package could be created");
+            }
+            return writePackage(products);
+        } catch (RuntimeException e) {
+            discard(products);
+            throw e;
+        }
+    }
+
+    private Package writePackage(final List<Product> products) {
+        int tries = 0;
+        while (tries < 10) {
+            final String packageId = UUID.randomUUID().toString();
+            final String createdAt = Instant.now().toString();
+            try {
+                dynamoDb.transactWriteItems(TransactWriteItemsRequest.builder()
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .transactItems(packageItems(packageId, createdAt, products))
+                        .build());
+                return new Package(packageId, createdAt, products);
+            } catch (TransactionCanceledException e) {
+                if (!isConditionalCheckFailure(e)) {
+                    throw new CouldNotCreatePackageException("Package transaction was cancelled: "
+                            + e.cancellationReasons());
+                }
+                tries++;
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Package table %s does not exist", tableName));
+            }
+        }
+        throw new CouldNotCreatePackageException(
+                "Unable to generate unique package id after 10 tries");
+    }
+
+    private void discard(final List<Product> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+        final List<String> productIds = new ArrayList<>(products.size());
+        for (Product product : products) {
+            productIds.add(product.getProductId());
+        }
+        final List<String> undeleted = productStore.deleteProducts(productIds);
+        if (!undeleted.isEmpty()) {
+            LOG.warn(() -> "Products " + undeleted + " of a package that was not created were not deleted");
+        }
+    }
+
+    private List<TransactWriteItem> packageItems(final String packageId, final String createdAt,
+                                                 final List<Product> products) {
+        final AttributeValue expiresAt = expiresAt(products);
+        final List<TransactWriteItem> writes = new ArrayList<>(products.size() + 1);
+
+        final Map<String, AttributeValue> header = key(packageId, PACKAGE_SORT_KEY, expiresAt);
+        header.put(CREATED_AT, AttributeValue.builder().s(createdAt).build());
+        writes.add(TransactWriteItem.builder().put(Put.builder()
+                .tableName(tableName)
+                .item(header)
+                .conditionExpression("attribute_not_exists(" + PACKAGE_ID + ")")
+                .build()).build());
+
+        for (Product product : products) {
+            final Map<String, AttributeValue> item = key(packageId,
+                    PRODUCT_SORT_KEY_PREFIX + product.getProductId(), expiresAt);
+            item.put(ProductItemMapper.PRODUCT_ID, AttributeValue.builder().s(product.getProductId()).build());
+            writes.add(TransactWriteItem.builder().put(Put.builder()
+                    .tableName(tableName)
+                    .item(item)
+                    .build()).build());
+        }
+        return writes;
+    }
+
+    /**
+     * The whole item collection expires together, with its last product, so a package is never
+     * read back with only some of its products.
+     */
+    private AttributeValue expiresAt(final List<Product> products) {
+        long latest = Long.MIN_VALUE;
+        for (Product product : products) {
+            final OptionalLong expiresAt = productExpiry.expiresAt(product.getDeliveryDate());
+            if (!expiresAt.isPresent()) {
+                return null;
+            }
+            latest = Math.max(latest, expiresAt.getAsLong());
+        }
+        return AttributeValue.builder().n(Long.toString(latest)).build();
+    }
+
+    private static Map<String, AttributeValue> key(final String packageId, final String sortKey,
+                                                   final AttributeValue expiresAt) {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put(PACKAGE_ID, AttributeValue.builder().s(packageId).build());
+        item.put(SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        if (expiresAt != null) {
+            item.put(EXPIRES_AT, expiresAt);
+        }
+        return item;
+    }
+
+    private static boolean isConditionalCheckFailure(final TransactionCanceledException e) {
+        if (!e.hasCancellationReasons()) {
+            return false;
+        }
+        for (CancellationReason reason : e.cancellationReasons()) {
+            if (CONDITIONAL_CHECK_FAILED.equals(reason.code())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
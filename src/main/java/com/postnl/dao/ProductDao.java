@@ -1,50 +1,162 @@
 package com.postnl.dao;
 
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.batch.WriteBatcher;
+import com.postnl.dao.changes.ChangeFeed;
+import com.postnl.dao.coalesce.ReadCoalescer;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.dao.filter.ProductIdFilter;
+import com.postnl.dao.hedge.HedgingPolicy;
+import com.postnl.dao.packed.PackedProductCodec;
+import com.postnl.dao.prefetch.PagePrefetcher;
+import com.postnl.dao.purge.PurgeCheckpoint;
+import com.postnl.dao.purge.PurgeResult;
+import com.postnl.dao.replica.ReplicaSelector;
+import com.postnl.dao.snapshot.ProductSnapshotEngine;
 import com.postnl.exception.CouldNotCreateProductException;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.exception.DeadlineExceededException;
 import com.postnl.exception.ProductDoesNotExistException;
 import com.postnl.exception.TableDoesNotExistException;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.exception.UnableToUpdateException;
 import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.dto.request.DeleteProductsRequest;
+import com.postnl.dto.request.UpdateProductRequest;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
 import com.postnl.model.Product;
 import com.postnl.model.ProductPage;
 
+import lombok.Builder;
+import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbResponse;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.Put;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
 import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
-public class ProductDao {
+public class ProductDao implements ProductStore {
 
-    private static final String PRODUCT_ID = "productId";
-    private static final String DELIVERY_DATE_WAS_NULL = "preTaxAmount was null";
+    private static final Logger LOG = LogManager.getLogger(ProductDao.class);
+
+    private static final String PRODUCT_ID = ProductItemMapper.PRODUCT_ID;
+    private static final String PRODUCT_TYPE = ProductItemMapper.PRODUCT_TYPE;
+    private static final String DELIVERY_DATE = ProductItemMapper.DELIVERY_DATE;
+    private static final String EXPIRES_AT = ProductItemMapper.EXPIRES_AT;
+    private static final String VERSION = ProductItemMapper.VERSION;
+    private static final String PACKED = ProductItemMapper.PACKED;
+    private static final String DELETED = ProductItemMapper.DELETED;
+    private static final String DELIVERY_DATE_WAS_NULL = "deliveryDate was null";
+    private static final String PRODUCT_TYPE_WAS_NULL_OR_EMPTY = "productType was null or empty";
+    private static final String PRODUCT_ID_NOT_TAKEN = "attribute_not_exists(productId)";
+    private static final String PRODUCT_EXISTS = "attribute_exists(productId) AND attribute_not_exists(#deleted)";
+    private static final int MAX_BATCH_WRITE_ITEMS = 25;
+    private static final int MAX_BATCH_GET_ITEMS = 100;
+    private static final int MAX_BATCH_WRITE_ATTEMPTS = 8;
+    private static final int MAX_PURGE_DELETE_ATTEMPTS = 2;
+    private static final int PURGE_SCAN_PAGE_SIZE = 100;
+    private static final int PURGE_DELETE_THREADS = 8;
+    private static final long BATCH_WRITE_BASE_BACKOFF_MILLIS = 50L;
+    private static final long BATCH_WRITE_MAX_BACKOFF_MILLIS = 5000L;
+    private static final int MAX_BATCH_GET_ATTEMPTS = 4;
+    private static final long BATCH_GET_BASE_BACKOFF_MILLIS = 20L;
+    private static final long BATCH_GET_MAX_BACKOFF_MILLIS = 500L;
 
     private final String tableName;
     private final DynamoDbClient dynamoDb;
     private final int pageSize;
+    private final ProductIdFilter productIdFilter;
+    private final ProductSnapshotEngine snapshotEngine;
+    private final ProductExpiry productExpiry;
+    private final HedgingPolicy hedgingPolicy;
+    private final PackedProductCodec itemCodec;
+    private final PagePrefetcher pagePrefetcher;
+    private final ReadCoalescer readCoalescer;
+    private final ReplicaSelector replicaSelector;
+    private final ChangeFeed changeFeed;
+    private final WriteBatcher<Map<String, AttributeValue>, Boolean> writeBatcher;
 
     /**
-     * Constructs an ProductDao.
-     * @param dynamoDb dynamodb client
+     * Constructs a ProductDao.
+     * @param dynamoDb dynamodb client of the home region, used for every write
      * @param tableName name of table to use for products
-     * @param pageSize size of pages for getProducts
+     * @param options page size and optional collaborators, each disabled unless set
      */
-    public ProductDao(final DynamoDbClient dynamoDb, final String tableName,
-                    final int pageSize) {
+    public ProductDao(final DynamoDbClient dynamoDb, final String tableName, final Options options) {
+        if (options.getWriteBatcher().getMaxBatchSize() > MAX_BATCH_WRITE_ITEMS) {
+            throw new IllegalArgumentException("TransactWriteItems takes at most 25 items");
+        }
+        if (options.getProductIdFilter().isEnabled() && !options.getChangeFeed().isEnabled()) {
+            throw new IllegalArgumentException("The product id filter catches up through the change feed");
+        }
         this.dynamoDb = dynamoDb;
         this.tableName = tableName;
-        this.pageSize = pageSize;
+        this.pageSize = options.getPageSize();
+        this.productIdFilter = options.getProductIdFilter();
+        this.snapshotEngine = options.getSnapshotEngine();
+        this.productExpiry = options.getProductExpiry();
+        this.hedgingPolicy = options.getHedgingPolicy();
+        this.itemCodec = options.getItemCodec();
+        this.pagePrefetcher = options.getPagePrefetcher();
+        this.readCoalescer = options.getReadCoalescer();
+        this.replicaSelector = options.getReplicaSelector();
+        this.changeFeed = options.getChangeFeed();
+        this.writeBatcher = options.getWriteBatcher();
     }
 
     /**
@@ -53,143 +165,1415 @@ public class ProductDao {
      * @return the product if it exists
      * @throws ProductDoesNotExistException if the product does not exist
      */
+    @Override
     public Product getProduct(final String productId) {
+        final Product product = findProduct(productId).orElse(null);
+        if (product == null) {
+            throw new ProductDoesNotExistException(String.format("Product %s does not exist", productId));
+        }
+        return product;
+    }
+
+    /**
+     * Looks up an product without using exceptions for a missing product.
+     * @param productId id of product to get
+     * @return the product, or empty if it does not exist
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public Optional<Product> findProduct(final String productId) {
+        return findProduct(productId, ReadConsistency.EVENTUAL);
+    }
+
+    /**
+     * Looks up an product without using exceptions for a missing product. A strongly consistent
+     * lookup skips the product id filter, which learns of the products created by other containers
+     * only when it catches up with the change feed.
+     * @param productId id of product to get
+     * @param consistency whether the read must see every write acknowledged before it
+     * @return the product, or empty if it does not exist
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public Optional<Product> findProduct(final String productId, final ReadConsistency consistency) {
+        if (!consistency.isStrong()) {
+            productIdFilter.refreshIfStale(sink -> scanProductIds(productIdFilter.getScanSegments(), sink));
+            if (!productIdFilter.mightContain(productId, this::scanChangedProductIds)) {
+                LOG.debug(() -> "Product " + productId + " rejected by the product id filter");
+                return Optional.empty();
+            }
+        }
+        final String key = "GetItem " + consistency + " " + productId;
+        final GetItemResponse result;
         try {
-            return Optional.ofNullable(
-                    dynamoDb.getItem(GetItemRequest.builder()
+            // the request is built per attempt, so a hedge or failover gets the time left, not the
+            // time there was when the first attempt started
+            result = readCoalescer.read(key, () -> profiled("GetItem",
+                    capacity -> hedgingPolicy.call(() -> read(consistency, client -> client.getItem(GetItemRequest.builder()
                             .tableName(tableName)
+                            .overrideConfiguration(Deadline.current().overrideConfiguration())
                             .key(Collections.singletonMap(PRODUCT_ID,
                                     AttributeValue.builder().s(productId).build()))
-                            .build()))
-                    .map(GetItemResponse::item)
-                    .map(this::convert)
-                    .orElseThrow(() -> new ProductDoesNotExistException(String.format("Product %s does not exist", productId)));
+                            .consistentRead(consistency.isStrong())
+                            .returnConsumedCapacity(capacity)
+                            .build()))), response -> response.hasItem() ? 1 : 0));
         } catch (ResourceNotFoundException e) {
             throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
         }
+        return result == null ? Optional.empty() : Optional.ofNullable(ProductItemMapper.toProduct(result.item()));
+    }
+
+    /**
+     * Reads several products with one strongly consistent BatchGetItem against the home region,
+     * since the products of a package are read right after they were written. Unprocessed keys are
+     * retried with an exponential backoff short enough for a request. Keys still unprocessed after
+     * all retries, or once the request deadline leaves no time to back off, are read one by one.
+     * @param productIds ids of at most 100 products to get
+     * @return the products that exist, in the order of their ids
+     * @throws IllegalArgumentException if there are more than 100 ids
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public List<Product> findProducts(final List<String> productIds) {
+        if (productIds.size() > MAX_BATCH_GET_ITEMS) {
+            throw new IllegalArgumentException("BatchGetItem takes at most " + MAX_BATCH_GET_ITEMS + " keys");
+        }
+        // BatchGetItem rejects a request that names the same key twice
+        final Set<String> distinct = new LinkedHashSet<>(productIds);
+        final Map<String, Product> found = new HashMap<>();
+        List<Map<String, AttributeValue>> pending = new ArrayList<>(distinct.size());
+        for (String productId : distinct) {
+            pending.add(Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(productId).build()));
+        }
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            final List<Map<String, AttributeValue>> attempted = pending;
+            final BatchGetItemResponse response;
+            try {
+                response = profiled("BatchGetItem", capacity -> dynamoDb.batchGetItem(BatchGetItemRequest.builder()
+                        .requestItems(Collections.singletonMap(tableName,
+                                KeysAndAttributes.builder().keys(attempted).consistentRead(true).build()))
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .returnConsumedCapacity(capacity)
+                        .build()), r -> r.responses().getOrDefault(tableName, Collections.emptyList()).size());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            }
+            for (Map<String, AttributeValue> item : response.responses().getOrDefault(tableName, Collections.emptyList())) {
+                final Product product = ProductItemMapper.toProduct(item);
+                if (product != null) {
+                    found.put(product.getProductId(), product);
+                }
+            }
+            final KeysAndAttributes unprocessed = response.unprocessedKeys().get(tableName);
+            pending = unprocessed == null ? Collections.emptyList() : unprocessed.keys();
+            if (pending.isEmpty()) {
+                break;
+            }
+            final long cap = Math.min(BATCH_GET_MAX_BACKOFF_MILLIS, BATCH_GET_BASE_BACKOFF_MILLIS << attempt);
+            if (attempt == MAX_BATCH_GET_ATTEMPTS || Deadline.current().remainingMillis() <= cap) {
+                for (Map<String, AttributeValue> key : pending) {
+                    findProduct(key.get(PRODUCT_ID).s(), ReadConsistency.STRONG)
+                            .ifPresent(product -> found.put(product.getProductId(), product));
+                }
+                break;
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while backing off a BatchGetItem");
+            }
+        }
+        final List<Product> products = new ArrayList<>(distinct.size());
+        for (String productId : distinct) {
+            final Product product = found.get(productId);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
     }
 
     /**
-     * Get products.
+     * Get products. A page is filled from as many Scan calls as needed; if the request deadline
+     * expires after the first call the products read so far are returned as a partial page.
      * @param offset the exclusive start id for the next page.
      * @return a page of products.
      * @throws TableDoesNotExistException if the product table does not exist
+     * @throws DeadlineExceededException if the request deadline expired before anything was read
+     * @throws CursorExpiredException if the offset is a snapshot cursor that cannot be continued
      */
+    @Override
     public ProductPage getProducts(final String offset) {
-        final ScanResponse result;
+        return getProducts(offset, ReadConsistency.EVENTUAL);
+    }
+
+    /**
+     * Get products. A strongly consistent page is read from DynamoDB, past the snapshot and the
+     * prefetched pages. A snapshot cursor cannot continue there, because DynamoDB scans in
+     * another order, and the snapshot may be older than the write the read must see, so a
+     * strongly consistent read of one fails and the walk starts over.
+     * @param offset the exclusive start id for the next page.
+     * @param consistency whether the read must see every write acknowledged before it
+     * @return a page of products.
+     * @throws TableDoesNotExistException if the product table does not exist
+     * @throws DeadlineExceededException if the request deadline expired before anything was read
+     * @throws CursorExpiredException if the offset is a snapshot cursor that cannot be continued
+     */
+    @Override
+    public ProductPage getProducts(final String offset, final ReadConsistency consistency) {
+        if (consistency.isStrong()) {
+            if (ProductSnapshotEngine.isSnapshotCursor(offset)) {
+                throw new CursorExpiredException(
+                        "A strongly consistent listing cannot continue in a snapshot, start the listing over");
+            }
+            return scanPage(offset, consistency);
+        }
+        final Optional<ProductPage> snapshotPage = snapshotEngine.getProducts(offset, pageSize,
+                sink -> scanProducts(snapshotEngine.getScanSegments(), sink), this::latestChange);
+        if (snapshotPage.isPresent()) {
+            LOG.debug(() -> "Served page after " + offset + " from the snapshot");
+            return snapshotPage.get();
+        }
+        final Optional<ProductPage> prefetchedPage = pagePrefetcher.get(offset);
+        if (prefetchedPage.isPresent()) {
+            LOG.debug(() -> "Served page after " + offset + " from the prefetched pages");
+            pagePrefetcher.prefetch(prefetchedPage.get().getLastEvaluatedKey(), this::scanPage);
+            return prefetchedPage.get();
+        }
+        final ProductPage page = scanPage(offset);
+        if (!page.isPartial()) {
+            pagePrefetcher.prefetch(page.getLastEvaluatedKey(), this::scanPage);
+        }
+        return page;
+    }
+
+    private ProductPage scanPage(final String offset) {
+        return scanPage(offset, ReadConsistency.EVENTUAL);
+    }
+
+    private ProductPage scanPage(final String offset, final ReadConsistency consistency) {
+        final List<Product> products = new ArrayList<>(pageSize);
+        Map<String, AttributeValue> startKey = isNullOrEmpty(offset) ? null
+                : Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(offset).build());
+        String lastEvaluatedKey = null;
+        do {
+            final ScanResponse result;
+            try {
+                final Map<String, AttributeValue> exclusiveStartKey = startKey;
+                final int limit = pageSize - products.size();
+                final String key = "Scan " + consistency + " " + limit + " "
+                        + (exclusiveStartKey == null ? "" : exclusiveStartKey.get(PRODUCT_ID).s());
+                result = readCoalescer.read(key, () -> profiled("Scan",
+                        capacity -> read(consistency, client -> client.scan(ScanRequest.builder()
+                                .tableName(tableName)
+                                .overrideConfiguration(Deadline.current().overrideConfiguration())
+                                .limit(limit)
+                                .exclusiveStartKey(exclusiveStartKey)
+                                .consistentRead(consistency.isStrong())
+                                .returnConsumedCapacity(capacity)
+                                .build())), response -> response.items().size()));
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            } catch (DeadlineExceededException | ApiCallTimeoutException | ApiCallAttemptTimeoutException e) {
+                if (products.isEmpty()) {
+                    throw new DeadlineExceededException("Request deadline expired before the first page was read");
+                }
+                final int read = products.size();
+                LOG.debug(() -> "Request deadline expired, returning a partial page of " + read + " products");
+                return ProductPage.builder().products(products).lastEvaluatedKey(lastEvaluatedKey).partial(true).build();
+            }
+            products.addAll(ProductItemMapper.toProducts(result.items()));
+            startKey = result.lastEvaluatedKey();
+            lastEvaluatedKey = null;
+            if (startKey != null && !startKey.isEmpty()) {
+                if ((!startKey.containsKey(PRODUCT_ID) || isNullOrEmpty(startKey.get(PRODUCT_ID).s()))) {
+                    throw new IllegalStateException(
+                        "productId did not exist or was not a non-empty string in the lastEvaluatedKey");
+                }
+                lastEvaluatedKey = startKey.get(PRODUCT_ID).s();
+            }
+        } while (products.size() < pageSize && lastEvaluatedKey != null);
+        return ProductPage.builder().products(products).lastEvaluatedKey(lastEvaluatedKey).build();
+    }
+
+    /**
+     * Reads one page of the change feed. Every shard of the change index is queried after the
+     * cursor, concurrently, and the shards are merged by change sequence. Changes younger than the
+     * settle time are left for a later page. If the page is not full, every settled change has been
+     * read and the next page continues from the settle time. Deleted products are read from their
+     * tombstones.
+     * @param since the lastEvaluatedKey of the previous page, a time in epoch milliseconds, or null
+     *     for all changes
+     * @return a page of changed products, whose lastEvaluatedKey is always set and continues the feed
+     * @throws IllegalArgumentException if since is malformed
+     * @throws IllegalStateException if the change feed is not enabled
+     * @throws CursorExpiredException if since is older than the tombstones are kept
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public ProductPage getChanges(final String since) {
+        final String after = ChangeFeed.startAfter(since);
+        if (!changeFeed.isEnabled()) {
+            throw new IllegalStateException("The change feed is not enabled");
+        }
+        if (changeFeed.isExpired(after)) {
+            throw new CursorExpiredException("since is older than the deleted products are kept, read the feed from the start");
+        }
+        final String before = changeFeed.settledBefore();
+        if (after.compareTo(before) >= 0) {
+            return ProductPage.builder().products(Collections.emptyList()).lastEvaluatedKey(after).build();
+        }
+        final List<Map<String, AttributeValue>> changes = ChangeFeed.merge(
+                changeFeed.readShards(shard -> queryChanges(shard, after, before)),
+                item -> item.get(ChangeFeed.CHANGE_SEQUENCE).s(), pageSize);
+        final String lastEvaluatedKey = changes.size() < pageSize ? before
+                : changes.get(changes.size() - 1).get(ChangeFeed.CHANGE_SEQUENCE).s();
+        return ProductPage.builder()
+                .products(ProductItemMapper.toChanges(changes))
+                .lastEvaluatedKey(lastEvaluatedKey)
+                .build();
+    }
+
+    @Override
+    public boolean recordsChanges() {
+        return changeFeed.isEnabled();
+    }
 
+    /**
+     * Stamps every product without a change sequence, such as the products written before the
+     * change feed was enabled, using a filtered parallel scan and one UpdateItem per product. The
+     * update only applies while the product still exists without a sequence, so a product written
+     * or deleted meanwhile keeps the change of that write. The version is left as it is.
+     * @param totalSegments number of scan segments to read concurrently
+     * @return the number of products stamped
+     * @throws IllegalStateException if the change feed is not enabled
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public long backfillChanges(final int totalSegments) {
+        if (!changeFeed.isEnabled()) {
+            throw new IllegalStateException("The change feed is not enabled");
+        }
+        final AtomicLong stamped = new AtomicLong();
+        parallelScan(totalSegments, PRODUCT_ID, "attribute_not_exists(" + ChangeFeed.CHANGE_SEQUENCE + ")", null,
+                items -> {
+                    for (Map<String, AttributeValue> item : items) {
+                        if (stampChange(item.get(PRODUCT_ID).s())) {
+                            stamped.incrementAndGet();
+                        }
+                    }
+                });
+        LOG.info(() -> "Backfill stamped " + stamped.get() + " products with a change");
+        return stamped.get();
+    }
+
+    private boolean stampChange(final String productId) {
+        final List<String> set = new ArrayList<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> attribute : changeFeed.attributes(productId).entrySet()) {
+            set.add(attribute.getKey() + " = :" + attribute.getKey());
+            values.put(":" + attribute.getKey(), attribute.getValue());
+        }
         try {
-            ScanRequest.Builder scanBuilder = ScanRequest.builder()
+            profiled("UpdateItem", capacity -> dynamoDb.updateItem(UpdateItemRequest.builder()
                     .tableName(tableName)
-                    .limit(pageSize);
-            if (!isNullOrEmpty(offset)) {
-                scanBuilder.exclusiveStartKey(Collections.singletonMap(PRODUCT_ID,
-                        AttributeValue.builder().s(offset).build()));
-            }
-            result = dynamoDb.scan(scanBuilder.build());
+                    .overrideConfiguration(Deadline.current().overrideConfiguration())
+                    .key(Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(productId).build()))
+                    .updateExpression("SET " + String.join(", ", set))
+                    .conditionExpression("attribute_exists(" + PRODUCT_ID + ") AND attribute_not_exists("
+                            + ChangeFeed.CHANGE_SEQUENCE + ")")
+                    .expressionAttributeValues(values)
+                    .returnConsumedCapacity(capacity)
+                    .build()), response -> 1);
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
         } catch (ResourceNotFoundException e) {
             throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
         }
+    }
 
-        final List<Product> products = result.items().stream()
-                .map(this::convert)
-                .collect(Collectors.toList());
+    /**
+     * Reads the ids of the products written at or after a time from every shard of the change
+     * index. The read starts the settle time earlier, because a write stamped earlier may still be
+     * on its way into the index.
+     */
+    private void scanChangedProductIds(final long sinceMillis, final Consumer<String> sink) {
+        final String after = ChangeFeed.cursor(sinceMillis - changeFeed.getSettleMillis());
+        changeFeed.readShards(shard -> {
+            final Map<String, AttributeValue> values = new HashMap<>();
+            values.put(":shard", AttributeValue.builder().n(Integer.toString(shard)).build());
+            values.put(":after", AttributeValue.builder().s(after).build());
+            Map<String, AttributeValue> startKey = null;
+            do {
+                final QueryResponse result;
+                try {
+                    final Map<String, AttributeValue> exclusiveStartKey = startKey;
+                    result = profiled("Query", capacity -> dynamoDb.query(QueryRequest.builder()
+                            .tableName(tableName)
+                            .indexName(changeFeed.getIndexName())
+                            .overrideConfiguration(Deadline.current().overrideConfiguration())
+                            .keyConditionExpression(ChangeFeed.CHANGE_SHARD + " = :shard AND "
+                                    + ChangeFeed.CHANGE_SEQUENCE + " > :after")
+                            .expressionAttributeValues(values)
+                            .projectionExpression(PRODUCT_ID)
+                            .exclusiveStartKey(exclusiveStartKey)
+                            .returnConsumedCapacity(capacity)
+                            .build()), response -> response.items().size());
+                } catch (ResourceNotFoundException e) {
+                    throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+                }
+                for (Map<String, AttributeValue> item : result.items()) {
+                    sink.accept(item.get(PRODUCT_ID).s());
+                }
+                startKey = result.lastEvaluatedKey();
+            } while (startKey != null && !startKey.isEmpty());
+            return null;
+        });
+    }
 
-        ProductPage.ProductPageBuilder builder = ProductPage.builder().products(products);
-        if (result.lastEvaluatedKey() != null && !result.lastEvaluatedKey().isEmpty()) {
-            if ((!result.lastEvaluatedKey().containsKey(PRODUCT_ID)
-                    || isNullOrEmpty(result.lastEvaluatedKey().get(PRODUCT_ID).s()))) {
-                throw new IllegalStateException(
-                    "productId did not exist or was not a non-empty string in the lastEvaluatedKey");
-            } else {
-                builder.lastEvaluatedKey(result.lastEvaluatedKey().get(PRODUCT_ID).s());
-            }
+    /**
+     * Reads the newest change of every shard of the change index, written by any container.
+     * @return the time of the newest change in epoch milliseconds, 0 without change feed
+     */
+    private long latestChange() {
+        if (!changeFeed.isEnabled()) {
+            return 0L;
         }
-        return builder.build();
+        final List<Long> newest = changeFeed.readShards(shard -> {
+            final QueryResponse result;
+            try {
+                result = profiled("Query", capacity -> dynamoDb.query(QueryRequest.builder()
+                        .tableName(tableName)
+                        .indexName(changeFeed.getIndexName())
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .keyConditionExpression(ChangeFeed.CHANGE_SHARD + " = :shard")
+                        .expressionAttributeValues(Collections.singletonMap(":shard",
+                                AttributeValue.builder().n(Integer.toString(shard)).build()))
+                        .projectionExpression(ChangeFeed.CHANGE_SEQUENCE)
+                        .scanIndexForward(false)
+                        .limit(1)
+                        .returnConsumedCapacity(capacity)
+                        .build()), response -> response.items().size());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            }
+            return result.items().isEmpty() ? 0L
+                    : ChangeFeed.time(result.items().get(0).get(ChangeFeed.CHANGE_SEQUENCE).s());
+        });
+        return newest.stream().mapToLong(Long::longValue).max().orElse(0L);
+    }
+
+    /**
+     * @return the first changes of a shard after a sequence and before another, at most a page
+     */
+    private List<Map<String, AttributeValue>> queryChanges(final int shard, final String after, final String before) {
+        final Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":shard", AttributeValue.builder().n(Integer.toString(shard)).build());
+        values.put(":after", AttributeValue.builder().s(after).build());
+        final List<Map<String, AttributeValue>> changes = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final QueryResponse result;
+            try {
+                final Map<String, AttributeValue> exclusiveStartKey = startKey;
+                final int limit = pageSize - changes.size();
+                result = profiled("Query", capacity -> read(ReadConsistency.EVENTUAL,
+                        client -> client.query(QueryRequest.builder()
+                                .tableName(tableName)
+                                .indexName(changeFeed.getIndexName())
+                                .overrideConfiguration(Deadline.current().overrideConfiguration())
+                                .keyConditionExpression(ChangeFeed.CHANGE_SHARD + " = :shard AND "
+                                        + ChangeFeed.CHANGE_SEQUENCE + " > :after")
+                                .expressionAttributeValues(values)
+                                .exclusiveStartKey(exclusiveStartKey)
+                                .limit(limit)
+                                .returnConsumedCapacity(capacity)
+                                .build())), response -> response.items().size());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            }
+            for (Map<String, AttributeValue> item : result.items()) {
+                if (item.get(ChangeFeed.CHANGE_SEQUENCE).s().compareTo(before) >= 0) {
+                    return changes;
+                }
+                changes.add(item);
+            }
+            startKey = result.lastEvaluatedKey();
+        } while (changes.size() < pageSize && startKey != null && !startKey.isEmpty());
+        return changes;
+    }
+
+    /**
+     * Sends a read to the home region if it must be strongly consistent, since strongly consistent
+     * reads of a global table only see the writes of their own region, and to the best replica
+     * otherwise.
+     */
+    private <T> T read(final ReadConsistency consistency, final Function<DynamoDbClient, T> read) {
+        return consistency.isStrong() ? read.apply(dynamoDb) : replicaSelector.read(dynamoDb, read);
     }
 
     /**
-     * Creates an product.
+     * Creates an product. Its put only succeeds if the generated id is not taken yet; with write
+     * batching enabled it is made together with the puts of concurrent calls.
      * @param createProductRequest details of product to create
      * @return created product
      */
+    @Override
     public Product createProduct(final CreateProductRequest createProductRequest) {
         if (createProductRequest == null) {
             throw new IllegalArgumentException("CreateProductRequest was null");
         }
         int tries = 0;
         while (tries < 10) {
+            final Map<String, AttributeValue> item = createProductItem(createProductRequest);
+            final boolean written;
             try {
-                Map<String, AttributeValue> item = createProductItem(createProductRequest);
-                dynamoDb.putItem(PutItemRequest.builder()
-                        .tableName(tableName)
-                        .item(item)
-                        .conditionExpression("attribute_not_exists(productId)")
-                        .build());
-                return Product.builder()
-                        .productId(item.get(PRODUCT_ID).s())
-                        .productType(item.get("productType").s())
-                        .deliveryDate(item.get("deliveryDate").s())
-                        .build();
-            } catch (ConditionalCheckFailedException e) {
-                tries++;
+                written = writeBatcher.write(item, this::putNew);
             } catch (ResourceNotFoundException e) {
                 throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
             }
+            if (written) {
+                productIdFilter.put(item.get(PRODUCT_ID).s());
+                pagePrefetcher.invalidate();
+                readCoalescer.forgetAll();
+                return ProductItemMapper.toProduct(item);
+            }
+            tries++;
+            final int attempt = tries;
+            LOG.warn(() -> "Generated product id was taken, attempt " + attempt);
         }
         throw new CouldNotCreateProductException(
                 "Unable to generate unique product id after 10 tries");
     }
 
-    private Product convert(final Map<String, AttributeValue> item) {
-        if (item == null || item.isEmpty()) {
-            return null;
+    /**
+     * Applies a partial update with a single UpdateItem. The update only succeeds if the stored
+     * version still equals the expected version, and increments it, so concurrent writers cannot
+     * overwrite each other's changes.
+     * @param productId id of product to update
+     * @param request attributes to change and the version they are based on
+     * @return the product as stored after the update
+     * @throws IllegalArgumentException if the request is invalid
+     * @throws ProductDoesNotExistException if the product does not exist
+     * @throws UnableToUpdateException if the product was changed since the expected version
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public Product updateProduct(final String productId, final UpdateProductRequest request) {
+        validate(request);
+
+        final Map<String, AttributeValue> values = new HashMap<>();
+        final List<String> set = new ArrayList<>();
+        final List<String> remove = new ArrayList<>();
+        final Map<String, AttributeValue> updated;
+        try {
+            if (itemCodec.isEnabled()) {
+                setPackedFields(productId, request, set, remove, values);
+            } else {
+                if (request.getProductType() != null) {
+                    set.add(PRODUCT_TYPE + " = :productType");
+                    values.put(":productType", AttributeValue.builder().s(request.getProductType()).build());
+                }
+                if (request.getDeliveryDate() != null) {
+                    set.add(DELIVERY_DATE + " = :deliveryDate");
+                    values.put(":deliveryDate", AttributeValue.builder().s(request.getDeliveryDate()).build());
+                }
+            }
+            if (request.getDeliveryDate() != null) {
+                final OptionalLong expiresAt = productExpiry.expiresAt(request.getDeliveryDate());
+                if (expiresAt.isPresent()) {
+                    set.add(EXPIRES_AT + " = :expiresAt");
+                    values.put(":expiresAt", AttributeValue.builder().n(Long.toString(expiresAt.getAsLong())).build());
+                } else if (productExpiry.isEnabled()) {
+                    remove.add(EXPIRES_AT);
+                }
+            }
+            for (Map.Entry<String, AttributeValue> attribute : changeFeed.attributes(productId).entrySet()) {
+                set.add(attribute.getKey() + " = :" + attribute.getKey());
+                values.put(":" + attribute.getKey(), attribute.getValue());
+            }
+            set.add("#version = if_not_exists(#version, :zero) + :one");
+            values.put(":zero", AttributeValue.builder().n("0").build());
+            values.put(":one", AttributeValue.builder().n("1").build());
+
+            final String condition;
+            if (request.getExpectedVersion() == 0) {
+                condition = PRODUCT_EXISTS + " AND attribute_not_exists(#version)";
+            } else {
+                condition = PRODUCT_EXISTS + " AND #version = :expectedVersion";
+                values.put(":expectedVersion",
+                        AttributeValue.builder().n(Long.toString(request.getExpectedVersion())).build());
+            }
+
+            updated = profiled("UpdateItem", capacity -> dynamoDb.updateItem(UpdateItemRequest.builder()
+                    .tableName(tableName)
+                    .overrideConfiguration(Deadline.current().overrideConfiguration())
+                    .key(Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(productId).build()))
+                    .updateExpression("SET " + String.join(", ", set)
+                            + (remove.isEmpty() ? "" : " REMOVE " + String.join(", ", remove)))
+                    .conditionExpression(condition)
+                    .expressionAttributeNames(conditionNames(true))
+                    .expressionAttributeValues(values)
+                    .returnValues(ReturnValue.ALL_NEW)
+                    .returnConsumedCapacity(capacity)
+                    .build()), response -> 1)
+                    .attributes();
+        } catch (ConditionalCheckFailedException e) {
+            throw updateConflict(productId, request.getExpectedVersion());
+        } catch (ResourceNotFoundException e) {
+            throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+        }
+        pagePrefetcher.invalidate();
+        readCoalescer.forgetAll();
+        return ProductItemMapper.toProduct(updated);
+    }
+
+    /**
+     * A packed attribute cannot be changed field by field, so the stored product is read first
+     * and the merged fields are written back as a whole. The version condition of the update
+     * still rejects the write if the product changed after the read. Top-level fields left over
+     * from the attribute per field layout are removed, the packed attribute replaces them.
+     */
+    private void setPackedFields(final String productId, final UpdateProductRequest request,
+                                 final List<String> set, final List<String> remove,
+                                 final Map<String, AttributeValue> values) {
+        final Product current = findCurrent(productId);
+        if (current == null) {
+            throw new ProductDoesNotExistException(String.format("Product %s does not exist", productId));
+        }
+        final long currentVersion = current.getVersion() == null ? 0 : current.getVersion();
+        if (currentVersion != request.getExpectedVersion()) {
+            throw versionConflict(productId, request.getExpectedVersion(), currentVersion);
         }
-        Product.ProductBuilder builder = Product.builder();
+        set.add(PACKED + " = :packed");
+        values.put(":packed", itemCodec.encode(
+                request.getProductType() == null ? current.getProductType() : request.getProductType(),
+                request.getDeliveryDate() == null ? current.getDeliveryDate() : request.getDeliveryDate()));
+        remove.add(PRODUCT_TYPE);
+        remove.add(DELIVERY_DATE);
+    }
+
+    /**
+     * Only runs after a failed update, to tell a missing product apart from a version conflict.
+     */
+    private RuntimeException updateConflict(final String productId, final long expectedVersion) {
+        final Product current = findCurrent(productId);
+        if (current == null) {
+            return new ProductDoesNotExistException(String.format("Product %s does not exist", productId));
+        }
+        return versionConflict(productId, expectedVersion, current.getVersion() == null ? 0 : current.getVersion());
+    }
 
+    private static UnableToUpdateException versionConflict(final String productId, final long expectedVersion,
+                                                           final long currentVersion) {
+        return new UnableToUpdateException(String.format(
+                "Product %s was changed concurrently, expected version %d but it is at version %d",
+                productId, expectedVersion, currentVersion));
+    }
+
+    /**
+     * Reads a product with a strongly consistent GetItem, used after a failed condition check.
+     */
+    private Product findCurrent(final String productId) {
+        return ProductItemMapper.toProduct(profiled("GetItem", capacity -> dynamoDb.getItem(GetItemRequest.builder()
+                .tableName(tableName)
+                .overrideConfiguration(Deadline.current().overrideConfiguration())
+                .key(Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(productId).build()))
+                .consistentRead(true)
+                .returnConsumedCapacity(capacity)
+                .build()), response -> response.hasItem() ? 1 : 0).item());
+    }
+
+    /**
+     * Deletes a product with a conditional DeleteItem. While the change feed is enabled the product
+     * is instead replaced, under the same condition, by a tombstone that tells feed readers about
+     * the delete and that the TTL removes after the tombstone retention.
+     * @param productId id of product to delete
+     * @param expectedVersion version the product must still have, or null to delete any version
+     * @return the product as it was before the delete
+     * @throws ProductDoesNotExistException if the product does not exist
+     * @throws UnableToDeleteException if the product was changed since the expected version
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public Product deleteProduct(final String productId, final Long expectedVersion) {
+        final String condition;
+        final Map<String, AttributeValue> values;
+        if (expectedVersion == null) {
+            condition = PRODUCT_EXISTS;
+            values = null;
+        } else if (expectedVersion == 0) {
+            condition = PRODUCT_EXISTS + " AND attribute_not_exists(#version)";
+            values = null;
+        } else {
+            condition = PRODUCT_EXISTS + " AND #version = :expectedVersion";
+            values = Collections.singletonMap(":expectedVersion",
+                    AttributeValue.builder().n(Long.toString(expectedVersion)).build());
+        }
+        final Map<String, String> names = conditionNames(expectedVersion != null);
+        final Map<String, AttributeValue> deleted;
         try {
-            builder.productId(item.get(PRODUCT_ID).s());
-        } catch (NullPointerException e) {
-            throw new IllegalStateException("item did not have an productId attribute or it was not a String");
+            if (changeFeed.isEnabled()) {
+                deleted = profiled("PutItem", capacity -> dynamoDb.putItem(PutItemRequest.builder()
+                        .tableName(tableName)
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .item(tombstone(productId))
+                        .conditionExpression(condition)
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .returnValues(ReturnValue.ALL_OLD)
+                        .returnConsumedCapacity(capacity)
+                        .build()), response -> 1).attributes();
+            } else {
+                deleted = profiled("DeleteItem", capacity -> dynamoDb.deleteItem(DeleteItemRequest.builder()
+                        .tableName(tableName)
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .key(Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(productId).build()))
+                        .conditionExpression(condition)
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .returnValues(ReturnValue.ALL_OLD)
+                        .returnConsumedCapacity(capacity)
+                        .build()), response -> 1).attributes();
+            }
+        } catch (ConditionalCheckFailedException e) {
+            final Product current = findCurrent(productId);
+            if (current == null) {
+                throw new ProductDoesNotExistException(String.format("Product %s does not exist", productId));
+            }
+            throw new UnableToDeleteException(String.format(
+                    "Product %s was changed concurrently, expected version %d but it is at version %d",
+                    productId, expectedVersion, current.getVersion() == null ? 0 : current.getVersion()));
+        } catch (ResourceNotFoundException e) {
+            throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
         }
+        pagePrefetcher.invalidate();
+        readCoalescer.forgetAll();
+        return ProductItemMapper.toProduct(deleted);
+    }
 
+    /**
+     * @return the names of a condition on the tombstone marker and, if it has one, the version of a product
+     */
+    private static Map<String, String> conditionNames(final boolean withVersion) {
+        final Map<String, String> names = new HashMap<>();
+        names.put("#deleted", DELETED);
+        if (withVersion) {
+            names.put("#version", VERSION);
+        }
+        return names;
+    }
+
+    /**
+     * @return the item that replaces a deleted product while the change feed is enabled
+     */
+    private Map<String, AttributeValue> tombstone(final String productId) {
+        final Map<String, AttributeValue> item = new HashMap<>(changeFeed.attributes(productId));
+        item.put(PRODUCT_ID, AttributeValue.builder().s(productId).build());
+        item.put(DELETED, AttributeValue.builder().bool(true).build());
+        item.put(EXPIRES_AT, AttributeValue.builder().n(Long.toString(changeFeed.tombstoneExpiresAt())).build());
+        return item;
+    }
+
+    /**
+     * Deletes every product matching a predicate. Scan segments run concurrently, each reading
+     * pages of at most 100 products, and the matches of a page are deleted concurrently on a pool
+     * shared by the segments, each with a DeleteItem conditioned on the version it was scanned
+     * with. A product changed since is read again and only deleted if it still matches. The run
+     * stops early once outOfTime returns true or the request deadline expires, and then returns a
+     * checkpoint from which a later run continues: every segment continues after the last product
+     * up to which every match was deleted. A segment with a product that kept changing stops
+     * before that product, so a later run tries it again.
+     * @param request predicate and, optionally, the checkpoint of an earlier run
+     * @param outOfTime checked before every page and every delete, true stops the run
+     * @return the number of deleted and failed products, and the checkpoint if the run stopped early
+     * @throws IllegalArgumentException if the request has no predicate, too few or many segments,
+     *     or a checkpoint that is malformed or was made for another predicate
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public PurgeResult purgeProducts(final DeleteProductsRequest request, final BooleanSupplier outOfTime) {
+        validate(request);
+        final List<String> conditions = new ArrayList<>();
+        final Map<String, AttributeValue> values = new HashMap<>();
+        if (!isNullOrEmpty(request.getProductType())) {
+            conditions.add(PRODUCT_TYPE + " = :productType");
+            values.put(":productType", AttributeValue.builder().s(request.getProductType()).build());
+        }
+        if (!isNullOrEmpty(request.getDeliveredFrom())) {
+            conditions.add(DELIVERY_DATE + " >= :deliveredFrom");
+            values.put(":deliveredFrom", AttributeValue.builder().s(request.getDeliveredFrom()).build());
+        }
+        if (!isNullOrEmpty(request.getDeliveredTo())) {
+            conditions.add(DELIVERY_DATE + " < :deliveredTo");
+            values.put(":deliveredTo", AttributeValue.builder().s(request.getDeliveredTo()).build());
+        }
+        final PurgeCheckpoint checkpoint = checkpoint(request, request.getSegments() == null ? 4 : request.getSegments());
+        final String filter;
+        final String projection;
+        if (itemCodec.isEnabled()) {
+            // packed fields cannot be filtered on, packed items are matched after reading them
+            filter = "(" + String.join(" AND ", conditions) + ") OR attribute_exists(" + PACKED + ")";
+            projection = String.join(", ", PRODUCT_ID, "#version", PACKED, PRODUCT_TYPE, DELIVERY_DATE);
+        } else {
+            filter = String.join(" AND ", conditions);
+            projection = String.join(", ", PRODUCT_ID, "#version");
+        }
+        final Predicate<Map<String, AttributeValue>> matches = item -> !item.containsKey(PACKED)
+                || matches(request, ProductItemMapper.toProduct(item));
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        final int totalSegments = checkpoint.getTotalSegments();
+        final ExecutorService executor = Executors.newFixedThreadPool(totalSegments);
+        final ExecutorService deletes = Executors.newFixedThreadPool(PURGE_DELETE_THREADS);
         try {
-            builder.productType(item.get("productType").s());
-        } catch (NullPointerException e) {
-            throw new IllegalStateException("item did not have an productType attribute or it was not a String");
+            final List<CompletableFuture<Void>> segments = new ArrayList<>(totalSegments);
+            for (int segment = 0; segment < totalSegments; segment++) {
+                if (!checkpoint.isDone(segment)) {
+                    final int current = segment;
+                    segments.add(CompletableFuture.runAsync(Deadline.propagate(() -> purgeSegment(current, checkpoint,
+                            projection, filter, values, matches, request, outOfTime, deletes, deleted, failed)),
+                            executor));
+                }
+            }
+            CompletableFuture.allOf(segments.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+            deletes.shutdown();
+        }
+        if (deleted.get() > 0) {
+            pagePrefetcher.invalidate();
+            readCoalescer.forgetAll();
+        }
+        LOG.info(() -> "Purge " + filter + " deleted " + deleted.get() + ", failed " + failed.get()
+                + (checkpoint.isComplete() ? "" : ", stopped at " + checkpoint.encode()));
+        return PurgeResult.builder()
+                .deleted(deleted.get())
+                .failed(failed.get())
+                .checkpoint(checkpoint.isComplete() ? null : checkpoint.encode())
+                .build();
+    }
+
+    private void purgeSegment(final int segment, final PurgeCheckpoint checkpoint, final String projection,
+                              final String filter, final Map<String, AttributeValue> values,
+                              final Predicate<Map<String, AttributeValue>> matches,
+                              final DeleteProductsRequest request, final BooleanSupplier outOfTime,
+                              final ExecutorService deletes, final AtomicLong deleted, final AtomicLong failed) {
+        final String startAfter = checkpoint.startAfter(segment);
+        Map<String, AttributeValue> startKey = startAfter == null ? null
+                : Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(startAfter).build());
+        while (!outOfTime.getAsBoolean()) {
+            final ScanResponse result;
+            try {
+                final Map<String, AttributeValue> exclusiveStartKey = startKey;
+                result = profiled("Scan", capacity -> dynamoDb.scan(ScanRequest.builder()
+                        .tableName(tableName)
+                        .projectionExpression(projection)
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .filterExpression(filter)
+                        .expressionAttributeNames(Collections.singletonMap("#version", VERSION))
+                        .expressionAttributeValues(values)
+                        .segment(segment)
+                        .totalSegments(checkpoint.getTotalSegments())
+                        .exclusiveStartKey(exclusiveStartKey)
+                        .limit(PURGE_SCAN_PAGE_SIZE)
+                        .returnConsumedCapacity(capacity)
+                        .build()), response -> response.items().size());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            } catch (DeadlineExceededException | ApiCallTimeoutException | ApiCallAttemptTimeoutException e) {
+                // out of time, the segment continues where its checkpoint is
+                return;
+            }
+            final List<Map<String, AttributeValue>> items = result.items();
+            final List<CompletableFuture<PurgeOutcome>> outcomes = new ArrayList<>(items.size());
+            for (Map<String, AttributeValue> item : items) {
+                if (!matches.test(item)) {
+                    outcomes.add(CompletableFuture.completedFuture(PurgeOutcome.SKIPPED));
+                    continue;
+                }
+                final AttributeValue version = item.get(VERSION);
+                final long scannedVersion = version == null || version.n() == null ? 0L : Long.parseLong(version.n());
+                outcomes.add(CompletableFuture.supplyAsync(Deadline.propagate(
+                        () -> purgeInTime(item.get(PRODUCT_ID).s(), scannedVersion, request, outOfTime)), deletes));
+            }
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0])).join();
+
+            // the segment continues after the last product up to which every match was deleted
+            String handled = null;
+            boolean stopped = false;
+            for (int i = 0; i < items.size(); i++) {
+                final PurgeOutcome outcome = outcomes.get(i).join();
+                if (outcome == PurgeOutcome.DELETED) {
+                    deleted.incrementAndGet();
+                } else if (outcome == PurgeOutcome.CHANGED) {
+                    failed.incrementAndGet();
+                }
+                if (!stopped && (outcome == PurgeOutcome.DELETED || outcome == PurgeOutcome.SKIPPED)) {
+                    handled = items.get(i).get(PRODUCT_ID).s();
+                } else {
+                    stopped = true;
+                }
+            }
+            if (stopped) {
+                if (handled != null) {
+                    checkpoint.advance(segment, handled);
+                }
+                return;
+            }
+
+            startKey = result.lastEvaluatedKey();
+            if (startKey == null || startKey.isEmpty()) {
+                checkpoint.advance(segment, null);
+                return;
+            }
+            checkpoint.advance(segment, startKey.get(PRODUCT_ID).s());
         }
+    }
 
+    /**
+     * Purges a product unless the run is out of time, before or during the delete.
+     */
+    private PurgeOutcome purgeInTime(final String productId, final long scannedVersion,
+                                     final DeleteProductsRequest request, final BooleanSupplier outOfTime) {
+        if (outOfTime.getAsBoolean()) {
+            return PurgeOutcome.NOT_RUN;
+        }
         try {
-            builder.deliveryDate(item.get("deliveryDate").s());
-        } catch (NullPointerException e) {
-            throw new IllegalStateException("item did not have an deliveryDate attribute or it was not a String");
+            return purgeProduct(productId, scannedVersion, request);
+        } catch (DeadlineExceededException | ApiCallTimeoutException | ApiCallAttemptTimeoutException e) {
+            return PurgeOutcome.NOT_RUN;
         }
+    }
 
-        return builder.build();
+    /**
+     * Deletes a product a purge matched, only if it still has the version it was scanned with, so
+     * a product changed after the scan is not deleted for what it was before. A changed product is
+     * read again and, if it still matches, deleted once more on its new version.
+     */
+    private PurgeOutcome purgeProduct(final String productId, final long scannedVersion,
+                                      final DeleteProductsRequest request) {
+        long version = scannedVersion;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                deleteProduct(productId, version);
+                return PurgeOutcome.DELETED;
+            } catch (ProductDoesNotExistException e) {
+                return PurgeOutcome.SKIPPED;
+            } catch (UnableToDeleteException e) {
+                if (attempt == MAX_PURGE_DELETE_ATTEMPTS) {
+                    return PurgeOutcome.CHANGED;
+                }
+            }
+            final Product current = findCurrent(productId);
+            if (current == null || !matches(request, current)) {
+                return PurgeOutcome.SKIPPED;
+            }
+            version = current.getVersion() == null ? 0L : current.getVersion();
+        }
     }
 
-    private Map<String, AttributeValue> createProductItem(final CreateProductRequest product) {
-        Map<String, AttributeValue> item = new HashMap<>();
-        item.put(PRODUCT_ID, AttributeValue.builder().s(UUID.randomUUID().toString()).build());
-        item.put("productType", AttributeValue.builder().s(validateCustomerId(product.getProductType())).build());
+    private enum PurgeOutcome {
+        DELETED, SKIPPED, CHANGED, NOT_RUN
+    }
+
+    /**
+     * Evaluates the predicate of a purge request, as its filter expression would, on a product.
+     * @param request predicate of the purge
+     * @param product product to test
+     * @return whether the purge deletes the product
+     */
+    public static boolean matches(final DeleteProductsRequest request, final Product product) {
+        return (isNullOrEmpty(request.getProductType()) || request.getProductType().equals(product.getProductType()))
+                && (isNullOrEmpty(request.getDeliveredFrom())
+                        || product.getDeliveryDate().compareTo(request.getDeliveredFrom()) >= 0)
+                && (isNullOrEmpty(request.getDeliveredTo())
+                        || product.getDeliveryDate().compareTo(request.getDeliveredTo()) < 0);
+    }
+
+    /**
+     * Scans the ids of all products using a parallel scan.
+     * @param totalSegments number of scan segments to read concurrently
+     * @param sink receives every product id, possibly from several threads at once
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public void scanProductIds(final int totalSegments, final Consumer<String> sink) {
+        parallelScan(totalSegments, PRODUCT_ID, null, null, items -> {
+            for (Map<String, AttributeValue> item : items) {
+                final AttributeValue productId = item.get(PRODUCT_ID);
+                if (productId != null && !isNullOrEmpty(productId.s())) {
+                    sink.accept(productId.s());
+                }
+            }
+        });
+    }
+
+    /**
+     * Scans all products using a parallel scan.
+     * @param totalSegments number of scan segments to read concurrently
+     * @param sink receives every scanned page, possibly from several threads at once
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public void scanProducts(final int totalSegments, final Consumer<List<Product>> sink) {
+        parallelScan(totalSegments, null, null, null, items -> sink.accept(ProductItemMapper.toProducts(items)));
+    }
+
+    /**
+     * Scans the products whose expiresAt lies at or before a cutoff using a parallel scan.
+     * Products without expiresAt are never returned.
+     * @param totalSegments number of scan segments to read concurrently
+     * @param expiresAtCutoff highest expiresAt to return, in epoch seconds
+     * @param sink receives every non-empty page of matching products, possibly from several threads at once
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public void scanExpiringProducts(final int totalSegments, final long expiresAtCutoff,
+                                     final Consumer<List<Product>> sink) {
+        parallelScan(totalSegments, null, EXPIRES_AT + " <= :cutoff",
+                Collections.singletonMap(":cutoff", AttributeValue.builder().n(Long.toString(expiresAtCutoff)).build()),
+                items -> {
+                    // tombstones expire too, and are left out
+                    final List<Product> products = ProductItemMapper.toProducts(items);
+                    if (!products.isEmpty()) {
+                        sink.accept(products);
+                    }
+                });
+    }
+
+    /**
+     * Deletes products with BatchWriteItem, 25 at a time, retrying unprocessed deletes with
+     * exponential backoff. While the change feed is enabled every product is replaced by its
+     * tombstone instead, see {@link #deleteProduct(String, Long)}.
+     * @param productIds ids of the products to delete
+     * @return ids of the products that were still unprocessed after all retries
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public List<String> deleteProducts(final List<String> productIds) {
+        final List<String> undeleted = new ArrayList<>();
+        for (int from = 0; from < productIds.size(); from += MAX_BATCH_WRITE_ITEMS) {
+            final List<String> chunk = productIds.subList(from,
+                    Math.min(productIds.size(), from + MAX_BATCH_WRITE_ITEMS));
+            final List<WriteRequest> deletes = new ArrayList<>(chunk.size());
+            for (String productId : chunk) {
+                deletes.add(changeFeed.isEnabled()
+                        ? WriteRequest.builder().putRequest(PutRequest.builder().item(tombstone(productId)).build()).build()
+                        : WriteRequest.builder().deleteRequest(DeleteRequest.builder()
+                                .key(Collections.singletonMap(PRODUCT_ID, AttributeValue.builder().s(productId).build()))
+                                .build()).build());
+            }
+            for (WriteRequest write : batchWrite(deletes)) {
+                undeleted.add(write.putRequest() != null ? write.putRequest().item().get(PRODUCT_ID).s()
+                        : write.deleteRequest().key().get(PRODUCT_ID).s());
+            }
+        }
+        if (undeleted.size() < productIds.size()) {
+            pagePrefetcher.invalidate();
+            readCoalescer.forgetAll();
+        }
+        return undeleted;
+    }
+
+    private void parallelScan(final int totalSegments, final String projection, final String filter,
+                              final Map<String, AttributeValue> filterValues,
+                              final Consumer<List<Map<String, AttributeValue>>> sink) {
+        final ExecutorService executor = Executors.newFixedThreadPool(totalSegments);
         try {
-            item.put("deliveryDate",
-                    AttributeValue.builder().s(product.getDeliveryDate()).build());
-        } catch (NullPointerException e) {
+            final List<CompletableFuture<Void>> segments = new ArrayList<>(totalSegments);
+            for (int segment = 0; segment < totalSegments; segment++) {
+                final int current = segment;
+                segments.add(CompletableFuture.runAsync(Deadline.propagate(
+                        () -> scanSegment(current, totalSegments, projection, filter, filterValues, sink)),
+                        executor));
+            }
+            CompletableFuture.allOf(segments.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void scanSegment(final int segment, final int totalSegments, final String projection,
+                             final String filter, final Map<String, AttributeValue> filterValues,
+                             final Consumer<List<Map<String, AttributeValue>>> sink) {
+        Map<String, AttributeValue> startKey = null;
+        do {
+            final ScanResponse result;
+            try {
+                final Map<String, AttributeValue> exclusiveStartKey = startKey;
+                result = profiled("Scan", capacity -> dynamoDb.scan(ScanRequest.builder()
+                        .tableName(tableName)
+                        .projectionExpression(projection)
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .filterExpression(filter)
+                        .expressionAttributeValues(filterValues)
+                        .segment(segment)
+                        .totalSegments(totalSegments)
+                        .exclusiveStartKey(exclusiveStartKey)
+                        .returnConsumedCapacity(capacity)
+                        .build()), response -> response.items().size());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            }
+            sink.accept(result.items());
+            startKey = result.lastEvaluatedKey();
+        } while (startKey != null && !startKey.isEmpty());
+    }
+
+    /**
+     * Writes new products, each only if its id is not taken. A single product is written with a
+     * conditional PutItem. Several are written with one TransactWriteItems of conditional puts,
+     * since BatchWriteItem cannot carry conditions. A cancelled transaction writes nothing, so
+     * after a cancellation every product whose own condition held is written again on its own.
+     * @param items the items of the products
+     * @return for every item whether it was written, false if its id was taken
+     */
+    private List<Boolean> putNew(final List<Map<String, AttributeValue>> items) {
+        if (items.size() == 1) {
+            return Collections.singletonList(putNew(items.get(0)));
+        }
+        final List<TransactWriteItem> puts = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            puts.add(TransactWriteItem.builder().put(Put.builder()
+                    .tableName(tableName)
+                    .item(item)
+                    .conditionExpression(PRODUCT_ID_NOT_TAKEN)
+                    .build()).build());
+        }
+        try {
+            // the token makes an SDK retry of a transaction that did succeed a no-op instead of a
+            // cancellation, which would otherwise look like taken ids
+            profiled("TransactWriteItems", capacity -> dynamoDb.transactWriteItems(TransactWriteItemsRequest.builder()
+                    .transactItems(puts)
+                    .clientRequestToken(UUID.randomUUID().toString())
+                    .overrideConfiguration(Deadline.current().overrideConfiguration())
+                    .returnConsumedCapacity(capacity)
+                    .build()), response -> items.size());
+            return Collections.nCopies(items.size(), true);
+        } catch (TransactionCanceledException e) {
+            final List<CancellationReason> reasons = e.hasCancellationReasons()
+                    ? e.cancellationReasons() : Collections.emptyList();
+            LOG.debug(() -> "TransactWriteItems of " + items.size() + " products cancelled: " + reasons);
+            final List<Boolean> written = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                written.add(i < reasons.size() && "ConditionalCheckFailed".equals(reasons.get(i).code())
+                        ? Boolean.FALSE : putNew(items.get(i)));
+            }
+            return written;
+        }
+    }
+
+    private boolean putNew(final Map<String, AttributeValue> item) {
+        try {
+            profiled("PutItem", capacity -> dynamoDb.putItem(PutItemRequest.builder()
+                    .tableName(tableName)
+                    .overrideConfiguration(Deadline.current().overrideConfiguration())
+                    .item(item)
+                    .conditionExpression(PRODUCT_ID_NOT_TAKEN)
+                    .returnConsumedCapacity(capacity)
+                    .build()), response -> 1);
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates up to 25 products with a single BatchWriteItem, retrying unprocessed items with
+     * exponential backoff. BatchWriteItem cannot carry the attribute_not_exists condition used by
+     * createProduct, so uniqueness of the generated ids rests on them being random UUIDs.
+     * @param requests details of the products to create
+     * @return the created products; products still unprocessed after all retries are left out
+     * @throws IllegalArgumentException if a request is invalid or there are more than 25
+     * @throws TableDoesNotExistException if the product table does not exist
+     */
+    @Override
+    public List<Product> batchCreateProducts(final List<CreateProductRequest> requests) {
+        if (requests.size() > MAX_BATCH_WRITE_ITEMS) {
+            throw new IllegalArgumentException("BatchWriteItem takes at most 25 items");
+        }
+        final List<Map<String, AttributeValue>> items = new ArrayList<>(requests.size());
+        final List<WriteRequest> writes = new ArrayList<>(requests.size());
+        for (CreateProductRequest request : requests) {
+            final Map<String, AttributeValue> item = createProductItem(request);
+            items.add(item);
+            writes.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+        }
+        final Set<String> unprocessed = new HashSet<>();
+        for (WriteRequest write : batchWrite(writes)) {
+            unprocessed.add(write.putRequest().item().get(PRODUCT_ID).s());
+        }
+        final List<Product> products = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            final String productId = item.get(PRODUCT_ID).s();
+            if (!unprocessed.contains(productId)) {
+                productIdFilter.put(productId);
+                products.add(ProductItemMapper.toProduct(item));
+            }
+        }
+        if (!products.isEmpty()) {
+            pagePrefetcher.invalidate();
+            readCoalescer.forgetAll();
+        }
+        return products;
+    }
+
+    /**
+     * Checks a create request against the rules every created product has to satisfy.
+     * @param request details of product to create
+     * @throws IllegalArgumentException if the request is invalid
+     */
+    public static void validate(final CreateProductRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("CreateProductRequest was null");
+        }
+        if (isNullOrEmpty(request.getProductType())) {
+            throw new IllegalArgumentException(PRODUCT_TYPE_WAS_NULL_OR_EMPTY);
+        }
+        if (request.getDeliveryDate() == null) {
             throw new IllegalArgumentException(DELIVERY_DATE_WAS_NULL);
         }
-        return item;
     }
 
-    private String validateCustomerId(final String customerId) {
-        if (isNullOrEmpty(customerId)) {
-            throw new IllegalArgumentException("customerId was null or empty");
+    /**
+     * Checks an update request against the rules every update has to satisfy.
+     * @param request attributes to change and the version they are based on
+     * @throws IllegalArgumentException if the request is invalid
+     */
+    public static void validate(final UpdateProductRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("UpdateProductRequest was null");
+        }
+        if (request.getExpectedVersion() == null || request.getExpectedVersion() < 0) {
+            throw new IllegalArgumentException("expectedVersion was null or negative");
+        }
+        if (request.getProductType() == null && request.getDeliveryDate() == null) {
+            throw new IllegalArgumentException("Nothing to update, set productType or deliveryDate");
+        }
+        if (request.getProductType() != null && request.getProductType().isEmpty()) {
+            throw new IllegalArgumentException(PRODUCT_TYPE_WAS_NULL_OR_EMPTY);
+        }
+    }
+
+    /**
+     * Checks that a purge request has a predicate, so a purge never deletes every product, and a
+     * number of segments its run can start a thread for each.
+     * @param request predicate of the purge
+     * @throws IllegalArgumentException if the request has no predicate or too few or many segments
+     */
+    public static void validate(final DeleteProductsRequest request) {
+        if (isNullOrEmpty(request.getProductType()) && isNullOrEmpty(request.getDeliveredFrom())
+                && isNullOrEmpty(request.getDeliveredTo())) {
+            throw new IllegalArgumentException("Refusing to delete all products, set productType or a delivery range");
+        }
+        if (request.getSegments() != null
+                && (request.getSegments() < 1 || request.getSegments() > PurgeCheckpoint.MAX_SEGMENTS)) {
+            throw new IllegalArgumentException("segments must be between 1 and " + PurgeCheckpoint.MAX_SEGMENTS);
         }
-        return customerId;
+    }
+
+    /**
+     * Returns the checkpoint a purge continues from, or a new one if the request has none.
+     * @param request predicate and, optionally, the checkpoint of an earlier run
+     * @param totalSegments number of scan segments of a new checkpoint
+     * @return the checkpoint of the run
+     * @throws IllegalArgumentException if the checkpoint is malformed or was made for another predicate
+     */
+    public static PurgeCheckpoint checkpoint(final DeleteProductsRequest request, final int totalSegments) {
+        final String predicate = PurgeCheckpoint.predicateOf(request.getProductType(),
+                request.getDeliveredFrom(), request.getDeliveredTo());
+        if (isNullOrEmpty(request.getCheckpoint())) {
+            return PurgeCheckpoint.start(totalSegments, predicate);
+        }
+        final PurgeCheckpoint checkpoint = PurgeCheckpoint.decode(request.getCheckpoint());
+        if (!predicate.equals(checkpoint.getPredicate())) {
+            throw new IllegalArgumentException("checkpoint " + request.getCheckpoint()
+                    + " was made for another predicate");
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Runs a DynamoDB call inside a DAO call event. Consumed capacity is only asked for while the
+     * event is recorded, so calls are unchanged when nobody is profiling.
+     */
+    private <T extends DynamoDbResponse> T profiled(final String operation,
+                                                    final Function<ReturnConsumedCapacity, T> call,
+                                                    final ToIntFunction<T> itemCount) {
+        final Span span = Profiling.daoCall(operation, tableName);
+        try {
+            final T response = call.apply(span.isRecording() ? ReturnConsumedCapacity.TOTAL : null);
+            if (response != null) {
+                span.count(itemCount.applyAsInt(response));
+                span.consumedCapacity(consumedCapacity(response));
+            }
+            return response;
+        } finally {
+            span.close();
+        }
+    }
+
+    private static double consumedCapacity(final DynamoDbResponse response) {
+        final Object consumed = response.getValueForField("ConsumedCapacity", Object.class).orElse(null);
+        if (consumed instanceof ConsumedCapacity) {
+            final Double units = ((ConsumedCapacity) consumed).capacityUnits();
+            return units == null ? Double.NaN : units;
+        }
+        if (consumed instanceof List && !((List<?>) consumed).isEmpty()) {
+            double units = 0;
+            for (Object capacity : (List<?>) consumed) {
+                if (capacity instanceof ConsumedCapacity && ((ConsumedCapacity) capacity).capacityUnits() != null) {
+                    units += ((ConsumedCapacity) capacity).capacityUnits();
+                }
+            }
+            return units;
+        }
+        return Double.NaN;
+    }
+
+    private List<WriteRequest> batchWrite(final List<WriteRequest> writes) {
+        List<WriteRequest> pending = writes;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final List<WriteRequest> attempted = pending;
+                pending = profiled("BatchWriteItem", capacity -> dynamoDb.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(Collections.singletonMap(tableName, attempted))
+                        .overrideConfiguration(Deadline.current().overrideConfiguration())
+                        .returnConsumedCapacity(capacity)
+                        .build()), response -> attempted.size())
+                        .unprocessedItems()
+                        .getOrDefault(tableName, Collections.emptyList());
+            } catch (ResourceNotFoundException e) {
+                throw new TableDoesNotExistException(String.format("Product table %s does not exist", tableName));
+            } catch (ProvisionedThroughputExceededException e) {
+                // the SDK already retried the whole request, back off and try again ourselves
+            }
+            if (pending.isEmpty() || attempt == MAX_BATCH_WRITE_ATTEMPTS) {
+                return pending;
+            }
+            final long cap = Math.min(BATCH_WRITE_MAX_BACKOFF_MILLIS, BATCH_WRITE_BASE_BACKOFF_MILLIS << attempt);
+            if (Deadline.current().remainingMillis() <= cap) {
+                // no time left to back off and retry, the caller gets the rest back as unprocessed
+                return pending;
+            }
+            final int unprocessed = pending.size();
+            final int current = attempt;
+            LOG.debug(() -> "BatchWriteItem attempt " + current + " left " + unprocessed + " items unprocessed");
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return pending;
+            }
+        }
+    }
+
+    private Map<String, AttributeValue> createProductItem(final CreateProductRequest product) {
+        validate(product);
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(PRODUCT_ID, AttributeValue.builder().s(UUID.randomUUID().toString()).build());
+        if (itemCodec.isEnabled()) {
+            item.put(PACKED, itemCodec.encode(product.getProductType(), product.getDeliveryDate()));
+        } else {
+            item.put(PRODUCT_TYPE, AttributeValue.builder().s(product.getProductType()).build());
+            item.put(DELIVERY_DATE, AttributeValue.builder().s(product.getDeliveryDate()).build());
+        }
+        item.put(VERSION, AttributeValue.builder().n("1").build());
+        item.putAll(changeFeed.attributes(item.get(PRODUCT_ID).s()));
+        final OptionalLong expiresAt = productExpiry.expiresAt(product.getDeliveryDate());
+        if (expiresAt.isPresent()) {
+            item.put(EXPIRES_AT, AttributeValue.builder().n(Long.toString(expiresAt.getAsLong())).build());
+        }
+        return item;
     }
 
     private static boolean isNullOrEmpty(final String string) {
         return string == null || string.isEmpty();
     }
-}
 
+    /**
+     * Page size and optional collaborators of a ProductDao. Every collaborator that is not set is
+     * disabled.
+     */
+    @Getter
+    @Builder
+    public static class Options {
+        /**
+         * Size of pages for getProducts and getChanges.
+         */
+        @Builder.Default
+        private final int pageSize = 10;
+        /**
+         * Existence filter consulted before every getProduct.
+         */
+        @Builder.Default
+        private final ProductIdFilter productIdFilter = ProductIdFilter.disabled();
+        /**
+         * Snapshot engine consulted before every getProducts.
+         */
+        @Builder.Default
+        private final ProductSnapshotEngine snapshotEngine = ProductSnapshotEngine.disabled();
+        /**
+         * Derives the expiresAt TTL attribute of created products.
+         */
+        @Builder.Default
+        private final ProductExpiry productExpiry = ProductExpiry.disabled();
+        /**
+         * Hedges slow GetItem calls of getProduct.
+         */
+        @Builder.Default
+        private final HedgingPolicy hedgingPolicy = HedgingPolicy.disabled();
+        /**
+         * Packs the fields of written products if enabled.
+         */
+        @Builder.Default
+        private final PackedProductCodec itemCodec = PackedProductCodec.disabled();
+        /**
+         * Reads the page after every page of getProducts ahead of time.
+         */
+        @Builder.Default
+        private final PagePrefetcher pagePrefetcher = PagePrefetcher.disabled();
+        /**
+         * Shares the GetItem and Scan calls of concurrent identical reads.
+         */
+        @Builder.Default
+        private final ReadCoalescer readCoalescer = ReadCoalescer.disabled();
+        /**
+         * Routes the eventually consistent GetItem and Scan calls of getProduct and getProducts to
+         * the fastest replica.
+         */
+        @Builder.Default
+        private final ReplicaSelector replicaSelector = ReplicaSelector.disabled();
+        /**
+         * Stamps created and updated products for getChanges.
+         */
+        @Builder.Default
+        private final ChangeFeed changeFeed = ChangeFeed.disabled();
+        /**
+         * Gathers the puts of concurrent createProduct calls, at most 25 at a time.
+         */
+        @Builder.Default
+        private final WriteBatcher<Map<String, AttributeValue>, Boolean> writeBatcher = WriteBatcher.disabled();
+
+        /**
+         * @return options with the default page size and every collaborator disabled
+         */
+        public static Options defaults() {
+            return builder().build();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.postnl.dao;
+
+import com.postnl.dao.changes.ChangeFeed;
+import com.postnl.dao.packed.PackedFields;
+import com.postnl.dao.packed.PackedProductCodec;
+import com.postnl.model.Product;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand written mapping between product items and {@link Product}s. Presence of every attribute
+ * is checked explicitly, so the normal path neither throws nor goes through a builder. Items may
+ * be stored attribute per field or packed by {@link PackedProductCodec}, and both are read.
+ */
+final class ProductItemMapper {
+
+    static final String PRODUCT_ID = "productId";
+    static final String PRODUCT_TYPE = "productType";
+    static final String DELIVERY_DATE = "deliveryDate";
+    static final String EXPIRES_AT = "expiresAt";
+    static final String VERSION = "version";
+    static final String PACKED = PackedProductCodec.ATTRIBUTE;
+    static final String DELETED = ChangeFeed.DELETED;
+
+    private ProductItemMapper() {
+    }
+
+    /**
+     * Converts an item to a product. A packed attribute is decoded up front whenever the item has
+     * one, since a packed item has no top-level productType or deliveryDate to fall back on.
+     * @param item item as returned by DynamoDB
+     * @return the product, or null if the item was null, empty or the tombstone of a deleted product
+     * @throws IllegalStateException if a product attribute is missing or not a String
+     */
+    static Product toProduct(final Map<String, AttributeValue> item) {
+        if (item == null || item.isEmpty() || isTombstone(item)) {
+            return null;
+        }
+        final AttributeValue productId = item.get(PRODUCT_ID);
+        if (productId == null || productId.s() == null) {
+            throw new IllegalStateException("item did not have an productId attribute or it was not a String");
+        }
+        final AttributeValue packed = item.get(PACKED);
+        final PackedFields fields = packed == null || packed.b() == null ? null : PackedProductCodec.decode(packed);
+        final String productType = string(item.get(PRODUCT_TYPE));
+        final String packedProductType = productType == null && fields != null
+                ? fields.get(PackedProductCodec.PRODUCT_TYPE) : null;
+        if (productType == null && packedProductType == null) {
+            throw new IllegalStateException("item did not have an productType attribute or it was not a String");
+        }
+        final String deliveryDate = string(item.get(DELIVERY_DATE));
+        final String packedDeliveryDate = deliveryDate == null && fields != null
+                ? fields.get(PackedProductCodec.DELIVERY_DATE) : null;
+        if (deliveryDate == null && packedDeliveryDate == null) {
+            throw new IllegalStateException("item did not have an deliveryDate attribute or it was not a String");
+        }
+        // a top-level attribute wins over the packed field, because an update written attribute
+        // per field leaves the packed attribute of an item as it was
+        final AttributeValue version = item.get(VERSION);
+        return new Product(productId.s(),
+                productType == null ? packedProductType : productType,
+                deliveryDate == null ? packedDeliveryDate : deliveryDate,
+                version == null || version.n() == null ? null : Long.valueOf(version.n()));
+    }
+
+    /**
+     * @return the string of an attribute, null if the item does not have it or it is not a String
+     */
+    private static String string(final AttributeValue attribute) {
+        return attribute == null ? null : attribute.s();
+    }
+
+    /**
+     * @param item item as returned by DynamoDB
+     * @return whether the item is the tombstone a delete left in place of a product for the change feed
+     */
+    static boolean isTombstone(final Map<String, AttributeValue> item) {
+        return item.containsKey(DELETED);
+    }
+
+    /**
+     * Converts a page of items to products, leaving out tombstones.
+     * @param items items as returned by a scan or query
+     * @return the products, in item order
+     */
+    static List<Product> toProducts(final List<Map<String, AttributeValue>> items) {
+        final List<Product> products = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            final Product product = toProduct(items.get(i));
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Converts a page of the change index to change feed entries. A tombstone becomes an entry
+     * with only the product id and deleted set.
+     * @param items items as returned by a query of the change index
+     * @return the entries, in item order
+     */
+    static List<Product> toChanges(final List<Map<String, AttributeValue>> items) {
+        final List<Product> changes = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            final Map<String, AttributeValue> item = items.get(i);
+            changes.add(isTombstone(item)
+                    ? Product.builder().productId(item.get(PRODUCT_ID).s()).deleted(true).build()
+                    : toProduct(item));
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,170 @@
+package com.postnl.dao;
+
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.purge.PurgeResult;
+import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.dto.request.DeleteProductsRequest;
+import com.postnl.dto.request.UpdateProductRequest;
+import com.postnl.exception.CouldNotCreateProductException;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.exception.UnableToUpdateException;
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Storage of products, as used by the handlers and the bulk tools. {@link ProductDao} stores
+ * them in DynamoDB; other engines must keep the same contract, including the exceptions, so
+ * that handlers behave the same on every engine.
+ */
+public interface ProductStore {
+
+    /**
+     * @param productId id of product to get
+     * @return the product if it exists
+     * @throws ProductDoesNotExistException if the product does not exist
+     */
+    Product getProduct(String productId);
+
+    /**
+     * @param productId id of product to get
+     * @return the product, or empty if it does not exist
+     */
+    Optional<Product> findProduct(String productId);
+
+    /**
+     * @param productId id of product to get
+     * @param consistency whether the read must see every write acknowledged before it
+     * @return the product, or empty if it does not exist
+     */
+    Optional<Product> findProduct(String productId, ReadConsistency consistency);
+
+    /**
+     * Reads several products at once, strongly consistent and without the product id filter.
+     * @param productIds ids of at most 100 products to get
+     * @return the products that exist, in the order of their ids
+     * @throws IllegalArgumentException if there are more than 100 ids
+     */
+    List<Product> findProducts(List<String> productIds);
+
+    /**
+     * Reads one page of products in a stable order.
+     * @param offset the lastEvaluatedKey of the previous page, or null for the first page
+     * @return a page of products
+     * @throws CursorExpiredException if the offset is a snapshot cursor that cannot be continued
+     */
+    ProductPage getProducts(String offset);
+
+    /**
+     * Reads one page of products in a stable order.
+     * @param offset the lastEvaluatedKey of the previous page, or null for the first page
+     * @param consistency whether the read must see every write acknowledged before it
+     * @return a page of products
+     * @throws CursorExpiredException if the offset is a snapshot cursor that cannot be continued,
+     *     which a strongly consistent read never can
+     */
+    ProductPage getProducts(String offset, ReadConsistency consistency);
+
+    /**
+     * Reads one page of the change feed: the products created, updated or deleted after a cursor,
+     * oldest change first, each at its latest change. A deleted product is an entry with only its
+     * id and deleted set.
+     * @param since the lastEvaluatedKey of the previous page, a time in epoch milliseconds, or null
+     *     for all changes
+     * @return a page of changed products, whose lastEvaluatedKey is always set and continues the feed
+     * @throws IllegalArgumentException if since is malformed
+     * @throws IllegalStateException if the store does not record changes
+     * @throws CursorExpiredException if since is older than the store keeps deletes
+     */
+    ProductPage getChanges(String since);
+
+    /**
+     * @return whether the store records changes, and so serves getChanges
+     */
+    boolean recordsChanges();
+
+    /**
+     * Records a change for every product written before the store recorded changes, so the change
+     * feed serves it. Products already recorded are left as they are.
+     * @param totalSegments number of segments to read concurrently, if the engine reads concurrently
+     * @return the number of products recorded
+     * @throws IllegalStateException if the store does not record changes
+     */
+    long backfillChanges(int totalSegments);
+
+    /**
+     * @param request details of product to create
+     * @return the created product, at version 1
+     * @throws IllegalArgumentException if the request is invalid
+     * @throws CouldNotCreateProductException if no unique product id could be generated
+     */
+    Product createProduct(CreateProductRequest request);
+
+    /**
+     * Applies a partial update if the product is still at the expected version.
+     * @param productId id of product to update
+     * @param request attributes to change and the version they are based on
+     * @return the product after the update
+     * @throws IllegalArgumentException if the request is invalid
+     * @throws ProductDoesNotExistException if the product does not exist
+     * @throws UnableToUpdateException if the product was changed since the expected version
+     */
+    Product updateProduct(String productId, UpdateProductRequest request);
+
+    /**
+     * @param productId id of product to delete
+     * @param expectedVersion version the product must still have, or null to delete any version
+     * @return the product as it was before the delete
+     * @throws ProductDoesNotExistException if the product does not exist
+     * @throws UnableToDeleteException if the product was changed since the expected version
+     */
+    Product deleteProduct(String productId, Long expectedVersion);
+
+    /**
+     * Deletes every product matching a predicate, stopping early once outOfTime returns true.
+     * @param request predicate and, optionally, the checkpoint of an earlier run
+     * @param outOfTime true stops the run
+     * @return the number of deleted and failed products, and the checkpoint if the run stopped early
+     * @throws IllegalArgumentException if the request has no predicate, too few or many segments,
+     *     or a checkpoint that is malformed or was made for another predicate
+     */
+    PurgeResult purgeProducts(DeleteProductsRequest request, BooleanSupplier outOfTime);
+
+    /**
+     * @param totalSegments number of segments to read concurrently, if the engine reads concurrently
+     * @param sink receives every product id, possibly from several threads at once
+     */
+    void scanProductIds(int totalSegments, Consumer<String> sink);
+
+    /**
+     * @param totalSegments number of segments to read concurrently, if the engine reads concurrently
+     * @param sink receives every page of products, possibly from several threads at once
+     */
+    void scanProducts(int totalSegments, Consumer<List<Product>> sink);
+
+    /**
+     * @param totalSegments number of segments to read concurrently, if the engine reads concurrently
+     * @param expiresAtCutoff highest expiresAt to return, in epoch seconds
+     * @param sink receives every non-empty page of products expiring at or before the cutoff
+     */
+    void scanExpiringProducts(int totalSegments, long expiresAtCutoff, Consumer<List<Product>> sink);
+
+    /**
+     * @param productIds ids of the products to delete
+     * @return ids of the products that could not be deleted
+     */
+    List<String> deleteProducts(List<String> productIds);
+
+    /**
+     * @param requests details of at most 25 products to create
+     * @return the created products; products that could not be written are left out
+     * @throws IllegalArgumentException if a request is invalid or there are more than 25
+     */
+    List<Product> batchCreateProducts(List<CreateProductRequest> requests);
+}
@@ -0,0 +1,67 @@
+package com.postnl.dao.archive;
+
+import com.postnl.model.Product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archives every batch as its own gzipped NDJSON file in a local directory. Files are written
+ * under a temporary name, synced and then renamed, so a crash never leaves a partial archive.
+ */
+public class LocalProductArchive implements ProductArchive {
+
+    private static final byte NEWLINE = '\n';
+
+    private final Path directory;
+    private final ObjectWriter writer;
+
+    /**
+     * Constructs a LocalProductArchive.
+     * @param directory directory to write the archive files to, created if missing
+     * @param objectMapper mapper used to serialize products
+     */
+    public LocalProductArchive(final Path directory, final ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.writer = objectMapper.writerFor(Product.class);
+    }
+
+    @Override
+    public String archive(final List<Product> products) throws IOException {
+        Files.createDirectories(directory);
+        final String name = "products-" + System.currentTimeMillis() + "-" + UUID.randomUUID() + ".ndjson.gz";
+        final Path temporary = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final GZIPOutputStream output = new GZIPOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (Product product : products) {
+                output.write(writer.writeValueAsBytes(product));
+                output.write(NEWLINE);
+            }
+            // finish instead of close, the channel has to stay open to be synced
+            output.finish();
+            output.flush();
+            channel.force(true);
+            output.close();
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        final Path target = directory.resolve(name);
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        return target.toString();
+    }
+}
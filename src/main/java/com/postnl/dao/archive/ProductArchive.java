@@ -0,0 +1,22 @@
+package com.postnl.dao.archive;
+
+import com.postnl.model.Product;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Durable store for products that are removed from the hot table. The compaction job only
+ * deletes products after {@link #archive} returned, so implementations must not return before
+ * the products are safely stored.
+ */
+public interface ProductArchive {
+
+    /**
+     * Stores a batch of products. May be called from several threads at once.
+     * @param products products to store
+     * @return location of the stored batch
+     * @throws IOException if the products could not be stored
+     */
+    String archive(List<Product> products) throws IOException;
+}
@@ -0,0 +1,77 @@
+package com.postnl.dao.archive;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.OptionalLong;
+
+/**
+ * Derives the expiresAt TTL attribute of a product from its delivery window. A delivery date
+ * like {@code 2020-10-08 13:00 - 15:00} is delivered at the end of its window, or at the end of
+ * the day if it has no window, and expires a fixed retention period after that. Delivery dates
+ * that cannot be parsed never expire.
+ */
+public class ProductExpiry {
+
+    private static final int DATE_LENGTH = 10;
+
+    private final long retentionSeconds;
+    private final ZoneId zone;
+    private final Clock clock;
+
+    /**
+     * Constructs a ProductExpiry.
+     * @param retentionSeconds time a product is kept after delivery, 0 or less never expires products
+     * @param zone time zone of the delivery windows
+     * @param clock clock used for the compaction cutoff
+     */
+    public ProductExpiry(final long retentionSeconds, final ZoneId zone, final Clock clock) {
+        this.retentionSeconds = retentionSeconds;
+        this.zone = zone;
+        this.clock = clock;
+    }
+
+    /**
+     * @return an expiry that never expires products
+     */
+    public static ProductExpiry disabled() {
+        return new ProductExpiry(0, ZoneId.of("UTC"), Clock.systemUTC());
+    }
+
+    public boolean isEnabled() {
+        return retentionSeconds > 0;
+    }
+
+    /**
+     * Computes the expiresAt attribute for a delivery date.
+     * @param deliveryDate delivery date of the product
+     * @return expiry in epoch seconds, or empty if the product never expires
+     */
+    public OptionalLong expiresAt(final String deliveryDate) {
+        if (!isEnabled() || deliveryDate == null || deliveryDate.length() < DATE_LENGTH) {
+            return OptionalLong.empty();
+        }
+        try {
+            final LocalDate date = LocalDate.parse(deliveryDate.substring(0, DATE_LENGTH));
+            final int windowEnd = deliveryDate.lastIndexOf(' ');
+            final long delivered = windowEnd > DATE_LENGTH
+                    ? date.atTime(LocalTime.parse(deliveryDate.substring(windowEnd + 1))).atZone(zone).toEpochSecond()
+                    : date.plusDays(1).atStartOfDay(zone).toEpochSecond();
+            return OptionalLong.of(delivered + retentionSeconds);
+        } catch (DateTimeParseException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Computes the cutoff below which products count as delivered for compaction. Compaction runs
+     * well before expiry, so items are archived before the TTL deletes them.
+     * @param archiveAfterSeconds time after delivery at which products are archived
+     * @return highest expiresAt, in epoch seconds, of products that may be archived
+     */
+    public long archiveCutoff(final long archiveAfterSeconds) {
+        return clock.instant().getEpochSecond() - archiveAfterSeconds + retentionSeconds;
+    }
+}
@@ -0,0 +1,236 @@
+package com.postnl.dao.batch;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.exception.DeadlineExceededException;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Gathers the writes of concurrent callers into batches. A caller adds its write to a lock-free
+ * queue and waits for its own result. One thread forms the batches: once a write is queued it
+ * waits at most the linger time for more, or until a batch is full, and hands the batch to a
+ * flush, which runs on a pool so that batches overlap. The flush answers every write of its
+ * batch, in order; if it throws, every write of the batch fails with its exception.
+ *
+ * <p>A flush runs under the latest request deadline of the callers in its batch. A caller waits
+ * for its result until its own deadline, so its write may still be made after it gave up, as with
+ * any call that times out.
+ *
+ * @param <T> type of a write
+ * @param <R> type of the result of a write
+ */
+public class WriteBatcher<T, R> {
+
+    private static final Logger LOG = LogManager.getLogger(WriteBatcher.class);
+
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ConcurrentLinkedQueue<Pending<T, R>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedWrites = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final Thread batcher;
+    private final ExecutorService flushes;
+
+    /**
+     * Constructs a WriteBatcher.
+     * @param enabled whether writes are batched at all
+     * @param maxBatchSize most writes in a batch
+     * @param lingerMillis longest a queued write waits for others before its batch is flushed
+     */
+    public WriteBatcher(final boolean enabled, final int maxBatchSize, final long lingerMillis) {
+        this.enabled = enabled;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        if (enabled) {
+            final AtomicInteger threads = new AtomicInteger();
+            this.flushes = Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "write-batch-flush-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.batcher = new Thread(this::formBatches, "write-batcher");
+            this.batcher.setDaemon(true);
+            this.batcher.start();
+        } else {
+            this.flushes = null;
+            this.batcher = null;
+        }
+    }
+
+    /**
+     * @param <T> type of a write
+     * @param <R> type of the result of a write
+     * @return a batcher that flushes every write on its own, on the calling thread
+     */
+    public static <T, R> WriteBatcher<T, R> disabled() {
+        return new WriteBatcher<>(false, 1, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Makes a write as part of the next batch.
+     * @param write the write
+     * @param flush makes a batch of writes and returns their results in order; every caller of a
+     *     batcher must pass the same flush, since a batch is flushed with the one of its first write
+     * @return the result of the write
+     * @throws DeadlineExceededException if the request deadline expired while waiting
+     * @throws CancellationException if the caller was interrupted while waiting
+     */
+    public R write(final T write, final Function<List<T>, List<R>> flush) {
+        if (!enabled) {
+            return flush.apply(Collections.singletonList(write)).get(0);
+        }
+        writes.incrementAndGet();
+        final Pending<T, R> pending = new Pending<>(write, flush, Deadline.current());
+        // counted after it is queued, so the count may briefly lag behind, never run ahead
+        queue.offer(pending);
+        final int size = queued.incrementAndGet();
+        if (size == 1 || size >= maxBatchSize) {
+            LockSupport.unpark(batcher);
+        }
+        return await(pending.result);
+    }
+
+    /**
+     * @return counters of the batcher since it was created
+     */
+    public Stats getStats() {
+        final long flushed = batches.get();
+        return Stats.builder()
+                .writes(writes.get())
+                .batches(flushed)
+                .failedBatches(failedBatches.get())
+                .queued(Math.max(0, queued.get()))
+                .averageBatchSize(flushed == 0 ? 0 : (double) batchedWrites.get() / flushed)
+                .build();
+    }
+
+    private void formBatches() {
+        while (true) {
+            if (queued.get() == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            final long flushAt = System.nanoTime() + lingerNanos;
+            long lingering;
+            while (queued.get() < maxBatchSize && (lingering = flushAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, lingering);
+            }
+            final List<Pending<T, R>> batch = new ArrayList<>(maxBatchSize);
+            Pending<T, R> pending;
+            while (batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+                batch.add(pending);
+            }
+            queued.addAndGet(-batch.size());
+            if (!batch.isEmpty()) {
+                batches.incrementAndGet();
+                batchedWrites.addAndGet(batch.size());
+                flushes.execute(() -> flush(batch));
+            }
+        }
+    }
+
+    private void flush(final List<Pending<T, R>> batch) {
+        final List<T> batchWrites = new ArrayList<>(batch.size());
+        Deadline latest = batch.get(0).deadline;
+        for (Pending<T, R> pending : batch) {
+            batchWrites.add(pending.write);
+            if (pending.deadline.remainingMillis() > latest.remainingMillis()) {
+                latest = pending.deadline;
+            }
+        }
+        Deadline.start(latest);
+        try {
+            final List<R> results = batch.get(0).flush.apply(batchWrites);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (RuntimeException | Error e) {
+            failedBatches.incrementAndGet();
+            LOG.debug(() -> "Batch of " + batch.size() + " writes failed: " + e);
+            for (Pending<T, R> pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    private R await(final CompletableFuture<R> result) {
+        try {
+            final Deadline deadline = Deadline.current();
+            return deadline.isBounded()
+                    ? result.get(Math.max(0, deadline.remainingMillis()), TimeUnit.MILLISECONDS)
+                    : result.get();
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Request deadline expired while waiting for a batched write");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a batched write");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static final class Pending<T, R> {
+        private final T write;
+        private final Function<List<T>, List<R>> flush;
+        private final Deadline deadline;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+
+        private Pending(final T write, final Function<List<T>, List<R>> flush, final Deadline deadline) {
+            this.write = write;
+            this.flush = flush;
+            this.deadline = deadline;
+        }
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    public static class Stats {
+        private final long writes;
+        private final long batches;
+        private final long failedBatches;
+        private final int queued;
+        private final double averageBatchSize;
+    }
+}
@@ -0,0 +1,291 @@
+package com.postnl.dao.changes;
+
+import com.postnl.dao.deadline.Deadline;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders product writes for the change feed. Every write stamps its product with updatedAt, the
+ * time of the write, and a change sequence: that time zero padded, followed by the product id, so
+ * sequences order changes by time and break ties by id. The sequence is the sort key of a global
+ * secondary index whose partition key is one of a fixed number of shards derived from the product
+ * id, so the writes of a moment spread over partitions instead of all landing on one.
+ *
+ * <p>A delete replaces the product with a tombstone: an item with only the product id, the
+ * deleted marker, a change sequence of its own and an expiresAt after the tombstone retention,
+ * so the table's TTL removes it once every reader had the time to see it. A cursor older than the
+ * retention may have missed deletes whose tombstones are gone and cannot be continued.
+ *
+ * <p>A page of changes reads every shard after its cursor concurrently and merges them by
+ * sequence. Only changes older than the settle time are served, because a write stamped earlier
+ * may still be on its way into the index, and a cursor must never move past a change that is not
+ * visible yet.
+ */
+public class ChangeFeed {
+
+    public static final String UPDATED_AT = "updatedAt";
+    public static final String CHANGE_SHARD = "changeShard";
+    public static final String CHANGE_SEQUENCE = "changeSequence";
+    public static final String DELETED = "deleted";
+
+    private static final int TIME_DIGITS = 13;
+    private static final char SEPARATOR = '#';
+
+    private final boolean enabled;
+    private final String indexName;
+    private final int shards;
+    private final long settleMillis;
+    private final long retentionMillis;
+    private final LongSupplier clock;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a ChangeFeed.
+     * @param enabled whether writes are stamped and changes can be read
+     * @param indexName name of the index on changeShard and changeSequence
+     * @param shards number of shards; changing it leaves stamped products in shards that are no longer read
+     * @param settleMillis age a change must have before it is served
+     * @param retentionMillis how long the tombstone of a deleted product is kept
+     * @param clock current time in epoch milliseconds
+     */
+    public ChangeFeed(final boolean enabled, final String indexName, final int shards, final long settleMillis,
+                      final long retentionMillis, final LongSupplier clock) {
+        this.enabled = enabled;
+        this.indexName = indexName;
+        this.shards = Math.max(1, shards);
+        this.settleMillis = settleMillis;
+        this.retentionMillis = retentionMillis;
+        this.clock = clock;
+        this.executor = enabled && this.shards > 1 ? Executors.newCachedThreadPool(daemonThreads()) : null;
+    }
+
+    /**
+     * @return a feed that stamps nothing
+     */
+    public static ChangeFeed disabled() {
+        return new ChangeFeed(false, "changes-index", 1, 0, 0, System::currentTimeMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public long getSettleMillis() {
+        return settleMillis;
+    }
+
+    /**
+     * @param productId id of the written product
+     * @return the attributes to write with the product, none if the feed is disabled
+     */
+    public Map<String, AttributeValue> attributes(final String productId) {
+        if (!enabled) {
+            return Collections.emptyMap();
+        }
+        final long updatedAt = clock.getAsLong();
+        final Map<String, AttributeValue> attributes = new HashMap<>();
+        attributes.put(UPDATED_AT, AttributeValue.builder().n(Long.toString(updatedAt)).build());
+        attributes.put(CHANGE_SHARD, AttributeValue.builder().n(Integer.toString(shard(productId))).build());
+        attributes.put(CHANGE_SEQUENCE, AttributeValue.builder().s(sequence(updatedAt, productId)).build());
+        return attributes;
+    }
+
+    /**
+     * @return the expiresAt of a tombstone written now, in epoch seconds
+     */
+    public long tombstoneExpiresAt() {
+        return (clock.getAsLong() + retentionMillis) / 1000L;
+    }
+
+    /**
+     * @param after a sequence as returned by {@link #startAfter(String)}
+     * @return whether deletes after it may have lost their tombstones; the start of the feed never expires
+     */
+    public boolean isExpired(final String after) {
+        final long time = time(after);
+        return time > 0 && time < clock.getAsLong() - retentionMillis;
+    }
+
+    /**
+     * @param productId id of a product
+     * @return the shard of the product, the same in every JVM
+     */
+    public int shard(final String productId) {
+        return (productId.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    /**
+     * @return the exclusive upper bound of the sequences a page may serve now, itself a cursor
+     */
+    public String settledBefore() {
+        return cursor(clock.getAsLong() - settleMillis);
+    }
+
+    /**
+     * Reads every shard, concurrently if there are several. The request deadline of the caller
+     * applies to every read.
+     * @param read reads the changes of one shard
+     * @param <T> type of the result of a shard
+     * @return the results by shard
+     */
+    public <T> List<T> readShards(final IntFunction<T> read) {
+        if (executor == null) {
+            final List<T> results = new ArrayList<>(shards);
+            for (int shard = 0; shard < shards; shard++) {
+                results.add(read.apply(shard));
+            }
+            return results;
+        }
+        final List<CompletableFuture<T>> reads = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            final int current = shard;
+            reads.add(CompletableFuture.supplyAsync(Deadline.propagate(() -> read.apply(current)), executor));
+        }
+        try {
+            final List<T> results = new ArrayList<>(shards);
+            for (CompletableFuture<T> shard : reads) {
+                results.add(shard.join());
+            }
+            return results;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param updatedAt time of the change in epoch milliseconds
+     * @param productId id of the changed product
+     * @return the sequence of the change
+     */
+    public static String sequence(final long updatedAt, final String productId) {
+        return cursor(updatedAt) + SEPARATOR + productId;
+    }
+
+    /**
+     * @param sequence a sequence or a cursor
+     * @return the time it starts with, in epoch milliseconds
+     */
+    public static long time(final String sequence) {
+        return Long.parseLong(sequence.substring(0, TIME_DIGITS));
+    }
+
+    /**
+     * Parses the since parameter of a change feed request.
+     * @param since a cursor of an earlier page, a time in epoch milliseconds, or null for all changes
+     * @return the sequence after which the page starts; changes at the given time are included
+     * @throws IllegalArgumentException if since is neither a cursor nor a time
+     */
+    public static String startAfter(final String since) {
+        if (since == null || since.isEmpty()) {
+            return cursor(0);
+        }
+        final int separator = since.indexOf(SEPARATOR);
+        final String time = separator < 0 ? since : since.substring(0, separator);
+        if (time.isEmpty() || time.length() > TIME_DIGITS || !isDigits(time)
+                || separator >= 0 && (time.length() != TIME_DIGITS || separator == since.length() - 1)) {
+            throw new IllegalArgumentException("since must be a cursor of the change feed or a time in epoch milliseconds");
+        }
+        return separator < 0 ? cursor(Long.parseLong(time)) : since;
+    }
+
+    /**
+     * Merges the changes of every shard into one page.
+     * @param shards the changes of every shard, each in sequence order
+     * @param sequence the sequence of a change
+     * @param limit most changes to return
+     * @param <T> type of a change
+     * @return the first changes of all shards, in sequence order
+     */
+    public static <T> List<T> merge(final List<List<T>> shards, final Function<T, String> sequence, final int limit) {
+        final PriorityQueue<Position<T>> heads = new PriorityQueue<>(Math.max(1, shards.size()));
+        for (List<T> shard : shards) {
+            if (!shard.isEmpty()) {
+                heads.add(new Position<>(shard, 0, sequence));
+            }
+        }
+        final List<T> merged = new ArrayList<>(limit);
+        while (merged.size() < limit && !heads.isEmpty()) {
+            final Position<T> head = heads.poll();
+            merged.add(head.shard.get(head.index));
+            if (head.index + 1 < head.shard.size()) {
+                heads.add(new Position<>(head.shard, head.index + 1, sequence));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @param millis a time in epoch milliseconds
+     * @return the cursor after which the changes at and after that time follow
+     */
+    public static String cursor(final long millis) {
+        final String digits = Long.toString(Math.max(0, millis));
+        final StringBuilder padded = new StringBuilder(TIME_DIGITS);
+        for (int i = digits.length(); i < TIME_DIGITS; i++) {
+            padded.append('0');
+        }
+        return padded.append(digits).toString();
+    }
+
+    private static boolean isDigits(final String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) < '0' || string.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        final AtomicInteger threads = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "product-changes-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Position<T> implements Comparable<Position<T>> {
+        private final List<T> shard;
+        private final int index;
+        private final String sequence;
+
+        private Position(final List<T> shard, final int index, final Function<T, String> sequence) {
+            this.shard = shard;
+            this.index = index;
+            this.sequence = sequence.apply(shard.get(index));
+        }
+
+        @Override
+        public int compareTo(final Position<T> other) {
+            return sequence.compareTo(other.sequence);
+        }
+    }
+}
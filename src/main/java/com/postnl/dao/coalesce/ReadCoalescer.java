@@ -0,0 +1,222 @@
+package com.postnl.dao.coalesce;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.exception.DeadlineExceededException;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical reads. The first caller of a key runs the read, and callers of
+ * the same key that arrive while it runs wait for its result instead of sending the same call
+ * again. Errors of the read are thrown to every waiting caller. Keys live in a fixed number of
+ * stripes, each a hash map behind its own lock, so callers of different keys rarely contend.
+ *
+ * <p>A read that fails because its own caller ran out of time or was interrupted is cancelled
+ * rather than failed, and the callers waiting for it start a read of their own. A waiting caller
+ * gives up at its own request deadline without affecting the read.
+ */
+public class ReadCoalescer {
+
+    private final boolean enabled;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Constructs a ReadCoalescer.
+     * @param enabled whether reads are coalesced at all
+     * @param stripes number of lock stripes, rounded up to a power of two
+     */
+    public ReadCoalescer(final boolean enabled, final int stripes) {
+        final int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.enabled = enabled;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = size - 1;
+    }
+
+    /**
+     * @return a coalescer that runs every read itself
+     */
+    public static ReadCoalescer disabled() {
+        return new ReadCoalescer(false, 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs a read, or waits for the same read another caller is running.
+     * @param key identifies the read, equal keys must mean equal calls
+     * @param read the read, its result is shared and must not be changed by callers
+     * @param <V> type of the result
+     * @return the result of the read
+     * @throws DeadlineExceededException if the request deadline expired while waiting
+     * @throws CancellationException if the caller was interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V read(final String key, final Supplier<V> read) {
+        if (!enabled) {
+            return read.get();
+        }
+        requests.incrementAndGet();
+        final Stripe stripe = stripe(key);
+        while (true) {
+            final CompletableFuture<Object> flight;
+            final boolean leader;
+            synchronized (stripe) {
+                final CompletableFuture<Object> running = stripe.flights.get(key);
+                leader = running == null;
+                flight = leader ? new CompletableFuture<>() : running;
+                if (leader) {
+                    stripe.flights.put(key, flight);
+                }
+            }
+            if (leader) {
+                return lead(stripe, key, flight, read);
+            }
+            coalesced.incrementAndGet();
+            try {
+                return (V) await(flight);
+            } catch (CancellationException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                // the read was given up by its own caller, this caller still has time to read
+            }
+        }
+    }
+
+    /**
+     * Forgets the reads that are running, so callers arriving after a write start a read of
+     * their own instead of waiting for one that may have started before the write. The reads
+     * themselves still complete for the callers already waiting for them.
+     */
+    public void forgetAll() {
+        if (!enabled) {
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.flights.clear();
+            }
+        }
+    }
+
+    /**
+     * @return counters of the coalescer since it was created
+     */
+    public Stats getStats() {
+        int inFlight = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                inFlight += stripe.flights.size();
+            }
+        }
+        return Stats.builder()
+                .requests(requests.get())
+                .calls(calls.get())
+                .coalesced(coalesced.get())
+                .cancelled(cancelled.get())
+                .inFlight(inFlight)
+                .build();
+    }
+
+    private <V> V lead(final Stripe stripe, final String key, final CompletableFuture<Object> flight,
+                       final Supplier<V> read) {
+        calls.incrementAndGet();
+        try {
+            final V value = read.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            if (isCallerSpecific(e)) {
+                cancelled.incrementAndGet();
+                flight.cancel(false);
+            } else {
+                flight.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            synchronized (stripe) {
+                stripe.flights.remove(key, flight);
+            }
+        }
+    }
+
+    private static Object await(final CompletableFuture<Object> flight) {
+        try {
+            final Deadline deadline = Deadline.current();
+            return deadline.isBounded()
+                    ? flight.get(Math.max(0, deadline.remainingMillis()), TimeUnit.MILLISECONDS)
+                    : flight.get();
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Request deadline expired while waiting for a coalesced read");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a coalesced read");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Failures that say more about the caller that ran the read than about the read itself.
+     */
+    private static boolean isCallerSpecific(final Throwable e) {
+        return Thread.currentThread().isInterrupted()
+                || e instanceof DeadlineExceededException
+                || e instanceof ApiCallTimeoutException
+                || e instanceof ApiCallAttemptTimeoutException
+                || e instanceof AbortedException
+                || e instanceof CancellationException;
+    }
+
+    private Stripe stripe(final String key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+
+    private static final class Stripe {
+        private final Map<String, CompletableFuture<Object>> flights = new HashMap<>();
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    public static class Stats {
+        private final long requests;
+        private final long calls;
+        private final long coalesced;
+        private final long cancelled;
+        private final int inFlight;
+    }
+}
@@ -0,0 +1,15 @@
+package com.postnl.dao.consistency;
+
+/**
+ * Consistency of a read. Eventually consistent reads are the default. Strongly consistent reads
+ * see every write acknowledged before them, but cost twice the read capacity. They also bypass
+ * the caches in front of DynamoDB, which can be just as stale.
+ */
+public enum ReadConsistency {
+    EVENTUAL,
+    STRONG;
+
+    public boolean isStrong() {
+        return this == STRONG;
+    }
+}
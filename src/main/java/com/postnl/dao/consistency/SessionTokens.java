@@ -0,0 +1,106 @@
+package com.postnl.dao.consistency;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Read-your-writes sessions without server-side state. A write answers with a session token that
+ * holds the time of the session's last write and a 64 bit filter of the products it wrote since.
+ * A client that echoes the token gets strongly consistent reads, but only while an eventually
+ * consistent read could still miss those writes. For a product, that is only if the product is in
+ * the filter. For a listing, any recent write qualifies. All other reads stay eventually
+ * consistent.
+ *
+ * <p>Tokens are not signed. A forged token can only make its own requests use strongly
+ * consistent reads, which a request can also ask for directly.
+ */
+public class SessionTokens {
+
+    private static final char SEPARATOR = '.';
+
+    private final long windowMillis;
+    private final LongSupplier clock;
+
+    /**
+     * Constructs SessionTokens.
+     * @param windowMillis time after a write during which eventually consistent reads may miss it
+     * @param clock current time in epoch milliseconds
+     */
+    public SessionTokens(final long windowMillis, final LongSupplier clock) {
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Records a write in a session.
+     * @param token token the client sent with the write, may be null or malformed
+     * @param productId id of the written product
+     * @return the token to answer the write with
+     */
+    public String issue(final String token, final String productId) {
+        final long now = clock.getAsLong();
+        final Session previous = Session.parse(token);
+        final long filter = previous != null && now - previous.writtenAt < windowMillis ? previous.filter : 0L;
+        return Long.toString(now, 36) + SEPARATOR + Long.toHexString(filter | bits(productId));
+    }
+
+    /**
+     * @param token token the client sent with the read, may be null or malformed
+     * @param productId id of the product to read
+     * @return strong if the session wrote the product recently enough to be missed
+     */
+    public ReadConsistency forProduct(final String token, final String productId) {
+        final Session session = recent(token);
+        final long bits = bits(productId);
+        return session != null && (session.filter & bits) == bits ? ReadConsistency.STRONG : ReadConsistency.EVENTUAL;
+    }
+
+    /**
+     * @param token token the client sent with the read, may be null or malformed
+     * @return strong if the session wrote any product recently enough to be missed
+     */
+    public ReadConsistency forListing(final String token) {
+        return recent(token) != null ? ReadConsistency.STRONG : ReadConsistency.EVENTUAL;
+    }
+
+    private Session recent(final String token) {
+        final Session session = Session.parse(token);
+        return session != null && clock.getAsLong() - session.writtenAt < windowMillis ? session : null;
+    }
+
+    /**
+     * Two bits per product id, so a filter of a handful of products rarely upgrades other reads.
+     */
+    private static long bits(final String productId) {
+        int hash = productId == null ? 0 : productId.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return 1L << (hash & 63) | 1L << ((hash >>> 6) & 63);
+    }
+
+    private static final class Session {
+        private final long writtenAt;
+        private final long filter;
+
+        private Session(final long writtenAt, final long filter) {
+            this.writtenAt = writtenAt;
+            this.filter = filter;
+        }
+
+        private static Session parse(final String token) {
+            if (token == null) {
+                return null;
+            }
+            final int separator = token.indexOf(SEPARATOR);
+            if (separator <= 0 || separator == token.length() - 1) {
+                return null;
+            }
+            try {
+                return new Session(Long.parseLong(token.substring(0, separator), 36),
+                        Long.parseUnsignedLong(token.substring(separator + 1), 16));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
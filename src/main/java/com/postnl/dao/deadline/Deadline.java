@@ -0,0 +1,153 @@
+package com.postnl.dao.deadline;
+
+import com.postnl.exception.DeadlineExceededException;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Time budget of the request handled on the current thread. Handlers start one from the
+ * remaining time of the Lambda invocation, and the DAOs bound every DynamoDB call by it, so a
+ * slow call fails while there is still time to answer instead of the invocation being killed.
+ * Threads without a started deadline have {@link #none()}.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE, Long.MAX_VALUE);
+    private static final ThreadLocal<Deadline> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private final long expiresAtNanos;
+    private final long maxAttemptMillis;
+
+    private Deadline(final long expiresAtNanos, final long maxAttemptMillis) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.maxAttemptMillis = maxAttemptMillis;
+    }
+
+    /**
+     * @return a deadline that never expires
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * @param budgetMillis time until the deadline expires
+     * @param maxAttemptMillis upper bound of a single attempt of a call
+     * @return a deadline that expires after the given budget
+     */
+    public static Deadline after(final long budgetMillis, final long maxAttemptMillis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis), maxAttemptMillis);
+    }
+
+    /**
+     * @return the deadline of the current thread
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes the given deadline the one of the current thread until {@link #clear()}.
+     * @param deadline the deadline of the request the current thread handles
+     */
+    public static void start(final Deadline deadline) {
+        CURRENT.set(deadline);
+    }
+
+    /**
+     * Removes the deadline of the current thread.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Wraps a task so that it runs under the deadline of the current thread, on whichever thread
+     * runs it. Pool threads have no deadline of their own, so every task a request hands to a pool
+     * is wrapped when it is submitted.
+     * @param task task to run under the current deadline
+     * @return the wrapped task
+     */
+    public static Runnable propagate(final Runnable task) {
+        final Deadline deadline = current();
+        return () -> {
+            final Deadline previous = current();
+            start(deadline);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs under the deadline of the current thread, on whichever thread
+     * runs it.
+     * @param task task to run under the current deadline
+     * @param <T> type of the result of the task
+     * @return the wrapped task
+     */
+    public static <T> Supplier<T> propagate(final Supplier<T> task) {
+        final Deadline deadline = current();
+        return () -> {
+            final Deadline previous = current();
+            start(deadline);
+            try {
+                return task.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(final Deadline previous) {
+        if (previous.isBounded()) {
+            start(previous);
+        } else {
+            clear();
+        }
+    }
+
+    public boolean isBounded() {
+        return this != NONE;
+    }
+
+    /**
+     * @return the time left, 0 once expired, or Long.MAX_VALUE without deadline
+     */
+    public long remainingMillis() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * Bounds a DynamoDB call by the time left: the whole call, retries included, must finish
+     * before the deadline and no single attempt may take more than the attempt bound.
+     * @return the override configuration for the call, or null without deadline
+     * @throws DeadlineExceededException if the deadline already expired
+     */
+    public AwsRequestOverrideConfiguration overrideConfiguration() {
+        if (!isBounded()) {
+            return null;
+        }
+        final long remaining = remainingMillis();
+        if (remaining == 0) {
+            throw new DeadlineExceededException("Request deadline expired before the DynamoDB call");
+        }
+        return AwsRequestOverrideConfiguration.builder()
+                .apiCallTimeout(Duration.ofMillis(remaining))
+                .apiCallAttemptTimeout(Duration.ofMillis(Math.min(remaining, maxAttemptMillis)))
+                .build();
+    }
+}
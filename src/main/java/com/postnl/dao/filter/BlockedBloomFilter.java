@@ -0,0 +1,126 @@
+package com.postnl.dao.filter;
+
+import com.postnl.hash.StringHash;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe blocked Bloom filter over strings. Every key maps to a single 512 bit block
+ * (one cache line), so a lookup touches one line of memory regardless of the number of
+ * hash functions.
+ */
+public final class BlockedBloomFilter {
+
+    private static final int LONGS_PER_BLOCK = 8;
+    private static final int BITS_PER_BLOCK = LONGS_PER_BLOCK * Long.SIZE;
+
+    private final AtomicLongArray words;
+    private final int blockCount;
+    private final int hashFunctions;
+    private final AtomicLong insertions = new AtomicLong();
+
+    private BlockedBloomFilter(final int blockCount, final int hashFunctions) {
+        this.words = new AtomicLongArray(blockCount * LONGS_PER_BLOCK);
+        this.blockCount = blockCount;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * Creates a filter sized for the given number of keys and false positive rate.
+     * @param expectedInsertions number of keys the filter is expected to hold
+     * @param falsePositiveRate target false positive rate, between 0 and 1 exclusive
+     * @return an empty filter
+     */
+    public static BlockedBloomFilter create(final long expectedInsertions, final double falsePositiveRate) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        }
+        final double bits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        final long blocks = Math.max(1L, (long) Math.ceil(bits / BITS_PER_BLOCK));
+        if (blocks > Integer.MAX_VALUE / LONGS_PER_BLOCK) {
+            throw new IllegalArgumentException("filter would exceed the maximum array size");
+        }
+        final int hashFunctions = (int) Math.max(1, Math.round(blocks * BITS_PER_BLOCK
+                / (double) expectedInsertions * Math.log(2)));
+        return new BlockedBloomFilter((int) blocks, Math.min(hashFunctions, 16));
+    }
+
+    /**
+     * Adds a key to the filter.
+     * @param key key to add
+     */
+    public void put(final String key) {
+        final long hash = StringHash.hash64(key);
+        final int base = block(hash) * LONGS_PER_BLOCK;
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            final int bit = (h1 + i * h2) & (BITS_PER_BLOCK - 1);
+            final int index = base + (bit >>> 6);
+            final long mask = 1L << bit;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(index, word, word | mask));
+        }
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * Tests a key against the filter.
+     * @param key key to test
+     * @return false if the key was definitely never added, true if it might have been
+     */
+    public boolean mightContain(final String key) {
+        final long hash = StringHash.hash64(key);
+        final int base = block(hash) * LONGS_PER_BLOCK;
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            final int bit = (h1 + i * h2) & (BITS_PER_BLOCK - 1);
+            if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitSize() {
+        return (long) words.length() * Long.SIZE;
+    }
+
+    public long memoryBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+
+    public long insertions() {
+        return insertions.get();
+    }
+
+    /**
+     * Estimates the current false positive rate from the fraction of bits set.
+     * @return estimated false positive rate
+     */
+    public double estimatedFalsePositiveRate() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) set / bitSize(), hashFunctions);
+    }
+
+    private int block(final long hash) {
+        return (int) (((StringHash.mix(hash) >>> 32) * blockCount) >>> 32);
+    }
+}
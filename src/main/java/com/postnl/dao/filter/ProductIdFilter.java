@@ -0,0 +1,261 @@
+package com.postnl.dao.filter;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Optional existence filter over known product ids. A negative answer means the id was not in
+ * the table when the filter was last rebuilt, was not created through this container since, and
+ * was not in the change feed when the filter last caught up with it. Products created by other
+ * containers reach the filter through those catch-ups: before it answers negatively, the filter
+ * reads the ids written since its previous catch-up if that was more than {@code catchUpMillis}
+ * ago. A product created elsewhere can therefore only be reported missing for the catch-up
+ * interval plus the time its write takes to reach the change index.
+ *
+ * <p>Negative answers are trusted for at most {@code maxAgeMillis} after a rebuild started.
+ * Rebuilds run on a background thread, which Lambda freezes between invocations, so a rebuild
+ * only progresses while requests are handled and the filter answers nothing but "might contain"
+ * until it finishes.
+ */
+public class ProductIdFilter {
+
+    /**
+     * Source of every product id in the table, used to rebuild the filter.
+     */
+    @FunctionalInterface
+    public interface ProductIdSource {
+        void forEach(Consumer<String> sink);
+    }
+
+    /**
+     * Source of the ids of recently written products, used to catch up between rebuilds.
+     */
+    @FunctionalInterface
+    public interface ChangedIdSource {
+        /**
+         * @param sinceMillis time in epoch milliseconds
+         * @param sink receives the id of every product written at or after that time, possibly
+         *             from several threads at once
+         */
+        void forEachSince(long sinceMillis, Consumer<String> sink);
+    }
+
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final long maxAgeMillis;
+    private final int scanSegments;
+    private final long catchUpMillis;
+
+    private final Object catchUpLock = new Object();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile BlockedBloomFilter current;
+    private volatile BlockedBloomFilter pending;
+    private volatile long builtAt;
+    private volatile long generation;
+    private volatile long caughtUpTo;
+    private volatile long caughtUpAt;
+    private volatile long catchUps;
+    private ExecutorService executor;
+
+    /**
+     * Constructs a ProductIdFilter.
+     * @param enabled whether lookups may be answered by the filter at all
+     * @param expectedInsertions number of product ids the filter is sized for
+     * @param falsePositiveRate target false positive rate
+     * @param maxAgeMillis how long a rebuilt filter may answer negatively before it is stale
+     * @param scanSegments number of parallel scan segments used for rebuilds
+     * @param catchUpMillis how long a negative answer may go without reading the ids written since
+     */
+    public ProductIdFilter(final boolean enabled, final long expectedInsertions,
+                           final double falsePositiveRate, final long maxAgeMillis,
+                           final int scanSegments, final long catchUpMillis) {
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxAgeMillis = maxAgeMillis;
+        this.scanSegments = scanSegments;
+        this.catchUpMillis = catchUpMillis;
+    }
+
+    /**
+     * Returns a filter that never answers negatively.
+     * @return a disabled filter
+     */
+    public static ProductIdFilter disabled() {
+        return new ProductIdFilter(false, 1, 0.5, 0, 1, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getScanSegments() {
+        return scanSegments;
+    }
+
+    /**
+     * Tests a product id against the filter, first catching up with the products written since
+     * the previous catch-up if the id is unknown and that catch-up is due. Concurrent lookups
+     * share one catch-up. If the catch-up fails the id might exist.
+     * @param productId id to test
+     * @param changes source of the ids of recently written products
+     * @return false only if the product definitely does not exist
+     */
+    public boolean mightContain(final String productId, final ChangedIdSource changes) {
+        if (mightContain(productId)) {
+            return true;
+        }
+        synchronized (catchUpLock) {
+            if (System.currentTimeMillis() - caughtUpAt < catchUpMillis) {
+                return mightContain(productId);
+            }
+            final long startedAt = System.currentTimeMillis();
+            try {
+                changes.forEachSince(caughtUpTo, this::put);
+            } catch (RuntimeException e) {
+                return true;
+            }
+            caughtUpTo = startedAt;
+            caughtUpAt = startedAt;
+            catchUps++;
+        }
+        return mightContain(productId);
+    }
+
+    /**
+     * Tests a product id against the filter as it is, without catching up.
+     * @param productId id to test
+     * @return false only if the product definitely does not exist
+     */
+    public boolean mightContain(final String productId) {
+        final BlockedBloomFilter filter = current;
+        if (!enabled || filter == null || isStale()) {
+            return true;
+        }
+        return filter.mightContain(productId);
+    }
+
+    /**
+     * Records a product id that was just written to the table.
+     * @param productId id of the created product
+     */
+    public void put(final String productId) {
+        if (!enabled) {
+            return;
+        }
+        // read pending before current: rebuild publishes current before clearing pending
+        final BlockedBloomFilter next = pending;
+        final BlockedBloomFilter filter = current;
+        if (next != null) {
+            next.put(productId);
+        }
+        if (filter != null) {
+            filter.put(productId);
+        }
+    }
+
+    /**
+     * Starts a background rebuild if the filter was never built or is stale and no rebuild
+     * is running yet.
+     * @param source source of all product ids
+     */
+    public void refreshIfStale(final ProductIdSource source) {
+        if (!enabled || (current != null && !isStale()) || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        executor().execute(() -> {
+            try {
+                rebuild(source);
+            } finally {
+                rebuilding.set(false);
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the filter from the given source on the calling thread.
+     * @param source source of all product ids
+     */
+    public void rebuild(final ProductIdSource source) {
+        final long startedAt = System.currentTimeMillis();
+        final BlockedBloomFilter next = BlockedBloomFilter.create(expectedInsertions, falsePositiveRate);
+        pending = next;
+        try {
+            source.forEach(next::put);
+            synchronized (catchUpLock) {
+                current = next;
+                builtAt = startedAt;
+                generation++;
+                // the scan may have missed products written while it ran
+                caughtUpTo = startedAt;
+                caughtUpAt = 0;
+            }
+        } finally {
+            pending = null;
+        }
+    }
+
+    /**
+     * Returns the current sizing and accuracy of the filter.
+     * @return filter statistics
+     */
+    public Stats getStats() {
+        final BlockedBloomFilter filter = current;
+        final Stats.StatsBuilder stats = Stats.builder()
+                .enabled(enabled)
+                .generation(generation)
+                .catchUps(catchUps)
+                .expectedInsertions(expectedInsertions)
+                .configuredFalsePositiveRate(falsePositiveRate);
+        if (filter != null) {
+            stats.ageMillis(System.currentTimeMillis() - builtAt)
+                    .stale(isStale())
+                    .insertions(filter.insertions())
+                    .bitSize(filter.bitSize())
+                    .hashFunctions(filter.hashFunctions())
+                    .memoryBytes(filter.memoryBytes())
+                    .estimatedFalsePositiveRate(filter.estimatedFalsePositiveRate());
+        }
+        return stats.build();
+    }
+
+    private boolean isStale() {
+        return System.currentTimeMillis() - builtAt > maxAgeMillis;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "product-id-filter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    public static class Stats {
+        private final boolean enabled;
+        private final long generation;
+        private final long catchUps;
+        private final long expectedInsertions;
+        private final double configuredFalsePositiveRate;
+        private final long ageMillis;
+        private final boolean stale;
+        private final long insertions;
+        private final long bitSize;
+        private final int hashFunctions;
+        private final long memoryBytes;
+        private final double estimatedFalsePositiveRate;
+    }
+}
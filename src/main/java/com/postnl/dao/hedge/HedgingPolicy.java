@@ -0,0 +1,214 @@
+package com.postnl.dao.hedge;
+
+import com.postnl.dao.deadline.Deadline;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedges idempotent reads against slow responses. A request that has not answered within the
+ * configured percentile of recent latencies is sent a second time; the first response wins and
+ * the other request is cancelled. Every request earns a fraction of a hedge, and a hedge is only
+ * sent if one has been earned, so hedges never add more than that fraction of extra load.
+ */
+public class HedgingPolicy {
+
+    private static final long TOKEN = 1000L;
+    private static final long MAX_TOKENS = 10 * TOKEN;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long earnedPerRequest;
+    private final int minSamples;
+    private final LatencyHistogram histogram;
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a HedgingPolicy.
+     * @param enabled whether requests are hedged at all
+     * @param percentile percentile of recent latencies after which a request is hedged
+     * @param minDelayMillis lower bound of the hedging delay
+     * @param budget hedges allowed per request, e.g. 0.05 for at most 5% extra requests
+     * @param minSamples latencies needed before the first hedge
+     * @param windowMillis length of the rolling latency window
+     */
+    public HedgingPolicy(final boolean enabled, final double percentile, final long minDelayMillis,
+                         final double budget, final int minSamples, final long windowMillis) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.earnedPerRequest = Math.round(budget * TOKEN);
+        this.minSamples = minSamples;
+        this.histogram = new LatencyHistogram(TimeUnit.MILLISECONDS.toNanos(windowMillis));
+        this.executor = enabled ? Executors.newCachedThreadPool(daemonThreads()) : null;
+    }
+
+    /**
+     * @return a policy that runs every request once, on the calling thread
+     */
+    public static HedgingPolicy disabled() {
+        return new HedgingPolicy(false, 0.95, 0, 0, 0, 1000);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs an idempotent request, hedging it if it is slow.
+     * @param request the request, may run twice and concurrently
+     * @param <T> type of the response
+     * @return the first response
+     * @throws RuntimeException the exception of the request if every attempt failed
+     */
+    public <T> T call(final Supplier<T> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        requests.incrementAndGet();
+        earn();
+        final long delay = hedgeDelayNanos();
+        if (delay < 0) {
+            final long startedAt = System.nanoTime();
+            final T response = request.get();
+            histogram.record(System.nanoTime() - startedAt);
+            return response;
+        }
+        // both attempts run on pool threads, under the deadline of the caller
+        final Supplier<T> attempted = Deadline.propagate(request);
+        final CompletableFuture<T> winner = new CompletableFuture<>();
+        final AtomicBoolean answered = new AtomicBoolean();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final Future<?> primary = executor.submit(() -> attempt(attempted, winner, answered, pending, false));
+        Future<?> hedge = null;
+        try {
+            try {
+                return winner.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (!spend()) {
+                    return winner.get();
+                }
+                hedges.incrementAndGet();
+                pending.incrementAndGet();
+                hedge = executor.submit(() -> attempt(attempted, winner, answered, pending, true));
+                return winner.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for the response");
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return counters of the policy since it was created
+     */
+    public Stats getStats() {
+        return Stats.builder()
+                .requests(requests.get())
+                .hedges(hedges.get())
+                .hedgeWins(hedgeWins.get())
+                .hedgeDelayMillis(TimeUnit.NANOSECONDS.toMillis(Math.max(0, hedgeDelayNanos())))
+                .build();
+    }
+
+    private <T> void attempt(final Supplier<T> request, final CompletableFuture<T> winner,
+                             final AtomicBoolean answered, final AtomicInteger pending,
+                             final boolean hedge) {
+        final long startedAt = System.nanoTime();
+        try {
+            final T response = request.get();
+            histogram.record(System.nanoTime() - startedAt);
+            if (answered.compareAndSet(false, true)) {
+                if (hedge) {
+                    hedgeWins.incrementAndGet();
+                }
+                winner.complete(response);
+            }
+        } catch (RuntimeException e) {
+            // the loser of a race fails once it is cancelled, only the last failure counts
+            if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the delay before a hedge is sent, or -1 while there are too few latencies to tell
+     */
+    long hedgeDelayNanos() {
+        if (histogram.count() < minSamples) {
+            return -1;
+        }
+        return Math.max(minDelayNanos, histogram.percentileNanos(percentile));
+    }
+
+    private void earn() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= MAX_TOKENS) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + earnedPerRequest)));
+    }
+
+    private boolean spend() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        final AtomicInteger threads = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "product-hedge-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    public static class Stats {
+        private final long requests;
+        private final long hedges;
+        private final long hedgeWins;
+        private final long hedgeDelayMillis;
+    }
+}
@@ -0,0 +1,113 @@
+package com.postnl.dao.hedge;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram over a rolling window. Latencies are counted in log-linear
+ * microsecond buckets with eight sub-buckets per power of two, so percentiles are accurate to
+ * about 12%. Two windows are kept: when the current window is older than the window length it
+ * becomes the previous one, and percentiles cover both, so they never start from nothing.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long windowNanos;
+    private volatile Window current;
+    private volatile Window previous;
+
+    /**
+     * Constructs a LatencyHistogram.
+     * @param windowNanos length of a window
+     */
+    public LatencyHistogram(final long windowNanos) {
+        this.windowNanos = windowNanos;
+        this.current = new Window(System.nanoTime());
+        this.previous = new Window(System.nanoTime());
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos the latency
+     */
+    public void record(final long nanos) {
+        final long now = System.nanoTime();
+        Window window = current;
+        if (now - window.startedAt > windowNanos) {
+            window = rotate(window, now);
+        }
+        window.counts.incrementAndGet(bucket(Math.max(0, nanos / 1000)));
+        window.total.incrementAndGet();
+    }
+
+    /**
+     * @return the number of latencies in the current and previous window
+     */
+    public long count() {
+        return current.total.get() + previous.total.get();
+    }
+
+    /**
+     * Estimates a percentile of the current and previous window.
+     * @param percentile percentile between 0 and 1
+     * @return the upper bound of the bucket holding the percentile, in nanoseconds, or -1 if empty
+     */
+    public long percentileNanos(final double percentile) {
+        final Window first = current;
+        final Window second = previous;
+        final long total = first.total.get() + second.total.get();
+        if (total == 0) {
+            return -1;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += first.counts.get(bucket) + second.counts.get(bucket);
+            if (seen >= rank) {
+                return upperBoundMicros(bucket) * 1000;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) * 1000;
+    }
+
+    private synchronized Window rotate(final Window expected, final long now) {
+        if (current != expected) {
+            return current;
+        }
+        previous = expected;
+        current = new Window(now);
+        return current;
+    }
+
+    static int bucket(final long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundMicros(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        final int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        final long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static final class Window {
+        private final long startedAt;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+
+        private Window(final long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.postnl.dao.http;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The connections of a {@link MeteredHttpClient} at one moment, and its counters since it was
+ * created.
+ */
+@Getter
+@Builder
+@ToString
+public class HttpConnectionStats {
+    private final String name;
+    private final int maxConnections;
+    private final int leased;
+    private final int pending;
+    private final int available;
+    private final long requests;
+    private final long waits;
+    private final long timeouts;
+    private final double averageWaitMillis;
+    private final double maxWaitMillis;
+}
@@ -0,0 +1,89 @@
+package com.postnl.dao.http;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+
+import java.time.Duration;
+
+/**
+ * Settings of the HTTP clients the DynamoDB clients send their requests with. Every client it
+ * creates is a {@link MeteredHttpClient}, which leases at most maxConnections connections at a
+ * time and counts how long requests wait for one.
+ */
+@Getter
+@Builder
+@ToString
+public class HttpTransport {
+
+    /**
+     * The HTTP client implementations to choose from.
+     */
+    public enum Client {
+        /**
+         * Apache HttpClient with a connection pool that reuses connections until their time to live.
+         */
+        APACHE,
+        /**
+         * The JDK's HttpURLConnection, which keeps connections alive by itself. Loads far fewer
+         * classes than Apache and so starts faster, but has no pool settings besides timeouts.
+         */
+        URL_CONNECTION
+    }
+
+    @Builder.Default
+    private final Client client = Client.APACHE;
+    @Builder.Default
+    private final int maxConnections = 50;
+    @Builder.Default
+    private final long connectTimeoutMillis = 2_000;
+    @Builder.Default
+    private final long socketTimeoutMillis = 30_000;
+    @Builder.Default
+    private final long acquireTimeoutMillis = 10_000;
+    /**
+     * Age after which a pooled connection is closed instead of reused, 0 for no limit.
+     */
+    @Builder.Default
+    private final long connectionTtlMillis = 0;
+    @Builder.Default
+    private final long connectionMaxIdleMillis = 60_000;
+    @Builder.Default
+    private final boolean reapIdleConnections = true;
+    /**
+     * Every how many requests a client logs its pool statistics, 0 for never.
+     */
+    @Builder.Default
+    private final int statsEvery = 1000;
+
+    /**
+     * @param name name of the client in its statistics and flight recorder events, e.g. its region
+     * @return a new HTTP client with these settings
+     */
+    public MeteredHttpClient create(final String name) {
+        return new MeteredHttpClient(name, delegate(), maxConnections, acquireTimeoutMillis, statsEvery);
+    }
+
+    private SdkHttpClient delegate() {
+        if (client == Client.URL_CONNECTION) {
+            return UrlConnectionHttpClient.builder()
+                    .connectionTimeout(Duration.ofMillis(connectTimeoutMillis))
+                    .socketTimeout(Duration.ofMillis(socketTimeoutMillis))
+                    .build();
+        }
+        // the metered client never lets more requests through than the pool has connections, so
+        // the pool itself does not wait; its own acquisition timeout only guards against leaks
+        return ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .socketTimeout(Duration.ofMillis(socketTimeoutMillis))
+                .connectionAcquisitionTimeout(Duration.ofMillis(acquireTimeoutMillis))
+                .connectionTimeToLive(connectionTtlMillis > 0 ? Duration.ofMillis(connectionTtlMillis) : Duration.ZERO)
+                .connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdleMillis))
+                .useIdleConnectionReaper(reapIdleConnections)
+                .build();
+    }
+}
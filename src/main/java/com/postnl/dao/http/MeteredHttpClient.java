@@ -0,0 +1,209 @@
+package com.postnl.dao.http;
+
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An HTTP client that leases one of a fixed number of connections to every request, from the
+ * moment it is sent until its response body is closed, read to its end or aborted. The client it
+ * wraps is sized to the same number of connections, so requests wait here rather than inside its
+ * pool, where nobody can see them. It counts the connections leased, the requests waiting for one
+ * and how long they waited, and records every wait as a flight recorder event.
+ */
+public class MeteredHttpClient implements SdkHttpClient {
+
+    private static final Logger LOG = LogManager.getLogger(MeteredHttpClient.class);
+
+    private final String name;
+    private final SdkHttpClient delegate;
+    private final int maxConnections;
+    private final long acquireTimeoutNanos;
+    private final int statsEvery;
+    private final Semaphore connections;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Constructs a MeteredHttpClient.
+     * @param name name of the client in its statistics and events
+     * @param delegate the client that sends the requests, with at least maxConnections connections
+     * @param maxConnections most requests in flight at once
+     * @param acquireTimeoutMillis longest a request waits for a connection before it fails
+     * @param statsEvery every how many requests the statistics are logged, 0 for never
+     */
+    public MeteredHttpClient(final String name, final SdkHttpClient delegate, final int maxConnections,
+                             final long acquireTimeoutMillis, final int statsEvery) {
+        this.name = name;
+        this.delegate = delegate;
+        this.maxConnections = maxConnections;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.statsEvery = statsEvery;
+        this.connections = new Semaphore(maxConnections, true);
+    }
+
+    @Override
+    public ExecutableHttpRequest prepareRequest(final HttpExecuteRequest request) {
+        final ExecutableHttpRequest prepared = delegate.prepareRequest(request);
+        return new ExecutableHttpRequest() {
+            @Override
+            public HttpExecuteResponse call() throws IOException {
+                final Lease lease = acquire();
+                try {
+                    final HttpExecuteResponse response = prepared.call();
+                    if (!response.responseBody().isPresent()) {
+                        lease.release();
+                        return response;
+                    }
+                    return HttpExecuteResponse.builder()
+                            .response(response.httpResponse())
+                            .responseBody(leased(response.responseBody().get(), lease))
+                            .build();
+                } catch (IOException | RuntimeException | Error e) {
+                    lease.release();
+                    throw e;
+                }
+            }
+
+            @Override
+            public void abort() {
+                prepared.abort();
+            }
+        };
+    }
+
+    @Override
+    public String clientName() {
+        return delegate.clientName();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * @return the state of the connections now and counters since the client was created
+     */
+    public HttpConnectionStats getStats() {
+        final long waited = waits.get();
+        final int available = connections.availablePermits();
+        return HttpConnectionStats.builder()
+                .name(name)
+                .maxConnections(maxConnections)
+                .leased(maxConnections - available)
+                .pending(connections.getQueueLength())
+                .available(available)
+                .requests(requests.get())
+                .waits(waited)
+                .timeouts(timeouts.get())
+                .averageWaitMillis(waited == 0 ? 0 : waitNanos.get() / waited / 1_000_000.0)
+                .maxWaitMillis(maxWaitNanos.get() / 1_000_000.0)
+                .build();
+    }
+
+    private Lease acquire() throws IOException {
+        final long request = requests.incrementAndGet();
+        if (statsEvery > 0 && request % statsEvery == 0) {
+            final HttpConnectionStats stats = getStats();
+            LOG.info(() -> "HTTP connections: " + stats);
+        }
+        if (connections.tryAcquire()) {
+            return new Lease();
+        }
+        waits.incrementAndGet();
+        final long startedAt = System.nanoTime();
+        final boolean acquired;
+        try (Span wait = Profiling.connectionAcquire(name,
+                maxConnections - connections.availablePermits(), connections.getQueueLength())) {
+            acquired = connections.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection of " + name);
+        } finally {
+            final long waited = System.nanoTime() - startedAt;
+            waitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            throw new IOException("Timeout waiting for a connection of " + name + ", all "
+                    + maxConnections + " are leased");
+        }
+        LOG.debug(() -> "Waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+                + " ms for a connection of " + name);
+        return new Lease();
+    }
+
+    /**
+     * Wraps a response body so that closing it, reading it to its end or aborting it returns the
+     * connection of the request.
+     */
+    private static AbortableInputStream leased(final AbortableInputStream body, final Lease lease) {
+        return AbortableInputStream.create(new FilterInputStream(body) {
+            @Override
+            public int read() throws IOException {
+                final int read = super.read();
+                if (read < 0) {
+                    lease.release();
+                }
+                return read;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+                final int read = super.read(buffer, offset, length);
+                if (read < 0) {
+                    lease.release();
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    lease.release();
+                }
+            }
+        }, () -> {
+            try {
+                body.abort();
+            } finally {
+                lease.release();
+            }
+        });
+    }
+
+    /**
+     * One leased connection, returned at most once.
+     */
+    private final class Lease {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                connections.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.postnl.dao.memory;
+
+import com.postnl.dao.ProductDao;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.changes.ChangeFeed;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.purge.PurgeCheckpoint;
+import com.postnl.dao.purge.PurgeResult;
+import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.dto.request.DeleteProductsRequest;
+import com.postnl.dto.request.UpdateProductRequest;
+import com.postnl.exception.CouldNotCreateProductException;
+import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.exception.UnableToUpdateException;
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Product engine that keeps every product in memory, for local runs, benchmarks and tests that
+ * should not need DynamoDB. Products live in a fixed number of stripes, each a hash map behind
+ * its own lock, so writers of different products rarely contend. Next to the stripes a
+ * concurrent skip list holds every product id in order; pages walk that index, so a cursor stays
+ * valid while products are created and deleted around it. A second skip list orders the latest
+ * change of every product by its change sequence, for the change feed; the change of a deleted
+ * product stays as its tombstone.
+ *
+ * The engine keeps the contract of {@link ProductDao}, including versions and the exceptions of
+ * conditional updates and deletes. Nothing is persisted.
+ */
+public class InMemoryProductStore implements ProductStore {
+
+    private static final int MAX_BATCH_ITEMS = 25;
+    private static final int MAX_BATCH_GET_ITEMS = 100;
+    private static final int SCAN_PAGE_SIZE = 100;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final ConcurrentSkipListSet<String> index = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListMap<String, String> changes = new ConcurrentSkipListMap<>();
+    private final int pageSize;
+    private final ProductExpiry productExpiry;
+    private final LongSupplier clock;
+
+    /**
+     * Constructs an InMemoryProductStore.
+     * @param pageSize size of pages for getProducts
+     * @param stripes number of lock stripes, rounded up to a power of two
+     * @param productExpiry derives the expiry of created products
+     */
+    public InMemoryProductStore(final int pageSize, final int stripes, final ProductExpiry productExpiry) {
+        this(pageSize, stripes, productExpiry, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructs an InMemoryProductStore.
+     * @param pageSize size of pages for getProducts and getChanges
+     * @param stripes number of lock stripes, rounded up to a power of two
+     * @param productExpiry derives the expiry of created products
+     * @param clock current time in epoch milliseconds, the time of every change
+     */
+    public InMemoryProductStore(final int pageSize, final int stripes, final ProductExpiry productExpiry,
+                                final LongSupplier clock) {
+        final int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = size - 1;
+        this.pageSize = pageSize;
+        this.productExpiry = productExpiry;
+        this.clock = clock;
+    }
+
+    @Override
+    public Product getProduct(final String productId) {
+        return findProduct(productId).orElseThrow(() -> doesNotExist(productId));
+    }
+
+    @Override
+    public Optional<Product> findProduct(final String productId) {
+        if (productId == null) {
+            return Optional.empty();
+        }
+        final Stripe stripe = stripe(productId);
+        final long stamp = stripe.lock.readLock();
+        try {
+            final Entry entry = stripe.entries.get(productId);
+            return entry == null ? Optional.empty() : Optional.of(entry.toProduct(productId));
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Every read of the in-memory store sees all earlier writes, whatever the consistency.
+     */
+    @Override
+    public Optional<Product> findProduct(final String productId, final ReadConsistency consistency) {
+        return findProduct(productId);
+    }
+
+    @Override
+    public List<Product> findProducts(final List<String> productIds) {
+        if (productIds.size() > MAX_BATCH_GET_ITEMS) {
+            throw new IllegalArgumentException("BatchGetItem takes at most " + MAX_BATCH_GET_ITEMS + " keys");
+        }
+        final List<Product> products = new ArrayList<>(productIds.size());
+        for (String productId : new LinkedHashSet<>(productIds)) {
+            findProduct(productId).ifPresent(products::add);
+        }
+        return products;
+    }
+
+    @Override
+    public ProductPage getProducts(final String offset) {
+        final List<Product> products = new ArrayList<>(pageSize);
+        String last = null;
+        for (String productId : after(offset)) {
+            if (products.size() == pageSize) {
+                break;
+            }
+            final Optional<Product> product = findProduct(productId);
+            if (product.isPresent()) {
+                products.add(product.get());
+                last = productId;
+            }
+        }
+        final ProductPage.ProductPageBuilder builder = ProductPage.builder().products(products);
+        if (last != null && index.higher(last) != null) {
+            builder.lastEvaluatedKey(last);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public ProductPage getProducts(final String offset, final ReadConsistency consistency) {
+        return getProducts(offset);
+    }
+
+    /**
+     * Changes are stamped and recorded under one monitor, so a change recorded after the feed took
+     * its upper bound is never older than that bound; only the current millisecond is left out.
+     */
+    @Override
+    public ProductPage getChanges(final String since) {
+        final String after = ChangeFeed.startAfter(since);
+        final String before;
+        synchronized (changes) {
+            before = ChangeFeed.cursor(clock.getAsLong());
+        }
+        if (after.compareTo(before) >= 0) {
+            return ProductPage.builder().products(Collections.emptyList()).lastEvaluatedKey(after).build();
+        }
+        final List<Product> products = new ArrayList<>(pageSize);
+        String last = before;
+        for (Map.Entry<String, String> change : changes.subMap(after, false, before, false).entrySet()) {
+            if (products.size() == pageSize) {
+                break;
+            }
+            final Stripe stripe = stripe(change.getValue());
+            final long stamp = stripe.lock.readLock();
+            try {
+                final Entry entry = stripe.entries.get(change.getValue());
+                if (entry == null) {
+                    // only the tombstone of a deleted product is left in the changes
+                    products.add(Product.builder().productId(change.getValue()).deleted(true).build());
+                    last = change.getKey();
+                } else if (change.getKey().equals(entry.sequence)) {
+                    // a product changed again since is served at its newer change
+                    products.add(entry.toProduct(change.getValue()));
+                    last = change.getKey();
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return ProductPage.builder().products(products).lastEvaluatedKey(products.size() < pageSize ? before : last)
+                .build();
+    }
+
+    @Override
+    public boolean recordsChanges() {
+        return true;
+    }
+
+    /**
+     * Every product of the in-memory store is recorded from its creation on.
+     */
+    @Override
+    public long backfillChanges(final int totalSegments) {
+        return 0;
+    }
+
+    @Override
+    public Product createProduct(final CreateProductRequest request) {
+        ProductDao.validate(request);
+        for (int tries = 0; tries < 10; tries++) {
+            final String productId = UUID.randomUUID().toString();
+            final Stripe stripe = stripe(productId);
+            final long stamp = stripe.lock.writeLock();
+            try {
+                if (!stripe.entries.containsKey(productId)) {
+                    final Entry entry = new Entry(request.getProductType(), request.getDeliveryDate(), 1L,
+                            productExpiry.expiresAt(request.getDeliveryDate()), record(productId, null));
+                    stripe.entries.put(productId, entry);
+                    index.add(productId);
+                    return entry.toProduct(productId);
+                }
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        throw new CouldNotCreateProductException("Unable to generate unique product id after 10 tries");
+    }
+
+    @Override
+    public Product updateProduct(final String productId, final UpdateProductRequest request) {
+        ProductDao.validate(request);
+        final Stripe stripe = stripe(productId);
+        final long stamp = stripe.lock.writeLock();
+        try {
+            final Entry current = stripe.entries.get(productId);
+            if (current == null) {
+                throw doesNotExist(productId);
+            }
+            if (current.version != request.getExpectedVersion()) {
+                throw new UnableToUpdateException(conflict(productId, request.getExpectedVersion(), current.version));
+            }
+            final Entry updated = new Entry(
+                    request.getProductType() == null ? current.productType : request.getProductType(),
+                    request.getDeliveryDate() == null ? current.deliveryDate : request.getDeliveryDate(),
+                    current.version + 1,
+                    request.getDeliveryDate() == null ? current.expiresAt
+                            : productExpiry.expiresAt(request.getDeliveryDate()),
+                    record(productId, current.sequence));
+            stripe.entries.put(productId, updated);
+            return updated.toProduct(productId);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Product deleteProduct(final String productId, final Long expectedVersion) {
+        final Stripe stripe = stripe(productId);
+        final long stamp = stripe.lock.writeLock();
+        try {
+            final Entry current = stripe.entries.get(productId);
+            if (current == null) {
+                throw doesNotExist(productId);
+            }
+            if (expectedVersion != null && current.version != expectedVersion) {
+                throw new UnableToDeleteException(conflict(productId, expectedVersion, current.version));
+            }
+            remove(stripe, productId);
+            return current.toProduct(productId);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Purges in one pass over the index. A checkpoint of this engine has a single segment; the
+     * checkpoint of another engine cannot be continued and starts the purge over.
+     */
+    @Override
+    public PurgeResult purgeProducts(final DeleteProductsRequest request, final BooleanSupplier outOfTime) {
+        ProductDao.validate(request);
+        PurgeCheckpoint checkpoint = ProductDao.checkpoint(request, 1);
+        if (checkpoint.getTotalSegments() != 1) {
+            checkpoint = PurgeCheckpoint.start(1, checkpoint.getPredicate());
+        }
+        long deleted = 0;
+        int seen = 0;
+        String last = checkpoint.startAfter(0);
+        for (String productId : after(last)) {
+            if (seen++ % SCAN_PAGE_SIZE == 0 && outOfTime.getAsBoolean()) {
+                if (last != null) {
+                    checkpoint.advance(0, last);
+                }
+                return PurgeResult.builder().deleted(deleted).failed(0).checkpoint(checkpoint.encode()).build();
+            }
+            last = productId;
+            if (deleteIf(productId, request)) {
+                deleted++;
+            }
+        }
+        return PurgeResult.builder().deleted(deleted).failed(0).build();
+    }
+
+    @Override
+    public void scanProductIds(final int totalSegments, final Consumer<String> sink) {
+        for (String productId : index) {
+            sink.accept(productId);
+        }
+    }
+
+    @Override
+    public void scanProducts(final int totalSegments, final Consumer<List<Product>> sink) {
+        scan(Long.MAX_VALUE, false, sink);
+    }
+
+    @Override
+    public void scanExpiringProducts(final int totalSegments, final long expiresAtCutoff,
+                                     final Consumer<List<Product>> sink) {
+        scan(expiresAtCutoff, true, sink);
+    }
+
+    @Override
+    public List<String> deleteProducts(final List<String> productIds) {
+        for (String productId : productIds) {
+            final Stripe stripe = stripe(productId);
+            final long stamp = stripe.lock.writeLock();
+            try {
+                remove(stripe, productId);
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Product> batchCreateProducts(final List<CreateProductRequest> requests) {
+        if (requests.size() > MAX_BATCH_ITEMS) {
+            throw new IllegalArgumentException("BatchWriteItem takes at most 25 items");
+        }
+        for (CreateProductRequest request : requests) {
+            ProductDao.validate(request);
+        }
+        final List<Product> products = new ArrayList<>(requests.size());
+        for (CreateProductRequest request : requests) {
+            products.add(createProduct(request));
+        }
+        return products;
+    }
+
+    /**
+     * @return the number of stored products
+     */
+    public int size() {
+        return index.size();
+    }
+
+    private NavigableSet<String> after(final String offset) {
+        return offset == null || offset.isEmpty() ? index : index.tailSet(offset, false);
+    }
+
+    private boolean deleteIf(final String productId, final DeleteProductsRequest request) {
+        final Stripe stripe = stripe(productId);
+        final long stamp = stripe.lock.writeLock();
+        try {
+            final Entry entry = stripe.entries.get(productId);
+            if (entry == null || !ProductDao.matches(request, entry.toProduct(productId))) {
+                return false;
+            }
+            remove(stripe, productId);
+            return true;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private void scan(final long expiresAtCutoff, final boolean expiringOnly, final Consumer<List<Product>> sink) {
+        List<Product> page = new ArrayList<>(SCAN_PAGE_SIZE);
+        for (String productId : index) {
+            final Stripe stripe = stripe(productId);
+            final long stamp = stripe.lock.readLock();
+            try {
+                final Entry entry = stripe.entries.get(productId);
+                if (entry != null && (!expiringOnly
+                        || entry.expiresAt.isPresent() && entry.expiresAt.getAsLong() <= expiresAtCutoff)) {
+                    page.add(entry.toProduct(productId));
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+            if (page.size() == SCAN_PAGE_SIZE) {
+                sink.accept(page);
+                page = new ArrayList<>(SCAN_PAGE_SIZE);
+            }
+        }
+        if (!page.isEmpty()) {
+            sink.accept(page);
+        }
+    }
+
+    /**
+     * Records the change of a product in place of its previous one. Called with the write lock
+     * of the stripe of the product held.
+     * @return the sequence of the change
+     */
+    private String record(final String productId, final String previous) {
+        synchronized (changes) {
+            final String sequence = ChangeFeed.sequence(clock.getAsLong(), productId);
+            if (previous != null) {
+                changes.remove(previous);
+            }
+            changes.put(sequence, productId);
+            return sequence;
+        }
+    }
+
+    /**
+     * Removes a product and records its delete in place of its change. Called with the write lock
+     * of its stripe held.
+     */
+    private void remove(final Stripe stripe, final String productId) {
+        final Entry removed = stripe.entries.remove(productId);
+        index.remove(productId);
+        if (removed != null) {
+            record(productId, removed.sequence);
+        }
+    }
+
+    private Stripe stripe(final String productId) {
+        final int hash = productId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+
+    private static ProductDoesNotExistException doesNotExist(final String productId) {
+        return new ProductDoesNotExistException(String.format("Product %s does not exist", productId));
+    }
+
+    private static String conflict(final String productId, final long expectedVersion, final long version) {
+        return String.format("Product %s was changed concurrently, expected version %d but it is at version %d",
+                productId, expectedVersion, version);
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private final Map<String, Entry> entries = new HashMap<>();
+    }
+
+    /**
+     * Stored state of a product. Entries are immutable, and every read returns a new
+     * {@link Product}, so callers cannot change stored products through the mutable model.
+     */
+    private static final class Entry {
+        private final String productType;
+        private final String deliveryDate;
+        private final long version;
+        private final OptionalLong expiresAt;
+        private final String sequence;
+
+        private Entry(final String productType, final String deliveryDate, final long version,
+                      final OptionalLong expiresAt, final String sequence) {
+            this.productType = productType;
+            this.deliveryDate = deliveryDate;
+            this.version = version;
+            this.expiresAt = expiresAt;
+            this.sequence = sequence;
+        }
+
+        private Product toProduct(final String productId) {
+            return new Product(productId, productType, deliveryDate, version);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.postnl.dao.packed;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * View of a packed attribute. The first read inflates the body if needed and records where each
+ * field starts; later reads only create the string of their field. A product read from a packed
+ * item reads all of its fields, so in practice every such item is decoded once, in full, when it
+ * is converted. Unknown tags, written by a newer version of the codec, are skipped.
+ */
+public class PackedFields {
+
+    private static final int MAX_TAG = 15;
+
+    private final byte[] attribute;
+    private byte[] body;
+    private int[] offsets;
+    private int[] lengths;
+    private int position;
+
+    PackedFields(final byte[] attribute) {
+        this.attribute = attribute;
+    }
+
+    /**
+     * @param tag tag of the field
+     * @return the value of the field, or null if the item does not have it
+     * @throws IllegalStateException if the attribute is not a valid packed product
+     */
+    public String get(final int tag) {
+        if (offsets == null) {
+            parse();
+        }
+        if (tag < 1 || tag > MAX_TAG || lengths[tag] < 0) {
+            return null;
+        }
+        return new String(body, offsets[tag], lengths[tag], StandardCharsets.UTF_8);
+    }
+
+    private void parse() {
+        if (attribute.length == 0 || (attribute[0] & 0xff) >>> 4 != PackedProductCodec.LAYOUT_VERSION) {
+            throw new IllegalStateException("packed attribute has an unknown layout");
+        }
+        body = (attribute[0] & PackedProductCodec.DEFLATED) != 0 ? inflate() : attribute;
+        position = body == attribute ? 1 : 0;
+        final int[] fieldOffsets = new int[MAX_TAG + 1];
+        final int[] fieldLengths = new int[MAX_TAG + 1];
+        Arrays.fill(fieldLengths, -1);
+        while (position < body.length) {
+            final int tag = readVarint();
+            final int length = readVarint();
+            if (length < 0 || position + length > body.length) {
+                throw new IllegalStateException("packed attribute is truncated");
+            }
+            if (tag >= 1 && tag <= MAX_TAG) {
+                fieldOffsets[tag] = position;
+                fieldLengths[tag] = length;
+            }
+            position += length;
+        }
+        lengths = fieldLengths;
+        offsets = fieldOffsets;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position >= body.length) {
+                throw new IllegalStateException("packed attribute is truncated");
+            }
+            final int next = body[position++] & 0xff;
+            value |= (next & 0x7f) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("packed attribute has a malformed varint");
+    }
+
+    private byte[] inflate() {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(attribute, 1, attribute.length - 1);
+            byte[] out = new byte[Math.max(64, attribute.length * 4)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                final int read = inflater.inflate(out, length, out.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("packed attribute is truncated");
+                }
+                length += read;
+            }
+            return Arrays.copyOf(out, length);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("packed attribute is not valid deflate data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
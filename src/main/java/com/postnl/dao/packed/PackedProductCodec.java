@@ -0,0 +1,124 @@
+package com.postnl.dao.packed;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Packs the non-key attributes of a product into one binary attribute. Attribute names are
+ * billed as part of every item, so each field is stored as a varint tag, a varint length and
+ * its UTF-8 bytes instead. Bodies of at least the compression threshold are deflated if that
+ * makes them smaller. The first byte of the attribute holds the layout version and whether the
+ * body is deflated, so every item can be decoded without knowing how the codec was configured.
+ *
+ * Keys, the version used in condition expressions and the expiresAt TTL attribute always stay
+ * top-level attributes.
+ */
+public class PackedProductCodec {
+
+    /** Name of the binary attribute holding the packed fields. */
+    public static final String ATTRIBUTE = "p";
+    public static final int PRODUCT_TYPE = 1;
+    public static final int DELIVERY_DATE = 2;
+
+    static final int LAYOUT_VERSION = 1;
+    static final int DEFLATED = 0x01;
+
+    private final boolean enabled;
+    private final int compressionThresholdBytes;
+
+    /**
+     * Constructs a PackedProductCodec.
+     * @param enabled whether products are written packed, packed items are read either way
+     * @param compressionThresholdBytes size from which packed bodies are deflated
+     */
+    public PackedProductCodec(final boolean enabled, final int compressionThresholdBytes) {
+        this.enabled = enabled;
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    /**
+     * @return a codec that writes products attribute per field
+     */
+    public static PackedProductCodec disabled() {
+        return new PackedProductCodec(false, Integer.MAX_VALUE);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Packs the fields of a product.
+     * @param productType type of the product
+     * @param deliveryDate delivery date of the product
+     * @return the binary attribute value
+     */
+    public AttributeValue encode(final String productType, final String deliveryDate) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        writeField(body, PRODUCT_TYPE, productType);
+        writeField(body, DELIVERY_DATE, deliveryDate);
+        final byte[] raw = body.toByteArray();
+
+        byte[] packed = null;
+        if (raw.length >= compressionThresholdBytes) {
+            packed = deflate(raw);
+        }
+        final boolean deflated = packed != null;
+        if (!deflated) {
+            packed = raw;
+        }
+        final byte[] attribute = new byte[packed.length + 1];
+        attribute[0] = (byte) (LAYOUT_VERSION << 4 | (deflated ? DEFLATED : 0));
+        System.arraycopy(packed, 0, attribute, 1, packed.length);
+        return AttributeValue.builder().b(SdkBytes.fromByteArray(attribute)).build();
+    }
+
+    /**
+     * Wraps a packed attribute without decoding it yet.
+     * @param attribute the binary attribute value
+     * @return the packed fields, decoded on first access
+     */
+    public static PackedFields decode(final AttributeValue attribute) {
+        return new PackedFields(attribute.b().asByteArray());
+    }
+
+    private static void writeField(final ByteArrayOutputStream out, final int tag, final String value) {
+        if (value == null) {
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, tag);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static void writeVarint(final ByteArrayOutputStream out, final int value) {
+        int remaining = value;
+        while ((remaining & ~0x7f) != 0) {
+            out.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    /**
+     * @return the deflated body, or null if deflating does not make it smaller
+     */
+    private static byte[] deflate(final byte[] raw) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            final byte[] buffer = new byte[raw.length];
+            final int length = deflater.deflate(buffer);
+            return deflater.finished() && length < raw.length ? Arrays.copyOf(buffer, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.postnl.dao.prefetch;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads the next page of a listing before it is asked for. After a page is served, the page
+ * after its lastEvaluatedKey is loaded in the background and kept for a short time under that
+ * cursor, so the follow-up request is answered from memory. The cache holds at most
+ * {@code maxBytes} of estimated page size and drops its least recently used pages beyond that.
+ * Prefetched pages that expire or are evicted before anyone reads them are counted as wasted.
+ */
+public class PagePrefetcher {
+
+    private static final long PAGE_OVERHEAD_BYTES = 64L;
+    private static final long PRODUCT_OVERHEAD_BYTES = 32L;
+    private static final long STRING_OVERHEAD_BYTES = 40L;
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final long maxBytes;
+    private final LongSupplier nanoClock;
+    private final Map<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+    private final Executor executor;
+    private long bytes;
+
+    /**
+     * Constructs a PagePrefetcher.
+     * @param enabled whether pages are prefetched at all
+     * @param ttlMillis time a prefetched page may be served after it was read
+     * @param maxBytes estimated size of all cached pages after which pages are evicted
+     */
+    public PagePrefetcher(final boolean enabled, final long ttlMillis, final long maxBytes) {
+        this(enabled, ttlMillis, maxBytes, System::nanoTime,
+                enabled ? Executors.newCachedThreadPool(daemonThreads()) : null);
+    }
+
+    PagePrefetcher(final boolean enabled, final long ttlMillis, final long maxBytes, final LongSupplier nanoClock,
+                   final Executor executor) {
+        this.enabled = enabled;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxBytes = maxBytes;
+        this.nanoClock = nanoClock;
+        this.executor = executor;
+    }
+
+    /**
+     * @return a prefetcher that never prefetches or serves pages
+     */
+    public static PagePrefetcher disabled() {
+        return new PagePrefetcher(false, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the prefetched page for a cursor. A prefetch that is still running is waited for,
+     * at most until the request deadline, since it is ahead of a new read of the same page.
+     * @param cursor exclusive start key of the page
+     * @return the page, or empty if it has to be read
+     */
+    public Optional<ProductPage> get(final String cursor) {
+        if (!enabled || cursor == null || cursor.isEmpty()) {
+            return Optional.empty();
+        }
+        requests.incrementAndGet();
+        final Entry entry;
+        synchronized (cache) {
+            entry = cache.get(cursor);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            if (nanoClock.getAsLong() - entry.startedAt > ttlNanos) {
+                remove(cursor, entry);
+                return Optional.empty();
+            }
+        }
+        final ProductPage page;
+        try {
+            final Deadline deadline = Deadline.current();
+            page = deadline.isBounded()
+                    ? entry.page.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS)
+                    : entry.page.get();
+        } catch (TimeoutException | ExecutionException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        if (page == null) {
+            return Optional.empty();
+        }
+        entry.used = true;
+        hits.incrementAndGet();
+        return Optional.of(page);
+    }
+
+    /**
+     * Starts reading the page after a cursor in the background, unless it is cached already.
+     * @param cursor exclusive start key of the page to read, nothing is read if null
+     * @param loader reads the page for a cursor
+     */
+    public void prefetch(final String cursor, final Function<String, ProductPage> loader) {
+        if (!enabled || cursor == null || cursor.isEmpty()) {
+            return;
+        }
+        final Entry entry;
+        synchronized (cache) {
+            final Entry existing = cache.get(cursor);
+            if (existing != null && nanoClock.getAsLong() - existing.startedAt <= ttlNanos) {
+                return;
+            }
+            if (existing != null) {
+                remove(cursor, existing);
+            }
+            entry = new Entry(nanoClock.getAsLong());
+            cache.put(cursor, entry);
+        }
+        prefetches.incrementAndGet();
+        entry.page.whenComplete((page, e) -> completed(cursor, entry, page));
+        executor.execute(Deadline.propagate(() -> {
+            try {
+                entry.page.complete(loader.apply(cursor));
+            } catch (RuntimeException e) {
+                entry.page.completeExceptionally(e);
+            }
+        }));
+    }
+
+    /**
+     * Drops every cached page, so pages read before a write are not served after it.
+     */
+    public void invalidate() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (cache) {
+            for (Entry entry : cache.values()) {
+                if (!entry.used) {
+                    wasted.incrementAndGet();
+                }
+            }
+            cache.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return counters of the prefetcher since it was created
+     */
+    public Stats getStats() {
+        synchronized (cache) {
+            return Stats.builder()
+                    .requests(requests.get())
+                    .hits(hits.get())
+                    .prefetches(prefetches.get())
+                    .wasted(wasted.get())
+                    .pages(cache.size())
+                    .bytes(bytes)
+                    .build();
+        }
+    }
+
+    private void completed(final String cursor, final Entry entry, final ProductPage page) {
+        synchronized (cache) {
+            if (cache.get(cursor) != entry) {
+                return;
+            }
+            // a page cut short by a deadline or a failed read is not worth keeping
+            if (page == null || page.isPartial()) {
+                cache.remove(cursor);
+                return;
+            }
+            entry.bytes = estimateBytes(page);
+            bytes += entry.bytes;
+            final Iterator<Map.Entry<String, Entry>> eldest = cache.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                final Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                bytes -= evicted.bytes;
+                if (!evicted.used) {
+                    wasted.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void remove(final String cursor, final Entry entry) {
+        cache.remove(cursor);
+        bytes -= entry.bytes;
+        if (!entry.used) {
+            wasted.incrementAndGet();
+        }
+    }
+
+    static long estimateBytes(final ProductPage page) {
+        long size = PAGE_OVERHEAD_BYTES + estimateBytes(page.getLastEvaluatedKey());
+        for (Product product : page.getProducts()) {
+            size += PRODUCT_OVERHEAD_BYTES + estimateBytes(product.getProductId())
+                    + estimateBytes(product.getProductType()) + estimateBytes(product.getDeliveryDate());
+        }
+        return size;
+    }
+
+    private static long estimateBytes(final String value) {
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + 2L * value.length();
+    }
+
+    private static ThreadFactory daemonThreads() {
+        final AtomicInteger threads = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "product-prefetch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Entry {
+        private final long startedAt;
+        private final CompletableFuture<ProductPage> page = new CompletableFuture<>();
+        private volatile boolean used;
+        private long bytes;
+
+        private Entry(final long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    public static class Stats {
+        private final long requests;
+        private final long hits;
+        private final long prefetches;
+        private final long wasted;
+        private final int pages;
+        private final long bytes;
+    }
+}
@@ -0,0 +1,136 @@
+package com.postnl.dao.purge;
+
+import com.postnl.hash.StringHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Progress of a bulk delete per scan segment, so a run cut short by the Lambda timeout can be
+ * resumed where every segment stopped. Encoded as {@code <segments>:<predicate>:<state>,...},
+ * where the predicate identifies what the run deletes, so a checkpoint cannot resume a run with
+ * another predicate, and a state is {@code -} for a segment that has not started, {@code *} for
+ * a finished segment, or the base64url encoded product id the segment continues after.
+ */
+public final class PurgeCheckpoint {
+
+    /**
+     * Most scan segments of a run, each of which gets its own thread.
+     */
+    public static final int MAX_SEGMENTS = 16;
+
+    private static final String NOT_STARTED = "-";
+    private static final String DONE = "*";
+
+    private final String predicate;
+    private final String[] states;
+
+    private PurgeCheckpoint(final String predicate, final String[] states) {
+        this.predicate = predicate;
+        this.states = states;
+    }
+
+    /**
+     * @param totalSegments number of scan segments, 1 to {@link #MAX_SEGMENTS}
+     * @param predicate identifies the predicate of the run, without ':'
+     * @return a checkpoint for a run that has not started
+     */
+    public static PurgeCheckpoint start(final int totalSegments, final String predicate) {
+        final String[] states = new String[totalSegments];
+        Arrays.fill(states, NOT_STARTED);
+        return new PurgeCheckpoint(predicate, states);
+    }
+
+    /**
+     * @param productType productType a purge matches, or null
+     * @param deliveredFrom inclusive lower bound of the deliveryDate a purge matches, or null
+     * @param deliveredTo exclusive upper bound of the deliveryDate a purge matches, or null
+     * @return identifies the predicate in a checkpoint
+     */
+    public static String predicateOf(final String productType, final String deliveredFrom,
+                                     final String deliveredTo) {
+        final String predicate = nullToEmpty(productType) + '\u0000' + nullToEmpty(deliveredFrom)
+                + '\u0000' + nullToEmpty(deliveredTo);
+        return Long.toHexString(StringHash.hash64(predicate));
+    }
+
+    /**
+     * @param encoded checkpoint as returned by {@link #encode}
+     * @return the checkpoint
+     * @throws IllegalArgumentException if the checkpoint is malformed
+     */
+    public static PurgeCheckpoint decode(final String encoded) {
+        final String[] parts = encoded.split(":", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("checkpoint " + encoded + " is malformed");
+        }
+        try {
+            final int totalSegments = Integer.parseInt(parts[0]);
+            final String[] states = parts[2].split(",", -1);
+            if (totalSegments < 1 || totalSegments > MAX_SEGMENTS || states.length != totalSegments) {
+                throw new IllegalArgumentException("checkpoint " + encoded + " is malformed");
+            }
+            for (String state : states) {
+                if (!NOT_STARTED.equals(state) && !DONE.equals(state)) {
+                    Base64.getUrlDecoder().decode(state);
+                }
+            }
+            return new PurgeCheckpoint(parts[1], states);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("checkpoint " + encoded + " is malformed");
+        }
+    }
+
+    public String encode() {
+        return states.length + ":" + predicate + ":" + String.join(",", states);
+    }
+
+    public String getPredicate() {
+        return predicate;
+    }
+
+    public int getTotalSegments() {
+        return states.length;
+    }
+
+    public boolean isDone(final int segment) {
+        return DONE.equals(states[segment]);
+    }
+
+    public boolean isComplete() {
+        for (String state : states) {
+            if (!DONE.equals(state)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param segment scan segment
+     * @return product id the segment continues after, or null if it starts from the beginning
+     */
+    public String startAfter(final int segment) {
+        final String state = states[segment];
+        if (NOT_STARTED.equals(state) || DONE.equals(state)) {
+            return null;
+        }
+        return new String(Base64.getUrlDecoder().decode(state), StandardCharsets.UTF_8);
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Records the progress of a segment. Every segment only touches its own slot.
+     * @param segment scan segment
+     * @param lastProductId last product id the segment handled, or null if the segment is finished;
+     *     every matching product up to it must have been deleted
+     */
+    public void advance(final int segment, final String lastProductId) {
+        states[segment] = lastProductId == null ? DONE
+                : Base64.getUrlEncoder().withoutPadding().encodeToString(lastProductId.getBytes(StandardCharsets.UTF_8));
+    }
+}
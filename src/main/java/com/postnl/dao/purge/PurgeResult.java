@@ -0,0 +1,17 @@
+package com.postnl.dao.purge;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Outcome of one bulk delete run. checkpoint is null once every segment is finished.
+ */
+@Getter
+@Builder
+@ToString
+public class PurgeResult {
+    private final long deleted;
+    private final long failed;
+    private final String checkpoint;
+}
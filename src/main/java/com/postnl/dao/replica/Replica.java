@@ -0,0 +1,53 @@
+package com.postnl.dao.replica;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+/**
+ * A replica of the product table behind its own client, with exponentially weighted moving
+ * averages of the latency and the error rate of the reads sent to it.
+ */
+public class Replica {
+
+    private final String name;
+    private final DynamoDbClient client;
+    private double latencyNanos = Double.NaN;
+    private double errorRate;
+
+    /**
+     * Constructs a Replica.
+     * @param name name of the replica in logs and stats, e.g. its region
+     * @param client client of the replica
+     */
+    public Replica(final String name, final DynamoDbClient client) {
+        this.name = name;
+        this.client = client;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    DynamoDbClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return average latency in nanoseconds, or NaN before the first successful read
+     */
+    synchronized double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    synchronized void recordSuccess(final long nanos, final double smoothing) {
+        latencyNanos = Double.isNaN(latencyNanos) ? nanos : latencyNanos + smoothing * (nanos - latencyNanos);
+        errorRate -= smoothing * errorRate;
+    }
+
+    synchronized void recordFailure(final double smoothing) {
+        errorRate += smoothing * (1 - errorRate);
+    }
+}
@@ -0,0 +1,189 @@
+package com.postnl.dao.replica;
+
+import com.postnl.dao.deadline.Deadline;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Routes eventually consistent reads to the fastest healthy replica of a global table. Every
+ * replica keeps moving averages of its latency and error rate. A read goes to the replica with
+ * the lowest latency among those whose error rate is below the limit, except that every n-th
+ * read probes one of the others in turn, so a replica that got faster or recovered is noticed.
+ * A read that fails because of its replica, by a server error, throttling or a connection
+ * problem, fails over to the next replica while the request deadline allows it.
+ *
+ * <p>Writes and strongly consistent reads do not go through the selector: a strongly consistent
+ * read of a global table only sees the writes made in its own region.
+ */
+public class ReplicaSelector {
+
+    private static final Logger LOG = LogManager.getLogger(ReplicaSelector.class);
+
+    private final List<Replica> replicas;
+    private final double smoothing;
+    private final int probeEvery;
+    private final double maxErrorRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    /**
+     * Constructs a ReplicaSelector.
+     * @param replicas the replicas to read from, the home region first; none disables the selector
+     * @param smoothing weight of the newest sample in the moving averages, between 0 and 1
+     * @param probeEvery every how many reads one goes to a replica that is not the fastest, 0 for never
+     * @param maxErrorRate error rate above which a replica is only read from if all are above it
+     */
+    public ReplicaSelector(final List<Replica> replicas, final double smoothing, final int probeEvery,
+                           final double maxErrorRate) {
+        this.replicas = new ArrayList<>(replicas);
+        this.smoothing = smoothing;
+        this.probeEvery = probeEvery;
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * @return a selector that reads from the home region only
+     */
+    public static ReplicaSelector disabled() {
+        return new ReplicaSelector(Collections.emptyList(), 0.2, 0, 1.0);
+    }
+
+    public boolean isEnabled() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Runs an idempotent read against the best replica, failing over to the others.
+     * @param home client of the home region, read from if the selector is disabled
+     * @param read the read, may run once per replica
+     * @param <T> type of the response
+     * @return the first successful response
+     * @throws RuntimeException the failure of the read if it was not caused by the replica, or
+     *     the last failure if every replica that was tried failed
+     */
+    public <T> T read(final DynamoDbClient home, final Function<DynamoDbClient, T> read) {
+        if (!isEnabled()) {
+            return read.apply(home);
+        }
+        final long request = requests.incrementAndGet();
+        final List<Replica> ranked = ranked();
+        if (ranked.size() > 1 && probeEvery > 0 && request % probeEvery == 0) {
+            final Replica probed = ranked.remove(1 + (int) (probes.getAndIncrement() % (ranked.size() - 1)));
+            ranked.add(0, probed);
+        }
+        RuntimeException failure = null;
+        for (Replica replica : ranked) {
+            if (failure != null) {
+                final Deadline deadline = Deadline.current();
+                if (deadline.isBounded() && deadline.remainingMillis() <= 0) {
+                    break;
+                }
+                failovers.incrementAndGet();
+                final RuntimeException failed = failure;
+                LOG.debug(() -> "Failing over to replica " + replica.getName() + " after " + failed);
+            }
+            final long startedAt = System.nanoTime();
+            try {
+                final T response = read.apply(replica.getClient());
+                replica.recordSuccess(System.nanoTime() - startedAt, smoothing);
+                return response;
+            } catch (RuntimeException e) {
+                if (!isReplicaFailure(e)) {
+                    throw e;
+                }
+                replica.recordFailure(smoothing);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @return counters of the selector since it was created
+     */
+    public Stats getStats() {
+        return Stats.builder()
+                .requests(requests.get())
+                .probes(probes.get())
+                .failovers(failovers.get())
+                .preferred(isEnabled() ? ranked().get(0).getName() : null)
+                .build();
+    }
+
+    /**
+     * @return the replicas from best to worst; healthy replicas first, then by latency, with
+     *     replicas that have not answered yet before all others
+     */
+    List<Replica> ranked() {
+        final List<Ranking> rankings = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            rankings.add(new Ranking(replica, replica.getLatencyNanos(), replica.getErrorRate()));
+        }
+        rankings.sort(Comparator.<Ranking>comparingInt(ranking -> ranking.errorRate < maxErrorRate ? 0 : 1)
+                .thenComparingDouble(ranking -> Double.isNaN(ranking.latencyNanos) ? -1 : ranking.latencyNanos)
+                .thenComparingDouble(ranking -> ranking.errorRate));
+        final List<Replica> ranked = new ArrayList<>(rankings.size());
+        for (Ranking ranking : rankings) {
+            ranked.add(ranking.replica);
+        }
+        return ranked;
+    }
+
+    /**
+     * Failures that say something about the replica rather than about the read or its caller.
+     */
+    private static boolean isReplicaFailure(final RuntimeException e) {
+        if (Thread.currentThread().isInterrupted()
+                || e instanceof ApiCallTimeoutException || e instanceof AbortedException) {
+            return false;
+        }
+        if (e instanceof SdkServiceException) {
+            final SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.statusCode() >= 500 || serviceException.isThrottlingException();
+        }
+        return e instanceof ApiCallAttemptTimeoutException || e instanceof SdkClientException;
+    }
+
+    /**
+     * The averages of a replica at one moment, so sorting sees values that do not change.
+     */
+    private static final class Ranking {
+        private final Replica replica;
+        private final double latencyNanos;
+        private final double errorRate;
+
+        private Ranking(final Replica replica, final double latencyNanos, final double errorRate) {
+            this.replica = replica;
+            this.latencyNanos = latencyNanos;
+            this.errorRate = errorRate;
+        }
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    public static class Stats {
+        private final long requests;
+        private final long probes;
+        private final long failovers;
+        private final String preferred;
+    }
+}
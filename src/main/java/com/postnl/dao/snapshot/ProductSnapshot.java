@@ -0,0 +1,216 @@
+package com.postnl.dao.snapshot;
+
+import com.postnl.model.Product;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only, memory-mapped view of a snapshot file written by {@link ProductSnapshotWriter}.
+ * Products are served in product id order straight from the mapped buffer.
+ *
+ * <p>The snapshot counts its references: the engine holds one while it is current, and every
+ * reader holds one while it reads. Once the last is released the file is unmapped and deleted,
+ * instead of holding on to its space in {@code /tmp} until the buffer is garbage collected.
+ */
+class ProductSnapshot {
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final int itemCount;
+    private final long createdAt;
+    private final long changeVersion;
+    private final int indexOffset;
+
+    private ProductSnapshot(final Path file, final ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != ProductSnapshotWriter.MAGIC) {
+            throw new IllegalStateException("not a product snapshot: " + file);
+        }
+        this.itemCount = buffer.getInt(4);
+        this.createdAt = buffer.getLong(8);
+        this.changeVersion = buffer.getLong(16);
+        this.indexOffset = buffer.getInt(24);
+    }
+
+    /**
+     * Maps a finished snapshot file.
+     * @param file snapshot file
+     * @return the mapped snapshot
+     * @throws IOException if the file could not be mapped
+     */
+    static ProductSnapshot open(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ProductSnapshot(file, buffer.order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getChangeVersion() {
+        return changeVersion;
+    }
+
+    /**
+     * Takes a reference for reading.
+     * @return false if the snapshot was already released for good and must not be read
+     */
+    boolean retain() {
+        while (true) {
+            final int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference; the last one unmaps and deletes the file.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            unmap(buffer);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // /tmp is discarded together with the container
+            }
+        }
+    }
+
+    /**
+     * Reads products in product id order.
+     * @param start position in the sorted index of the first product to read
+     * @param limit maximum number of products to read
+     * @return the products
+     */
+    List<Product> read(final int start, final int limit) {
+        final int end = (int) Math.min((long) start + limit, itemCount);
+        final List<Product> products = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            int offset = recordOffset(i);
+            final String productId = readField(offset);
+            offset += fieldSize(offset);
+            final String productType = readField(offset);
+            offset += fieldSize(offset);
+            final String deliveryDate = readField(offset);
+            offset += fieldSize(offset);
+            final String version = readField(offset);
+            products.add(new Product(productId, productType, deliveryDate,
+                    version == null ? null : Long.valueOf(version)));
+        }
+        return products;
+    }
+
+    /**
+     * Finds the position of the first product with an id greater than the given one.
+     * @param productId product id to search for
+     * @return position in the sorted index
+     */
+    int positionAfter(final String productId) {
+        final byte[] bytes = productId.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer key = ByteBuffer.allocate(Short.BYTES + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        key.putShort((short) bytes.length).put(bytes);
+        int low = 0;
+        int high = itemCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareField(buffer, recordOffset(mid), key, 0) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the length-prefixed UTF-8 fields at two offsets byte by byte.
+     */
+    static int compareField(final ByteBuffer left, final int leftOffset,
+                            final ByteBuffer right, final int rightOffset) {
+        final int leftLength = Math.max(0, left.getShort(leftOffset));
+        final int rightLength = Math.max(0, right.getShort(rightOffset));
+        final int length = Math.min(leftLength, rightLength);
+        for (int i = 0; i < length; i++) {
+            final int cmp = Integer.compare(left.get(leftOffset + Short.BYTES + i) & 0xff,
+                    right.get(rightOffset + Short.BYTES + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(leftLength, rightLength);
+    }
+
+    /**
+     * Frees a mapping right away. There is no public API for it: Java 9 and later offer
+     * Unsafe.invokeCleaner, Java 8 the cleaner of the buffer. If neither works the mapping is
+     * freed once the buffer is garbage collected.
+     */
+    private static void unmap(final ByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    final Method clean = cleaner.getClass().getMethod("clean");
+                    clean.setAccessible(true);
+                    clean.invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the garbage collector
+        }
+    }
+
+    private int recordOffset(final int position) {
+        return buffer.getInt(indexOffset + position * Integer.BYTES);
+    }
+
+    private int fieldSize(final int offset) {
+        return Short.BYTES + Math.max(0, buffer.getShort(offset));
+    }
+
+    private String readField(final int offset) {
+        final int length = buffer.getShort(offset);
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset + Short.BYTES);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,353 @@
+package com.postnl.dao.snapshot;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Optional engine serving product pages from a memory-mapped snapshot of the table under
+ * {@code /tmp}. Snapshot pages are ordered by product id and use cursors of the form
+ * {@code ~<snapshot>.<position>.<lastProductId>}. A cursor from another snapshot, for example
+ * one built by another container, resumes after its last product id.
+ *
+ * <p>Snapshots are only ever built in the background, once they are older than
+ * {@code maxAgeMillis}, or when the table changed since the snapshot was taken. A change is seen
+ * through the time of the newest change in the table, written by any container, which is polled
+ * at most once per {@link #MIN_REFRESH_INTERVAL_MILLIS}. Listings without a cursor fall back to
+ * DynamoDB until the first snapshot is ready. A snapshot cursor cannot continue in DynamoDB, which
+ * scans in another order, so it waits for the first snapshot as long as its request deadline
+ * allows, and otherwise fails with a {@link CursorExpiredException} and the client starts its
+ * listing over.
+ *
+ * <p>A replaced snapshot is unmapped and its file deleted once its last reader is done. Snapshot
+ * files an earlier process left in the directory are deleted before the first snapshot is built.
+ */
+public class ProductSnapshotEngine {
+
+    private static final String CURSOR_PREFIX = "~";
+    private static final String FILE_PREFIX = "products-";
+    private static final String FILE_SUFFIX = ".snapshot";
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * Source of every product in the table, delivered in pages from any number of threads.
+     */
+    @FunctionalInterface
+    public interface ProductSource {
+        void export(Consumer<List<Product>> sink);
+    }
+
+    /**
+     * Source of the time of the newest change in the table.
+     */
+    @FunctionalInterface
+    public interface ChangeWatermark {
+        /**
+         * @return the time of the newest change in epoch milliseconds, 0 if changes are not recorded
+         */
+        long latestChange();
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxAgeMillis;
+    private final int scanSegments;
+
+    private final AtomicLong latestChange = new AtomicLong();
+    private final AtomicLong polledAt = new AtomicLong();
+    private final Object refreshLock = new Object();
+    private volatile ProductSnapshot current;
+    private boolean leftoversDeleted;
+    private CompletableFuture<Void> refreshing;
+    private ExecutorService executor;
+
+    /**
+     * Constructs a ProductSnapshotEngine.
+     * @param enabled whether pages may be served from snapshots at all
+     * @param directory directory the snapshot files are written to
+     * @param maxAgeMillis age after which a snapshot is refreshed
+     * @param scanSegments number of parallel scan segments used for exports
+     */
+    public ProductSnapshotEngine(final boolean enabled, final Path directory,
+                                 final long maxAgeMillis, final int scanSegments) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxAgeMillis = maxAgeMillis;
+        this.scanSegments = scanSegments;
+    }
+
+    /**
+     * Returns an engine that never serves pages.
+     * @return a disabled engine
+     */
+    public static ProductSnapshotEngine disabled() {
+        return new ProductSnapshotEngine(false, Paths.get(System.getProperty("java.io.tmpdir")), 0, 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getScanSegments() {
+        return scanSegments;
+    }
+
+    /**
+     * @param cursor exclusive start key of a page, may be null
+     * @return whether the cursor points into a snapshot rather than the table
+     */
+    public static boolean isSnapshotCursor(final String cursor) {
+        return cursor != null && cursor.startsWith(CURSOR_PREFIX);
+    }
+
+    /**
+     * Serves a page from the snapshot. Never exports the table on the calling thread.
+     * @param cursor exclusive start key of the page, may be null
+     * @param pageSize maximum number of products in the page
+     * @param source source used to export the table when a snapshot is needed
+     * @param watermark source of the newest change, telling whether the snapshot is behind the table
+     * @return the page, or empty if the page has to be read from DynamoDB
+     * @throws CursorExpiredException if the cursor is a snapshot cursor and there is no snapshot
+     *     to continue in before the request deadline
+     */
+    public Optional<ProductPage> getProducts(final String cursor, final int pageSize,
+                                             final ProductSource source, final ChangeWatermark watermark) {
+        final boolean snapshotCursor = isSnapshotCursor(cursor);
+        if (!enabled) {
+            if (snapshotCursor) {
+                throw new CursorExpiredException("Listing snapshots are not enabled, start the listing over");
+            }
+            return Optional.empty();
+        }
+        if (cursor != null && !cursor.isEmpty() && !snapshotCursor) {
+            return Optional.empty();
+        }
+        ProductSnapshot snapshot = retainCurrent();
+        if (snapshot == null) {
+            final CompletableFuture<Void> refresh = refreshInBackground(source, watermark);
+            if (!snapshotCursor) {
+                return Optional.empty();
+            }
+            snapshot = awaitFirstSnapshot(refresh);
+        }
+        try {
+            if (isStale(snapshot, watermark)) {
+                refreshInBackground(source, watermark);
+            }
+            final int start = snapshotCursor ? position(snapshot, cursor) : 0;
+            final List<Product> products = snapshot.read(start, pageSize);
+            final ProductPage.ProductPageBuilder builder = ProductPage.builder().products(products);
+            final int next = start + products.size();
+            if (next < snapshot.getItemCount()) {
+                builder.lastEvaluatedKey(CURSOR_PREFIX + snapshot.getCreatedAt() + "." + next + "."
+                        + products.get(products.size() - 1).getProductId());
+            }
+            return Optional.of(builder.build());
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Exports the table into a new snapshot on the calling thread and swaps it in.
+     * @param source source of all products
+     * @param watermark source of the newest change, recorded as the change the snapshot reflects
+     * @throws UncheckedIOException if the snapshot could not be written
+     */
+    public void refresh(final ProductSource source, final ChangeWatermark watermark) {
+        synchronized (refreshLock) {
+            // read before the export, so a change the export may have missed is newer than the snapshot
+            final long version = poll(watermark);
+            final long startedAt = System.currentTimeMillis();
+            Path file = null;
+            try {
+                Files.createDirectories(directory);
+                deleteLeftovers();
+                file = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+                try (ProductSnapshotWriter writer = new ProductSnapshotWriter(file)) {
+                    source.export(page -> {
+                        try {
+                            writer.append(page);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    writer.finish(startedAt, version);
+                }
+                final ProductSnapshot previous = current;
+                current = ProductSnapshot.open(file);
+                file = null;
+                if (previous != null) {
+                    // readers still holding the previous snapshot keep it mapped until they are done
+                    previous.release();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * @return the current snapshot with a reference taken for reading, or null if there is none
+     */
+    private ProductSnapshot retainCurrent() {
+        while (true) {
+            final ProductSnapshot snapshot = current;
+            if (snapshot == null || snapshot.retain()) {
+                return snapshot;
+            }
+            // released while being replaced, the next read of current sees its replacement
+        }
+    }
+
+    /**
+     * Deletes the snapshot files of earlier processes, whose mappings died with them. Called
+     * under the refresh lock, once.
+     */
+    private void deleteLeftovers() throws IOException {
+        if (leftoversDeleted) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        }
+        leftoversDeleted = true;
+    }
+
+    /**
+     * Starts a refresh unless one is running already.
+     * @return the running refresh
+     */
+    private synchronized CompletableFuture<Void> refreshInBackground(final ProductSource source,
+                                                                     final ChangeWatermark watermark) {
+        if (refreshing == null) {
+            final CompletableFuture<Void> refresh = new CompletableFuture<>();
+            refreshing = refresh;
+            executor().execute(() -> {
+                try {
+                    refresh(source, watermark);
+                    refresh.complete(null);
+                } catch (RuntimeException e) {
+                    // keep serving the previous snapshot, the next stale read retries
+                    refresh.completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        refreshing = null;
+                    }
+                }
+            });
+        }
+        return refreshing;
+    }
+
+    /**
+     * Waits for the first snapshot of this container as long as the request deadline allows, so
+     * a walk that started in another container's snapshot continues after its last product id.
+     * @return the snapshot with a reference taken for reading
+     * @throws CursorExpiredException if no snapshot was built in time
+     */
+    private ProductSnapshot awaitFirstSnapshot(final CompletableFuture<Void> refresh) {
+        try {
+            refresh.get(Deadline.current().remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // the walk cannot continue, the client starts over
+        }
+        final ProductSnapshot snapshot = retainCurrent();
+        if (snapshot == null) {
+            throw new CursorExpiredException("The snapshot of the cursor is gone, start the listing over");
+        }
+        return snapshot;
+    }
+
+    private boolean isStale(final ProductSnapshot snapshot, final ChangeWatermark watermark) {
+        final long age = System.currentTimeMillis() - snapshot.getCreatedAt();
+        return age > maxAgeMillis
+                || (age > MIN_REFRESH_INTERVAL_MILLIS && latestChange(watermark) > snapshot.getChangeVersion());
+    }
+
+    /**
+     * Polls the newest change at most once per {@link #MIN_REFRESH_INTERVAL_MILLIS}; in between,
+     * and when a poll fails, the last known change is returned.
+     */
+    private long latestChange(final ChangeWatermark watermark) {
+        final long now = System.currentTimeMillis();
+        final long last = polledAt.get();
+        if (now - last >= MIN_REFRESH_INTERVAL_MILLIS && polledAt.compareAndSet(last, now)) {
+            return poll(watermark);
+        }
+        return latestChange.get();
+    }
+
+    /**
+     * @return the newest change, or the last known one if it cannot be read
+     */
+    private long poll(final ChangeWatermark watermark) {
+        try {
+            return latestChange.accumulateAndGet(watermark.latestChange(), Math::max);
+        } catch (RuntimeException e) {
+            // the snapshot still refreshes by age, the next poll retries
+            return latestChange.get();
+        }
+    }
+
+    private static int position(final ProductSnapshot snapshot, final String cursor) {
+        final String[] parts = cursor.substring(CURSOR_PREFIX.length()).split("\\.", 3);
+        if (parts.length == 3) {
+            try {
+                if (Long.parseLong(parts[0]) == snapshot.getCreatedAt()) {
+                    return Math.max(0, Integer.parseInt(parts[1]));
+                }
+            } catch (NumberFormatException e) {
+                return snapshot.positionAfter(parts[2]);
+            }
+            return snapshot.positionAfter(parts[2]);
+        }
+        return snapshot.positionAfter(cursor.substring(CURSOR_PREFIX.length()));
+    }
+
+    private static void deleteQuietly(final Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // /tmp is discarded together with the container
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "product-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,139 @@
+package com.postnl.dao.snapshot;
+
+import com.postnl.model.Product;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a snapshot file. Pages may be appended from several scan threads at once; records are
+ * stored in arrival order and {@link #finish(long, long)} appends an index sorted by product id.
+ *
+ * <pre>
+ * header:  int magic, int itemCount, long createdAt, long changeVersion, int indexOffset
+ * records: productId, productType, deliveryDate and version in decimal, each a short length
+ *          followed by that many UTF-8 bytes, -1 for null
+ * index:   itemCount int record offsets, ordered by product id
+ * </pre>
+ */
+class ProductSnapshotWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x50534e32;
+    static final int HEADER_SIZE = 28;
+    static final int FIELDS = 4;
+
+    private final FileChannel channel;
+    private int[] offsets = new int[1024];
+    private int count;
+    private long position = HEADER_SIZE;
+
+    ProductSnapshotWriter(final Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+    }
+
+    /**
+     * Appends a page of products.
+     * @param products products to append
+     * @throws IOException if the file could not be written
+     */
+    void append(final List<Product> products) throws IOException {
+        final byte[][] fields = new byte[products.size() * FIELDS][];
+        int size = 0;
+        for (int i = 0; i < products.size(); i++) {
+            final Product product = products.get(i);
+            size += encode(fields, i * FIELDS, product.getProductId());
+            size += encode(fields, i * FIELDS + 1, product.getProductType());
+            size += encode(fields, i * FIELDS + 2, product.getDeliveryDate());
+            size += encode(fields, i * FIELDS + 3,
+                    product.getVersion() == null ? null : Long.toString(product.getVersion()));
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        synchronized (this) {
+            if (position + size > Integer.MAX_VALUE) {
+                throw new IOException("snapshot exceeds 2 GB");
+            }
+            for (int i = 0; i < products.size(); i++) {
+                addOffset((int) position + buffer.position());
+                for (int field = i * FIELDS; field < (i + 1) * FIELDS; field++) {
+                    if (fields[field] == null) {
+                        buffer.putShort((short) -1);
+                    } else {
+                        buffer.putShort((short) fields[field].length).put(fields[field]);
+                    }
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Writes the sorted index and the header.
+     * @param createdAt time the export started
+     * @param changeVersion change version the snapshot reflects
+     * @throws IOException if the file could not be written
+     */
+    synchronized void finish(final long createdAt, final long changeVersion) throws IOException {
+        final int indexOffset = (int) position;
+        final int[] sorted = sortByProductId();
+        final ByteBuffer index = ByteBuffer.allocate(count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        index.asIntBuffer().put(sorted);
+        while (index.hasRemaining()) {
+            position += channel.write(index, position);
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(count)
+                .putLong(createdAt)
+                .putLong(changeVersion)
+                .putInt(indexOffset);
+        header.flip();
+        channel.write(header, 0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int[] sortByProductId() throws IOException {
+        final ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, position)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        return Arrays.stream(offsets, 0, count)
+                .boxed()
+                .sorted((left, right) -> ProductSnapshot.compareField(records, left, records, right))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private void addOffset(final int offset) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = offset;
+    }
+
+    private static int encode(final byte[][] fields, final int index, final String value) {
+        if (value == null) {
+            fields[index] = null;
+            return Short.BYTES;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("attribute too long for snapshot");
+        }
+        fields[index] = bytes;
+        return Short.BYTES + bytes.length;
+    }
+}
@@ -0,0 +1,26 @@
+package com.postnl.dto.request;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Predicate of a bulk delete. Products match if they have the productType, when set, and a
+ * deliveryDate in [deliveredFrom, deliveredTo), when set. checkpoint resumes an earlier run.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonAutoDetect
+public class DeleteProductsRequest {
+    private String productType;
+    private String deliveredFrom;
+    private String deliveredTo;
+    private Integer segments;
+    private String checkpoint;
+}
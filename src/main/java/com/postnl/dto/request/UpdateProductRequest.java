@@ -0,0 +1,24 @@
+package com.postnl.dto.request;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Partial update of a product. Attributes left null are not changed. expectedVersion is the
+ * version the update is based on, 0 for products stored before versioning.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonAutoDetect
+public class UpdateProductRequest {
+    private String productType;
+    private String deliveryDate;
+    private Long expectedVersion;
+}
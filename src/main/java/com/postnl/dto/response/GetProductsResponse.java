@@ -2,6 +2,7 @@ package com.postnl.dto.response;
 
 import com.postnl.model.Product;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -13,4 +14,8 @@ import java.util.List;
 public class GetProductsResponse {
     private final int total;
     private final List<Product> products;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String lastEvaluatedKey;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private final boolean partial;
 }
@@ -0,0 +1,13 @@
+package com.postnl.exception;
+
+public class CouldNotCreatePackageException extends IllegalStateException {
+
+    public CouldNotCreatePackageException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,13 @@
+package com.postnl.exception;
+
+public class CursorExpiredException extends IllegalStateException {
+
+    public CursorExpiredException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,12 @@
+package com.postnl.exception;
+
+public class DeadlineExceededException extends IllegalStateException {
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
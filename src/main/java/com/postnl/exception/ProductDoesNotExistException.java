@@ -5,4 +5,9 @@ public class ProductDoesNotExistException extends IllegalArgumentException {
     public ProductDoesNotExistException(String message) {
         super(message);
     }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
 }
@@ -6,4 +6,8 @@ public class UnableToDeleteException extends IllegalStateException {
         super(message);
     }
 
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
 }
@@ -4,4 +4,9 @@ public class UnableToUpdateException extends IllegalStateException {
     public UnableToUpdateException(String message) {
         super(message);
     }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
 }
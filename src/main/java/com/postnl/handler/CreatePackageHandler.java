@@ -0,0 +1,115 @@
+package com.postnl.handler;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.PackageDao;
+import com.postnl.dto.request.CreatePackageRequest;
+import com.postnl.dto.response.ErrorMessage;
+import com.postnl.dto.response.GatewayResponse;
+import com.postnl.exception.CouldNotCreatePackageException;
+import com.postnl.model.Package;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.inject.Inject;
+
+public class CreatePackageHandler implements DefaultRequestStreamHandler {
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    PackageDao packageDao;
+
+    private final ProductComponent productComponent;
+
+    public CreatePackageHandler() {
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "POST /packages";
+    }
+
+    @Override
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
+        final JsonNode event;
+        try {
+            event = readEvent(objectMapper, input);
+        } catch (JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+
+        if (event == null) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, "event was null");
+            return;
+        }
+        JsonNode createPackageRequestBody = event.findValue("body");
+        if (createPackageRequestBody == null) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage("Body was null",
+                                            SC_BAD_REQUEST)),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+
+        final CreatePackageRequest request;
+        try {
+            request = objectMapper.treeToValue(
+                    objectMapper.readTree(createPackageRequestBody.asText()),
+                    CreatePackageRequest.class);
+        } catch (JsonParseException | JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+
+        if (request == null) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(REQUEST_WAS_NULL_ERROR),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+
+        try {
+            final Package createdPackage = packageDao.createPackage(request);
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(objectMapper.writeValueAsString(createdPackage),
+                            APPLICATION_JSON, SC_CREATED));
+        } catch (IllegalArgumentException e) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage(e.getMessage(), SC_BAD_REQUEST)),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+        } catch (CouldNotCreatePackageException e) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage(e.getMessage(),
+                                            SC_INTERNAL_SERVER_ERROR)),
+                            APPLICATION_JSON, SC_INTERNAL_SERVER_ERROR));
+        }
+    }
+}
@@ -2,12 +2,15 @@ package com.postnl.handler;
 
 import com.postnl.config.DaggerProductComponent;
 import com.postnl.config.ProductComponent;
-import com.postnl.dao.ProductDao;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.consistency.SessionTokens;
 import com.postnl.exception.CouldNotCreateProductException;
 import com.postnl.model.Product;
 import com.postnl.dto.request.CreateProductRequest;
 import com.postnl.dto.response.ErrorMessage;
 import com.postnl.dto.response.GatewayResponse;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -28,21 +31,36 @@ public class CreateProductHandler implements DefaultRequestStreamHandler {
     ObjectMapper objectMapper;
 
     @Inject
-    ProductDao productDao;
+    ProductStore productStore;
+
+    @Inject
+    SessionTokens sessionTokens;
 
     private final ProductComponent productComponent;
 
     public CreateProductHandler() {
-        productComponent = DaggerProductComponent.builder().build();
-        productComponent.inject(this);
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "POST /products";
+    }
+
+    @Override
+    public ObjectMapper objectMapper() {
+        return objectMapper;
     }
 
     @Override
-    public void handleRequest(InputStream input, OutputStream output,
-                              Context context) throws IOException {
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
         final JsonNode event;
         try {
-            event = objectMapper.readTree(input);
+            event = readEvent(objectMapper, input);
         } catch (JsonMappingException e) {
             writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
             return;
@@ -95,10 +113,11 @@ public class CreateProductHandler implements DefaultRequestStreamHandler {
         }
 
         try {
-            final Product product = productDao.createProduct(request);
+            final Product product = productStore.createProduct(request);
             objectMapper.writeValue(output,
                     new GatewayResponse<>(objectMapper.writeValueAsString(product),
-                            APPLICATION_JSON, SC_CREATED));
+                            sessionHeaders(sessionTokens.issue(header(event, SESSION_TOKEN), product.getProductId())),
+                            SC_CREATED));
         } catch (CouldNotCreateProductException e) {
             objectMapper.writeValue(output,
                     new GatewayResponse<>(
@@ -1,33 +1,133 @@
 package com.postnl.handler;
 
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.deadline.Deadline;
 import com.postnl.dto.response.ErrorMessage;
 import com.postnl.dto.response.GatewayResponse;
+import com.postnl.exception.DeadlineExceededException;
+import com.postnl.hash.StringHash;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 public interface DefaultRequestStreamHandler extends RequestStreamHandler {
 
     int SC_OK = 200;
     int SC_CREATED = 201;
+    int SC_ACCEPTED = 202;
+    int SC_NOT_MODIFIED = 304;
     int SC_BAD_REQUEST = 400;
     int SC_NOT_FOUND = 404;
+    int SC_CONFLICT = 409;
+    int SC_GONE = 410;
     int SC_INTERNAL_SERVER_ERROR = 500;
+    int SC_GATEWAY_TIMEOUT = 504;
+
+    /** Time kept back from the invocation timeout to write the response. */
+    long DEADLINE_MARGIN_MILLIS = 500L;
+    /** Upper bound of a single attempt of a DynamoDB call, so a stuck attempt leaves time to retry. */
+    long DYNAMODB_ATTEMPT_TIMEOUT_MILLIS = 2000L;
 
     Map<String, String> APPLICATION_JSON = Collections.singletonMap("Content-Type",
             "application/json");
 
+    /** Header of the read-your-writes session token, answered by writes and echoed by reads. */
+    String SESSION_TOKEN = "X-Session-Token";
+
+    /** Cache-Control of a strongly consistent read, which must not answer later reads unrevalidated. */
+    String NO_CACHE = "no-cache";
+
     ErrorMessage REQUEST_WAS_NULL_ERROR
             = new ErrorMessage("Request was null", SC_BAD_REQUEST);
 
     ErrorMessage PRODUCT_ID_WAS_NOT_SET
             = new ErrorMessage("product_id was not set", SC_NOT_FOUND);
 
+    /**
+     * @return the method and resource path this handler serves, used in its log lines.
+     */
+    String route();
+
+    /**
+     * @return the mapper the handler writes its responses with.
+     */
+    ObjectMapper objectMapper();
+
+    /**
+     * Handles a single API Gateway event.
+     *
+     * @param input the API Gateway event.
+     * @param output the output stream to write the response to.
+     * @param context the Lambda context.
+     * @throws IOException if the event could not be read or the response could not be written.
+     */
+    void handle(InputStream input, OutputStream output, Context context) throws IOException;
+
+    /**
+     * Runs {@link #handle} with the request id and route in the logging context, and logs the
+     * latency of the request once it is handled. The remaining time of the invocation becomes
+     * the {@link Deadline} of every DynamoDB call, and a call that runs out of it is answered
+     * with a 504 before Lambda kills the invocation. Receiving the request and writing its
+     * response are flight recorder events while they are being recorded.
+     */
+    @Override
+    default void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        final RequestLog requestLog = RequestLog.begin(context, route());
+        Profiling.requestReceived(route(), context == null ? null : context.getAwsRequestId());
+        final Span written = Profiling.responseWritten(route());
+        final ResponseStream response = written.isRecording() ? new ResponseStream(output, written) : null;
+        if (response != null) {
+            output = response;
+        }
+        final long remainingMillis = context == null ? 0 : context.getRemainingTimeInMillis();
+        // local invocations report no remaining time, they run without deadline
+        Deadline.start(remainingMillis <= 0 ? Deadline.none()
+                : Deadline.after(remainingMillis - DEADLINE_MARGIN_MILLIS, DYNAMODB_ATTEMPT_TIMEOUT_MILLIS));
+        try {
+            handle(input, output, context);
+        } catch (DeadlineExceededException | ApiCallTimeoutException | ApiCallAttemptTimeoutException e) {
+            final ObjectMapper objectMapper = objectMapper();
+            objectMapper.writeValue(output, new GatewayResponse<>(
+                    objectMapper.writeValueAsString(new ErrorMessage("Request timed out", SC_GATEWAY_TIMEOUT)),
+                    APPLICATION_JSON, SC_GATEWAY_TIMEOUT));
+        } finally {
+            Deadline.clear();
+            if (response != null) {
+                response.end();
+            }
+            requestLog.end();
+        }
+    }
+
+    /**
+     * Parses the API Gateway event, as an event parsed flight recorder event while that is
+     * being recorded.
+     *
+     * @param objectMapper the mapper to parse the event with.
+     * @param input the API Gateway event.
+     * @return the parsed event.
+     * @throws IOException if the event could not be read or is not valid JSON.
+     */
+    default JsonNode readEvent(ObjectMapper objectMapper, InputStream input) throws IOException {
+        try (Span parsed = Profiling.eventParsed(route())) {
+            return objectMapper.readTree(input);
+        }
+    }
+
     /**
      * This method writes a body has invalid JSON response.
      *
@@ -45,6 +145,130 @@ public interface DefaultRequestStreamHandler extends RequestStreamHandler {
                 APPLICATION_JSON, SC_BAD_REQUEST));
     }
 
+    /**
+     * This method writes a 200 response carrying a strong ETag and the given Cache-Control header,
+     * or a 304 response without body if the request's If-None-Match already names that ETag. The
+     * response varies by session token, because the token decides how consistently it is read.
+     *
+     * @param objectMapper the mapper to use for converting the response to JSON.
+     * @param output the output stream to write with the mapper.
+     * @param event the API Gateway event, used for its If-None-Match header.
+     * @param body the serialized response body.
+     * @param cacheControl the Cache-Control header value.
+     * @throws IOException if there was an issue converting the response to JSON.
+     */
+    default void writeCacheableResponse(ObjectMapper objectMapper,
+                                        OutputStream output,
+                                        JsonNode event,
+                                        String body,
+                                        String cacheControl) throws IOException {
+        final String etag = strongETag(body);
+        final Map<String, String> headers = new HashMap<>(APPLICATION_JSON);
+        headers.put("ETag", etag);
+        headers.put("Cache-Control", cacheControl);
+        headers.put("Vary", SESSION_TOKEN);
+        if (ifNoneMatch(event, etag)) {
+            objectMapper.writeValue(output, new GatewayResponse<>("", headers, SC_NOT_MODIFIED));
+        } else {
+            objectMapper.writeValue(output, new GatewayResponse<>(body, headers, SC_OK));
+        }
+    }
+
+    /**
+     * Computes a strong ETag from a 64 bit hash of the serialized body.
+     *
+     * @param body the serialized response body.
+     * @return the quoted ETag.
+     */
+    default String strongETag(final String body) {
+        return "\"" + Long.toHexString(StringHash.hash64(body)) + "-" + Integer.toHexString(body.length()) + "\"";
+    }
+
+    /**
+     * Checks whether the If-None-Match header of the event matches the given ETag, using the
+     * weak comparison RFC 7232 prescribes for If-None-Match.
+     *
+     * @param event the API Gateway event.
+     * @param etag the current ETag of the resource.
+     * @return true if the client already has the current representation.
+     */
+    default boolean ifNoneMatch(final JsonNode event, final String etag) {
+        final JsonNode headers = event == null ? null : event.get("headers");
+        if (headers == null || !headers.isObject()) {
+            return false;
+        }
+        final Iterator<Map.Entry<String, JsonNode>> fields = headers.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> header = fields.next();
+            if (!"If-None-Match".equalsIgnoreCase(header.getKey()) || !header.getValue().isTextual()) {
+                continue;
+            }
+            for (String candidate : header.getValue().asText().split(",")) {
+                final String tag = candidate.trim();
+                if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up a request header, ignoring the case of its name.
+     *
+     * @param event the API Gateway event.
+     * @param name the header name.
+     * @return the header value, or null if the request has no such header.
+     */
+    default String header(final JsonNode event, final String name) {
+        final JsonNode headers = event == null ? null : event.get("headers");
+        if (headers == null || !headers.isObject()) {
+            return null;
+        }
+        final Iterator<Map.Entry<String, JsonNode>> fields = headers.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> header = fields.next();
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue().isTextual()) {
+                return header.getValue().asText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the consistency of a read: strong if the request asks for it with the
+     * consistentRead=true query parameter, otherwise what its session needs.
+     *
+     * @param event the API Gateway event.
+     * @param session the consistency the session token of the request needs.
+     * @return the consistency to read with.
+     */
+    default ReadConsistency readConsistency(final JsonNode event, final ReadConsistency session) {
+        final JsonNode parameters = event == null ? null : event.get("queryStringParameters");
+        final JsonNode consistentRead = parameters == null ? null : parameters.get("consistentRead");
+        return consistentRead != null && "true".equalsIgnoreCase(consistentRead.asText())
+                ? ReadConsistency.STRONG : session;
+    }
+
+    /**
+     * @param consistency the consistency the response was read with.
+     * @param cacheControl the Cache-Control header value of an eventually consistent read.
+     * @return no-cache for a strongly consistent read, otherwise the given value.
+     */
+    default String cacheControl(final ReadConsistency consistency, final String cacheControl) {
+        return consistency.isStrong() ? NO_CACHE : cacheControl;
+    }
+
+    /**
+     * @param sessionToken the session token to answer a write with.
+     * @return the JSON content type and session token headers.
+     */
+    default Map<String, String> sessionHeaders(final String sessionToken) {
+        final Map<String, String> headers = new HashMap<>(APPLICATION_JSON);
+        headers.put(SESSION_TOKEN, sessionToken);
+        return headers;
+    }
+
     default boolean isNullOrEmpty(final String string) {
         return string == null || string.isEmpty();
     }
@@ -0,0 +1,96 @@
+package com.postnl.handler;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.PackageDao;
+import com.postnl.dto.response.ErrorMessage;
+import com.postnl.dto.response.GatewayResponse;
+import com.postnl.model.Package;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+public class GetPackageHandler implements DefaultRequestStreamHandler {
+
+    private static final ErrorMessage PACKAGE_ID_WAS_NOT_SET
+            = new ErrorMessage("package_id was not set", SC_NOT_FOUND);
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    PackageDao packageDao;
+
+    @Inject
+    @Named("productCacheControl")
+    String productCacheControl;
+
+    private final ProductComponent productComponent;
+
+    public GetPackageHandler() {
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "GET /packages/{package_id}";
+    }
+
+    @Override
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
+        final JsonNode event;
+        try {
+            event = readEvent(objectMapper, input);
+        } catch (JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+        if (event == null) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, "event was null");
+            return;
+        }
+        final JsonNode pathParameterMap = event.findValue("pathParameters");
+        final String packageId = Optional.ofNullable(pathParameterMap)
+                .map(mapNode -> mapNode.get("package_id"))
+                .map(JsonNode::asText)
+                .orElse(null);
+        if (isNullOrEmpty(packageId)) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(PACKAGE_ID_WAS_NOT_SET),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+        final Optional<Package> found = packageDao.findPackage(packageId);
+        if (found.isPresent()) {
+            writeCacheableResponse(objectMapper, output, event,
+                    objectMapper.writeValueAsString(found.get()), productCacheControl);
+        } else {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage(String.format("Package %s does not exist", packageId),
+                                            SC_NOT_FOUND)),
+                            APPLICATION_JSON, SC_NOT_FOUND));
+        }
+    }
+}
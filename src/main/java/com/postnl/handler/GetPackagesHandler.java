@@ -2,43 +2,80 @@ package com.postnl.handler;
 
 import com.postnl.config.DaggerProductComponent;
 import com.postnl.config.ProductComponent;
-import com.postnl.dao.ProductDao;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.consistency.SessionTokens;
+import com.postnl.dao.prefetch.PagePrefetcher;
 import com.postnl.model.ProductPage;
+import com.postnl.dto.response.ErrorMessage;
 import com.postnl.dto.response.GatewayResponse;
 import com.postnl.dto.response.GetProductsResponse;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Optional;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 public class GetPackagesHandler implements DefaultRequestStreamHandler {
 
+    private static final Logger LOG = LogManager.getLogger(GetPackagesHandler.class);
+    private static final long PREFETCH_STATS_INTERVAL = 100;
+
     @Inject
     ObjectMapper objectMapper;
 
     @Inject
-    ProductDao productDao;
+    ProductStore productStore;
+
+    @Inject
+    SessionTokens sessionTokens;
+
+    @Inject
+    PagePrefetcher pagePrefetcher;
+
+    @Inject
+    @Named("packagesCacheControl")
+    String packagesCacheControl;
 
     private final ProductComponent productComponent;
 
+    private long listings;
+
     public GetPackagesHandler() {
-        productComponent = DaggerProductComponent.builder().build();
-        productComponent.inject(this);
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "GET /packages";
     }
 
     @Override
-    public void handleRequest(InputStream input, OutputStream output,
-                              Context context) throws IOException {
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
         final JsonNode event;
 
         try {
-            event = objectMapper.readTree(input);
+            event = readEvent(objectMapper, input);
         } catch (JsonMappingException e) {
             writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
             return;
@@ -48,12 +85,34 @@ public class GetPackagesHandler implements DefaultRequestStreamHandler {
                 .map(mapNode -> mapNode.get("exclusive_start_key").asText())
                 .orElse(null);
 
-        ProductPage page = productDao.getProducts(offset);
+        final ReadConsistency consistency = readConsistency(event,
+                sessionTokens.forListing(header(event, SESSION_TOKEN)));
+        final ProductPage page;
+        try {
+            page = productStore.getProducts(offset, consistency);
+        } catch (CursorExpiredException e) {
+            objectMapper.writeValue(output, new GatewayResponse<>(
+                    objectMapper.writeValueAsString(new ErrorMessage(e.getMessage(), SC_GONE)),
+                    APPLICATION_JSON, SC_GONE));
+            return;
+        }
+        reportPrefetchStats();
 
-        objectMapper.writeValue(output, new GatewayResponse<>(
-                objectMapper.writeValueAsString(
-                        new GetProductsResponse(page.getProducts().size(), page.getProducts())),
-                APPLICATION_JSON, SC_OK));
+        final String body = objectMapper.writeValueAsString(new GetProductsResponse(page.getProducts().size(),
+                page.getProducts(), page.getLastEvaluatedKey(), page.isPartial()));
+        if (page.isPartial()) {
+            // a page cut short by the deadline is not what this offset normally returns, never cache it
+            objectMapper.writeValue(output, new GatewayResponse<>(body, APPLICATION_JSON, SC_OK));
+            return;
+        }
+        writeCacheableResponse(objectMapper, output, event, body, cacheControl(consistency, packagesCacheControl));
+    }
+
+    private void reportPrefetchStats() {
+        if (pagePrefetcher.isEnabled() && ++listings % PREFETCH_STATS_INTERVAL == 0) {
+            final PagePrefetcher.Stats stats = pagePrefetcher.getStats();
+            LOG.info(() -> "Page prefetcher: " + stats);
+        }
     }
 
 }
@@ -0,0 +1,104 @@
+package com.postnl.handler;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.changes.ChangeFeed;
+import com.postnl.dto.response.ErrorMessage;
+import com.postnl.dto.response.GatewayResponse;
+import com.postnl.dto.response.GetProductsResponse;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+import com.postnl.model.ProductPage;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.inject.Inject;
+
+/**
+ * Serves the change feed: the products created, updated or deleted since a cursor, oldest change
+ * first. Every answer carries the cursor to continue from as lastEvaluatedKey, also when it has no
+ * changes. A cursor older than the deletes are kept gets a 410, the reader then starts over.
+ */
+public class GetProductChangesHandler implements DefaultRequestStreamHandler {
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    ProductStore productStore;
+
+    private final ProductComponent productComponent;
+
+    public GetProductChangesHandler() {
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "GET /packages/changes";
+    }
+
+    @Override
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
+        final JsonNode event;
+        try {
+            event = readEvent(objectMapper, input);
+        } catch (JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+        if (event == null) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, "event was null");
+            return;
+        }
+        final JsonNode parameters = event.get("queryStringParameters");
+        final JsonNode sinceParameter = parameters == null ? null : parameters.get("since");
+        final String since = sinceParameter == null || sinceParameter.isNull() ? null : sinceParameter.asText();
+        try {
+            ChangeFeed.startAfter(since);
+        } catch (IllegalArgumentException e) {
+            writeError(output, e.getMessage(), SC_BAD_REQUEST);
+            return;
+        }
+        if (!productStore.recordsChanges()) {
+            writeError(output, "The change feed is not enabled", SC_NOT_FOUND);
+            return;
+        }
+
+        final ProductPage page;
+        try {
+            page = productStore.getChanges(since);
+        } catch (CursorExpiredException e) {
+            writeError(output, e.getMessage(), SC_GONE);
+            return;
+        }
+        objectMapper.writeValue(output, new GatewayResponse<>(
+                objectMapper.writeValueAsString(new GetProductsResponse(page.getProducts().size(),
+                        page.getProducts(), page.getLastEvaluatedKey(), false)),
+                APPLICATION_JSON, SC_OK));
+    }
+
+    private void writeError(final OutputStream output, final String message, final int statusCode)
+            throws IOException {
+        objectMapper.writeValue(output,
+                new GatewayResponse<>(
+                        objectMapper.writeValueAsString(new ErrorMessage(message, statusCode)),
+                        APPLICATION_JSON, statusCode));
+    }
+}
@@ -2,43 +2,76 @@ package com.postnl.handler;
 
 import com.postnl.config.DaggerProductComponent;
 import com.postnl.config.ProductComponent;
-import com.postnl.dao.ProductDao;
-import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.consistency.SessionTokens;
+import com.postnl.dao.filter.ProductIdFilter;
 import com.postnl.model.Product;
 import com.postnl.dto.response.ErrorMessage;
 import com.postnl.dto.response.GatewayResponse;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Optional;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 public class GetProductHandler implements DefaultRequestStreamHandler {
 
+    private static final Logger LOG = LogManager.getLogger(GetProductHandler.class);
+
     @Inject
     ObjectMapper objectMapper;
 
     @Inject
-    ProductDao productDao;
+    ProductStore productStore;
+
+    @Inject
+    SessionTokens sessionTokens;
+
+    @Inject
+    ProductIdFilter productIdFilter;
+
+    @Inject
+    @Named("productCacheControl")
+    String productCacheControl;
 
     private final ProductComponent productComponent;
 
+    private long reportedFilterGeneration;
+
     public GetProductHandler() {
-        productComponent = DaggerProductComponent.builder().build();
-        productComponent.inject(this);
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "GET /products/{product_id}";
     }
 
     @Override
-    public void handleRequest(InputStream input, OutputStream output,
-                              Context context) throws IOException {
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
         final JsonNode event;
         try {
-            event = objectMapper.readTree(input);
+            event = readEvent(objectMapper, input);
         } catch (JsonMappingException e) {
             writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
             return;
@@ -59,18 +92,31 @@ public class GetProductHandler implements DefaultRequestStreamHandler {
                             APPLICATION_JSON, SC_BAD_REQUEST));
             return;
         }
-        try {
-            Product product = productDao.getProduct(productId);
-            objectMapper.writeValue(output,
-                    new GatewayResponse<>(
-                            objectMapper.writeValueAsString(product),
-                            APPLICATION_JSON, SC_OK));
-        } catch (ProductDoesNotExistException e) {
+        final ReadConsistency consistency = readConsistency(event,
+                sessionTokens.forProduct(header(event, SESSION_TOKEN), productId));
+        final Optional<Product> product = productStore.findProduct(productId, consistency);
+        if (product.isPresent()) {
+            writeCacheableResponse(objectMapper, output, event,
+                    objectMapper.writeValueAsString(product.get()), cacheControl(consistency, productCacheControl));
+        } else {
             objectMapper.writeValue(output,
                     new GatewayResponse<>(
                             objectMapper.writeValueAsString(
-                                    new ErrorMessage(e.getMessage(), SC_NOT_FOUND)),
+                                    new ErrorMessage(String.format("Product %s does not exist", productId),
+                                            SC_NOT_FOUND)),
                             APPLICATION_JSON, SC_NOT_FOUND));
         }
+        reportFilterStats();
+    }
+
+    private void reportFilterStats() {
+        if (!productIdFilter.isEnabled()) {
+            return;
+        }
+        final ProductIdFilter.Stats stats = productIdFilter.getStats();
+        if (stats.getGeneration() != reportedFilterGeneration) {
+            reportedFilterGeneration = stats.getGeneration();
+            LOG.info(() -> "Product id filter rebuilt: " + stats);
+        }
     }
 }
@@ -0,0 +1,115 @@
+package com.postnl.handler;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.purge.PurgeResult;
+import com.postnl.dto.request.DeleteProductsRequest;
+import com.postnl.dto.response.ErrorMessage;
+import com.postnl.dto.response.GatewayResponse;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.BooleanSupplier;
+import javax.inject.Inject;
+
+/**
+ * Deletes all products matching a predicate. A run stops well before the function times out
+ * and then answers 202 with a checkpoint; posting the same predicate with that checkpoint
+ * continues the delete. The final run answers 200 without checkpoint.
+ */
+public class PurgeProductsHandler implements DefaultRequestStreamHandler {
+
+    private static final long TIMEOUT_MARGIN_MILLIS = 5000L;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    ProductStore productStore;
+
+    private final ProductComponent productComponent;
+
+    public PurgeProductsHandler() {
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "POST /products/purge";
+    }
+
+    @Override
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
+        final JsonNode event;
+        try {
+            event = readEvent(objectMapper, input);
+        } catch (JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+        if (event == null) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, "event was null");
+            return;
+        }
+        final JsonNode deleteProductsRequestBody = event.findValue("body");
+        if (deleteProductsRequestBody == null) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage("Body was null",
+                                            SC_BAD_REQUEST)),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+
+        final DeleteProductsRequest request;
+        try {
+            request = objectMapper.treeToValue(
+                    objectMapper.readTree(deleteProductsRequestBody.asText()),
+                    DeleteProductsRequest.class);
+        } catch (JsonParseException | JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+        if (request == null) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(REQUEST_WAS_NULL_ERROR),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+
+        final BooleanSupplier outOfTime = context == null ? () -> false
+                : () -> context.getRemainingTimeInMillis() < TIMEOUT_MARGIN_MILLIS;
+        try {
+            final PurgeResult result = productStore.purgeProducts(request, outOfTime);
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(objectMapper.writeValueAsString(result),
+                            APPLICATION_JSON, result.getCheckpoint() == null ? SC_OK : SC_ACCEPTED));
+        } catch (IllegalArgumentException e) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage(e.getMessage(), SC_BAD_REQUEST)),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.postnl.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request logging context. Puts the request id and route into the thread context for every
+ * line logged while a request is handled, and logs the latency when it is done. Loggers are
+ * synchronous, so every line is written before the handler returns and Lambda freezes the sandbox.
+ */
+final class RequestLog {
+
+    static final String REQUEST_ID = "requestId";
+    static final String ROUTE = "route";
+    static final String LATENCY_MILLIS = "latencyMs";
+
+    private static final Logger LOG = LogManager.getLogger(RequestLog.class);
+
+    private final long startedAt;
+
+    private RequestLog(final long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    static RequestLog begin(final Context context, final String route) {
+        ThreadContext.clearMap();
+        if (context != null && context.getAwsRequestId() != null) {
+            ThreadContext.put(REQUEST_ID, context.getAwsRequestId());
+        }
+        ThreadContext.put(ROUTE, route);
+        return new RequestLog(System.nanoTime());
+    }
+
+    void end() {
+        ThreadContext.put(LATENCY_MILLIS, Long.toString(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)));
+        LOG.info("Request handled");
+        ThreadContext.clearMap();
+    }
+}
@@ -0,0 +1,52 @@
+package com.postnl.handler;
+
+import com.postnl.jfr.Span;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream of a profiled request. Times the response written event from the first byte
+ * written and counts the bytes of the response.
+ */
+final class ResponseStream extends FilterOutputStream {
+
+    private final Span span;
+    private long bytes;
+
+    ResponseStream(final OutputStream output, final Span span) {
+        super(output);
+        this.span = span;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        started();
+        out.write(b);
+        bytes++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        started();
+        out.write(b, off, len);
+        bytes += len;
+    }
+
+    /**
+     * Commits the response written event, if anything was written.
+     */
+    void end() {
+        if (bytes > 0) {
+            span.count(bytes);
+            span.close();
+        }
+    }
+
+    private void started() {
+        if (bytes == 0) {
+            span.begin();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.postnl.handler;
+
+import com.postnl.config.DaggerProductComponent;
+import com.postnl.config.ProductComponent;
+import com.postnl.dao.ProductStore;
+import com.postnl.dao.consistency.SessionTokens;
+import com.postnl.dto.request.UpdateProductRequest;
+import com.postnl.dto.response.ErrorMessage;
+import com.postnl.dto.response.GatewayResponse;
+import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.exception.UnableToUpdateException;
+import com.postnl.model.Product;
+import com.postnl.jfr.Profiling;
+import com.postnl.jfr.Span;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import javax.inject.Inject;
+
+public class UpdateProductHandler implements DefaultRequestStreamHandler {
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    ProductStore productStore;
+
+    @Inject
+    SessionTokens sessionTokens;
+
+    private final ProductComponent productComponent;
+
+    public UpdateProductHandler() {
+        try (Span init = Profiling.initPhase("inject " + getClass().getSimpleName())) {
+            productComponent = DaggerProductComponent.builder().build();
+            productComponent.inject(this);
+        }
+    }
+
+    @Override
+    public String route() {
+        return "PATCH /products/{product_id}";
+    }
+
+    @Override
+    public ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public void handle(InputStream input, OutputStream output,
+                       Context context) throws IOException {
+        final JsonNode event;
+        try {
+            event = readEvent(objectMapper, input);
+        } catch (JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+        if (event == null) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, "event was null");
+            return;
+        }
+        final JsonNode pathParameterMap = event.findValue("pathParameters");
+        final String productId = Optional.ofNullable(pathParameterMap)
+                .map(mapNode -> mapNode.get("product_id"))
+                .map(JsonNode::asText)
+                .orElse(null);
+        if (isNullOrEmpty(productId)) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(PRODUCT_ID_WAS_NOT_SET),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+        final JsonNode updateProductRequestBody = event.findValue("body");
+        if (updateProductRequestBody == null) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(
+                                    new ErrorMessage("Body was null",
+                                            SC_BAD_REQUEST)),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+
+        final UpdateProductRequest request;
+        try {
+            request = objectMapper.treeToValue(
+                    objectMapper.readTree(updateProductRequestBody.asText()),
+                    UpdateProductRequest.class);
+        } catch (JsonParseException | JsonMappingException e) {
+            writeInvalidJsonInStreamResponse(objectMapper, output, e.getMessage());
+            return;
+        }
+        if (request == null) {
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(
+                            objectMapper.writeValueAsString(REQUEST_WAS_NULL_ERROR),
+                            APPLICATION_JSON, SC_BAD_REQUEST));
+            return;
+        }
+
+        try {
+            final Product product = productStore.updateProduct(productId, request);
+            objectMapper.writeValue(output,
+                    new GatewayResponse<>(objectMapper.writeValueAsString(product),
+                            sessionHeaders(sessionTokens.issue(header(event, SESSION_TOKEN), product.getProductId())),
+                            SC_OK));
+        } catch (ProductDoesNotExistException e) {
+            writeError(output, e.getMessage(), SC_NOT_FOUND);
+        } catch (UnableToUpdateException e) {
+            writeError(output, e.getMessage(), SC_CONFLICT);
+        } catch (IllegalArgumentException e) {
+            writeError(output, e.getMessage(), SC_BAD_REQUEST);
+        }
+    }
+
+    private void writeError(OutputStream output, String message, int statusCode) throws IOException {
+        objectMapper.writeValue(output,
+                new GatewayResponse<>(
+                        objectMapper.writeValueAsString(new ErrorMessage(message, statusCode)),
+                        APPLICATION_JSON, statusCode));
+    }
+}
@@ -0,0 +1,37 @@
+package com.postnl.hash;
+
+/**
+ * 64 bit FNV-1a hash of the chars of a string, finished with the MurmurHash3 mixer so that all
+ * of its bits depend on every char. Fast and well spread, but not cryptographic.
+ */
+public final class StringHash {
+
+    private StringHash() {
+    }
+
+    /**
+     * @param key string to hash
+     * @return the mixed 64 bit hash of the string
+     */
+    public static long hash64(final String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @param hash hash to mix
+     * @return the hash with every output bit depending on every input bit
+     */
+    public static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
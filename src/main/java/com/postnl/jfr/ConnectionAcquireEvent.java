@@ -0,0 +1,34 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.postnl.ConnectionAcquire")
+@Label("Connection Acquire")
+@Description("A wait for a connection of an HTTP client whose connections were all leased")
+class ConnectionAcquireEvent extends ProfilingEvent {
+
+    @Label("Client")
+    String client;
+
+    @Label("Leased")
+    @Description("Connections leased when the wait began")
+    int leased;
+
+    @Label("Pending")
+    @Description("Requests already waiting for a connection when the wait began")
+    int pending;
+
+    static Span start(final String client, final int leased, final int pending) {
+        final ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+        if (!event.isEnabled()) {
+            return Span.NONE;
+        }
+        event.client = client;
+        event.leased = leased;
+        event.pending = pending;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,45 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.postnl.DaoCall")
+@Label("DAO Call")
+@Description("A DynamoDB call made by a DAO, including SDK retries and hedges")
+class DaoCallEvent extends ProfilingEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Table")
+    String table;
+
+    @Label("Item Count")
+    long itemCount;
+
+    @Label("Consumed Capacity")
+    @Description("Capacity units DynamoDB reported, NaN if it reported none")
+    double consumedCapacity = Double.NaN;
+
+    static Span start(final String operation, final String table) {
+        final DaoCallEvent event = new DaoCallEvent();
+        if (!event.isEnabled()) {
+            return Span.NONE;
+        }
+        event.operation = operation;
+        event.table = table;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void count(final long count) {
+        itemCount = count;
+    }
+
+    @Override
+    public void consumedCapacity(final double capacityUnits) {
+        consumedCapacity = capacityUnits;
+    }
+}
@@ -0,0 +1,26 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.postnl.EventParsed")
+@Label("Event Parsed")
+@Description("Parsing of the API Gateway event of a request")
+@StackTrace(false)
+class EventParsedEvent extends ProfilingEvent {
+
+    @Label("Route")
+    String route;
+
+    static Span start(final String route) {
+        final EventParsedEvent event = new EventParsedEvent();
+        if (!event.isEnabled()) {
+            return Span.NONE;
+        }
+        event.route = route;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,24 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.postnl.InitPhase")
+@Label("Init Phase")
+@Description("A phase of the cold start of a container")
+class InitPhaseEvent extends ProfilingEvent {
+
+    @Label("Phase")
+    String phase;
+
+    static Span start(final String phase) {
+        final InitPhaseEvent event = new InitPhaseEvent();
+        if (!event.isEnabled()) {
+            return Span.NONE;
+        }
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,85 @@
+package com.postnl.jfr;
+
+/**
+ * Entry point for the flight recorder events of this service. Every method returns
+ * {@link Span#NONE} unless its event type is enabled in a running recording, so the events cost
+ * next to nothing when nobody is profiling. On JVMs without the {@code jdk.jfr} API the event
+ * classes are never loaded.
+ */
+public final class Profiling {
+
+    private static final boolean AVAILABLE = isJfrPresent();
+
+    private Profiling() {
+    }
+
+    /**
+     * @return whether this JVM supports flight recorder events
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Records that a request reached a handler.
+     * @param route the route of the handler
+     * @param requestId the Lambda request id, may be null
+     */
+    public static void requestReceived(final String route, final String requestId) {
+        if (AVAILABLE) {
+            RequestReceivedEvent.commit(route, requestId);
+        }
+    }
+
+    /**
+     * @param route the route of the handler
+     * @return a span around parsing the API Gateway event
+     */
+    public static Span eventParsed(final String route) {
+        return AVAILABLE ? EventParsedEvent.start(route) : Span.NONE;
+    }
+
+    /**
+     * @param route the route of the handler
+     * @return a span around writing the response, its count is the number of bytes written
+     */
+    public static Span responseWritten(final String route) {
+        return AVAILABLE ? ResponseWrittenEvent.start(route) : Span.NONE;
+    }
+
+    /**
+     * @param operation the DynamoDB operation, e.g. GetItem
+     * @param table the table the operation reads or writes
+     * @return a span around the call, its count is the number of items read or written
+     */
+    public static Span daoCall(final String operation, final String table) {
+        return AVAILABLE ? DaoCallEvent.start(operation, table) : Span.NONE;
+    }
+
+    /**
+     * @param client the name of the HTTP client
+     * @param leased connections leased when the wait began
+     * @param pending requests already waiting when the wait began
+     * @return a span around waiting for a connection of a saturated pool
+     */
+    public static Span connectionAcquire(final String client, final int leased, final int pending) {
+        return AVAILABLE ? ConnectionAcquireEvent.start(client, leased, pending) : Span.NONE;
+    }
+
+    /**
+     * @param phase the name of the phase
+     * @return a span around a phase of the cold start
+     */
+    public static Span initPhase(final String phase) {
+        return AVAILABLE ? InitPhaseEvent.start(phase) : Span.NONE;
+    }
+
+    private static boolean isJfrPresent() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Profiling.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
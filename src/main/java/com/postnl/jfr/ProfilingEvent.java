@@ -0,0 +1,30 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+
+/**
+ * Base of the events of this service. An event is its own {@link Span}; fields a subclass does
+ * not have are ignored.
+ */
+@Category("Package Service")
+abstract class ProfilingEvent extends Event implements Span {
+
+    @Override
+    public boolean isRecording() {
+        return isEnabled();
+    }
+
+    @Override
+    public void count(final long count) {
+    }
+
+    @Override
+    public void consumedCapacity(final double capacityUnits) {
+    }
+
+    @Override
+    public void close() {
+        commit();
+    }
+}
@@ -0,0 +1,28 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.postnl.RequestReceived")
+@Label("Request Received")
+@Description("A Lambda invocation reached a handler")
+@StackTrace(false)
+class RequestReceivedEvent extends ProfilingEvent {
+
+    @Label("Route")
+    String route;
+
+    @Label("Request Id")
+    String requestId;
+
+    static void commit(final String route, final String requestId) {
+        final RequestReceivedEvent event = new RequestReceivedEvent();
+        if (event.isEnabled()) {
+            event.route = route;
+            event.requestId = requestId;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.postnl.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.postnl.ResponseWritten")
+@Label("Response Written")
+@Description("Writing of the response of a request, from its first byte until the handler returned")
+@StackTrace(false)
+class ResponseWrittenEvent extends ProfilingEvent {
+
+    @Label("Route")
+    String route;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    static Span start(final String route) {
+        final ResponseWrittenEvent event = new ResponseWrittenEvent();
+        if (!event.isEnabled()) {
+            return Span.NONE;
+        }
+        event.route = route;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void count(final long count) {
+        bytes = count;
+    }
+}
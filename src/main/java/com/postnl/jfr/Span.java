@@ -0,0 +1,59 @@
+package com.postnl.jfr;
+
+/**
+ * A timed phase that becomes a flight recorder event when it is closed. Spans of event types
+ * that are not being recorded are {@link #NONE}, which does nothing.
+ */
+public interface Span extends AutoCloseable {
+
+    Span NONE = new Span() {
+        @Override
+        public boolean isRecording() {
+            return false;
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void count(final long count) {
+        }
+
+        @Override
+        public void consumedCapacity(final double capacityUnits) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * @return whether the span will be committed to a recording
+     */
+    boolean isRecording();
+
+    /**
+     * Restarts the timing of the span, for phases that only start on their first use.
+     */
+    void begin();
+
+    /**
+     * Sets the number of items or bytes the phase handled, if its event has such a field.
+     * @param count the number of items or bytes
+     */
+    void count(long count);
+
+    /**
+     * Sets the DynamoDB capacity units the phase consumed, if its event has such a field.
+     * @param capacityUnits consumed read or write capacity units
+     */
+    void consumedCapacity(double capacityUnits);
+
+    /**
+     * Ends the span and commits its event.
+     */
+    @Override
+    void close();
+}
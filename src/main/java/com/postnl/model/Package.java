@@ -0,0 +1,25 @@
+package com.postnl.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Data class for packages, a group of products delivered together.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@ToString
+public class Package {
+    private String packageId;
+    private String createdAt;
+    private List<Product> products;
+}
@@ -1,5 +1,6 @@
 package com.postnl.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -20,4 +21,18 @@ public class Product {
     private String productId;
     private String productType;
     private String deliveryDate;
+    /** Incremented by every update, null for products stored before versioning. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long version;
+    /** Only set, to true, on a change feed entry for a deleted product, which has no other fields. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean deleted;
+
+    public Product(String productId, String productType, String deliveryDate) {
+        this(productId, productType, deliveryDate, null);
+    }
+
+    public Product(String productId, String productType, String deliveryDate, Long version) {
+        this(productId, productType, deliveryDate, version, null);
+    }
 }
@@ -10,4 +10,6 @@ import java.util.List;
 public class ProductPage {
     private final List<Product> products;
     private final String lastEvaluatedKey;
+    /** Whether the request deadline cut the page short, lastEvaluatedKey then continues it. */
+    private final boolean partial;
 }
@@ -0,0 +1,110 @@
+package com.postnl.runtime;
+
+import com.postnl.handler.CreatePackageHandler;
+import com.postnl.handler.CreateProductHandler;
+import com.postnl.handler.DeleteProductHandler;
+import com.postnl.handler.GetPackageHandler;
+import com.postnl.handler.GetPackagesHandler;
+import com.postnl.handler.GetProductChangesHandler;
+import com.postnl.handler.GetProductHandler;
+import com.postnl.handler.PurgeProductsHandler;
+import com.postnl.handler.UpdateProductHandler;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Entry point of the {@code provided} runtime. Creates the handler named by the function's
+ * Handler setting and then serves invocations from the Lambda Runtime API until the sandbox is
+ * shut down. Handlers are created through a fixed table instead of reflection, so the native
+ * image needs no reflection configuration for them.
+ *
+ * <pre>
+ * AWS_LAMBDA_RUNTIME_API=127.0.0.1:9001 _HANDLER=com.postnl.handler.GetProductHandler::handleRequest \
+ *     target/bootstrap
+ * </pre>
+ */
+public final class Bootstrap {
+
+    private static final Map<String, Supplier<RequestStreamHandler>> HANDLERS;
+
+    static {
+        final Map<String, Supplier<RequestStreamHandler>> handlers = new LinkedHashMap<>();
+        handlers.put(CreatePackageHandler.class.getName(), CreatePackageHandler::new);
+        handlers.put(CreateProductHandler.class.getName(), CreateProductHandler::new);
+        handlers.put(DeleteProductHandler.class.getName(), DeleteProductHandler::new);
+        handlers.put(GetPackageHandler.class.getName(), GetPackageHandler::new);
+        handlers.put(GetPackagesHandler.class.getName(), GetPackagesHandler::new);
+        handlers.put(GetProductChangesHandler.class.getName(), GetProductChangesHandler::new);
+        handlers.put(GetProductHandler.class.getName(), GetProductHandler::new);
+        handlers.put(PurgeProductsHandler.class.getName(), PurgeProductsHandler::new);
+        handlers.put(UpdateProductHandler.class.getName(), UpdateProductHandler::new);
+        HANDLERS = Collections.unmodifiableMap(handlers);
+    }
+
+    private final RuntimeApiClient client;
+    private final RequestStreamHandler handler;
+    private final LongSupplier clock;
+
+    Bootstrap(final RuntimeApiClient client, final RequestStreamHandler handler, final LongSupplier clock) {
+        this.client = client;
+        this.handler = handler;
+        this.clock = clock;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final RuntimeApiClient client = new RuntimeApiClient(System.getenv("AWS_LAMBDA_RUNTIME_API"));
+        final RequestStreamHandler handler;
+        try {
+            handler = handler(System.getenv("_HANDLER"));
+        } catch (RuntimeException | Error e) {
+            client.initError(e);
+            throw e;
+        }
+        final Bootstrap bootstrap = new Bootstrap(client, handler, System::currentTimeMillis);
+        while (true) {
+            bootstrap.handleNext();
+        }
+    }
+
+    /**
+     * Creates the handler of a Handler setting.
+     * @param setting handler class, optionally followed by {@code ::handleRequest}
+     * @return a new handler
+     * @throws IllegalArgumentException if the setting does not name one of the handlers
+     */
+    static RequestStreamHandler handler(final String setting) {
+        final String className = setting == null ? "" : setting.split("::", 2)[0];
+        final Supplier<RequestStreamHandler> handler = HANDLERS.get(className);
+        if (handler == null) {
+            throw new IllegalArgumentException("Unknown handler " + setting + ", expected one of " + HANDLERS.keySet());
+        }
+        return handler.get();
+    }
+
+    /**
+     * Serves the next invocation. A handler that throws fails only its invocation, the runtime
+     * keeps serving the next ones.
+     * @throws IOException if the Runtime API could not be reached
+     */
+    void handleNext() throws IOException {
+        final Invocation invocation = client.next();
+        if (invocation.getTraceId() != null) {
+            System.setProperty("com.amazonaws.xray.traceId", invocation.getTraceId());
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            handler.handleRequest(invocation.openEvent(), output, new RuntimeContext(invocation, clock));
+        } catch (IOException | RuntimeException e) {
+            client.error(invocation.getRequestId(), e);
+            return;
+        }
+        client.respond(invocation.getRequestId(), output.toByteArray());
+    }
+}
@@ -0,0 +1,36 @@
+package com.postnl.runtime;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * One event handed out by the Lambda Runtime API, with the headers that describe its invocation.
+ */
+@Builder
+public class Invocation {
+
+    @Getter
+    private final String requestId;
+
+    /** Time the invocation times out, in milliseconds since the epoch. */
+    @Getter
+    private final long deadlineMillis;
+
+    @Getter
+    private final String invokedFunctionArn;
+
+    @Getter
+    private final String traceId;
+
+    private final byte[] event;
+
+    /**
+     * @return the event, as the handlers read it
+     */
+    public InputStream openEvent() {
+        return new ByteArrayInputStream(event == null ? new byte[0] : event);
+    }
+}
@@ -0,0 +1,135 @@
+package com.postnl.runtime;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client of the Lambda Runtime API of a custom runtime. Fetches the next invocation and posts
+ * its response or error back, over plain {@link HttpURLConnection}s so it needs nothing beyond
+ * the JDK and works unchanged in a native image.
+ */
+public class RuntimeApiClient {
+
+    static final String REQUEST_ID = "Lambda-Runtime-Aws-Request-Id";
+    static final String DEADLINE_MS = "Lambda-Runtime-Deadline-Ms";
+    static final String INVOKED_FUNCTION_ARN = "Lambda-Runtime-Invoked-Function-Arn";
+    static final String TRACE_ID = "Lambda-Runtime-Trace-Id";
+    static final String FUNCTION_ERROR_TYPE = "Lambda-Runtime-Function-Error-Type";
+
+    private final String baseUrl;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Constructs a RuntimeApiClient.
+     * @param runtimeApi host and port of the Runtime API, the AWS_LAMBDA_RUNTIME_API variable
+     */
+    public RuntimeApiClient(final String runtimeApi) {
+        if (runtimeApi == null || runtimeApi.isEmpty()) {
+            throw new IllegalArgumentException("AWS_LAMBDA_RUNTIME_API is not set");
+        }
+        this.baseUrl = "http://" + runtimeApi + "/2018-06-01/runtime";
+    }
+
+    /**
+     * Waits for the next invocation. The Runtime API answers once there is an event, so the
+     * request has no read timeout.
+     * @return the next invocation
+     * @throws IOException if the Runtime API could not be reached
+     */
+    public Invocation next() throws IOException {
+        final HttpURLConnection connection = open("/invocation/next", "GET");
+        connection.setReadTimeout(0);
+        final byte[] event = read(connection);
+        final String deadline = connection.getHeaderField(DEADLINE_MS);
+        return Invocation.builder()
+                .requestId(connection.getHeaderField(REQUEST_ID))
+                .deadlineMillis(deadline == null ? 0 : Long.parseLong(deadline))
+                .invokedFunctionArn(connection.getHeaderField(INVOKED_FUNCTION_ARN))
+                .traceId(connection.getHeaderField(TRACE_ID))
+                .event(event)
+                .build();
+    }
+
+    /**
+     * Posts the response of an invocation.
+     * @param requestId id of the invocation
+     * @param response what the handler wrote
+     * @throws IOException if the Runtime API did not accept the response
+     */
+    public void respond(final String requestId, final byte[] response) throws IOException {
+        post("/invocation/" + requestId + "/response", response, null);
+    }
+
+    /**
+     * Posts the error an invocation failed with.
+     * @param requestId id of the invocation
+     * @param error what the handler threw
+     * @throws IOException if the Runtime API did not accept the error
+     */
+    public void error(final String requestId, final Throwable error) throws IOException {
+        post("/invocation/" + requestId + "/error", errorBody(error), error.getClass().getName());
+    }
+
+    /**
+     * Posts the error the runtime failed to initialize with, after which Lambda discards it.
+     * @param error what creating the handler threw
+     * @throws IOException if the Runtime API did not accept the error
+     */
+    public void initError(final Throwable error) throws IOException {
+        post("/init/error", errorBody(error), error.getClass().getName());
+    }
+
+    private byte[] errorBody(final Throwable error) throws IOException {
+        final Map<String, String> body = new LinkedHashMap<>();
+        body.put("errorMessage", String.valueOf(error.getMessage()));
+        body.put("errorType", error.getClass().getName());
+        return objectMapper.writeValueAsBytes(body);
+    }
+
+    private void post(final String path, final byte[] body, final String errorType) throws IOException {
+        final HttpURLConnection connection = open(path, "POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        if (errorType != null) {
+            connection.setRequestProperty(FUNCTION_ERROR_TYPE, errorType);
+        }
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+        read(connection);
+    }
+
+    private HttpURLConnection open(final String path, final String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private static byte[] read(final HttpURLConnection connection) throws IOException {
+        final int status = connection.getResponseCode();
+        final InputStream input = status < 300 ? connection.getInputStream() : connection.getErrorStream();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (input != null) {
+            try (InputStream in = input) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            }
+        }
+        if (status >= 300) {
+            throw new IOException(connection.getRequestMethod() + " " + connection.getURL().getPath()
+                    + " answered " + status + ": " + body.toString("UTF-8"));
+        }
+        return body.toByteArray();
+    }
+}
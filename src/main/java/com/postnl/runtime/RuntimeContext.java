@@ -0,0 +1,84 @@
+package com.postnl.runtime;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Lambda context of an invocation served by the {@link Bootstrap}. The function settings come
+ * from the environment of the custom runtime, the request id, function ARN and remaining time
+ * from the invocation.
+ */
+class RuntimeContext implements Context {
+
+    private final Invocation invocation;
+    private final LongSupplier clock;
+
+    RuntimeContext(final Invocation invocation, final LongSupplier clock) {
+        this.invocation = invocation;
+        this.clock = clock;
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return invocation.getRequestId();
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return System.getenv("AWS_LAMBDA_LOG_GROUP_NAME");
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return System.getenv("AWS_LAMBDA_LOG_STREAM_NAME");
+    }
+
+    @Override
+    public String getFunctionName() {
+        return System.getenv("AWS_LAMBDA_FUNCTION_NAME");
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return System.getenv("AWS_LAMBDA_FUNCTION_VERSION");
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return invocation.getInvokedFunctionArn();
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        final long remaining = invocation.getDeadlineMillis() - clock.getAsLong();
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return Optional.ofNullable(System.getenv("AWS_LAMBDA_FUNCTION_MEMORY_SIZE"))
+                .map(Integer::parseInt)
+                .orElse(0);
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return LambdaRuntime.getLogger();
+    }
+}
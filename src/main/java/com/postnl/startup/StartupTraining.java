@@ -0,0 +1,112 @@
+package com.postnl.startup;
+
+import com.postnl.handler.CreatePackageHandler;
+import com.postnl.handler.CreateProductHandler;
+import com.postnl.handler.DefaultRequestStreamHandler;
+import com.postnl.handler.DeleteProductHandler;
+import com.postnl.handler.GetPackageHandler;
+import com.postnl.handler.GetPackagesHandler;
+import com.postnl.handler.GetProductChangesHandler;
+import com.postnl.handler.GetProductHandler;
+import com.postnl.handler.PurgeProductsHandler;
+import com.postnl.handler.UpdateProductHandler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training run of the startup profile. Constructs every handler and sends the product handlers
+ * one request of each kind against the in-memory product store, so the classes a cold start and
+ * its first requests load can be listed for a class data sharing archive. Prints the JVM init
+ * time, the time of the first requests and the number of loaded classes, so runs with and
+ * without the archive can be compared.
+ *
+ * <pre>
+ * PRODUCT_STORE=memory java -cp target/package-service-1.0.0.jar com.postnl.startup.StartupTraining \
+ *     [--label cds] [--jar target/package-service-1.0.0.jar]
+ * </pre>
+ */
+public final class StartupTraining {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private StartupTraining() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        String label = "run";
+        String jar = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--label":
+                    label = args[++i];
+                    break;
+                case "--jar":
+                    jar = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (!"memory".equalsIgnoreCase(System.getenv("PRODUCT_STORE"))) {
+            throw new IllegalStateException("Set PRODUCT_STORE=memory, the training run must not reach DynamoDB");
+        }
+
+        final CreateProductHandler createProduct = new CreateProductHandler();
+        final GetProductHandler getProduct = new GetProductHandler();
+        final GetPackagesHandler getPackages = new GetPackagesHandler();
+        final GetProductChangesHandler getChanges = new GetProductChangesHandler();
+        final UpdateProductHandler updateProduct = new UpdateProductHandler();
+        final DeleteProductHandler deleteProduct = new DeleteProductHandler();
+        // package handlers and purges need DynamoDB, they are only constructed
+        new CreatePackageHandler();
+        new GetPackageHandler();
+        new PurgeProductsHandler();
+        final long initMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        final long startedAt = System.nanoTime();
+        final JsonNode created = body(invoke(createProduct,
+                "{\"body\": \"{\\\"productType\\\": \\\"box\\\", \\\"deliveryDate\\\": \\\"2020-10-08 13:00 - 15:00\\\"}\"}"));
+        final String productId = created.get("productId").asText();
+        final String path = "\"pathParameters\": {\"product_id\": \"" + productId + "\"}";
+        invoke(getProduct, "{" + path + "}");
+        invoke(getPackages, "{}");
+        invoke(getChanges, "{}");
+        invoke(updateProduct, "{" + path
+                + ", \"body\": \"{\\\"productType\\\": \\\"letter\\\", \\\"expectedVersion\\\": 1}\"}");
+        invoke(deleteProduct, "{" + path + ", \"queryStringParameters\": {\"expectedVersion\": \"2\"}}");
+        final long requestsMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        System.out.printf("%s: JVM init %d ms, first requests %d ms, %d classes loaded, %s%s%n",
+                label, initMillis, requestsMillis,
+                ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(),
+                System.getProperty("java.vm.info"),
+                jar == null ? "" : ", jar " + Files.size(Paths.get(jar)) + " bytes");
+    }
+
+    private static JsonNode invoke(final DefaultRequestStreamHandler handler, final String event) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.handleRequest(new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)), output, null);
+        final JsonNode response = OBJECT_MAPPER.readTree(output.toByteArray());
+        final int statusCode = response.get("statusCode").asInt();
+        // every handler has its own component and in-memory store, so lookups of the created
+        // product answer 404; only server errors mean the run did not exercise the handler
+        if (statusCode >= 500) {
+            throw new IllegalStateException(handler.route() + " answered " + statusCode + ": " + response);
+        }
+        return response;
+    }
+
+    private static JsonNode body(final JsonNode response) throws IOException {
+        return OBJECT_MAPPER.readTree(response.get("body").asText());
+    }
+}
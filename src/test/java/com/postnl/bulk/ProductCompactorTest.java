@@ -0,0 +1,142 @@
+package com.postnl.bulk;
+
+import com.postnl.dao.ProductDao;
+import com.postnl.dao.archive.LocalProductArchive;
+import com.postnl.dao.archive.ProductArchive;
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.model.Product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ProductCompactorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ProductDao productDao = mock(ProductDao.class);
+
+    private final ProductExpiry productExpiry = new ProductExpiry(30 * 24 * 60 * 60,
+            ZoneId.of("Europe/Amsterdam"), Clock.systemUTC());
+
+    private final List<Product> page = Arrays.asList(
+            new Product("id-1", "box", "2020-10-08 13:00 - 15:00"),
+            new Product("id-2", "letter", "2020-10-08", 4L));
+
+    @Test
+    public void compact_archivesThenDeletesEveryProductOnItsVersion() throws IOException {
+        scanReturns(page);
+        final ProductCompactor sut = new ProductCompactor(productDao,
+                new LocalProductArchive(folder.getRoot().toPath(), new ObjectMapper()), productExpiry, 2);
+
+        final CompactionReport report = sut.compact(24 * 60 * 60);
+
+        assertEquals(2, report.getArchived());
+        assertEquals(2, report.getDeleted());
+        assertEquals(0, report.getFailed());
+        assertEquals(1, report.getArchives().size());
+        verify(productDao).deleteProduct("id-1", 0L);
+        verify(productDao).deleteProduct("id-2", 4L);
+        assertEquals(2, readArchive(report.getArchives().get(0)).size());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void compact_whenProductChangedAfterArchive_archivesItAgain() throws IOException {
+        scanReturns(page);
+        doThrow(new UnableToDeleteException("changed")).when(productDao).deleteProduct("id-2", 4L);
+        doReturn(Optional.of(new Product("id-2", "parcel", "2020-10-08", 5L)))
+                .when(productDao).findProduct("id-2", ReadConsistency.STRONG);
+        final ProductCompactor sut = new ProductCompactor(productDao,
+                new LocalProductArchive(folder.getRoot().toPath(), new ObjectMapper()), productExpiry, 2);
+
+        final CompactionReport report = sut.compact(24 * 60 * 60);
+
+        assertEquals(3, report.getArchived());
+        assertEquals(2, report.getDeleted());
+        assertEquals(2, report.getArchives().size());
+        verify(productDao).deleteProduct("id-2", 5L);
+        assertTrue(readArchive(report.getArchives().get(1)).get(0).contains("parcel"));
+    }
+
+    @Test
+    public void compact_whenProductNoLongerExpires_keepsIt() throws IOException {
+        scanReturns(page);
+        doThrow(new UnableToDeleteException("changed")).when(productDao).deleteProduct("id-2", 4L);
+        doReturn(Optional.of(new Product("id-2", "letter", "2999-01-01", 5L)))
+                .when(productDao).findProduct("id-2", ReadConsistency.STRONG);
+        final ProductCompactor sut = new ProductCompactor(productDao,
+                new LocalProductArchive(folder.getRoot().toPath(), new ObjectMapper()), productExpiry, 2);
+
+        final CompactionReport report = sut.compact(24 * 60 * 60);
+
+        assertEquals(1, report.getDeleted());
+        assertEquals(1, report.getKept());
+        assertEquals(0, report.getFailed());
+        verify(productDao, never()).deleteProduct("id-2", 5L);
+    }
+
+    @Test
+    public void compact_whenArchiveFails_deletesNothing() throws IOException {
+        scanReturns(page);
+        final ProductArchive failing = products -> {
+            throw new IOException("disk full");
+        };
+        final ProductCompactor sut = new ProductCompactor(productDao, failing, productExpiry, 2);
+
+        try {
+            sut.compact(0);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        verify(productDao, never()).deleteProduct(anyString(), anyLong());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compact_whenProductsDoNotExpire_throwsIllegalStateException() throws IOException {
+        new ProductCompactor(productDao, products -> "", ProductExpiry.disabled(), 2).compact(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void scanReturns(final List<Product> products) {
+        doAnswer(invocation -> {
+            invocation.getArgumentAt(2, Consumer.class).accept(products);
+            return null;
+        }).when(productDao).scanExpiringProducts(anyInt(), anyLong(), any(Consumer.class));
+    }
+
+    private static List<String> readArchive(final String path) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(Paths.get(path))), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+}
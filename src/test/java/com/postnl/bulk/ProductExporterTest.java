@@ -0,0 +1,140 @@
+package com.postnl.bulk;
+
+import com.postnl.dao.ProductDao;
+import com.postnl.model.Product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ProductExporterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ProductDao productDao = mock(ProductDao.class);
+
+    @Test
+    public void export_writesOneJsonLinePerProduct() throws IOException {
+        scanPages(3, 10);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long count = new ProductExporter(productDao, objectMapper, 3, 1).export(os);
+        assertEquals(30, count);
+        List<String> lines = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(os.toByteArray()), StandardCharsets.UTF_8)).lines().collect(Collectors.toList());
+        assertEquals(30, lines.size());
+        for (String line : lines) {
+            assertEquals("box", objectMapper.readTree(line).get("productType").asText());
+        }
+    }
+
+    @Test
+    public void export_whenGzipped_roundTrips() throws IOException {
+        scanPages(2, 5);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(os)) {
+            new ProductExporter(productDao, objectMapper, 2, 2).export(gzip);
+        }
+        long lines = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new ByteArrayInputStream(os.toByteArray())), StandardCharsets.UTF_8)).lines().count();
+        assertEquals(10, lines);
+    }
+
+    @Test
+    public void export_whenWriterIsSlow_blocksScanAtBufferSize() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        List<Integer> delivered = new ArrayList<>();
+        doAnswer(invocation -> {
+            Consumer<List<Product>> sink = invocation.getArgumentAt(1, Consumer.class);
+            for (int page = 0; page < 5; page++) {
+                sink.accept(page(1));
+                synchronized (delivered) {
+                    delivered.add(page);
+                }
+            }
+            return null;
+        }).when(productDao).scanProducts(anyInt(), any(Consumer.class));
+        OutputStream blockingOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+
+        Thread export = new Thread(() -> {
+            try {
+                new ProductExporter(productDao, objectMapper, 1, 1).export(blockingOutput);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        export.start();
+        Thread.sleep(300);
+        synchronized (delivered) {
+            // one page is being written, one waits in the queue, the third offer blocks
+            assertTrue(delivered.size() <= 2);
+        }
+        released.countDown();
+        export.join(TimeUnit.SECONDS.toMillis(5));
+        assertEquals(5, delivered.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void export_whenScanFails_rethrows() throws IOException {
+        doAnswer(invocation -> {
+            throw new IllegalStateException("scan failed");
+        }).when(productDao).scanProducts(anyInt(), any(Consumer.class));
+        new ProductExporter(productDao, objectMapper, 1, 1).export(new ByteArrayOutputStream());
+    }
+
+    private void scanPages(int segments, int productsPerSegment) {
+        doAnswer(invocation -> {
+            Consumer<List<Product>> sink = invocation.getArgumentAt(1, Consumer.class);
+            List<Thread> threads = new ArrayList<>();
+            for (int segment = 0; segment < segments; segment++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < productsPerSegment; i++) {
+                        sink.accept(page(1));
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return null;
+        }).when(productDao).scanProducts(anyInt(), any(Consumer.class));
+    }
+
+    private static List<Product> page(int size) {
+        return IntStream.range(0, size)
+                .mapToObj(i -> new Product("p-" + i, "box", "2020-10-08 13:00 - 15:00"))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,130 @@
+package com.postnl.bulk;
+
+import com.postnl.dao.ProductDao;
+import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.model.Product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ProductImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ProductDao productDao = mock(ProductDao.class);
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+    private final ProductImporter sut = new ProductImporter(productDao, new ObjectMapper(), 4);
+
+    @Test
+    public void importFile_whenCsv_writesValidRowsInBatchesOf25() throws IOException {
+        acceptAll();
+        StringBuilder csv = new StringBuilder("deliveryDate,productType\n");
+        for (int i = 0; i < 60; i++) {
+            csv.append("\"2020-10-08 13:00 - 15:00\",box\n");
+        }
+        csv.append("2020-10-08,\n");
+
+        ImportReport report = sut.importFile(write("depot.csv", csv.toString()),
+                ProductImporter.Format.CSV, 60_000, r -> { });
+
+        assertEquals(61, report.getRead());
+        assertEquals(1, report.getRejected());
+        assertEquals(60, report.getWritten());
+        assertEquals(0, report.getFailed());
+        assertEquals(Arrays.asList(10, 25, 25), batchSizes.stream().sorted().collect(Collectors.toList()));
+        assertTrue(report.getErrors().get(0).startsWith("line 62:"));
+    }
+
+    @Test
+    public void importFile_whenNdjson_rejectsInvalidRecords() throws IOException {
+        acceptAll();
+        String ndjson = "{\"productType\": \"box\", \"deliveryDate\": \"2020-10-08 13:00 - 15:00\"}\r\n"
+                + "\n"
+                + "{\"productType\": \"box\"}\n"
+                + "not json\n"
+                + "{\"productType\": \"letter\", \"deliveryDate\": \"2020-10-09\"}";
+
+        ImportReport report = sut.importFile(write("depot.ndjson", ndjson),
+                ProductImporter.Format.NDJSON, 60_000, r -> { });
+
+        assertEquals(4, report.getRead());
+        assertEquals(2, report.getRejected());
+        assertEquals(2, report.getWritten());
+    }
+
+    @Test
+    public void importFile_whenBatchPartlyUnprocessed_countsFailures() throws IOException {
+        doAnswer(invocation -> {
+            List<CreateProductRequest> batch = invocation.getArgumentAt(0, List.class);
+            return toProducts(batch.subList(1, batch.size()));
+        }).when(productDao).batchCreateProducts(anyListOf(CreateProductRequest.class));
+
+        ImportReport report = sut.importFile(write("depot.csv", "productType,deliveryDate\nbox,today\nbox,today\n"),
+                ProductImporter.Format.CSV, 60_000, r -> { });
+
+        assertEquals(1, report.getWritten());
+        assertEquals(1, report.getFailed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void importFile_whenCsvHeaderMissesColumn_throwsIllegalArgumentException() throws IOException {
+        sut.importFile(write("depot.csv", "productType\nbox\n"), ProductImporter.Format.CSV, 60_000, r -> { });
+    }
+
+    @Test
+    public void mappedLineReader_readsLinesAcrossWindowBoundaries() throws IOException {
+        Path file = write("lines.txt", "first line\nsecond ünïcode line\n\nlast");
+        try (MappedLineReader reader = new MappedLineReader(file, 4)) {
+            assertEquals("first line", reader.readLine());
+            assertEquals("second ünïcode line", reader.readLine());
+            assertEquals("", reader.readLine());
+            assertEquals("last", reader.readLine());
+            assertNull(reader.readLine());
+        }
+    }
+
+    @Test
+    public void csvParser_handlesQuotedFields() {
+        assertEquals(Arrays.asList("a, b", "say \"hi\"", ""), CsvParser.parse("\"a, b\",\"say \"\"hi\"\"\","));
+    }
+
+    private void acceptAll() {
+        doAnswer(invocation -> {
+            List<CreateProductRequest> batch = invocation.getArgumentAt(0, List.class);
+            batchSizes.add(batch.size());
+            return toProducts(batch);
+        }).when(productDao).batchCreateProducts(anyListOf(CreateProductRequest.class));
+    }
+
+    private static List<Product> toProducts(List<CreateProductRequest> batch) {
+        return batch.stream()
+                .map(request -> new Product("id", request.getProductType(), request.getDeliveryDate()))
+                .collect(Collectors.toList());
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,221 @@
+package com.postnl.dao;
+
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.memory.InMemoryProductStore;
+import com.postnl.dto.request.CreatePackageRequest;
+import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.exception.CouldNotCreatePackageException;
+import com.postnl.exception.TableDoesNotExistException;
+import com.postnl.model.Package;
+import com.postnl.model.Product;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class PackageDaoTest {
+
+    private static final String PACKAGE_ID = "some package id";
+
+    private final DynamoDbClient dynamoDb = mock(DynamoDbClient.class);
+
+    private final InMemoryProductStore productStore = new InMemoryProductStore(10, 4, ProductExpiry.disabled());
+
+    private final PackageDao sut = new PackageDao(dynamoDb, "packages_table", productStore, ProductExpiry.disabled());
+
+    private final CreatePackageRequest request = CreatePackageRequest.builder()
+            .products(Arrays.asList(
+                    CreateProductRequest.builder().productType("box").deliveryDate("2020-10-08 13:00 - 15:00").build(),
+                    CreateProductRequest.builder().productType("letter").deliveryDate("2020-10-09").build()))
+            .build();
+
+    @Test
+    public void findPackage_readsItemCollectionWithOneQueryAndProductsFromStore() {
+        final Product box = productStore.createProduct(request.getProducts().get(0));
+        final Product letter = productStore.createProduct(request.getProducts().get(1));
+        doReturn(QueryResponse.builder()
+                .items(Arrays.asList(
+                        item(PackageDao.PACKAGE_SORT_KEY, "createdAt", "2020-10-01T10:00:00Z"),
+                        productItem(box.getProductId()),
+                        productItem(letter.getProductId())))
+                .build()).when(dynamoDb).query(any(QueryRequest.class));
+
+        final Package found = sut.findPackage(PACKAGE_ID).get();
+
+        assertEquals(PACKAGE_ID, found.getPackageId());
+        assertEquals("2020-10-01T10:00:00Z", found.getCreatedAt());
+        assertEquals(Arrays.asList(box.getProductId(), letter.getProductId()), productIds(found.getProducts()));
+        verify(dynamoDb, times(1)).query(any(QueryRequest.class));
+    }
+
+    @Test
+    public void findPackage_leavesOutDeletedProducts() {
+        final Product box = productStore.createProduct(request.getProducts().get(0));
+        final Product letter = productStore.createProduct(request.getProducts().get(1));
+        productStore.deleteProduct(box.getProductId(), null);
+        doReturn(QueryResponse.builder()
+                .items(Arrays.asList(
+                        item(PackageDao.PACKAGE_SORT_KEY, "createdAt", "2020-10-01T10:00:00Z"),
+                        productItem(box.getProductId()),
+                        productItem(letter.getProductId())))
+                .build()).when(dynamoDb).query(any(QueryRequest.class));
+
+        assertEquals(Collections.singletonList(letter.getProductId()),
+                productIds(sut.findPackage(PACKAGE_ID).get().getProducts()));
+    }
+
+    @Test
+    public void findPackage_whenNoPackageItem_returnsEmpty() {
+        doReturn(QueryResponse.builder().items(new ArrayList<>()).build()).when(dynamoDb).query(any(QueryRequest.class));
+        assertEquals(Optional.empty(), sut.findPackage(PACKAGE_ID));
+    }
+
+    @Test(expected = TableDoesNotExistException.class)
+    public void findPackage_whenTableDoesNotExist_throwsTableDoesNotExistException() {
+        doThrow(ResourceNotFoundException.builder().build()).when(dynamoDb).query(any(QueryRequest.class));
+        sut.findPackage(PACKAGE_ID);
+    }
+
+    @Test
+    public void createPackage_createsProductsInStoreAndPackageInOneTransaction() {
+        doReturn(TransactWriteItemsResponse.builder().build())
+                .when(dynamoDb).transactWriteItems(any(TransactWriteItemsRequest.class));
+
+        final Package created = sut.createPackage(request);
+
+        assertEquals(2, productStore.size());
+        for (Product product : created.getProducts()) {
+            assertEquals(product.getProductType(),
+                    productStore.getProduct(product.getProductId()).getProductType());
+        }
+        final ArgumentCaptor<TransactWriteItemsRequest> captor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDb, times(1)).transactWriteItems(captor.capture());
+        final List<TransactWriteItem> items = captor.getValue().transactItems();
+        assertEquals(3, items.size());
+        assertEquals(PackageDao.PACKAGE_SORT_KEY, items.get(0).put().item().get(PackageDao.SORT_KEY).s());
+        assertEquals("attribute_not_exists(packageId)", items.get(0).put().conditionExpression());
+        for (TransactWriteItem item : items) {
+            assertEquals(created.getPackageId(), item.put().item().get(PackageDao.PACKAGE_ID).s());
+        }
+        final Map<String, AttributeValue> productItem = items.get(2).put().item();
+        assertEquals(PackageDao.PRODUCT_SORT_KEY_PREFIX + created.getProducts().get(1).getProductId(),
+                productItem.get(PackageDao.SORT_KEY).s());
+        assertEquals(created.getProducts().get(1).getProductId(), productItem.get("productId").s());
+        assertFalse(productItem.containsKey("productType"));
+    }
+
+    @Test
+    public void createPackage_whenProductsExpire_expiresCollectionWithLastProduct() {
+        final PackageDao expiring = new PackageDao(dynamoDb, "packages_table", productStore,
+                new ProductExpiry(60, ZoneId.of("UTC"), Clock.systemUTC()));
+        doReturn(TransactWriteItemsResponse.builder().build())
+                .when(dynamoDb).transactWriteItems(any(TransactWriteItemsRequest.class));
+
+        expiring.createPackage(request);
+
+        final ArgumentCaptor<TransactWriteItemsRequest> captor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDb).transactWriteItems(captor.capture());
+        for (TransactWriteItem item : captor.getValue().transactItems()) {
+            assertEquals("1602288060", item.put().item().get("expiresAt").n());
+        }
+    }
+
+    @Test
+    public void createPackage_whenPackageIdTaken_retriesWithNewId() {
+        doThrow(canceled("ConditionalCheckFailed"))
+                .doReturn(TransactWriteItemsResponse.builder().build())
+                .when(dynamoDb).transactWriteItems(any(TransactWriteItemsRequest.class));
+
+        assertNotNull(sut.createPackage(request));
+        verify(dynamoDb, times(2)).transactWriteItems(any(TransactWriteItemsRequest.class));
+    }
+
+    @Test
+    public void createPackage_whenTransactionConflicts_deletesProductsAndThrowsCouldNotCreatePackageException() {
+        doThrow(canceled("TransactionConflict"))
+                .when(dynamoDb).transactWriteItems(any(TransactWriteItemsRequest.class));
+        try {
+            sut.createPackage(request);
+            fail("expected CouldNotCreatePackageException");
+        } catch (CouldNotCreatePackageException e) {
+            assertEquals(0, productStore.size());
+        }
+    }
+
+    @Test
+    public void createPackage_whenNotEveryProductIsCreated_deletesOthersAndWritesNoPackage() {
+        final ProductStore partial = mock(ProductStore.class);
+        final Product box = new Product("p1", "box", "2020-10-08 13:00 - 15:00");
+        doReturn(Collections.singletonList(box)).when(partial).batchCreateProducts(request.getProducts());
+        doReturn(Collections.emptyList()).when(partial).deleteProducts(Collections.singletonList("p1"));
+        final PackageDao failing = new PackageDao(dynamoDb, "packages_table", partial, ProductExpiry.disabled());
+
+        try {
+            failing.createPackage(request);
+            fail("expected CouldNotCreatePackageException");
+        } catch (CouldNotCreatePackageException e) {
+            verify(partial).deleteProducts(Collections.singletonList("p1"));
+            verify(dynamoDb, never()).transactWriteItems(any(TransactWriteItemsRequest.class));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createPackage_whenNoProducts_throwsIllegalArgumentException() {
+        sut.createPackage(CreatePackageRequest.builder().products(Collections.emptyList()).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createPackage_whenTooManyProducts_throwsIllegalArgumentException() {
+        sut.createPackage(CreatePackageRequest.builder()
+                .products(Collections.nCopies(25, request.getProducts().get(0))).build());
+    }
+
+    private static TransactionCanceledException canceled(final String code) {
+        return TransactionCanceledException.builder()
+                .cancellationReasons(CancellationReason.builder().code(code).build())
+                .build();
+    }
+
+    private static List<String> productIds(final List<Product> products) {
+        final List<String> productIds = new ArrayList<>();
+        for (Product product : products) {
+            productIds.add(product.getProductId());
+        }
+        return productIds;
+    }
+
+    private static Map<String, AttributeValue> productItem(final String productId) {
+        return item(PackageDao.PRODUCT_SORT_KEY_PREFIX + productId, "productId", productId);
+    }
+
+    private static Map<String, AttributeValue> item(final String sortKey, final String name, final String value) {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put(PackageDao.PACKAGE_ID, AttributeValue.builder().s(PACKAGE_ID).build());
+        item.put(PackageDao.SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        item.put(name, AttributeValue.builder().s(value).build());
+        return item;
+    }
+}
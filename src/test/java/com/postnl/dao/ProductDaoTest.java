@@ -1,29 +1,90 @@
 package com.postnl.dao;
 
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.batch.WriteBatcher;
+import com.postnl.dao.changes.ChangeFeed;
+import com.postnl.dao.coalesce.ReadCoalescer;
+import com.postnl.dao.consistency.ReadConsistency;
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.dao.filter.ProductIdFilter;
+import com.postnl.dao.packed.PackedProductCodec;
+import com.postnl.dao.prefetch.PagePrefetcher;
+import com.postnl.dao.purge.PurgeCheckpoint;
+import com.postnl.dao.purge.PurgeResult;
+import com.postnl.dao.replica.Replica;
+import com.postnl.dao.replica.ReplicaSelector;
 import com.postnl.exception.CouldNotCreateProductException;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.exception.DeadlineExceededException;
 import com.postnl.exception.ProductDoesNotExistException;
 import com.postnl.exception.TableDoesNotExistException;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.exception.UnableToUpdateException;
 import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.dto.request.DeleteProductsRequest;
+import com.postnl.dto.request.UpdateProductRequest;
 import com.postnl.model.Product;
 import com.postnl.model.ProductPage;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
 import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
 import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -35,7 +96,12 @@ public class ProductDaoTest {
 
     private final DynamoDbClient dynamoDb = mock(DynamoDbClient.class);
 
-    private final ProductDao sut = new ProductDao(dynamoDb, "table_name", 10);
+    private final ProductDao sut = new ProductDao(dynamoDb, "table_name", ProductDao.Options.defaults());
+
+    private final PackedProductCodec codec = new PackedProductCodec(true, 256);
+
+    private final ProductDao packed = new ProductDao(dynamoDb, "table_name",
+            ProductDao.Options.builder().itemCodec(codec).build());
 
     @Test(expected = IllegalArgumentException.class)
     public void createProduct_whenRequestNull_throwsIllegalArgumentException() {
@@ -117,6 +183,140 @@ public class ProductDaoTest {
         sut.getProducts(any());
     }
 
+    @Test
+    public void getProducts_whenScanStopsEarly_continuesUntilPageIsFull() {
+        doReturn(scanPage(4, "p-3")).doReturn(scanPage(6, "p-9")).when(dynamoDb).scan(any(ScanRequest.class));
+
+        final ProductPage page = sut.getProducts(null);
+
+        assertEquals(10, page.getProducts().size());
+        assertEquals("p-9", page.getLastEvaluatedKey());
+        assertFalse(page.isPartial());
+        final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb, times(2)).scan(request.capture());
+        assertEquals(Integer.valueOf(6), request.getAllValues().get(1).limit());
+        assertEquals("p-3", request.getAllValues().get(1).exclusiveStartKey().get("productId").s());
+    }
+
+    @Test
+    public void getProducts_whenDeadlineExpiresMidPage_returnsPartialPageWithCursor() {
+        doReturn(scanPage(4, "p-3")).doThrow(ApiCallTimeoutException.builder().build())
+                .when(dynamoDb).scan(any(ScanRequest.class));
+        Deadline.start(Deadline.after(10_000, 2000));
+        try {
+            final ProductPage page = sut.getProducts(null);
+
+            assertEquals(4, page.getProducts().size());
+            assertEquals("p-3", page.getLastEvaluatedKey());
+            assertTrue(page.isPartial());
+            final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+            verify(dynamoDb, times(2)).scan(request.capture());
+            assertTrue(request.getValue().overrideConfiguration().get().apiCallTimeout().isPresent());
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    @Test
+    public void getProducts_whenPrefetching_servesNextPageFromMemory() {
+        doReturn(scanPage(10, "p-9")).doReturn(scanPage(10, "p-19")).when(dynamoDb).scan(any(ScanRequest.class));
+        final ProductDao prefetching = new ProductDao(dynamoDb, "table_name",
+                ProductDao.Options.builder().pagePrefetcher(new PagePrefetcher(true, 10_000, 1 << 20)).build());
+
+        assertEquals("p-9", prefetching.getProducts(null).getLastEvaluatedKey());
+        verify(dynamoDb, timeout(1000).times(2)).scan(any(ScanRequest.class));
+        assertEquals("p-19", prefetching.getProducts("p-9").getLastEvaluatedKey());
+
+        // serving the prefetched page prefetches the one after it
+        final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb, timeout(1000).times(3)).scan(request.capture());
+        assertEquals("p-19", request.getAllValues().get(2).exclusiveStartKey().get("productId").s());
+    }
+
+    @Test
+    public void findProduct_whenBurstsOfConcurrentReads_sendsOneGetItemPerBurst() throws Exception {
+        final int bursts = 20;
+        final int callers = 8;
+        final AtomicReference<CountDownLatch> release = new AtomicReference<>();
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        item.put("productType", AttributeValue.builder().s("box").build());
+        item.put("deliveryDate", AttributeValue.builder().s("2020-10-08").build());
+        doAnswer(invocation -> {
+            release.get().await(5, TimeUnit.SECONDS);
+            return GetItemResponse.builder().item(item).build();
+        }).when(dynamoDb).getItem(any(GetItemRequest.class));
+        final ReadCoalescer coalescer = new ReadCoalescer(true, 64);
+        final ProductDao coalescing = new ProductDao(dynamoDb, "table_name",
+                ProductDao.Options.builder().readCoalescer(coalescer).build());
+        final ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            for (int burst = 1; burst <= bursts; burst++) {
+                release.set(new CountDownLatch(1));
+                final List<Future<Product>> products = new ArrayList<>();
+                for (int i = 0; i < callers; i++) {
+                    products.add(executor.submit(() -> coalescing.findProduct(PRODUCT_ID).get()));
+                }
+                final long coalesced = (long) burst * (callers - 1);
+                final long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (coalescer.getStats().getCoalesced() < coalesced && System.nanoTime() < waitUntil) {
+                    Thread.sleep(1);
+                }
+                release.get().countDown();
+                final Product first = products.get(0).get(5, TimeUnit.SECONDS);
+                for (Future<Product> product : products) {
+                    assertEquals("box", product.get(5, TimeUnit.SECONDS).getProductType());
+                }
+                // every caller maps the shared response to a product of its own
+                assertNotSame(first, products.get(1).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(dynamoDb, times(bursts)).getItem(any(GetItemRequest.class));
+        assertEquals(bursts, coalescer.getStats().getCalls());
+        assertEquals(bursts * (callers - 1), coalescer.getStats().getCoalesced());
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void getProducts_whenDeadlineExpiresBeforeFirstScan_throwsDeadlineExceededException() {
+        doThrow(ApiCallTimeoutException.builder().build()).when(dynamoDb).scan(any(ScanRequest.class));
+        sut.getProducts(null);
+    }
+
+    @Test
+    public void deleteProducts_whenNoTimeLeftToBackOff_returnsUnprocessed() {
+        doAnswer(invocation -> {
+            // once the first attempt is made, less time is left than its backoff of up to 100 ms
+            Deadline.start(Deadline.after(50, 2000));
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(invocation.getArgumentAt(0, BatchWriteItemRequest.class).requestItems())
+                    .build();
+        }).when(dynamoDb).batchWriteItem(any(BatchWriteItemRequest.class));
+        Deadline.start(Deadline.after(60_000, 2000));
+        try {
+            assertEquals(Arrays.asList("id-1", "id-2"), sut.deleteProducts(Arrays.asList("id-1", "id-2")));
+            verify(dynamoDb, times(1)).batchWriteItem(any(BatchWriteItemRequest.class));
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    private static ScanResponse scanPage(final int size, final String lastEvaluatedKey) {
+        final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final Map<String, AttributeValue> item = new HashMap<>();
+            item.put("productId", AttributeValue.builder().s("p-" + i).build());
+            item.put("productType", AttributeValue.builder().s("box").build());
+            item.put("deliveryDate", AttributeValue.builder().s("2020-10-08").build());
+            items.add(item);
+        }
+        return ScanResponse.builder()
+                .items(items)
+                .lastEvaluatedKey(Collections.singletonMap("productId", AttributeValue.builder().s(lastEvaluatedKey).build()))
+                .build();
+    }
+
     @Test(expected = CouldNotCreateProductException.class)
     public void createProduct_whenAlreadyExists_throwsCouldNotCreateProductException() {
         doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).putItem(any(PutItemRequest.class));
@@ -142,6 +342,49 @@ public class ProductDaoTest {
         assertNotNull(UUID.fromString(product.getProductId()));
     }
 
+    @Test
+    public void getProduct_whenRecording_emitsDaoCallWithConsumedCapacity() throws IOException {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        item.put("productType", AttributeValue.builder().s("box").build());
+        item.put("deliveryDate", AttributeValue.builder().s("2020-10-08").build());
+        doReturn(GetItemResponse.builder().item(item)
+                .consumedCapacity(ConsumedCapacity.builder().capacityUnits(0.5).build()).build())
+                .when(dynamoDb).getItem(any(GetItemRequest.class));
+        final Path file = Files.createTempFile("dao-call", ".jfr");
+        final List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.postnl.DaoCall");
+            recording.start();
+            sut.getProduct(PRODUCT_ID);
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+
+        final ArgumentCaptor<GetItemRequest> request = ArgumentCaptor.forClass(GetItemRequest.class);
+        verify(dynamoDb).getItem(request.capture());
+        assertEquals(ReturnConsumedCapacity.TOTAL, request.getValue().returnConsumedCapacity());
+        assertEquals(1, events.size());
+        assertEquals("GetItem", events.get(0).getString("operation"));
+        assertEquals("table_name", events.get(0).getString("table"));
+        assertEquals(1, events.get(0).getLong("itemCount"));
+        assertEquals(0.5, events.get(0).getDouble("consumedCapacity"), 0.0);
+    }
+
+    @Test
+    public void getProduct_whenNotRecording_doesNotAskForConsumedCapacity() {
+        doReturn(GetItemResponse.builder().build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        assertFalse(sut.findProduct(PRODUCT_ID).isPresent());
+
+        final ArgumentCaptor<GetItemRequest> request = ArgumentCaptor.forClass(GetItemRequest.class);
+        verify(dynamoDb).getItem(request.capture());
+        assertNull(request.getValue().returnConsumedCapacity());
+    }
+
     @Test(expected = ProductDoesNotExistException.class)
     public void getProduct_whenProductDoesNotExist_throwsProductDoesNotExist() {
         doReturn(GetItemResponse.builder().item(null).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
@@ -162,6 +405,26 @@ public class ProductDaoTest {
         sut.getProduct(PRODUCT_ID);
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void getProduct_whenGetItemReturnsHashMapWithNumberProductId_throwsIllegalStateException() {
+        Map<String, AttributeValue> map = new HashMap<>();
+        map.put("productId", AttributeValue.builder().n("1").build());
+        map.put("productType", AttributeValue.builder().s("b").build());
+        map.put("deliveryDate", AttributeValue.builder().s("c").build());
+        doReturn(GetItemResponse.builder().item(map).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        sut.getProduct(PRODUCT_ID);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getProduct_whenGetItemReturnsHashMapWithNumberDeliveryDate_throwsIllegalStateException() {
+        Map<String, AttributeValue> map = new HashMap<>();
+        map.put("productId", AttributeValue.builder().s("a").build());
+        map.put("productType", AttributeValue.builder().s("b").build());
+        map.put("deliveryDate", AttributeValue.builder().n("20200101").build());
+        doReturn(GetItemResponse.builder().item(map).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        sut.getProduct(PRODUCT_ID);
+    }
+
     @Test(expected = IllegalStateException.class)
     public void getProduct_whenGetItemReturnsHashMapWithUnsetProductIdAV_throwsIllegalStateException() {
         Map<String, AttributeValue> map = new HashMap<>();
@@ -205,7 +468,7 @@ public class ProductDaoTest {
         sut.getProduct(PRODUCT_ID);
     }
 
-    @Test
+    @Test(expected = IllegalStateException.class)
     public void getProduct_whenGetItemReturnsHashMapWithPreTaxWrongType_throwsIllegalStateException() {
         Map<String, AttributeValue> map = new HashMap<>();
         map.put("productId", AttributeValue.builder().s("a").build());
@@ -215,7 +478,7 @@ public class ProductDaoTest {
         sut.getProduct(PRODUCT_ID);
     }
 
-    @Test
+    @Test(expected = IllegalStateException.class)
     public void getProduct_whenGetItemReturnsHashMapWithUnsetPreTaxAV_throwsIllegalStateException() {
         Map<String, AttributeValue> map = new HashMap<>();
         map.put("productId", AttributeValue.builder().s("a").build());
@@ -248,4 +511,972 @@ public class ProductDaoTest {
         assertEquals("2020-10-08 13:00 - 15:00", product.getDeliveryDate());
     }
 
+    @Test
+    public void findProduct_whenProductDoesNotExist_returnsEmpty() {
+        doReturn(GetItemResponse.builder().item(null).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        assertFalse(sut.findProduct(PRODUCT_ID).isPresent());
+    }
+
+    @Test
+    public void getProduct_whenProductIdFilterRejectsId_doesNotCallGetItem() {
+        ProductIdFilter filter = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        filter.rebuild(sink -> sink.accept("known"));
+        ProductDao filtered = filtering(filter);
+        doReturn(QueryResponse.builder().items(Collections.emptyList()).build())
+                .when(dynamoDb).query(any(QueryRequest.class));
+        try {
+            filtered.getProduct(PRODUCT_ID);
+            fail("expected ProductDoesNotExistException");
+        } catch (ProductDoesNotExistException e) {
+            verify(dynamoDb, never()).getItem(any(GetItemRequest.class));
+            verify(dynamoDb).query(any(QueryRequest.class));
+        }
+    }
+
+    @Test
+    public void getProduct_whenCreatedByAnotherContainer_catchesUpThroughChangeIndex() {
+        ProductIdFilter filter = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        filter.rebuild(sink -> sink.accept("known"));
+        ProductDao filtered = filtering(filter);
+        doReturn(QueryResponse.builder()
+                .items(Collections.singletonList(Collections.singletonMap("productId",
+                        AttributeValue.builder().s(PRODUCT_ID).build())))
+                .build()).when(dynamoDb).query(any(QueryRequest.class));
+        Map<String, AttributeValue> productItem = new HashMap<>();
+        productItem.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        productItem.put("productType", AttributeValue.builder().s("box").build());
+        productItem.put("deliveryDate", AttributeValue.builder().s("2020-10-08 13:00 - 15:00").build());
+        doReturn(GetItemResponse.builder().item(productItem).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        assertEquals(PRODUCT_ID, filtered.getProduct(PRODUCT_ID).getProductId());
+
+        final ArgumentCaptor<QueryRequest> query = ArgumentCaptor.forClass(QueryRequest.class);
+        verify(dynamoDb).query(query.capture());
+        assertEquals("changes-index", query.getValue().indexName());
+        assertEquals("productId", query.getValue().projectionExpression());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_whenProductIdFilterWithoutChangeFeed_throwsIllegalArgumentException() {
+        new ProductDao(dynamoDb, "table_name", ProductDao.Options.builder()
+                .productIdFilter(new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000))
+                .build());
+    }
+
+    @Test
+    public void findProduct_whenStrong_readsConsistentlyPastProductIdFilter() {
+        ProductIdFilter filter = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        filter.rebuild(sink -> sink.accept("known"));
+        ProductDao filtered = filtering(filter);
+        doReturn(GetItemResponse.builder().item(null).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        // a product created moments ago may not be in the filter yet
+        assertFalse(filtered.findProduct(PRODUCT_ID, ReadConsistency.STRONG).isPresent());
+
+        final ArgumentCaptor<GetItemRequest> request = ArgumentCaptor.forClass(GetItemRequest.class);
+        verify(dynamoDb).getItem(request.capture());
+        assertTrue(request.getValue().consistentRead());
+    }
+
+    @Test
+    public void getProducts_whenStrongWithSnapshotCursor_throwsCursorExpiredException() {
+        try {
+            sut.getProducts("~1.2.p-1", ReadConsistency.STRONG);
+            fail("expected CursorExpiredException");
+        } catch (CursorExpiredException e) {
+            assertTrue(e.getMessage().contains("start the listing over"));
+        }
+        verify(dynamoDb, never()).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    public void getProducts_whenStrong_scansConsistently() {
+        doReturn(scanPage(10, "p-9")).when(dynamoDb).scan(any(ScanRequest.class));
+
+        assertEquals("p-9", sut.getProducts(null, ReadConsistency.STRONG).getLastEvaluatedKey());
+        sut.getProducts(null);
+
+        final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb, times(2)).scan(request.capture());
+        assertTrue(request.getAllValues().get(0).consistentRead());
+        assertFalse(request.getAllValues().get(1).consistentRead());
+    }
+
+    @Test
+    public void findProduct_whenReplicasConfigured_readsStronglyFromHomeOnly() {
+        final DynamoDbClient replicaDb = mock(DynamoDbClient.class);
+        doReturn(GetItemResponse.builder().item(null).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        doReturn(GetItemResponse.builder().item(null).build()).when(replicaDb).getItem(any(GetItemRequest.class));
+        final ReplicaSelector selector = new ReplicaSelector(Arrays.asList(new Replica("home", dynamoDb),
+                new Replica("replica", replicaDb)), 0.2, 0, 0.5);
+        final ProductDao replicated = new ProductDao(dynamoDb, "table_name",
+                ProductDao.Options.builder().replicaSelector(selector).build());
+        doThrow(DynamoDbException.builder().statusCode(503).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        // the home region fails, so the eventually consistent read fails over to the replica
+        assertFalse(replicated.findProduct(PRODUCT_ID).isPresent());
+        verify(replicaDb).getItem(any(GetItemRequest.class));
+
+        try {
+            replicated.findProduct(PRODUCT_ID, ReadConsistency.STRONG);
+            fail("expected DynamoDbException");
+        } catch (DynamoDbException e) {
+            verify(replicaDb, times(1)).getItem(any(GetItemRequest.class));
+            verify(dynamoDb, times(2)).getItem(any(GetItemRequest.class));
+        }
+    }
+
+    @Test
+    public void scanProductIds_readsEverySegmentUntilExhausted() {
+        Map<String, AttributeValue> first = Collections.singletonMap("productId", AttributeValue.builder().s("a").build());
+        Map<String, AttributeValue> second = Collections.singletonMap("productId", AttributeValue.builder().s("b").build());
+        doReturn(ScanResponse.builder().items(Collections.singletonList(first)).lastEvaluatedKey(first).build())
+                .doReturn(ScanResponse.builder().items(Collections.singletonList(second)).build())
+                .when(dynamoDb).scan(any(ScanRequest.class));
+        List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        sut.scanProductIds(1, ids::add);
+        assertEquals(2, ids.size());
+        assertTrue(ids.containsAll(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void batchCreateProducts_retriesUnprocessedItems() {
+        doAnswer(invocation -> {
+            BatchWriteItemRequest request = invocation.getArgumentAt(0, BatchWriteItemRequest.class);
+            List<WriteRequest> writes = request.requestItems().get("table_name");
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(writes.size() > 1
+                            ? Collections.singletonMap("table_name", writes.subList(1, writes.size()))
+                            : Collections.emptyMap())
+                    .build();
+        }).when(dynamoDb).batchWriteItem(any(BatchWriteItemRequest.class));
+
+        List<Product> products = sut.batchCreateProducts(Arrays.asList(
+                CreateProductRequest.builder().productType("box").deliveryDate("2020-10-08").build(),
+                CreateProductRequest.builder().productType("box").deliveryDate("2020-10-09").build(),
+                CreateProductRequest.builder().productType("box").deliveryDate("2020-10-10").build()));
+
+        assertEquals(3, products.size());
+        verify(dynamoDb, times(3)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    public void batchCreateProducts_whenItemsStayUnprocessed_leavesThemOut() {
+        doAnswer(invocation -> BatchWriteItemResponse.builder()
+                .unprocessedItems(invocation.getArgumentAt(0, BatchWriteItemRequest.class).requestItems())
+                .build()).when(dynamoDb).batchWriteItem(any(BatchWriteItemRequest.class));
+
+        List<Product> products = sut.batchCreateProducts(Collections.singletonList(
+                CreateProductRequest.builder().productType("box").deliveryDate("2020-10-08").build()));
+
+        assertTrue(products.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchCreateProducts_whenRequestInvalid_throwsIllegalArgumentException() {
+        sut.batchCreateProducts(Collections.singletonList(CreateProductRequest.builder().productType("box").build()));
+    }
+
+    @Test
+    public void createProduct_whenRetentionSet_writesExpiresAt() {
+        final ProductDao expiring = new ProductDao(dynamoDb, "table_name", ProductDao.Options.builder()
+                .productExpiry(new ProductExpiry(60, ZoneId.of("UTC"), Clock.systemUTC())).build());
+        doReturn(PutItemResponse.builder().build()).when(dynamoDb).putItem(any(PutItemRequest.class));
+
+        expiring.createProduct(CreateProductRequest.builder()
+                .productType("box").deliveryDate("2020-10-08 13:00 - 15:00").build());
+
+        final ArgumentCaptor<PutItemRequest> request = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDb).putItem(request.capture());
+        assertEquals("1602169260", request.getValue().item().get("expiresAt").n());
+    }
+
+    @Test
+    public void createProduct_whenChangeFeedEnabled_stampsChange() {
+        doReturn(PutItemResponse.builder().build()).when(dynamoDb).putItem(any(PutItemRequest.class));
+
+        final Product product = changing(new ChangeFeed(true, "changes-index", 4, 5000, 604_800_000L, () -> 1_000_000L))
+                .createProduct(CreateProductRequest.builder().productType("box").deliveryDate("2020-10-08").build());
+
+        final ArgumentCaptor<PutItemRequest> request = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDb).putItem(request.capture());
+        final Map<String, AttributeValue> item = request.getValue().item();
+        assertEquals("1000000", item.get("updatedAt").n());
+        assertEquals("0000001000000#" + product.getProductId(), item.get("changeSequence").s());
+        assertNotNull(item.get("changeShard").n());
+    }
+
+    @Test
+    public void updateProduct_whenChangeFeedEnabled_stampsChange() {
+        final Map<String, AttributeValue> updated = new HashMap<>();
+        updated.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        updated.put("productType", AttributeValue.builder().s("letter").build());
+        updated.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        doReturn(UpdateItemResponse.builder().attributes(updated).build())
+                .when(dynamoDb).updateItem(any(UpdateItemRequest.class));
+
+        changing(new ChangeFeed(true, "changes-index", 4, 5000, 604_800_000L, () -> 1_000_000L)).updateProduct(PRODUCT_ID,
+                UpdateProductRequest.builder().productType("letter").expectedVersion(1L).build());
+
+        final ArgumentCaptor<UpdateItemRequest> request = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(dynamoDb).updateItem(request.capture());
+        assertTrue(request.getValue().updateExpression().contains("changeSequence = :changeSequence"));
+        assertEquals("0000001000000#" + PRODUCT_ID,
+                request.getValue().expressionAttributeValues().get(":changeSequence").s());
+    }
+
+    @Test
+    public void getChanges_mergesShardsUpToSettleTime() {
+        final ChangeFeed feed = new ChangeFeed(true, "changes-index", 2, 5000, 604_800_000L, () -> 10_000L);
+        doAnswer(invocation -> {
+            final QueryRequest query = invocation.getArgumentAt(0, QueryRequest.class);
+            assertEquals("changes-index", query.indexName());
+            assertEquals("0000000001000", query.expressionAttributeValues().get(":after").s());
+            return "0".equals(query.expressionAttributeValues().get(":shard").n())
+                    ? changes(1500, "a", 3000, "c", 6000, "unsettled")
+                    : changes(2000, "b");
+        }).when(dynamoDb).query(any(QueryRequest.class));
+
+        final ProductPage page = changing(feed).getChanges("1000");
+
+        final List<String> ids = new ArrayList<>();
+        for (Product product : page.getProducts()) {
+            ids.add(product.getProductId());
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), ids);
+        // every settled change was read, so the next page starts at the settle time
+        assertEquals("0000000005000", page.getLastEvaluatedKey());
+        verify(dynamoDb, times(2)).query(any(QueryRequest.class));
+    }
+
+    @Test
+    public void getChanges_servesTombstonesAsDeletedProducts() {
+        final Map<String, AttributeValue> tombstone = new HashMap<>();
+        tombstone.put("productId", AttributeValue.builder().s("gone").build());
+        tombstone.put("deleted", AttributeValue.builder().bool(true).build());
+        tombstone.put("changeSequence", AttributeValue.builder().s(ChangeFeed.sequence(2000, "gone")).build());
+        final List<Map<String, AttributeValue>> items = new ArrayList<>(changes(1500, "a").items());
+        items.add(tombstone);
+        doReturn(QueryResponse.builder().items(items).build()).when(dynamoDb).query(any(QueryRequest.class));
+
+        final List<Product> products = changing(new ChangeFeed(true, "changes-index", 1, 5000, 604_800_000L,
+                () -> 10_000L)).getChanges(null).getProducts();
+
+        assertEquals(2, products.size());
+        assertNull(products.get(0).getDeleted());
+        assertEquals("gone", products.get(1).getProductId());
+        assertTrue(products.get(1).getDeleted());
+        assertNull(products.get(1).getProductType());
+    }
+
+    @Test
+    public void getChanges_whenSinceOlderThanRetention_throwsCursorExpiredException() {
+        final ProductDao changing = changing(new ChangeFeed(true, "changes-index", 1, 5000, 60_000L,
+                () -> 1_000_000L));
+        try {
+            changing.getChanges("900000");
+            fail("expected CursorExpiredException");
+        } catch (CursorExpiredException e) {
+            verify(dynamoDb, never()).query(any(QueryRequest.class));
+        }
+    }
+
+    @Test
+    public void deleteProduct_whenChangeFeedEnabled_replacesProductWithTombstone() {
+        final Map<String, AttributeValue> old = new HashMap<>();
+        old.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        old.put("productType", AttributeValue.builder().s("box").build());
+        old.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        doReturn(PutItemResponse.builder().attributes(old).build()).when(dynamoDb).putItem(any(PutItemRequest.class));
+
+        final Product deleted = changing(new ChangeFeed(true, "changes-index", 4, 5000, 60_000L, () -> 1_000_000L))
+                .deleteProduct(PRODUCT_ID, null);
+
+        assertEquals("box", deleted.getProductType());
+        verify(dynamoDb, never()).deleteItem(any(DeleteItemRequest.class));
+        final ArgumentCaptor<PutItemRequest> request = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDb).putItem(request.capture());
+        final Map<String, AttributeValue> item = request.getValue().item();
+        assertTrue(item.get("deleted").bool());
+        assertEquals("0000001000000#" + PRODUCT_ID, item.get("changeSequence").s());
+        assertEquals("1060", item.get("expiresAt").n());
+        assertFalse(item.containsKey("productType"));
+        assertEquals("attribute_exists(productId) AND attribute_not_exists(#deleted)",
+                request.getValue().conditionExpression());
+        assertEquals(Collections.singletonMap("#deleted", "deleted"), request.getValue().expressionAttributeNames());
+        assertEquals(ReturnValue.ALL_OLD, request.getValue().returnValues());
+    }
+
+    @Test
+    public void deleteProducts_whenChangeFeedEnabled_writesTombstones() {
+        doReturn(BatchWriteItemResponse.builder().build()).when(dynamoDb).batchWriteItem(any(BatchWriteItemRequest.class));
+
+        assertTrue(changing(new ChangeFeed(true, "changes-index", 4, 5000, 60_000L, () -> 1_000_000L))
+                .deleteProducts(Arrays.asList("a", "b")).isEmpty());
+
+        final ArgumentCaptor<BatchWriteItemRequest> request = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(dynamoDb).batchWriteItem(request.capture());
+        for (WriteRequest write : request.getValue().requestItems().get("table_name")) {
+            assertNull(write.deleteRequest());
+            assertTrue(write.putRequest().item().get("deleted").bool());
+        }
+    }
+
+    @Test
+    public void findProduct_whenItemIsTombstone_returnsEmpty() {
+        final Map<String, AttributeValue> tombstone = new HashMap<>();
+        tombstone.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        tombstone.put("deleted", AttributeValue.builder().bool(true).build());
+        doReturn(GetItemResponse.builder().item(tombstone).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        assertFalse(sut.findProduct(PRODUCT_ID).isPresent());
+    }
+
+    @Test
+    public void backfillChanges_stampsProductsWithoutChangeConditionally() {
+        doReturn(ScanResponse.builder().items(Arrays.asList(
+                Collections.singletonMap("productId", AttributeValue.builder().s("a").build()),
+                Collections.singletonMap("productId", AttributeValue.builder().s("b").build()))).build())
+                .when(dynamoDb).scan(any(ScanRequest.class));
+        doAnswer(invocation -> {
+            if ("b".equals(invocation.getArgumentAt(0, UpdateItemRequest.class).key().get("productId").s())) {
+                // written meanwhile, so it already has a change
+                throw ConditionalCheckFailedException.builder().build();
+            }
+            return UpdateItemResponse.builder().build();
+        }).when(dynamoDb).updateItem(any(UpdateItemRequest.class));
+
+        assertEquals(1, changing(new ChangeFeed(true, "changes-index", 4, 5000, 60_000L, () -> 1_000_000L))
+                .backfillChanges(1));
+
+        final ArgumentCaptor<ScanRequest> scan = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb).scan(scan.capture());
+        assertEquals("attribute_not_exists(changeSequence)", scan.getValue().filterExpression());
+        final ArgumentCaptor<UpdateItemRequest> update = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(dynamoDb, times(2)).updateItem(update.capture());
+        assertEquals("attribute_exists(productId) AND attribute_not_exists(changeSequence)",
+                update.getValue().conditionExpression());
+        assertFalse(update.getValue().updateExpression().contains("version"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void backfillChanges_whenChangeFeedDisabled_throwsIllegalStateException() {
+        sut.backfillChanges(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getChanges_whenChangeFeedDisabled_throwsIllegalStateException() {
+        assertFalse(sut.recordsChanges());
+        sut.getChanges(null);
+    }
+
+    @Test
+    public void createProduct_whenBatching_writesConcurrentCreatesInOneTransaction() throws Exception {
+        doReturn(TransactWriteItemsResponse.builder().build())
+                .when(dynamoDb).transactWriteItems(any(TransactWriteItemsRequest.class));
+        final ProductDao batching = batching(new WriteBatcher<>(true, 3, 60_000));
+
+        final Set<String> productIds = new HashSet<>();
+        for (Product product : createConcurrently(batching, 3)) {
+            productIds.add(product.getProductId());
+        }
+
+        assertEquals(3, productIds.size());
+        final ArgumentCaptor<TransactWriteItemsRequest> request = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDb).transactWriteItems(request.capture());
+        assertNotNull(request.getValue().clientRequestToken());
+        assertEquals(3, request.getValue().transactItems().size());
+        for (TransactWriteItem write : request.getValue().transactItems()) {
+            assertEquals("attribute_not_exists(productId)", write.put().conditionExpression());
+            assertTrue(productIds.contains(write.put().item().get("productId").s()));
+        }
+        verify(dynamoDb, never()).putItem(any(PutItemRequest.class));
+    }
+
+    @Test
+    public void createProduct_whenBatchedIdWasTaken_writesOthersOnTheirOwnAndRetriesWithNewId() throws Exception {
+        doThrow(TransactionCanceledException.builder().cancellationReasons(
+                CancellationReason.builder().code("ConditionalCheckFailed").build(),
+                CancellationReason.builder().code("None").build()).build())
+                .when(dynamoDb).transactWriteItems(any(TransactWriteItemsRequest.class));
+        doReturn(PutItemResponse.builder().build()).when(dynamoDb).putItem(any(PutItemRequest.class));
+        final ProductDao batching = batching(new WriteBatcher<>(true, 2, 500));
+
+        final List<Product> products = createConcurrently(batching, 2);
+
+        assertEquals(2, products.size());
+        assertNotEquals(products.get(0).getProductId(), products.get(1).getProductId());
+        final ArgumentCaptor<TransactWriteItemsRequest> transaction = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(dynamoDb, atLeastOnce()).transactWriteItems(transaction.capture());
+        final String taken = transaction.getAllValues().get(0).transactItems().get(0).put().item().get("productId").s();
+        final String notTaken = transaction.getAllValues().get(0).transactItems().get(1).put().item().get("productId").s();
+        final Set<String> created = new HashSet<>();
+        for (Product product : products) {
+            created.add(product.getProductId());
+        }
+        assertFalse(created.contains(taken));
+        assertTrue(created.contains(notTaken));
+        final ArgumentCaptor<PutItemRequest> puts = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDb, atLeastOnce()).putItem(puts.capture());
+        for (PutItemRequest put : puts.getAllValues()) {
+            assertEquals("attribute_not_exists(productId)", put.conditionExpression());
+            assertNotEquals(taken, put.item().get("productId").s());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_whenBatchesExceedTransactionLimit_throwsIllegalArgumentException() {
+        batching(new WriteBatcher<>(false, 26, 5));
+    }
+
+    private ProductDao batching(final WriteBatcher<Map<String, AttributeValue>, Boolean> writeBatcher) {
+        return new ProductDao(dynamoDb, "table_name", ProductDao.Options.builder().writeBatcher(writeBatcher).build());
+    }
+
+    private static List<Product> createConcurrently(final ProductDao dao, final int count) throws Exception {
+        final ExecutorService callers = Executors.newFixedThreadPool(count);
+        try {
+            final List<Future<Product>> creates = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                creates.add(callers.submit(() -> dao.createProduct(
+                        CreateProductRequest.builder().productType("box").deliveryDate("2020-10-08").build())));
+            }
+            final List<Product> products = new ArrayList<>();
+            for (Future<Product> create : creates) {
+                products.add(create.get(10, TimeUnit.SECONDS));
+            }
+            return products;
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private ProductDao filtering(final ProductIdFilter filter) {
+        return new ProductDao(dynamoDb, "table_name", ProductDao.Options.builder()
+                .productIdFilter(filter)
+                .changeFeed(new ChangeFeed(true, "changes-index", 1, 5000, 604_800_000L, System::currentTimeMillis))
+                .build());
+    }
+
+    private ProductDao changing(final ChangeFeed changeFeed) {
+        return new ProductDao(dynamoDb, "table_name", ProductDao.Options.builder().changeFeed(changeFeed).build());
+    }
+
+    private static QueryResponse changes(final Object... timesAndIds) {
+        final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (int i = 0; i < timesAndIds.length; i += 2) {
+            final String productId = (String) timesAndIds[i + 1];
+            final Map<String, AttributeValue> item = new HashMap<>();
+            item.put("productId", AttributeValue.builder().s(productId).build());
+            item.put("productType", AttributeValue.builder().s("box").build());
+            item.put("deliveryDate", AttributeValue.builder().s("2020-10-08").build());
+            item.put("changeSequence", AttributeValue.builder()
+                    .s(ChangeFeed.sequence((Integer) timesAndIds[i], productId)).build());
+            items.add(item);
+        }
+        return QueryResponse.builder().items(items).build();
+    }
+
+    @Test
+    public void scanExpiringProducts_filtersOnExpiresAtAndSkipsEmptyPages() {
+        doReturn(ScanResponse.builder().items(new ArrayList<>()).build()).when(dynamoDb).scan(any(ScanRequest.class));
+        final List<List<Product>> pages = new ArrayList<>();
+
+        sut.scanExpiringProducts(1, 1234L, pages::add);
+
+        assertTrue(pages.isEmpty());
+        final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb).scan(request.capture());
+        assertEquals("expiresAt <= :cutoff", request.getValue().filterExpression());
+        assertEquals("1234", request.getValue().expressionAttributeValues().get(":cutoff").n());
+    }
+
+    @Test
+    public void deleteProducts_deletesInChunksOf25AndReturnsUndeleted() {
+        doAnswer(invocation -> {
+            List<WriteRequest> writes = invocation.getArgumentAt(0, BatchWriteItemRequest.class)
+                    .requestItems().get("table_name");
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(writes.size() < 25
+                            ? Collections.singletonMap("table_name", writes)
+                            : Collections.emptyMap())
+                    .build();
+        }).when(dynamoDb).batchWriteItem(any(BatchWriteItemRequest.class));
+        final List<String> productIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            productIds.add("id-" + i);
+        }
+
+        final List<String> undeleted = sut.deleteProducts(productIds);
+
+        assertEquals(productIds.subList(25, 30), undeleted);
+        verify(dynamoDb, times(9)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    public void updateProduct_appliesPartialUpdateConditionedOnVersion() {
+        final Map<String, AttributeValue> updated = new HashMap<>();
+        updated.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        updated.put("productType", AttributeValue.builder().s("box").build());
+        updated.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        updated.put("version", AttributeValue.builder().n("4").build());
+        doReturn(UpdateItemResponse.builder().attributes(updated).build())
+                .when(dynamoDb).updateItem(any(UpdateItemRequest.class));
+
+        final Product product = sut.updateProduct(PRODUCT_ID,
+                UpdateProductRequest.builder().deliveryDate("2020-10-09").expectedVersion(3L).build());
+
+        assertEquals(Long.valueOf(4), product.getVersion());
+        final ArgumentCaptor<UpdateItemRequest> request = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(dynamoDb).updateItem(request.capture());
+        assertEquals("SET deliveryDate = :deliveryDate, #version = if_not_exists(#version, :zero) + :one",
+                request.getValue().updateExpression());
+        assertEquals("attribute_exists(productId) AND attribute_not_exists(#deleted) AND #version = :expectedVersion",
+                request.getValue().conditionExpression());
+        assertEquals("3", request.getValue().expressionAttributeValues().get(":expectedVersion").n());
+        assertEquals(ReturnValue.ALL_NEW, request.getValue().returnValues());
+        verify(dynamoDb, never()).getItem(any(GetItemRequest.class));
+    }
+
+    @Test
+    public void createProduct_whenPacked_writesFieldsIntoOneBinaryAttribute() {
+        doReturn(PutItemResponse.builder().build()).when(dynamoDb).putItem(any(PutItemRequest.class));
+
+        final Product product = packed.createProduct(CreateProductRequest.builder()
+                .productType("box").deliveryDate("2020-10-08").build());
+
+        assertEquals("box", product.getProductType());
+        final ArgumentCaptor<PutItemRequest> request = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(dynamoDb).putItem(request.capture());
+        final Map<String, AttributeValue> item = request.getValue().item();
+        assertFalse(item.containsKey("productType"));
+        assertFalse(item.containsKey("deliveryDate"));
+        assertNotNull(item.get("p").b());
+        assertEquals("1", item.get("version").n());
+    }
+
+    @Test
+    public void getProduct_readsPackedAndAttributePerFieldItems() {
+        final Map<String, AttributeValue> packedItem = new HashMap<>();
+        packedItem.put("productId", AttributeValue.builder().s("packed").build());
+        packedItem.put("p", codec.encode("box", "2020-10-08"));
+        // written by an update in the attribute per field format after the item was packed
+        packedItem.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        final Map<String, AttributeValue> legacyItem = new HashMap<>();
+        legacyItem.put("productId", AttributeValue.builder().s("legacy").build());
+        legacyItem.put("productType", AttributeValue.builder().s("letter").build());
+        legacyItem.put("deliveryDate", AttributeValue.builder().s("2020-10-10").build());
+        doReturn(GetItemResponse.builder().item(packedItem).build())
+                .doReturn(GetItemResponse.builder().item(legacyItem).build())
+                .when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        final Product first = packed.getProduct("packed");
+        final Product second = packed.getProduct("legacy");
+
+        assertEquals("box", first.getProductType());
+        assertEquals("2020-10-09", first.getDeliveryDate());
+        assertEquals("letter", second.getProductType());
+        assertEquals("2020-10-10", second.getDeliveryDate());
+    }
+
+    @Test
+    public void updateProduct_whenPacked_rewritesPackedAttributeUnderVersionCondition() {
+        final Map<String, AttributeValue> current = new HashMap<>();
+        current.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        current.put("productType", AttributeValue.builder().s("box").build());
+        current.put("deliveryDate", AttributeValue.builder().s("2020-10-08").build());
+        current.put("version", AttributeValue.builder().n("3").build());
+        doReturn(GetItemResponse.builder().item(current).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        final Map<String, AttributeValue> updated = new HashMap<>();
+        updated.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        updated.put("p", codec.encode("box", "2020-10-09"));
+        updated.put("version", AttributeValue.builder().n("4").build());
+        doReturn(UpdateItemResponse.builder().attributes(updated).build())
+                .when(dynamoDb).updateItem(any(UpdateItemRequest.class));
+
+        final Product product = packed.updateProduct(PRODUCT_ID,
+                UpdateProductRequest.builder().deliveryDate("2020-10-09").expectedVersion(3L).build());
+
+        assertEquals("box", product.getProductType());
+        assertEquals("2020-10-09", product.getDeliveryDate());
+        final ArgumentCaptor<UpdateItemRequest> request = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        verify(dynamoDb).updateItem(request.capture());
+        assertEquals("SET p = :packed, #version = if_not_exists(#version, :zero) + :one"
+                + " REMOVE productType, deliveryDate", request.getValue().updateExpression());
+        assertEquals("attribute_exists(productId) AND attribute_not_exists(#deleted) AND #version = :expectedVersion",
+                request.getValue().conditionExpression());
+        final Map<String, AttributeValue> written = new HashMap<>();
+        written.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        written.put("p", request.getValue().expressionAttributeValues().get(":packed"));
+        assertEquals("box", ProductItemMapper.toProduct(written).getProductType());
+        assertEquals("2020-10-09", ProductItemMapper.toProduct(written).getDeliveryDate());
+    }
+
+    @Test(expected = UnableToUpdateException.class)
+    public void updateProduct_whenPackedAndVersionChanged_throwsWithoutWriting() {
+        final Map<String, AttributeValue> current = new HashMap<>();
+        current.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        current.put("p", codec.encode("box", "2020-10-08"));
+        current.put("version", AttributeValue.builder().n("5").build());
+        doReturn(GetItemResponse.builder().item(current).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        try {
+            packed.updateProduct(PRODUCT_ID,
+                    UpdateProductRequest.builder().productType("letter").expectedVersion(3L).build());
+        } finally {
+            verify(dynamoDb, never()).updateItem(any(UpdateItemRequest.class));
+        }
+    }
+
+    @Test
+    public void updateProduct_whenVersionChanged_throwsUnableToUpdateException() {
+        doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).updateItem(any(UpdateItemRequest.class));
+        final Map<String, AttributeValue> current = new HashMap<>();
+        current.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        current.put("productType", AttributeValue.builder().s("box").build());
+        current.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        current.put("version", AttributeValue.builder().n("5").build());
+        doReturn(GetItemResponse.builder().item(current).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        try {
+            sut.updateProduct(PRODUCT_ID, UpdateProductRequest.builder().productType("letter").expectedVersion(3L).build());
+            fail("expected UnableToUpdateException");
+        } catch (UnableToUpdateException e) {
+            assertTrue(e.getMessage().contains("version 5"));
+        }
+    }
+
+    @Test(expected = ProductDoesNotExistException.class)
+    public void updateProduct_whenProductDoesNotExist_throwsProductDoesNotExistException() {
+        doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).updateItem(any(UpdateItemRequest.class));
+        doReturn(GetItemResponse.builder().build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        sut.updateProduct(PRODUCT_ID, UpdateProductRequest.builder().productType("letter").expectedVersion(0L).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateProduct_whenExpectedVersionMissing_throwsIllegalArgumentException() {
+        sut.updateProduct(PRODUCT_ID, UpdateProductRequest.builder().productType("letter").build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateProduct_whenNothingToUpdate_throwsIllegalArgumentException() {
+        sut.updateProduct(PRODUCT_ID, UpdateProductRequest.builder().expectedVersion(1L).build());
+    }
+
+    @Test
+    public void deleteProduct_deletesConditionallyAndReturnsOldProduct() {
+        final Map<String, AttributeValue> old = new HashMap<>();
+        old.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        old.put("productType", AttributeValue.builder().s("box").build());
+        old.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        doReturn(DeleteItemResponse.builder().attributes(old).build())
+                .when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+
+        assertEquals("box", sut.deleteProduct(PRODUCT_ID, 2L).getProductType());
+
+        final ArgumentCaptor<DeleteItemRequest> request = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(dynamoDb).deleteItem(request.capture());
+        assertEquals("attribute_exists(productId) AND attribute_not_exists(#deleted) AND #version = :expectedVersion",
+                request.getValue().conditionExpression());
+        assertEquals(ReturnValue.ALL_OLD, request.getValue().returnValues());
+    }
+
+    @Test(expected = UnableToDeleteException.class)
+    public void deleteProduct_whenVersionChanged_throwsUnableToDeleteException() {
+        doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+        final Map<String, AttributeValue> current = new HashMap<>();
+        current.put("productId", AttributeValue.builder().s(PRODUCT_ID).build());
+        current.put("productType", AttributeValue.builder().s("box").build());
+        current.put("deliveryDate", AttributeValue.builder().s("2020-10-09").build());
+        doReturn(GetItemResponse.builder().item(current).build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        sut.deleteProduct(PRODUCT_ID, 2L);
+    }
+
+    @Test(expected = ProductDoesNotExistException.class)
+    public void deleteProduct_whenProductDoesNotExist_throwsProductDoesNotExistException() {
+        doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+        doReturn(GetItemResponse.builder().build()).when(dynamoDb).getItem(any(GetItemRequest.class));
+        sut.deleteProduct(PRODUCT_ID, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void purgeProducts_whenNoPredicate_throwsIllegalArgumentException() {
+        sut.purgeProducts(DeleteProductsRequest.builder().build(), () -> false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void purgeProducts_whenSegmentsNegative_throwsIllegalArgumentException() {
+        sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(-1).build(), () -> false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void purgeProducts_whenTooManySegments_throwsIllegalArgumentException() {
+        sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(10_000).build(), () -> false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void purgeProducts_whenCheckpointOfOtherPredicate_throwsIllegalArgumentException() {
+        final String checkpoint = ProductDao.checkpoint(DeleteProductsRequest.builder().productType("test").build(), 2)
+                .encode();
+        sut.purgeProducts(DeleteProductsRequest.builder().productType("live").checkpoint(checkpoint).build(),
+                () -> false);
+    }
+
+    @Test
+    public void purgeProducts_deletesOnlyIfVersionIsUnchanged() {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("productId", AttributeValue.builder().s("a").build());
+        item.put("version", AttributeValue.builder().n("3").build());
+        doReturn(ScanResponse.builder().items(Collections.singletonList(item)).build())
+                .when(dynamoDb).scan(any(ScanRequest.class));
+        doReturn(DeleteItemResponse.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(1)
+                .build(), () -> false);
+
+        assertEquals(1, result.getDeleted());
+        final ArgumentCaptor<DeleteItemRequest> delete = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(dynamoDb).deleteItem(delete.capture());
+        assertEquals("3", delete.getValue().expressionAttributeValues().get(":expectedVersion").n());
+        verify(dynamoDb, never()).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    public void purgeProducts_whenProductChangedToNoLongerMatch_keepsIt() {
+        doReturn(ScanResponse.builder().items(Collections.singletonList(Collections.singletonMap("productId",
+                AttributeValue.builder().s("a").build()))).build()).when(dynamoDb).scan(any(ScanRequest.class));
+        doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+        doReturn(GetItemResponse.builder().item(item("a", "live", "2020-10-08", 2)).build())
+                .when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(1)
+                .build(), () -> false);
+
+        assertEquals(0, result.getDeleted());
+        assertEquals(0, result.getFailed());
+        assertNull(result.getCheckpoint());
+        verify(dynamoDb, times(1)).deleteItem(any(DeleteItemRequest.class));
+    }
+
+    @Test
+    public void purgeProducts_whenProductKeepsChanging_keepsCheckpointBeforeIt() {
+        doReturn(ScanResponse.builder()
+                .items(Collections.singletonList(Collections.singletonMap("productId",
+                        AttributeValue.builder().s("a").build())))
+                .lastEvaluatedKey(Collections.singletonMap("productId", AttributeValue.builder().s("a").build()))
+                .build()).when(dynamoDb).scan(any(ScanRequest.class));
+        doThrow(ConditionalCheckFailedException.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+        doReturn(GetItemResponse.builder().item(item("a", "test", "2020-10-08", 2)).build())
+                .when(dynamoDb).getItem(any(GetItemRequest.class));
+
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(1)
+                .build(), () -> false);
+
+        assertEquals(0, result.getDeleted());
+        assertEquals(1, result.getFailed());
+        assertNull(PurgeCheckpoint.decode(result.getCheckpoint()).startAfter(0));
+        verify(dynamoDb, times(1)).scan(any(ScanRequest.class));
+        verify(dynamoDb, times(2)).deleteItem(any(DeleteItemRequest.class));
+    }
+
+    private static Map<String, AttributeValue> item(final String productId, final String productType,
+                                                    final String deliveryDate, final long version) {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("productId", AttributeValue.builder().s(productId).build());
+        item.put("productType", AttributeValue.builder().s(productType).build());
+        item.put("deliveryDate", AttributeValue.builder().s(deliveryDate).build());
+        item.put("version", AttributeValue.builder().n(Long.toString(version)).build());
+        return item;
+    }
+
+    @Test
+    public void findProducts_readsWithOneBatchGetInOrderOfIds() {
+        doReturn(BatchGetItemResponse.builder()
+                .responses(Collections.singletonMap("table_name", Arrays.asList(
+                        item("id-2", "letter", "2020-10-09", 1L),
+                        item("id-1", "box", "2020-10-08", 3L))))
+                .build()).when(dynamoDb).batchGetItem(any(BatchGetItemRequest.class));
+
+        final List<Product> products = sut.findProducts(Arrays.asList("id-1", "id-3", "id-2", "id-1"));
+
+        assertEquals(2, products.size());
+        assertEquals("id-1", products.get(0).getProductId());
+        assertEquals(Long.valueOf(3L), products.get(0).getVersion());
+        assertEquals("id-2", products.get(1).getProductId());
+        final ArgumentCaptor<BatchGetItemRequest> captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(dynamoDb, times(1)).batchGetItem(captor.capture());
+        assertEquals(3, captor.getValue().requestItems().get("table_name").keys().size());
+        assertTrue(captor.getValue().requestItems().get("table_name").consistentRead());
+    }
+
+    @Test
+    public void findProducts_retriesUnprocessedKeys() {
+        final Map<String, AttributeValue> key = Collections.singletonMap("productId",
+                AttributeValue.builder().s("id-2").build());
+        doReturn(BatchGetItemResponse.builder()
+                .responses(Collections.singletonMap("table_name",
+                        Collections.singletonList(item("id-1", "box", "2020-10-08", 1L))))
+                .unprocessedKeys(Collections.singletonMap("table_name",
+                        KeysAndAttributes.builder().keys(Collections.singletonList(key)).build()))
+                .build())
+                .doReturn(BatchGetItemResponse.builder()
+                        .responses(Collections.singletonMap("table_name",
+                                Collections.singletonList(item("id-2", "letter", "2020-10-09", 1L))))
+                        .build())
+                .when(dynamoDb).batchGetItem(any(BatchGetItemRequest.class));
+
+        final List<Product> products = sut.findProducts(Arrays.asList("id-1", "id-2"));
+
+        assertEquals(2, products.size());
+        final ArgumentCaptor<BatchGetItemRequest> captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(dynamoDb, times(2)).batchGetItem(captor.capture());
+        assertEquals(Collections.singletonList(key), captor.getAllValues().get(1).requestItems().get("table_name").keys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findProducts_whenMoreThan100Ids_throwsIllegalArgumentException() {
+        sut.findProducts(Collections.nCopies(101, PRODUCT_ID));
+    }
+
+    @Test
+    public void purgeProducts_deletesMatchesOfEverySegment() {
+        doAnswer(invocation -> ScanResponse.builder()
+                .items(Collections.singletonList(Collections.singletonMap("productId",
+                        AttributeValue.builder().s("id-" + invocation.getArgumentAt(0, ScanRequest.class).segment())
+                                .build())))
+                .build()).when(dynamoDb).scan(any(ScanRequest.class));
+        doReturn(DeleteItemResponse.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder()
+                .productType("test").deliveredTo("2020-10-01").segments(3).build(), () -> false);
+
+        assertEquals(3, result.getDeleted());
+        assertNull(result.getCheckpoint());
+        final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb, times(3)).scan(request.capture());
+        assertEquals("productType = :productType AND deliveryDate < :deliveredTo",
+                request.getValue().filterExpression());
+        assertEquals(Integer.valueOf(100), request.getValue().limit());
+    }
+
+    @Test
+    public void purgeProducts_whenDeadlineExpiresDuringDelete_checkpointsAfterLastDeletedProduct() {
+        doReturn(ScanResponse.builder()
+                .items(Arrays.asList(item("a", "test", "2020-10-08", 1), item("b", "test", "2020-10-08", 1),
+                        item("c", "test", "2020-10-08", 1)))
+                .lastEvaluatedKey(Collections.singletonMap("productId", AttributeValue.builder().s("c").build()))
+                .build()).when(dynamoDb).scan(any(ScanRequest.class));
+        doAnswer(invocation -> {
+            if ("b".equals(invocation.getArgumentAt(0, DeleteItemRequest.class).key().get("productId").s())) {
+                throw new DeadlineExceededException("Request deadline expired before the DynamoDB call");
+            }
+            return DeleteItemResponse.builder().build();
+        }).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(1)
+                .build(), () -> false);
+
+        // c was deleted too, but b was not, so the next run continues after a
+        assertEquals(2, result.getDeleted());
+        assertEquals(0, result.getFailed());
+        assertEquals("a", PurgeCheckpoint.decode(result.getCheckpoint()).startAfter(0));
+        verify(dynamoDb, times(1)).scan(any(ScanRequest.class));
+    }
+
+    @Test
+    public void purgeProducts_whenDeadlineExpiresDuringScan_returnsCheckpoint() {
+        doThrow(new DeadlineExceededException("Request deadline expired before the DynamoDB call"))
+                .when(dynamoDb).scan(any(ScanRequest.class));
+
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(2)
+                .build(), () -> false);
+
+        assertEquals(0, result.getDeleted());
+        assertNotNull(result.getCheckpoint());
+        assertFalse(PurgeCheckpoint.decode(result.getCheckpoint()).isDone(0));
+    }
+
+    @Test
+    public void purgeProducts_whenOutOfTime_deletesNothingMore() {
+        doReturn(ScanResponse.builder()
+                .items(Arrays.asList(item("a", "test", "2020-10-08", 1), item("b", "test", "2020-10-08", 1)))
+                .build()).when(dynamoDb).scan(any(ScanRequest.class));
+        final AtomicInteger checks = new AtomicInteger();
+
+        // time runs out after the check before the page
+        final PurgeResult result = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").segments(1)
+                .build(), () -> checks.incrementAndGet() > 1);
+
+        assertEquals(0, result.getDeleted());
+        assertNull(PurgeCheckpoint.decode(result.getCheckpoint()).startAfter(0));
+        verify(dynamoDb, never()).deleteItem(any(DeleteItemRequest.class));
+    }
+
+    @Test
+    public void purgeProducts_whenPacked_matchesPackedItemsAfterReadingThem() {
+        final Map<String, AttributeValue> match = new HashMap<>();
+        match.put("productId", AttributeValue.builder().s("match").build());
+        match.put("p", codec.encode("test", "2020-09-01"));
+        final Map<String, AttributeValue> other = new HashMap<>();
+        other.put("productId", AttributeValue.builder().s("other").build());
+        other.put("p", codec.encode("test", "2020-10-08"));
+        final Map<String, AttributeValue> legacy = new HashMap<>();
+        legacy.put("productId", AttributeValue.builder().s("legacy").build());
+        legacy.put("productType", AttributeValue.builder().s("test").build());
+        legacy.put("deliveryDate", AttributeValue.builder().s("2020-09-02").build());
+        doReturn(ScanResponse.builder().items(Arrays.asList(match, other, legacy)).build())
+                .when(dynamoDb).scan(any(ScanRequest.class));
+        doReturn(DeleteItemResponse.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+
+        final PurgeResult result = packed.purgeProducts(DeleteProductsRequest.builder()
+                .productType("test").deliveredTo("2020-10-01").segments(1).build(), () -> false);
+
+        assertEquals(2, result.getDeleted());
+        final ArgumentCaptor<ScanRequest> scan = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb).scan(scan.capture());
+        assertEquals("(productType = :productType AND deliveryDate < :deliveredTo) OR attribute_exists(p)",
+                scan.getValue().filterExpression());
+        final ArgumentCaptor<DeleteItemRequest> delete = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(dynamoDb, times(2)).deleteItem(delete.capture());
+        final List<String> deletedIds = new ArrayList<>();
+        for (DeleteItemRequest request : delete.getAllValues()) {
+            deletedIds.add(request.key().get("productId").s());
+        }
+        Collections.sort(deletedIds);
+        assertEquals(Arrays.asList("legacy", "match"), deletedIds);
+    }
+
+    @Test
+    public void purgeProducts_whenOutOfTime_resumesFromCheckpoint() {
+        doAnswer(invocation -> {
+            final Map<String, AttributeValue> startKey = invocation.getArgumentAt(0, ScanRequest.class)
+                    .exclusiveStartKey();
+            final boolean firstPage = startKey == null || startKey.isEmpty();
+            return ScanResponse.builder()
+                    .items(Collections.singletonList(Collections.singletonMap("productId",
+                            AttributeValue.builder().s(firstPage ? "a" : "b").build())))
+                    .lastEvaluatedKey(firstPage
+                            ? Collections.singletonMap("productId", AttributeValue.builder().s("a").build())
+                            : null)
+                    .build();
+        }).when(dynamoDb).scan(any(ScanRequest.class));
+        doReturn(DeleteItemResponse.builder().build()).when(dynamoDb).deleteItem(any(DeleteItemRequest.class));
+        final AtomicInteger checks = new AtomicInteger();
+
+        // time runs out after the checks before the first page and before its delete
+        final PurgeResult first = sut.purgeProducts(DeleteProductsRequest.builder()
+                .productType("test").segments(1).build(), () -> checks.getAndIncrement() > 1);
+
+        assertEquals(1, first.getDeleted());
+        assertNotNull(first.getCheckpoint());
+
+        final PurgeResult second = sut.purgeProducts(DeleteProductsRequest.builder()
+                .productType("test").checkpoint(first.getCheckpoint()).build(), () -> false);
+
+        assertEquals(1, second.getDeleted());
+        assertNull(second.getCheckpoint());
+        final ArgumentCaptor<ScanRequest> request = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(dynamoDb, times(2)).scan(request.capture());
+        assertEquals("a", request.getAllValues().get(1).exclusiveStartKey().get("productId").s());
+    }
+
 }
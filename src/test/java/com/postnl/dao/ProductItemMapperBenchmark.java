@@ -0,0 +1,109 @@
+package com.postnl.dao;
+
+import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.model.Product;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the previous builder and try/catch based item conversion with {@link ProductItemMapper}
+ * for a 1k item scan page, and exception vs Optional based not-found reporting.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ProductItemMapper}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductItemMapperBenchmark {
+
+    private List<Map<String, AttributeValue>> page;
+
+    @Setup
+    public void setup() {
+        page = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("productId", AttributeValue.builder().s(UUID.randomUUID().toString()).build());
+            item.put("productType", AttributeValue.builder().s("box").build());
+            item.put("deliveryDate", AttributeValue.builder().s("2020-10-08 13:00 - 15:00").build());
+            page.add(item);
+        }
+    }
+
+    @Benchmark
+    public List<Product> builderConvertPage() {
+        return page.stream().map(ProductItemMapperBenchmark::builderConvert).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Product> mapperConvertPage() {
+        return ProductItemMapper.toProducts(page);
+    }
+
+    @Benchmark
+    public Object notFoundWithStackTrace() {
+        try {
+            throw new IllegalArgumentException("Product some-id does not exist");
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object notFoundWithStacklessException() {
+        try {
+            throw new ProductDoesNotExistException("Product some-id does not exist");
+        } catch (ProductDoesNotExistException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object notFoundWithOptional() {
+        return Optional.ofNullable(ProductItemMapper.toProduct(null));
+    }
+
+    private static Product builderConvert(final Map<String, AttributeValue> item) {
+        if (item == null || item.isEmpty()) {
+            return null;
+        }
+        Product.ProductBuilder builder = Product.builder();
+        try {
+            builder.productId(item.get("productId").s());
+        } catch (NullPointerException e) {
+            throw new IllegalStateException("item did not have an productId attribute or it was not a String");
+        }
+        try {
+            builder.productType(item.get("productType").s());
+        } catch (NullPointerException e) {
+            throw new IllegalStateException("item did not have an productType attribute or it was not a String");
+        }
+        try {
+            builder.deliveryDate(item.get("deliveryDate").s());
+        } catch (NullPointerException e) {
+            throw new IllegalStateException("item did not have an deliveryDate attribute or it was not a String");
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,54 @@
+package com.postnl.dao.archive;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.*;
+
+public class ProductExpiryTest {
+
+    private static final long DAY = 24 * 60 * 60;
+
+    private final ZoneId zone = ZoneId.of("Europe/Amsterdam");
+
+    private final ProductExpiry sut = new ProductExpiry(30 * DAY, zone,
+            Clock.fixed(Instant.parse("2020-10-10T00:00:00Z"), ZoneOffset.UTC));
+
+    @Test
+    public void expiresAt_whenDeliveryWindow_expiresRetentionAfterWindowEnd() {
+        final long windowEnd = ZonedDateTime.of(2020, 10, 8, 15, 0, 0, 0, zone).toEpochSecond();
+        assertEquals(OptionalLong.of(windowEnd + 30 * DAY), sut.expiresAt("2020-10-08 13:00 - 15:00"));
+    }
+
+    @Test
+    public void expiresAt_whenDateOnly_expiresRetentionAfterEndOfDay() {
+        final long endOfDay = ZonedDateTime.of(2020, 10, 9, 0, 0, 0, 0, zone).toEpochSecond();
+        assertEquals(OptionalLong.of(endOfDay + 30 * DAY), sut.expiresAt("2020-10-08"));
+    }
+
+    @Test
+    public void expiresAt_whenUnparseable_neverExpires() {
+        assertFalse(sut.expiresAt("tomorrow afternoon").isPresent());
+        assertFalse(sut.expiresAt("2020-10-08 13:00 - late").isPresent());
+        assertFalse(sut.expiresAt(null).isPresent());
+    }
+
+    @Test
+    public void expiresAt_whenDisabled_neverExpires() {
+        assertFalse(ProductExpiry.disabled().isEnabled());
+        assertFalse(ProductExpiry.disabled().expiresAt("2020-10-08 13:00 - 15:00").isPresent());
+    }
+
+    @Test
+    public void archiveCutoff_selectsProductsDeliveredBeforeArchiveDelay() {
+        final long cutoff = sut.archiveCutoff(DAY);
+        assertTrue(sut.expiresAt("2020-10-08 13:00 - 15:00").getAsLong() <= cutoff);
+        assertTrue(sut.expiresAt("2020-10-09 13:00 - 15:00").getAsLong() > cutoff);
+    }
+}
@@ -0,0 +1,128 @@
+package com.postnl.dao.batch;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.exception.DeadlineExceededException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class WriteBatcherTest {
+
+    private final List<List<Integer>> flushed = new CopyOnWriteArrayList<>();
+
+    private final Function<List<Integer>, List<Integer>> doubling = writes -> {
+        flushed.add(writes);
+        final List<Integer> results = new ArrayList<>(writes.size());
+        for (Integer write : writes) {
+            results.add(write * 2);
+        }
+        return results;
+    };
+
+    @Test
+    public void write_whenDisabled_flushesEveryWriteOnItsOwn() {
+        final WriteBatcher<Integer, Integer> sut = WriteBatcher.disabled();
+
+        assertEquals(Integer.valueOf(2), sut.write(1, doubling));
+        assertEquals(Integer.valueOf(4), sut.write(2, doubling));
+
+        assertEquals(2, flushed.size());
+        assertFalse(sut.isEnabled());
+    }
+
+    @Test
+    public void write_gathersConcurrentWritesIntoFullBatches() throws Exception {
+        final WriteBatcher<Integer, Integer> sut = new WriteBatcher<>(true, 4, 60_000);
+        final ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final int write = i;
+                results.add(callers.submit(() -> sut.write(write, doubling)));
+            }
+
+            for (int i = 0; i < 8; i++) {
+                assertEquals(Integer.valueOf(i * 2), results.get(i).get());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        // full batches are flushed long before the linger time is up
+        assertEquals(2, flushed.size());
+        assertEquals(4, flushed.get(0).size());
+        assertEquals(4.0, sut.getStats().getAverageBatchSize(), 0.0);
+    }
+
+    @Test
+    public void write_whenBatchDoesNotFill_flushesAfterLingerTime() {
+        final WriteBatcher<Integer, Integer> sut = new WriteBatcher<>(true, 25, 20);
+        final long startedAt = System.nanoTime();
+
+        assertEquals(Integer.valueOf(6), sut.write(3, doubling));
+
+        assertTrue(System.nanoTime() - startedAt >= 20_000_000L);
+        assertEquals(Collections.singletonList(Collections.singletonList(3)), flushed);
+        assertEquals(1, sut.getStats().getBatches());
+        assertEquals(0, sut.getStats().getQueued());
+    }
+
+    @Test
+    public void write_whenFlushFails_failsEveryWriteOfBatch() throws InterruptedException {
+        final WriteBatcher<Integer, Integer> sut = new WriteBatcher<>(true, 2, 60_000);
+        final ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                final int write = i;
+                results.add(callers.submit(() -> sut.write(write, writes -> {
+                    throw new IllegalStateException("flush failed");
+                })));
+            }
+
+            for (Future<Integer> result : results) {
+                try {
+                    result.get();
+                    fail("expected IllegalStateException");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, sut.getStats().getFailedBatches());
+    }
+
+    @Test
+    public void write_flushesWithDeadlineOfCaller() {
+        final WriteBatcher<Integer, Boolean> sut = new WriteBatcher<>(true, 25, 1);
+        Deadline.start(Deadline.after(60_000, 2000));
+        try {
+            assertTrue(sut.write(1, writes -> Collections.singletonList(Deadline.current().isBounded())));
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void write_whenDeadlineExpiresWhileWaiting_throwsDeadlineExceededException() {
+        final WriteBatcher<Integer, Integer> sut = new WriteBatcher<>(true, 25, 60_000);
+        Deadline.start(Deadline.after(20, 2000));
+        try {
+            sut.write(1, doubling);
+        } finally {
+            Deadline.clear();
+        }
+    }
+}
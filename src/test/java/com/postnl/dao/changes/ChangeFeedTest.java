@@ -0,0 +1,116 @@
+package com.postnl.dao.changes;
+
+import com.postnl.dao.deadline.Deadline;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class ChangeFeedTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    private final ChangeFeed sut = new ChangeFeed(true, "changes-index", 4, 5000, 604_800_000L, () -> NOW);
+
+    @Test
+    public void attributes_stampsTimeShardAndSequence() {
+        final Map<String, AttributeValue> attributes = sut.attributes("p-1");
+
+        assertEquals(Long.toString(NOW), attributes.get(ChangeFeed.UPDATED_AT).n());
+        assertEquals(Integer.toString(sut.shard("p-1")), attributes.get(ChangeFeed.CHANGE_SHARD).n());
+        assertEquals("1600000000000#p-1", attributes.get(ChangeFeed.CHANGE_SEQUENCE).s());
+        assertTrue(ChangeFeed.disabled().attributes("p-1").isEmpty());
+    }
+
+    @Test
+    public void sequence_ordersByTimeThenProductId() {
+        assertTrue(ChangeFeed.sequence(999, "z").compareTo(ChangeFeed.sequence(1000, "a")) < 0);
+        assertTrue(ChangeFeed.sequence(1000, "a").compareTo(ChangeFeed.sequence(1000, "b")) < 0);
+        assertEquals("0000000001000#a", ChangeFeed.sequence(1000, "a"));
+    }
+
+    @Test
+    public void startAfter_acceptsCursorsTimesAndNothing() {
+        assertEquals("0000000000000", ChangeFeed.startAfter(null));
+        assertEquals("1600000000000#p-1", ChangeFeed.startAfter("1600000000000#p-1"));
+        // a time includes the changes at that time
+        assertEquals("0000000001000", ChangeFeed.startAfter("1000"));
+        assertTrue(ChangeFeed.startAfter("1000").compareTo(ChangeFeed.sequence(1000, "a")) < 0);
+    }
+
+    @Test
+    public void isExpired_whenOlderThanTombstoneRetention_exceptTheStart() {
+        assertFalse(sut.isExpired(ChangeFeed.startAfter(null)));
+        assertFalse(sut.isExpired(ChangeFeed.startAfter(Long.toString(NOW - 604_800_000L))));
+        assertTrue(sut.isExpired(ChangeFeed.startAfter(Long.toString(NOW - 604_800_001L))));
+        assertTrue(sut.isExpired(ChangeFeed.sequence(NOW - 604_800_001L, "p-1")));
+        assertEquals((NOW + 604_800_000L) / 1000, sut.tombstoneExpiresAt());
+    }
+
+    @Test
+    public void time_readsTimeOfSequenceOrCursor() {
+        assertEquals(NOW, ChangeFeed.time(ChangeFeed.sequence(NOW, "p-1")));
+        assertEquals(NOW, ChangeFeed.time(ChangeFeed.cursor(NOW)));
+    }
+
+    @Test
+    public void startAfter_whenMalformed_throwsIllegalArgumentException() {
+        for (String since : Arrays.asList("yesterday", "-1", "#p-1", "1000#p-1", "1600000000000#", "16000000000000000")) {
+            try {
+                ChangeFeed.startAfter(since);
+                fail("expected IllegalArgumentException for " + since);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().startsWith("since must be"));
+            }
+        }
+    }
+
+    @Test
+    public void settledBefore_leavesOutChangesYoungerThanSettleTime() {
+        assertEquals(ChangeFeed.cursor(NOW - 5000), sut.settledBefore());
+        assertTrue(ChangeFeed.sequence(NOW - 5001, "p-1").compareTo(sut.settledBefore()) < 0);
+        assertTrue(ChangeFeed.sequence(NOW - 5000, "p-1").compareTo(sut.settledBefore()) > 0);
+    }
+
+    @Test
+    public void merge_takesFirstChangesOfAllShardsInOrder() {
+        final List<List<String>> shards = Arrays.asList(
+                Arrays.asList("01", "04", "07"),
+                Collections.emptyList(),
+                Arrays.asList("02", "03", "08"),
+                Arrays.asList("05", "06"));
+
+        assertEquals(Arrays.asList("01", "02", "03", "04", "05"),
+                ChangeFeed.merge(shards, Function.identity(), 5));
+        assertEquals(8, ChangeFeed.merge(shards, Function.identity(), 10).size());
+    }
+
+    @Test
+    public void readShards_readsEveryShardWithDeadlineOfCaller() {
+        Deadline.start(Deadline.after(60_000, 2000));
+        try {
+            final List<Boolean> bounded = sut.readShards(shard -> Deadline.current().isBounded());
+
+            assertEquals(Arrays.asList(true, true, true, true), bounded);
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readShards_whenShardFails_throwsItsFailure() {
+        sut.readShards(shard -> {
+            if (shard == 2) {
+                throw new IllegalStateException("shard failed");
+            }
+            return shard;
+        });
+    }
+}
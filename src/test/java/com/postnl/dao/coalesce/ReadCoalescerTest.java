@@ -0,0 +1,176 @@
+package com.postnl.dao.coalesce;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.exception.DeadlineExceededException;
+import com.postnl.exception.TableDoesNotExistException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class ReadCoalescerTest {
+
+    private final ReadCoalescer sut = new ReadCoalescer(true, 8);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void read_whenBurstOfIdenticalReads_callsOnce() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(executor.submit(() -> sut.read("p-1", () -> {
+                calls.incrementAndGet();
+                await(release);
+                return "product";
+            })));
+        }
+        awaitStats(stats -> stats.getCoalesced() == 15);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("product", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        final ReadCoalescer.Stats stats = sut.getStats();
+        assertEquals(16, stats.getRequests());
+        assertEquals(1, stats.getCalls());
+        assertEquals(0, stats.getInFlight());
+    }
+
+    @Test
+    public void read_whenDifferentKeys_callsEach() {
+        assertEquals("a", sut.read("p-1", () -> "a"));
+        assertEquals("b", sut.read("p-2", () -> "b"));
+        assertEquals("c", sut.read("p-1", () -> "c"));
+        assertEquals(3, sut.getStats().getCalls());
+    }
+
+    @Test
+    public void read_whenReadFails_throwsSameErrorToEveryCaller() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final TableDoesNotExistException error = new TableDoesNotExistException("gone");
+        final Future<String> leader = executor.submit(() -> sut.read("p-1", () -> {
+            await(release);
+            throw error;
+        }));
+        awaitStats(stats -> stats.getCalls() == 1);
+        final Future<String> follower = executor.submit(() -> sut.read("p-1", () -> "not called"));
+        awaitStats(stats -> stats.getCoalesced() == 1);
+        release.countDown();
+
+        assertSame(error, cause(leader));
+        assertSame(error, cause(follower));
+        assertEquals(1, sut.getStats().getCalls());
+    }
+
+    @Test
+    public void read_whenLeaderRunsOutOfTime_followersReadThemselves() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> leader = executor.submit(() -> sut.read("p-1", () -> {
+            await(release);
+            throw new DeadlineExceededException("leader out of time");
+        }));
+        awaitStats(stats -> stats.getCalls() == 1);
+        final Future<String> follower = executor.submit(() -> sut.read("p-1", () -> "read again"));
+        awaitStats(stats -> stats.getCoalesced() == 1);
+        release.countDown();
+
+        assertTrue(cause(leader) instanceof DeadlineExceededException);
+        assertEquals("read again", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(2, sut.getStats().getCalls());
+        assertEquals(1, sut.getStats().getCancelled());
+    }
+
+    @Test
+    public void read_whenFollowerRunsOutOfTime_leaderCompletes() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> leader = executor.submit(() -> sut.read("p-1", () -> {
+            await(release);
+            return "product";
+        }));
+        awaitStats(stats -> stats.getCalls() == 1);
+        final Future<String> follower = executor.submit(() -> {
+            Deadline.start(Deadline.after(50, 2000));
+            try {
+                return sut.read("p-1", () -> "not called");
+            } finally {
+                Deadline.clear();
+            }
+        });
+
+        assertTrue(cause(follower) instanceof DeadlineExceededException);
+        release.countDown();
+        assertEquals("product", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void forgetAll_startsNewReadWhileOldOneIsInFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> before = executor.submit(() -> sut.read("p-1", () -> {
+            await(release);
+            return "before write";
+        }));
+        awaitStats(stats -> stats.getCalls() == 1);
+
+        sut.forgetAll();
+
+        assertEquals("after write", sut.read("p-1", () -> "after write"));
+        release.countDown();
+        assertEquals("before write", before.get(5, TimeUnit.SECONDS));
+        assertEquals(2, sut.getStats().getCalls());
+    }
+
+    @Test
+    public void read_whenDisabled_callsEveryTime() {
+        final ReadCoalescer disabled = ReadCoalescer.disabled();
+        assertFalse(disabled.isEnabled());
+        assertEquals("a", disabled.read("p-1", () -> "a"));
+        assertEquals(0, disabled.getStats().getRequests());
+    }
+
+    private void awaitStats(final Predicate<ReadCoalescer.Stats> arrived) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!arrived.test(sut.getStats())) {
+            if (System.nanoTime() > deadline) {
+                fail("Callers did not arrive: " + sut.getStats());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static Throwable cause(final Future<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("expected the read to fail");
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.postnl.dao.consistency;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SessionTokensTest {
+
+    private final AtomicLong now = new AtomicLong(1_600_000_000_000L);
+
+    private final SessionTokens sut = new SessionTokens(2000, now::get);
+
+    @Test
+    public void forProduct_whenSessionWroteProductRecently_readsStrongly() {
+        final String token = sut.issue(null, "p-1");
+
+        assertEquals(ReadConsistency.STRONG, sut.forProduct(token, "p-1"));
+        assertEquals(ReadConsistency.STRONG, sut.forListing(token));
+    }
+
+    @Test
+    public void forProduct_whenSessionWroteOtherProduct_readsEventually() {
+        final String token = sut.issue(null, "p-1");
+
+        int strong = 0;
+        for (int i = 2; i < 1000; i++) {
+            if (sut.forProduct(token, "p-" + i).isStrong()) {
+                strong++;
+            }
+        }
+        // two bits of 64 per product, so about one in a thousand reads of other products is upgraded
+        assertTrue("upgraded " + strong, strong < 10);
+    }
+
+    @Test
+    public void forProduct_whenWindowPassed_readsEventually() {
+        final String token = sut.issue(null, "p-1");
+        now.addAndGet(2000);
+
+        assertEquals(ReadConsistency.EVENTUAL, sut.forProduct(token, "p-1"));
+        assertEquals(ReadConsistency.EVENTUAL, sut.forListing(token));
+    }
+
+    @Test
+    public void issue_whenWithinWindow_keepsEarlierWritesOfSession() {
+        final String first = sut.issue(null, "p-1");
+        now.addAndGet(1500);
+        final String second = sut.issue(first, "p-2");
+        now.addAndGet(1500);
+
+        // the window restarts with the last write and covers every product written in it
+        assertEquals(ReadConsistency.STRONG, sut.forProduct(second, "p-1"));
+        assertEquals(ReadConsistency.STRONG, sut.forProduct(second, "p-2"));
+    }
+
+    @Test
+    public void issue_whenPreviousWriteOutsideWindow_forgetsIt() {
+        final String first = sut.issue(null, "p-1");
+        now.addAndGet(5000);
+        final String second = sut.issue(first, "p-2");
+
+        assertEquals(ReadConsistency.STRONG, sut.forProduct(second, "p-2"));
+        assertEquals(sut.issue(null, "p-2"), second);
+    }
+
+    @Test
+    public void forProduct_whenTokenMissingOrMalformed_readsEventually() {
+        assertEquals(ReadConsistency.EVENTUAL, sut.forProduct(null, "p-1"));
+        assertEquals(ReadConsistency.EVENTUAL, sut.forProduct("", "p-1"));
+        assertEquals(ReadConsistency.EVENTUAL, sut.forProduct("garbage", "p-1"));
+        assertEquals(ReadConsistency.EVENTUAL, sut.forProduct("zz!.1", "p-1"));
+        assertEquals(ReadConsistency.EVENTUAL, sut.forListing("123."));
+        assertTrue(sut.issue("garbage", "p-1").contains("."));
+    }
+}
@@ -0,0 +1,94 @@
+package com.postnl.dao.deadline;
+
+import com.postnl.exception.DeadlineExceededException;
+
+import org.junit.After;
+import org.junit.Test;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class DeadlineTest {
+
+    @After
+    public void clear() {
+        Deadline.clear();
+    }
+
+    @Test
+    public void current_withoutStart_isUnbounded() {
+        assertFalse(Deadline.current().isBounded());
+        assertFalse(Deadline.current().isExpired());
+        assertNull(Deadline.current().overrideConfiguration());
+    }
+
+    @Test
+    public void overrideConfiguration_boundsCallAndAttemptByRemainingTime() {
+        Deadline.start(Deadline.after(10_000, 2000));
+
+        final AwsRequestOverrideConfiguration configuration = Deadline.current().overrideConfiguration();
+
+        final Duration callTimeout = configuration.apiCallTimeout().get();
+        assertTrue(callTimeout.toMillis() > 9000 && callTimeout.toMillis() <= 10_000);
+        assertEquals(Duration.ofMillis(2000), configuration.apiCallAttemptTimeout().get());
+    }
+
+    @Test
+    public void overrideConfiguration_whenLittleTimeLeft_boundsAttemptByRemainingTime() {
+        final AwsRequestOverrideConfiguration configuration = Deadline.after(500, 2000).overrideConfiguration();
+
+        assertTrue(configuration.apiCallAttemptTimeout().get().toMillis() <= 500);
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void overrideConfiguration_whenExpired_throwsDeadlineExceededException() {
+        final Deadline deadline = Deadline.after(-1, 2000);
+        assertTrue(deadline.isExpired());
+        deadline.overrideConfiguration();
+    }
+
+    @Test
+    public void clear_removesDeadlineOfCurrentThread() {
+        Deadline.start(Deadline.after(10_000, 2000));
+        assertTrue(Deadline.current().isBounded());
+
+        Deadline.clear();
+
+        assertFalse(Deadline.current().isBounded());
+    }
+
+    @Test
+    public void propagate_runsTaskUnderDeadlineOfSubmitter() throws Exception {
+        final Deadline deadline = Deadline.after(10_000, 2000);
+        Deadline.start(deadline);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Supplier<Deadline> task = Deadline.propagate(Deadline::current);
+
+            assertSame(deadline, CompletableFuture.supplyAsync(task, executor).get());
+            assertFalse(CompletableFuture.supplyAsync(Deadline::current, executor).get().isBounded());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void propagate_whenRunOnSubmittingThread_restoresItsDeadline() {
+        final Deadline outer = Deadline.after(10_000, 2000);
+        final AtomicReference<Deadline> seen = new AtomicReference<>();
+        final Runnable task = Deadline.propagate(() -> seen.set(Deadline.current()));
+        Deadline.start(outer);
+
+        task.run();
+
+        assertFalse(seen.get().isBounded());
+        assertSame(outer, Deadline.current());
+    }
+}
@@ -0,0 +1,130 @@
+package com.postnl.dao.filter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ProductIdFilterTest {
+
+    @Test
+    public void blockedBloomFilter_neverReturnsFalseNegatives() {
+        BlockedBloomFilter filter = BlockedBloomFilter.create(10_000, 0.01);
+        String[] ids = IntStream.range(0, 10_000).mapToObj(i -> UUID.randomUUID().toString()).toArray(String[]::new);
+        for (String id : ids) {
+            filter.put(id);
+        }
+        for (String id : ids) {
+            assertTrue(filter.mightContain(id));
+        }
+    }
+
+    @Test
+    public void blockedBloomFilter_whenFilledToCapacity_staysNearConfiguredFalsePositiveRate() {
+        BlockedBloomFilter filter = BlockedBloomFilter.create(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put(UUID.randomUUID().toString()));
+        long falsePositives = IntStream.range(0, 100_000)
+                .filter(i -> filter.mightContain(UUID.randomUUID().toString()))
+                .count();
+        assertTrue("false positive rate was " + falsePositives / 100_000.0, falsePositives < 2_500);
+        assertTrue(filter.estimatedFalsePositiveRate() < 0.025);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockedBloomFilter_whenFalsePositiveRateInvalid_throwsIllegalArgumentException() {
+        BlockedBloomFilter.create(10, 1.0);
+    }
+
+    @Test
+    public void mightContain_whenDisabled_alwaysReturnsTrue() {
+        ProductIdFilter sut = ProductIdFilter.disabled();
+        sut.rebuild(sink -> sink.accept("a"));
+        assertTrue(sut.mightContain("b"));
+    }
+
+    @Test
+    public void mightContain_whenNeverBuilt_returnsTrue() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.01, 60_000, 1, 1000);
+        assertTrue(sut.mightContain("a"));
+    }
+
+    @Test
+    public void mightContain_afterRebuild_rejectsUnknownIds() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        sut.rebuild(sink -> sink.accept("a"));
+        assertTrue(sut.mightContain("a"));
+        assertFalse(sut.mightContain("b"));
+        sut.put("b");
+        assertTrue(sut.mightContain("b"));
+    }
+
+    @Test
+    public void mightContain_whenStale_returnsTrue() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.001, -1, 1, 1000);
+        sut.rebuild(sink -> sink.accept("a"));
+        assertTrue(sut.mightContain("b"));
+        assertTrue(sut.getStats().isStale());
+    }
+
+    @Test
+    public void mightContain_withChanges_catchesUpBeforeAnsweringNegatively() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        sut.rebuild(sink -> sink.accept("a"));
+        assertTrue(sut.mightContain("b", (since, sink) -> sink.accept("b")));
+        assertTrue(sut.mightContain("b"));
+        assertEquals(1, sut.getStats().getCatchUps());
+    }
+
+    @Test
+    public void mightContain_withChanges_catchesUpAtMostOncePerInterval() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 60_000);
+        long startedAt = System.currentTimeMillis();
+        sut.rebuild(sink -> sink.accept("a"));
+        List<Long> since = new ArrayList<>();
+        assertFalse(sut.mightContain("b", (millis, sink) -> since.add(millis)));
+        assertFalse(sut.mightContain("c", (millis, sink) -> since.add(millis)));
+        assertEquals(1, since.size());
+        assertTrue(since.get(0) >= startedAt);
+
+        // a rebuild may miss products written while it scans, so it makes the next catch-up due
+        sut.rebuild(sink -> sink.accept("a"));
+        assertFalse(sut.mightContain("c", (millis, sink) -> since.add(millis)));
+        assertEquals(2, since.size());
+    }
+
+    @Test
+    public void mightContain_whenCatchUpFails_returnsTrue() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        sut.rebuild(sink -> sink.accept("a"));
+        assertTrue(sut.mightContain("b", (since, sink) -> {
+            throw new IllegalStateException("index unavailable");
+        }));
+        assertEquals(0, sut.getStats().getCatchUps());
+    }
+
+    @Test
+    public void put_duringRebuild_isKeptByRebuiltFilter() {
+        ProductIdFilter sut = new ProductIdFilter(true, 100, 0.001, 60_000, 1, 1000);
+        sut.rebuild(sink -> {
+            sink.accept("a");
+            sut.put("created-during-rebuild");
+        });
+        assertTrue(sut.mightContain("created-during-rebuild"));
+    }
+
+    @Test
+    public void getStats_afterRebuild_reportsSizing() {
+        ProductIdFilter sut = new ProductIdFilter(true, 1000, 0.01, 60_000, 1, 1000);
+        sut.rebuild(sink -> sink.accept("a"));
+        ProductIdFilter.Stats stats = sut.getStats();
+        assertEquals(1, stats.getGeneration());
+        assertEquals(1, stats.getInsertions());
+        assertTrue(stats.getMemoryBytes() > 0);
+        assertTrue(stats.getHashFunctions() > 0);
+        assertEquals(stats.getBitSize() / 8, stats.getMemoryBytes());
+    }
+}
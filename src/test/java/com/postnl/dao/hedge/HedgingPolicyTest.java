@@ -0,0 +1,198 @@
+package com.postnl.dao.hedge;
+
+import com.postnl.dao.deadline.Deadline;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgingPolicyTest {
+
+    private static final GetItemRequest REQUEST = GetItemRequest.builder()
+            .tableName("products_table")
+            .key(Collections.singletonMap("productId", AttributeValue.builder().s("id-1").build()))
+            .build();
+
+    private final LatencyClient client = new LatencyClient();
+
+    @Test
+    public void call_whenDisabled_callsOnce() {
+        client.latencies.add(0L);
+
+        assertNotNull(HedgingPolicy.disabled().call(() -> client.getItem(REQUEST)));
+        assertEquals(1, client.calls.get());
+    }
+
+    @Test
+    public void call_withoutEnoughSamples_doesNotHedge() {
+        final HedgingPolicy sut = policy(1.0);
+        client.latencies.add(100L);
+
+        sut.call(() -> client.getItem(REQUEST));
+
+        assertEquals(1, client.calls.get());
+        assertEquals(0, sut.getStats().getHedges());
+    }
+
+    @Test
+    public void call_whenPrimaryIsSlow_hedgeWinsAndPrimaryIsCancelled() throws InterruptedException {
+        final HedgingPolicy sut = warmedUp(policy(1.0));
+        client.latencies.add(5000L);
+        client.latencies.add(0L);
+
+        final long startedAt = System.nanoTime();
+        final GetItemResponse response = sut.call(() -> client.getItem(REQUEST));
+
+        assertEquals("id-1", response.item().get("productId").s());
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, sut.getStats().getHedges());
+        assertEquals(1, sut.getStats().getHedgeWins());
+        assertTrue(client.interrupted.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void call_whenPrimaryIsFast_doesNotHedge() {
+        final HedgingPolicy sut = warmedUp(policy(1.0));
+        client.latencies.add(0L);
+
+        sut.call(() -> client.getItem(REQUEST));
+
+        assertEquals(0, sut.getStats().getHedges());
+    }
+
+    @Test
+    public void call_whenBudgetIsSpent_waitsForPrimary() {
+        final HedgingPolicy sut = warmedUp(policy(0.0));
+        client.latencies.add(100L);
+
+        sut.call(() -> client.getItem(REQUEST));
+
+        assertEquals(1, client.calls.get());
+        assertEquals(0, sut.getStats().getHedges());
+    }
+
+    @Test
+    public void call_capsHedgesAtBudget() {
+        final HedgingPolicy sut = warmedUp(policy(0.1));
+        for (int i = 0; i < 40; i++) {
+            client.latencies.add(40L);
+            client.latencies.add(40L);
+            sut.call(() -> client.getItem(REQUEST));
+        }
+
+        assertEquals(60, sut.getStats().getRequests());
+        assertTrue(sut.getStats().getHedges() <= 6);
+        assertTrue(sut.getStats().getHedges() >= 1);
+    }
+
+    @Test
+    public void call_whenBothFail_throwsLastFailure() {
+        final HedgingPolicy sut = warmedUp(policy(1.0));
+        client.failures.set(2);
+        client.latencies.add(80L);
+        client.latencies.add(0L);
+
+        try {
+            sut.call(() -> client.getItem(REQUEST));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("injected failure", e.getMessage());
+        }
+    }
+
+    @Test
+    public void call_whenHedgeFails_returnsPrimary() {
+        final HedgingPolicy sut = warmedUp(policy(1.0));
+        client.latencies.add(80L);
+        client.latencies.add(0L);
+        client.failSecond = true;
+
+        assertNotNull(sut.call(() -> client.getItem(REQUEST)));
+        assertEquals(1, sut.getStats().getHedges());
+        assertEquals(0, sut.getStats().getHedgeWins());
+    }
+
+    @Test
+    public void call_runsBothAttemptsUnderDeadlineOfCaller() {
+        final HedgingPolicy sut = warmedUp(policy(1.0));
+        client.latencies.add(5000L);
+        client.latencies.add(0L);
+        final Queue<Boolean> bounded = new ConcurrentLinkedQueue<>();
+        Deadline.start(Deadline.after(60_000, 2000));
+        try {
+            sut.call(() -> {
+                bounded.add(Deadline.current().isBounded());
+                return client.getItem(REQUEST);
+            });
+        } finally {
+            Deadline.clear();
+        }
+
+        assertEquals(1, sut.getStats().getHedges());
+        assertEquals(Arrays.asList(true, true), new ArrayList<>(bounded));
+    }
+
+    private HedgingPolicy policy(final double budget) {
+        return new HedgingPolicy(true, 0.95, 20, budget, 20, 60_000);
+    }
+
+    /** Records twenty fast latencies, which also earns two hedges at a budget of 0.1. */
+    private HedgingPolicy warmedUp(final HedgingPolicy policy) {
+        for (int i = 0; i < 20; i++) {
+            client.latencies.add(0L);
+            policy.call(() -> client.getItem(REQUEST));
+        }
+        client.calls.set(0);
+        return policy;
+    }
+
+    /**
+     * Answers every GetItem with the same item after the next injected latency.
+     */
+    private static class LatencyClient implements DynamoDbClient {
+
+        private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private volatile boolean failSecond;
+
+        @Override
+        public GetItemResponse getItem(final GetItemRequest request) {
+            final int call = calls.incrementAndGet();
+            final Long latency = latencies.poll();
+            try {
+                Thread.sleep(latency == null ? 0 : latency);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new IllegalStateException("interrupted");
+            }
+            if (failures.getAndDecrement() > 0 || (failSecond && call == 2)) {
+                throw new IllegalStateException("injected failure");
+            }
+            return GetItemResponse.builder().item(request.key()).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.postnl.dao.hedge;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void bucket_upperBoundCoversEveryLatency() {
+        for (long micros = 0; micros < 100_000; micros += 7) {
+            final int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(micros < LatencyHistogram.upperBoundMicros(bucket));
+            assertTrue(bucket == 0 || micros >= LatencyHistogram.upperBoundMicros(bucket - 1));
+        }
+    }
+
+    @Test
+    public void percentileNanos_whenEmpty_returnsMinusOne() {
+        assertEquals(-1, new LatencyHistogram(MINUTE).percentileNanos(0.95));
+    }
+
+    @Test
+    public void percentileNanos_isWithinBucketPrecision() {
+        final LatencyHistogram sut = new LatencyHistogram(MINUTE);
+        for (int millis = 1; millis <= 100; millis++) {
+            sut.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(100, sut.count());
+        final long p95 = sut.percentileNanos(0.95);
+        assertTrue(p95 >= TimeUnit.MILLISECONDS.toNanos(95));
+        assertTrue(p95 <= TimeUnit.MILLISECONDS.toNanos(95) * 1.13);
+        final long p50 = sut.percentileNanos(0.5);
+        assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(p50 <= TimeUnit.MILLISECONDS.toNanos(50) * 1.13);
+    }
+
+    @Test
+    public void record_afterTwoWindows_forgetsOldLatencies() throws InterruptedException {
+        final LatencyHistogram sut = new LatencyHistogram(TimeUnit.MILLISECONDS.toNanos(10));
+        sut.record(TimeUnit.SECONDS.toNanos(1));
+        Thread.sleep(15);
+        sut.record(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(2, sut.count());
+        Thread.sleep(15);
+        sut.record(TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertEquals(2, sut.count());
+        assertTrue(sut.percentileNanos(1) < TimeUnit.MILLISECONDS.toNanos(2));
+    }
+}
@@ -0,0 +1,168 @@
+package com.postnl.dao.http;
+
+import org.junit.Test;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ExecutableHttpRequest;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.SdkHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class MeteredHttpClientTest {
+
+    private static final HttpExecuteRequest REQUEST = HttpExecuteRequest.builder()
+            .request(SdkHttpRequest.builder()
+                    .method(SdkHttpMethod.POST)
+                    .uri(URI.create("http://localhost:8000/"))
+                    .build())
+            .build();
+
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    @Test
+    public void call_leasesConnectionUntilBodyIsClosed() throws IOException {
+        final MeteredHttpClient sut = client(2, 1000);
+
+        final HttpExecuteResponse response = sut.prepareRequest(REQUEST).call();
+
+        assertEquals(1, sut.getStats().getLeased());
+        assertEquals(1, sut.getStats().getAvailable());
+        response.responseBody().get().close();
+        response.responseBody().get().close();
+        assertEquals(0, sut.getStats().getLeased());
+        assertEquals(2, sut.getStats().getAvailable());
+    }
+
+    @Test
+    public void call_whenBodyIsReadToItsEnd_returnsConnection() throws IOException {
+        final MeteredHttpClient sut = client(1, 1000);
+        final AbortableInputStream body = sut.prepareRequest(REQUEST).call().responseBody().get();
+
+        while (body.read(new byte[8]) >= 0) {
+            assertEquals(1, sut.getStats().getLeased());
+        }
+
+        assertEquals(0, sut.getStats().getLeased());
+    }
+
+    @Test
+    public void call_whenAllConnectionsAreLeased_waitsForOne() throws Exception {
+        final MeteredHttpClient sut = client(1, 5000);
+        final HttpExecuteResponse first = sut.prepareRequest(REQUEST).call();
+
+        final CompletableFuture<HttpExecuteResponse> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return sut.prepareRequest(REQUEST).call();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (sut.getStats().getPending() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        first.responseBody().get().close();
+
+        second.get(5, TimeUnit.SECONDS).responseBody().get().close();
+        final HttpConnectionStats stats = sut.getStats();
+        assertEquals(2, stats.getRequests());
+        assertEquals(1, stats.getWaits());
+        assertEquals(0, stats.getTimeouts());
+        assertTrue(stats.getMaxWaitMillis() >= 20);
+        assertEquals(0, stats.getLeased());
+    }
+
+    @Test
+    public void call_whenNoConnectionFreesUpInTime_failsWithIOException() throws IOException {
+        final MeteredHttpClient sut = client(1, 10);
+        sut.prepareRequest(REQUEST).call();
+
+        try {
+            sut.prepareRequest(REQUEST).call();
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Timeout waiting for a connection of test"));
+        }
+        assertEquals(1, sut.getStats().getTimeouts());
+        assertEquals(1, sut.getStats().getLeased());
+    }
+
+    @Test
+    public void call_whenRequestFails_returnsConnection() {
+        final MeteredHttpClient sut = client(1, 1000);
+        failing.set(true);
+
+        try {
+            sut.prepareRequest(REQUEST).call();
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("connection refused", e.getMessage());
+        }
+        assertEquals(0, sut.getStats().getLeased());
+    }
+
+    @Test
+    public void call_whenBodyIsAborted_returnsConnection() throws IOException {
+        final MeteredHttpClient sut = client(1, 1000);
+
+        sut.prepareRequest(REQUEST).call().responseBody().get().abort();
+
+        assertEquals(0, sut.getStats().getLeased());
+    }
+
+    @Test
+    public void create_buildsChosenClient() {
+        final HttpTransport apache = HttpTransport.builder().build();
+        final HttpTransport urlConnection = HttpTransport.builder().client(HttpTransport.Client.URL_CONNECTION)
+                .maxConnections(4).build();
+
+        try (MeteredHttpClient apacheClient = apache.create("home");
+             MeteredHttpClient urlConnectionClient = urlConnection.create("home")) {
+            assertEquals("Apache", apacheClient.clientName());
+            assertEquals(50, apacheClient.getStats().getMaxConnections());
+            assertEquals("UrlConnection", urlConnectionClient.clientName());
+            assertEquals(4, urlConnectionClient.getStats().getAvailable());
+        }
+    }
+
+    private MeteredHttpClient client(final int maxConnections, final long acquireTimeoutMillis) {
+        return new MeteredHttpClient("test", new SdkHttpClient() {
+            @Override
+            public ExecutableHttpRequest prepareRequest(final HttpExecuteRequest request) {
+                return new ExecutableHttpRequest() {
+                    @Override
+                    public HttpExecuteResponse call() throws IOException {
+                        if (failing.get()) {
+                            throw new IOException("connection refused");
+                        }
+                        return HttpExecuteResponse.builder()
+                                .response(SdkHttpResponse.builder().statusCode(200).build())
+                                .responseBody(AbortableInputStream.create(
+                                        new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8))))
+                                .build();
+                    }
+
+                    @Override
+                    public void abort() {
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        }, maxConnections, acquireTimeoutMillis, 0);
+    }
+}
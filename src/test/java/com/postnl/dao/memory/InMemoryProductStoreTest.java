@@ -0,0 +1,250 @@
+package com.postnl.dao.memory;
+
+import com.postnl.dao.archive.ProductExpiry;
+import com.postnl.dao.purge.PurgeResult;
+import com.postnl.dto.request.CreateProductRequest;
+import com.postnl.dto.request.DeleteProductsRequest;
+import com.postnl.dto.request.UpdateProductRequest;
+import com.postnl.exception.ProductDoesNotExistException;
+import com.postnl.exception.UnableToDeleteException;
+import com.postnl.exception.UnableToUpdateException;
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class InMemoryProductStoreTest {
+
+    private final InMemoryProductStore sut = new InMemoryProductStore(10, 8, ProductExpiry.disabled());
+
+    @Test
+    public void createProduct_thenFindProduct_returnsCopyAtVersionOne() {
+        final Product created = sut.createProduct(request("box", "2020-10-08"));
+        created.setProductType("changed by the caller");
+
+        final Product found = sut.getProduct(created.getProductId());
+
+        assertEquals("box", found.getProductType());
+        assertEquals(Long.valueOf(1), found.getVersion());
+        assertFalse(sut.findProduct("unknown").isPresent());
+    }
+
+    @Test(expected = ProductDoesNotExistException.class)
+    public void getProduct_whenMissing_throwsProductDoesNotExistException() {
+        sut.getProduct("unknown");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createProduct_whenInvalid_throwsIllegalArgumentException() {
+        sut.createProduct(request("", "2020-10-08"));
+    }
+
+    @Test
+    public void getProducts_pagesInIdOrderWithStableCursor() {
+        for (int i = 0; i < 25; i++) {
+            sut.createProduct(request("box", "2020-10-08"));
+        }
+        final List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            final ProductPage page = sut.getProducts(cursor);
+            for (Product product : page.getProducts()) {
+                seen.add(product.getProductId());
+            }
+            cursor = page.getLastEvaluatedKey();
+            if (pages++ == 0) {
+                // products created while paging do not shift the pages that follow
+                sut.deleteProducts(Arrays.asList(page.getProducts().get(0).getProductId()));
+            }
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, seen.size());
+        final List<String> sorted = new ArrayList<>(seen);
+        sorted.sort(String::compareTo);
+        assertEquals(sorted, seen);
+    }
+
+    @Test
+    public void updateProduct_incrementsVersionAndRejectsStaleVersion() {
+        final Product created = sut.createProduct(request("box", "2020-10-08"));
+
+        final Product updated = sut.updateProduct(created.getProductId(),
+                UpdateProductRequest.builder().deliveryDate("2020-10-09").expectedVersion(1L).build());
+
+        assertEquals("box", updated.getProductType());
+        assertEquals("2020-10-09", updated.getDeliveryDate());
+        assertEquals(Long.valueOf(2), updated.getVersion());
+        try {
+            sut.updateProduct(created.getProductId(),
+                    UpdateProductRequest.builder().productType("letter").expectedVersion(1L).build());
+            fail("expected UnableToUpdateException");
+        } catch (UnableToUpdateException e) {
+            assertTrue(e.getMessage().contains("at version 2"));
+        }
+    }
+
+    @Test(expected = ProductDoesNotExistException.class)
+    public void updateProduct_whenMissing_throwsProductDoesNotExistException() {
+        sut.updateProduct("unknown", UpdateProductRequest.builder().productType("letter").expectedVersion(1L).build());
+    }
+
+    @Test
+    public void deleteProduct_checksVersion() {
+        final Product created = sut.createProduct(request("box", "2020-10-08"));
+        try {
+            sut.deleteProduct(created.getProductId(), 3L);
+            fail("expected UnableToDeleteException");
+        } catch (UnableToDeleteException e) {
+            assertTrue(sut.findProduct(created.getProductId()).isPresent());
+        }
+
+        assertEquals(created.getProductId(), sut.deleteProduct(created.getProductId(), 1L).getProductId());
+        assertEquals(0, sut.size());
+    }
+
+    @Test
+    public void purgeProducts_deletesMatchesAndResumesFromCheckpoint() {
+        for (int i = 0; i < 150; i++) {
+            sut.createProduct(request(i % 2 == 0 ? "test" : "box", "2020-09-01"));
+        }
+        final AtomicInteger checks = new AtomicInteger();
+
+        final PurgeResult first = sut.purgeProducts(DeleteProductsRequest.builder().productType("test").build(),
+                () -> checks.getAndIncrement() > 0);
+        assertNotNull(first.getCheckpoint());
+        final PurgeResult second = sut.purgeProducts(DeleteProductsRequest.builder().productType("test")
+                .checkpoint(first.getCheckpoint()).build(), () -> false);
+
+        assertNull(second.getCheckpoint());
+        assertEquals(75, first.getDeleted() + second.getDeleted());
+        assertEquals(75, sut.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void purgeProducts_whenNoPredicate_throwsIllegalArgumentException() {
+        sut.purgeProducts(DeleteProductsRequest.builder().build(), () -> false);
+    }
+
+    @Test
+    public void scanExpiringProducts_returnsProductsExpiringBeforeCutoff() {
+        final ProductExpiry expiry = new ProductExpiry(24 * 60 * 60, ZoneId.of("UTC"), Clock.systemUTC());
+        final InMemoryProductStore expiring = new InMemoryProductStore(10, 8, expiry);
+        expiring.createProduct(request("box", "2020-10-08"));
+        expiring.createProduct(request("box", "2020-10-10"));
+        expiring.createProduct(request("box", "whenever"));
+        final List<Product> found = new ArrayList<>();
+
+        expiring.scanExpiringProducts(1, expiry.expiresAt("2020-10-09").getAsLong(), found::addAll);
+
+        assertEquals(1, found.size());
+        assertEquals("2020-10-08", found.get(0).getDeliveryDate());
+    }
+
+    @Test
+    public void concurrentWriters_keepIndexAndStripesConsistent() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    final List<String> kept = new ArrayList<>();
+                    for (int i = 0; i < 500; i++) {
+                        final Product product = sut.createProduct(request("box", "2020-10-08"));
+                        if (i % 5 == 0) {
+                            sut.deleteProduct(product.getProductId(), null);
+                        } else {
+                            sut.updateProduct(product.getProductId(), UpdateProductRequest.builder()
+                                    .productType("letter").expectedVersion(1L).build());
+                            kept.add(product.getProductId());
+                        }
+                    }
+                    return kept;
+                }));
+            }
+            final Set<String> expected = new HashSet<>();
+            for (Future<List<String>> future : futures) {
+                expected.addAll(future.get());
+            }
+
+            final Set<String> scanned = new HashSet<>();
+            sut.scanProducts(1, page -> page.forEach(product -> {
+                assertEquals(Long.valueOf(2), product.getVersion());
+                scanned.add(product.getProductId());
+            }));
+            assertEquals(expected, scanned);
+            assertEquals(3200, sut.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void getChanges_pagesChangesInTimeOrderWithDeletesAsTombstones() {
+        final AtomicLong now = new AtomicLong(1_000);
+        final InMemoryProductStore store = new InMemoryProductStore(2, 8, ProductExpiry.disabled(), now::get);
+        final Product first = store.createProduct(request("box", "2020-10-08"));
+        now.incrementAndGet();
+        final Product second = store.createProduct(request("box", "2020-10-08"));
+        now.incrementAndGet();
+        final Product third = store.createProduct(request("box", "2020-10-08"));
+        now.incrementAndGet();
+        store.updateProduct(first.getProductId(),
+                UpdateProductRequest.builder().productType("letter").expectedVersion(1L).build());
+        now.incrementAndGet();
+        store.deleteProduct(second.getProductId(), null);
+        now.incrementAndGet();
+
+        final ProductPage page = store.getChanges(null);
+        assertEquals(Arrays.asList(third.getProductId(), first.getProductId()), ids(page.getProducts()));
+        assertEquals("letter", page.getProducts().get(1).getProductType());
+        final ProductPage deletes = store.getChanges(page.getLastEvaluatedKey());
+        assertEquals(Collections.singletonList(second.getProductId()), ids(deletes.getProducts()));
+        assertTrue(deletes.getProducts().get(0).getDeleted());
+        assertNull(deletes.getProducts().get(0).getProductType());
+
+        // the feed is drained up to the current millisecond, and continues from there
+        final ProductPage drained = store.getChanges(deletes.getLastEvaluatedKey());
+        assertTrue(drained.getProducts().isEmpty());
+        now.incrementAndGet();
+        store.updateProduct(third.getProductId(),
+                UpdateProductRequest.builder().productType("letter").expectedVersion(1L).build());
+        now.incrementAndGet();
+        assertEquals(Collections.singletonList(third.getProductId()),
+                ids(store.getChanges(drained.getLastEvaluatedKey()).getProducts()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getChanges_whenSinceMalformed_throwsIllegalArgumentException() {
+        sut.getChanges("yesterday");
+    }
+
+    private static CreateProductRequest request(final String productType, final String deliveryDate) {
+        return CreateProductRequest.builder().productType(productType).deliveryDate(deliveryDate).build();
+    }
+
+    private static List<String> ids(final List<Product> products) {
+        final List<String> ids = new ArrayList<>(products.size());
+        for (Product product : products) {
+            ids.add(product.getProductId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,99 @@
+package com.postnl.dao.packed;
+
+import org.junit.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PackedProductCodecTest {
+
+    private final PackedProductCodec sut = new PackedProductCodec(true, 256);
+
+    @Test
+    public void encode_roundTripsFields() {
+        final PackedFields fields = PackedProductCodec.decode(sut.encode("box", "2020-10-08 13:00 - 15:00"));
+
+        assertEquals("box", fields.get(PackedProductCodec.PRODUCT_TYPE));
+        assertEquals("2020-10-08 13:00 - 15:00", fields.get(PackedProductCodec.DELIVERY_DATE));
+        assertNull(fields.get(9));
+    }
+
+    @Test
+    public void encode_isSmallerThanAttributePerField() {
+        final byte[] packed = sut.encode("box", "2020-10-08 13:00 - 15:00").b().asByteArray();
+
+        // "productType" + "box" + "deliveryDate" + "2020-10-08 13:00 - 15:00" as separate attributes
+        final int attributes = 11 + 3 + 12 + 24;
+        assertTrue(1 + packed.length < attributes);
+        assertEquals(0, packed[0] & PackedProductCodec.DEFLATED);
+    }
+
+    @Test
+    public void encode_whenAboveThreshold_deflatesAndRoundTrips() {
+        final StringBuilder longType = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longType.append("fragile ");
+        }
+        final byte[] packed = sut.encode(longType.toString(), "2020-10-08").b().asByteArray();
+
+        assertEquals(PackedProductCodec.DEFLATED, packed[0] & PackedProductCodec.DEFLATED);
+        assertTrue(packed.length < longType.length() / 4);
+        final PackedFields fields = PackedProductCodec.decode(
+                AttributeValue.builder().b(SdkBytes.fromByteArray(packed)).build());
+        assertEquals(longType.toString(), fields.get(PackedProductCodec.PRODUCT_TYPE));
+        assertEquals("2020-10-08", fields.get(PackedProductCodec.DELIVERY_DATE));
+    }
+
+    @Test
+    public void encode_whenNotCompressible_storesRaw() {
+        final byte[] packed = new PackedProductCodec(true, 0).encode("x", "y").b().asByteArray();
+
+        assertEquals(0, packed[0] & PackedProductCodec.DEFLATED);
+    }
+
+    @Test
+    public void decode_skipsUnknownTags() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(PackedProductCodec.LAYOUT_VERSION << 4);
+        writeField(out, 7, "from a newer codec");
+        writeField(out, PackedProductCodec.PRODUCT_TYPE, "box");
+        writeField(out, 300, "outside the known range");
+        writeField(out, PackedProductCodec.DELIVERY_DATE, "2020-10-08");
+
+        final PackedFields fields = PackedProductCodec.decode(
+                AttributeValue.builder().b(SdkBytes.fromByteArray(out.toByteArray())).build());
+
+        assertEquals("box", fields.get(PackedProductCodec.PRODUCT_TYPE));
+        assertEquals("2020-10-08", fields.get(PackedProductCodec.DELIVERY_DATE));
+    }
+
+    @Test
+    public void decode_isLazy() {
+        final PackedFields fields = PackedProductCodec.decode(
+                AttributeValue.builder().b(SdkBytes.fromByteArray(new byte[] {0x10, 0x01, 0x7f})).build());
+
+        try {
+            fields.get(PackedProductCodec.PRODUCT_TYPE);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("packed attribute is truncated", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decode_whenUnknownLayout_throwsIllegalStateException() {
+        PackedProductCodec.decode(AttributeValue.builder().b(SdkBytes.fromByteArray(new byte[] {0x70})).build())
+                .get(PackedProductCodec.PRODUCT_TYPE);
+    }
+
+    private static void writeField(final ByteArrayOutputStream out, final int tag, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        PackedProductCodec.writeVarint(out, tag);
+        PackedProductCodec.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,131 @@
+package com.postnl.dao.prefetch;
+
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PagePrefetcherTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final PagePrefetcher sut = new PagePrefetcher(true, 1000, 1 << 20, now::get, Runnable::run);
+
+    @Test
+    public void get_afterPrefetch_servesPageOnce() {
+        final AtomicInteger loads = new AtomicInteger();
+        sut.prefetch("p-9", cursor -> {
+            loads.incrementAndGet();
+            return page(cursor + "-next", false);
+        });
+        sut.prefetch("p-9", cursor -> page("again", false));
+
+        assertEquals("p-9-next", sut.get("p-9").get().getLastEvaluatedKey());
+        assertFalse(sut.get("p-19").isPresent());
+        assertEquals(1, loads.get());
+        final PagePrefetcher.Stats stats = sut.getStats();
+        assertEquals(2, stats.getRequests());
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getPrefetches());
+        assertEquals(0, stats.getWasted());
+    }
+
+    @Test
+    public void get_whenPrefetchStillRunning_waitsForIt() throws InterruptedException {
+        final PagePrefetcher background = new PagePrefetcher(true, 1000, 1 << 20);
+        final CountDownLatch started = new CountDownLatch(1);
+        background.prefetch("p-9", cursor -> {
+            started.countDown();
+            sleep(50);
+            return page("p-19", false);
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        assertEquals("p-19", background.get("p-9").get().getLastEvaluatedKey());
+    }
+
+    @Test
+    public void get_whenExpired_countsPageAsWasted() {
+        sut.prefetch("p-9", cursor -> page("p-19", false));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+
+        assertFalse(sut.get("p-9").isPresent());
+        assertEquals(1, sut.getStats().getWasted());
+        assertEquals(0, sut.getStats().getPages());
+        assertEquals(0, sut.getStats().getBytes());
+    }
+
+    @Test
+    public void prefetch_whenOverMemoryLimit_evictsLeastRecentlyUsedPages() {
+        final long pageBytes = PagePrefetcher.estimateBytes(page("p-19", false));
+        final PagePrefetcher bounded = new PagePrefetcher(true, 1000, 2 * pageBytes, now::get, Runnable::run);
+        bounded.prefetch("a", cursor -> page("p-19", false));
+        bounded.prefetch("b", cursor -> page("p-19", false));
+        assertTrue(bounded.get("a").isPresent());
+        bounded.prefetch("c", cursor -> page("p-19", false));
+
+        assertTrue(bounded.get("a").isPresent());
+        assertFalse(bounded.get("b").isPresent());
+        assertTrue(bounded.get("c").isPresent());
+        assertEquals(2, bounded.getStats().getPages());
+        assertEquals(2 * pageBytes, bounded.getStats().getBytes());
+        assertEquals(1, bounded.getStats().getWasted());
+    }
+
+    @Test
+    public void prefetch_whenPagePartialOrFailed_cachesNothing() {
+        sut.prefetch("p-9", cursor -> page("p-12", true));
+        sut.prefetch("p-19", cursor -> {
+            throw new IllegalStateException("scan failed");
+        });
+
+        assertFalse(sut.get("p-9").isPresent());
+        assertFalse(sut.get("p-19").isPresent());
+        assertEquals(0, sut.getStats().getPages());
+    }
+
+    @Test
+    public void invalidate_dropsEveryPage() {
+        sut.prefetch("p-9", cursor -> page("p-19", false));
+
+        sut.invalidate();
+
+        assertFalse(sut.get("p-9").isPresent());
+        assertEquals(1, sut.getStats().getWasted());
+    }
+
+    @Test
+    public void disabled_neverPrefetches() {
+        final PagePrefetcher disabled = PagePrefetcher.disabled();
+        disabled.prefetch("p-9", cursor -> {
+            throw new AssertionError("must not load");
+        });
+
+        assertFalse(disabled.get("p-9").isPresent());
+        assertEquals(0, disabled.getStats().getRequests());
+    }
+
+    private static ProductPage page(final String lastEvaluatedKey, final boolean partial) {
+        return ProductPage.builder()
+                .products(Collections.singletonList(new Product("p-1", "box", "2020-10-08")))
+                .lastEvaluatedKey(lastEvaluatedKey)
+                .partial(partial)
+                .build();
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.postnl.dao.purge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PurgeCheckpointTest {
+
+    @Test
+    public void encode_roundTripsEverySegmentState() {
+        final PurgeCheckpoint checkpoint = PurgeCheckpoint.start(3, "abc");
+        checkpoint.advance(0, null);
+        checkpoint.advance(2, "id,with:separators");
+
+        final PurgeCheckpoint decoded = PurgeCheckpoint.decode(checkpoint.encode());
+
+        assertEquals(3, decoded.getTotalSegments());
+        assertEquals("abc", decoded.getPredicate());
+        assertTrue(decoded.isDone(0));
+        assertFalse(decoded.isDone(1));
+        assertNull(decoded.startAfter(1));
+        assertEquals("id,with:separators", decoded.startAfter(2));
+        assertFalse(decoded.isComplete());
+    }
+
+    @Test
+    public void isComplete_whenEverySegmentDone_returnsTrue() {
+        final PurgeCheckpoint checkpoint = PurgeCheckpoint.start(2, "abc");
+        checkpoint.advance(0, null);
+        checkpoint.advance(1, null);
+        assertTrue(checkpoint.isComplete());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_whenSegmentCountDoesNotMatch_throwsIllegalArgumentException() {
+        PurgeCheckpoint.decode("3:abc:-,*");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_whenNotACheckpoint_throwsIllegalArgumentException() {
+        PurgeCheckpoint.decode("garbage");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_whenTooManySegments_throwsIllegalArgumentException() {
+        PurgeCheckpoint.decode(PurgeCheckpoint.start(PurgeCheckpoint.MAX_SEGMENTS + 1, "abc").encode());
+    }
+
+    @Test
+    public void predicateOf_tellsPredicatesApart() {
+        assertEquals(PurgeCheckpoint.predicateOf("test", null, "2020-10-01"),
+                PurgeCheckpoint.predicateOf("test", "", "2020-10-01"));
+        assertNotEquals(PurgeCheckpoint.predicateOf("test", null, "2020-10-01"),
+                PurgeCheckpoint.predicateOf("test", "2020-10-01", null));
+    }
+}
@@ -0,0 +1,173 @@
+package com.postnl.dao.replica;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReplicaSelectorTest {
+
+    private static final GetItemRequest REQUEST = GetItemRequest.builder()
+            .tableName("products_table")
+            .key(Collections.singletonMap("productId", AttributeValue.builder().s("id-1").build()))
+            .build();
+
+    private final LatencyClient home = new LatencyClient("eu-west-1", 30);
+    private final LatencyClient replica = new LatencyClient("eu-central-1", 0);
+
+    @Test
+    public void read_whenDisabled_readsHome() {
+        final ReplicaSelector sut = ReplicaSelector.disabled();
+
+        assertEquals("eu-west-1", read(sut));
+        assertFalse(sut.isEnabled());
+        assertNull(sut.getStats().getPreferred());
+    }
+
+    @Test
+    public void read_whenHomeIsSlower_prefersFasterReplica() {
+        final ReplicaSelector sut = selector(0);
+
+        for (int i = 0; i < 20; i++) {
+            read(sut);
+        }
+
+        // each replica is tried once before the averages decide
+        assertEquals(1, home.calls.get());
+        assertEquals(19, replica.calls.get());
+        assertEquals("eu-central-1", sut.getStats().getPreferred());
+    }
+
+    @Test
+    public void read_probesSlowerReplicaEveryNthRead() {
+        final ReplicaSelector sut = selector(5);
+
+        for (int i = 0; i < 20; i++) {
+            read(sut);
+        }
+
+        assertEquals(1 + 4, home.calls.get());
+        assertEquals(4, sut.getStats().getProbes());
+    }
+
+    @Test
+    public void read_whenReplicaFails_failsOverAndAvoidsIt() {
+        final ReplicaSelector sut = selector(0);
+        read(sut);
+        read(sut);
+        replica.failures.set(1);
+
+        assertEquals("eu-west-1", read(sut));
+        assertEquals(1, sut.getStats().getFailovers());
+
+        // one failure at a smoothing of 0.5 reaches the error rate limit
+        assertEquals("eu-west-1", sut.getStats().getPreferred());
+        assertEquals("eu-west-1", read(sut));
+    }
+
+    @Test
+    public void read_whenProbesSucceed_failedReplicaRecovers() {
+        final ReplicaSelector sut = selector(2);
+        read(sut);
+        read(sut);
+        replica.failures.set(1);
+        read(sut);
+
+        for (int i = 0; i < 10; i++) {
+            read(sut);
+        }
+
+        assertEquals("eu-central-1", sut.getStats().getPreferred());
+    }
+
+    @Test
+    public void read_whenEveryReplicaFails_throwsLastFailure() {
+        final ReplicaSelector sut = selector(0);
+        home.failures.set(1);
+        replica.failures.set(1);
+
+        try {
+            read(sut);
+            fail("expected DynamoDbException");
+        } catch (DynamoDbException e) {
+            assertEquals(500, e.statusCode());
+        }
+        assertEquals(1, home.calls.get());
+        assertEquals(1, replica.calls.get());
+    }
+
+    @Test(expected = ResourceNotFoundException.class)
+    public void read_whenFailureIsNotCausedByReplica_doesNotFailOver() {
+        final ReplicaSelector sut = selector(0);
+        try {
+            sut.read(home.client(), client -> {
+                throw ResourceNotFoundException.builder().statusCode(400).message("no table").build();
+            });
+        } finally {
+            assertEquals(0, sut.getStats().getFailovers());
+        }
+    }
+
+    private ReplicaSelector selector(final int probeEvery) {
+        return new ReplicaSelector(Arrays.asList(new Replica("eu-west-1", home.client()),
+                new Replica("eu-central-1", replica.client())), 0.5, probeEvery, 0.5);
+    }
+
+    private String read(final ReplicaSelector sut) {
+        return sut.read(home.client(), client -> client.getItem(REQUEST)).item().get("region").s();
+    }
+
+    /**
+     * Answers every GetItem with its region after a fixed latency, or fails with a server error.
+     */
+    private static class LatencyClient {
+
+        private final String region;
+        private final long latencyMillis;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        LatencyClient(final String region, final long latencyMillis) {
+            this.region = region;
+            this.latencyMillis = latencyMillis;
+        }
+
+        DynamoDbClient client() {
+            return new DynamoDbClient() {
+                @Override
+                public GetItemResponse getItem(final GetItemRequest request) {
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (failures.getAndDecrement() > 0) {
+                        throw DynamoDbException.builder().statusCode(500).message("injected failure").build();
+                    }
+                    return GetItemResponse.builder()
+                            .item(Collections.singletonMap("region", AttributeValue.builder().s(region).build()))
+                            .build();
+                }
+
+                @Override
+                public String serviceName() {
+                    return "dynamodb";
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
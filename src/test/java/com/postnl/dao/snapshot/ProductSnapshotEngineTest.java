@@ -0,0 +1,208 @@
+package com.postnl.dao.snapshot;
+
+import com.postnl.dao.deadline.Deadline;
+import com.postnl.exception.CursorExpiredException;
+import com.postnl.model.Product;
+import com.postnl.model.ProductPage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ProductSnapshotEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ProductSnapshotEngine.ProductSource source = sink -> {
+        sink.accept(Arrays.asList(product("d"), product("b")));
+        sink.accept(Arrays.asList(product("a"), new Product("c", "box", null, 7L)));
+        sink.accept(Collections.singletonList(product("e")));
+    };
+
+    private final AtomicLong latestChange = new AtomicLong(1L);
+    private final ProductSnapshotEngine.ChangeWatermark watermark = latestChange::get;
+
+    @Test
+    public void getProducts_whenDisabled_returnsEmpty() {
+        assertFalse(ProductSnapshotEngine.disabled().getProducts(null, 2, source, watermark).isPresent());
+    }
+
+    @Test
+    public void getProducts_whenCursorIsProductId_returnsEmpty() {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        assertFalse(sut.getProducts("a", 2, source, watermark).isPresent());
+    }
+
+    @Test
+    public void getProducts_walksAllPagesInProductIdOrder() {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        List<String> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            ProductPage page = sut.getProducts(cursor, 2, source, watermark).get();
+            page.getProducts().forEach(product -> ids.add(product.getProductId()));
+            cursor = page.getLastEvaluatedKey();
+        } while (cursor != null);
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), ids);
+    }
+
+    @Test
+    public void getProducts_preservesAttributes() {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        List<Product> products = sut.getProducts(null, 5, source, watermark).get().getProducts();
+        assertEquals("box", products.get(0).getProductType());
+        assertEquals("2020-10-08 13:00 - 15:00", products.get(0).getDeliveryDate());
+        assertNull(products.get(0).getVersion());
+        assertNull(products.get(2).getDeliveryDate());
+        assertEquals(Long.valueOf(7L), products.get(2).getVersion());
+    }
+
+    @Test
+    public void getProducts_whenCursorFromOtherSnapshot_resumesAfterLastProductId() {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        ProductPage page = sut.getProducts("~1.4.b", 2, source, watermark).get();
+        assertEquals("c", page.getProducts().get(0).getProductId());
+        assertEquals("d", page.getProducts().get(1).getProductId());
+    }
+
+    @Test
+    public void getProducts_whenNoSnapshotAndNoCursor_returnsEmptyAndBuildsSnapshotInBackground()
+            throws InterruptedException {
+        ProductSnapshotEngine sut = engine();
+        Optional<ProductPage> page = sut.getProducts(null, 2, source, watermark);
+        for (int i = 0; i < 500 && !page.isPresent(); i++) {
+            Thread.sleep(10);
+            page = sut.getProducts(null, 2, source, watermark);
+        }
+        assertEquals("a", page.get().getProducts().get(0).getProductId());
+    }
+
+    @Test
+    public void getProducts_whenSnapshotCursorButNoSnapshot_waitsForFirstSnapshotAndResumesAfterLastProductId() {
+        ProductSnapshotEngine sut = engine();
+        ProductPage page = sut.getProducts("~1.2.b", 2, source, watermark).get();
+        assertEquals("c", page.getProducts().get(0).getProductId());
+        assertEquals("d", page.getProducts().get(1).getProductId());
+    }
+
+    @Test
+    public void getProducts_whenSnapshotCursorAndFirstSnapshotMissesDeadline_throwsCursorExpiredException()
+            throws InterruptedException {
+        ProductSnapshotEngine sut = engine();
+        CountDownLatch exported = new CountDownLatch(1);
+        Deadline.start(Deadline.after(50, 50));
+        try {
+            sut.getProducts("~1.2.d", 2, sink -> {
+                try {
+                    exported.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                source.export(sink);
+            }, watermark);
+            fail("expected CursorExpiredException");
+        } catch (CursorExpiredException e) {
+            assertTrue(e.getMessage().contains("start the listing over"));
+        } finally {
+            Deadline.clear();
+            exported.countDown();
+        }
+    }
+
+    @Test
+    public void getProducts_whenTableChangedElsewhere_refreshesInBackground() throws InterruptedException {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        ProductSnapshotEngine.ProductSource changed = sink -> sink.accept(Collections.singletonList(product("z")));
+        assertEquals("a", sut.getProducts(null, 2, changed, watermark).get().getProducts().get(0).getProductId());
+
+        latestChange.set(2L);
+        Thread.sleep(1100);
+        String first = sut.getProducts(null, 2, changed, watermark).get().getProducts().get(0).getProductId();
+        for (int i = 0; i < 500 && !"z".equals(first); i++) {
+            Thread.sleep(10);
+            first = sut.getProducts(null, 2, changed, watermark).get().getProducts().get(0).getProductId();
+        }
+        assertEquals("z", first);
+    }
+
+    @Test
+    public void getProducts_whenTableUnchanged_keepsSnapshot() throws InterruptedException {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        Thread.sleep(1100);
+        AtomicInteger exports = new AtomicInteger();
+        sut.getProducts(null, 2, sink -> exports.incrementAndGet(), watermark);
+        Thread.sleep(50);
+        assertEquals(0, exports.get());
+    }
+
+    @Test(expected = CursorExpiredException.class)
+    public void getProducts_whenDisabledAndSnapshotCursor_throwsCursorExpiredException() {
+        ProductSnapshotEngine.disabled().getProducts("~1.2.d", 2, source, watermark);
+    }
+
+    @Test
+    public void refresh_replacesPreviousSnapshotFile() throws Exception {
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        sut.refresh(sink -> sink.accept(Collections.singletonList(product("z"))), watermark);
+        assertEquals(1, folder.getRoot().listFiles().length);
+        assertEquals("z", sut.getProducts(null, 2, source, watermark).get().getProducts().get(0).getProductId());
+    }
+
+    @Test
+    public void refresh_deletesSnapshotFilesOfEarlierProcesses() throws Exception {
+        folder.newFile("products-1.snapshot");
+        folder.newFile("unrelated.txt");
+        ProductSnapshotEngine sut = engine();
+        sut.refresh(source, watermark);
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(2, files.length);
+        assertFalse(new File(folder.getRoot(), "products-1.snapshot").exists());
+    }
+
+    @Test
+    public void release_whenLastReaderIsDone_deletesFile() throws Exception {
+        File file = folder.newFile("products-2.snapshot");
+        try (ProductSnapshotWriter writer = new ProductSnapshotWriter(file.toPath())) {
+            writer.append(Collections.singletonList(product("a")));
+            writer.finish(1L, 0L);
+        }
+        ProductSnapshot snapshot = ProductSnapshot.open(file.toPath());
+        assertTrue(snapshot.retain());
+
+        snapshot.release();
+        assertTrue(file.exists());
+        assertEquals("a", snapshot.read(0, 1).get(0).getProductId());
+        snapshot.release();
+
+        assertFalse(file.exists());
+        assertFalse(snapshot.retain());
+    }
+
+    private ProductSnapshotEngine engine() {
+        return new ProductSnapshotEngine(true, folder.getRoot().toPath(), 60_000, 1);
+    }
+
+    private static Product product(String productId) {
+        return new Product(productId, "box", "2020-10-08 13:00 - 15:00");
+    }
+}
@@ -0,0 +1,43 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class CreatePackageHandlerTest {
+
+    private CreatePackageHandler sut = new CreatePackageHandler();
+
+    @Test
+    public void handleRequest_whenCreatePackageInputStreamHasNoBody_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("Body was null"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenCreatePackageInputStreamHasNoProducts_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"body\": \"{\\\"products\\\": []}\"}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("A package needs at least one product"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenCreatePackageInputStreamHasInvalidProduct_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"body\": \"{\\\"products\\\": [{\\\"productType\\\": \\\"box\\\"}]}\"}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("deliveryDate was null"));
+        assertTrue(os.toString().contains("400"));
+    }
+}
@@ -1,11 +1,13 @@
 package com.postnl.handler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
-import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.postnl.services.lambda.runtime.TestContext;
 
 import org.junit.Test;
@@ -13,13 +15,13 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Map;
 
 public class CreateProductHandlerIT extends ProductHandlerTestBase {
 
     private final CreateProductHandler sut = new CreateProductHandler();
     private final GetProductHandler getProduct = new GetProductHandler();
     private final GetPackagesHandler getPackages = new GetPackagesHandler();
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Test
     public void handleRequest_whenCreateProductInputStreamOk_puts200InOutputStream() throws IOException {
@@ -29,42 +31,57 @@ public class CreateProductHandlerIT extends ProductHandlerTestBase {
         String input = "{\"body\": \"{\\\"productType\\\": \\\"box\\\", \\\"deliveryDate\\\": \\\"2020-10-08 13:00 - 15:00\\\"}\"}";
 
         sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, ctxt);
-        Item outputWrapper = Item.fromJSON(os.toString());
-        assertTrue(outputWrapper.hasAttribute("headers"));
-        Map<String, Object> headers = outputWrapper.getMap("headers");
+        JsonNode outputWrapper = objectMapper.readTree(os.toString());
+        assertTrue(outputWrapper.has("headers"));
+        JsonNode headers = outputWrapper.get("headers");
         assertNotNull(headers);
-        assertEquals(1, headers.size());
-        assertTrue(headers.containsKey("Content-Type"));
-        assertEquals("application/json", headers.get("Content-Type"));
-        assertTrue(outputWrapper.hasAttribute("statusCode"));
-        assertEquals(201, outputWrapper.getInt("statusCode"));
-        assertTrue(outputWrapper.hasAttribute("body"));
-        String bodyString = outputWrapper.getString("body");
+        assertEquals(2, headers.size());
+        assertTrue(headers.has("Content-Type"));
+        assertEquals("application/json", headers.get("Content-Type").asText());
+        assertTrue(headers.has("X-Session-Token"));
+        String sessionToken = headers.get("X-Session-Token").asText();
+        assertFalse(sessionToken.isEmpty());
+        assertTrue(outputWrapper.has("statusCode"));
+        assertEquals(201, outputWrapper.get("statusCode").asInt());
+        assertTrue(outputWrapper.has("body"));
+        String bodyString = outputWrapper.get("body").asText();
         assertNotNull(bodyString);
-        Item body = Item.fromJSON(bodyString);
+        JsonNode body = objectMapper.readTree(bodyString);
         verifyProductItem(body, "box", "2020-10-08 13:00 - 15:00");
 
-        //now that we verified the created product, lets see if we can get it anew
+        //now that we verified the created product, lets see if we can get it anew, reading our own write
         os = new ByteArrayOutputStream();
-        String productId = body.getString("productId");
+        String productId = body.get("productId").asText();
 
-        getProduct.handleRequest(new ByteArrayInputStream(("{\"pathParameters\": { \"product_id\": \"" + productId + "\"}}").getBytes()), os, ctxt);
+        getProduct.handleRequest(new ByteArrayInputStream(("{\"pathParameters\": { \"product_id\": \"" + productId
+                + "\"}, \"headers\": { \"X-Session-Token\": \"" + sessionToken + "\"}}").getBytes()), os, ctxt);
 
-        outputWrapper = Item.fromJSON(os.toString());
-        assertTrue(outputWrapper.hasAttribute("headers"));
-        headers = outputWrapper.getMap("headers");
+        outputWrapper = objectMapper.readTree(os.toString());
+        assertTrue(outputWrapper.has("headers"));
+        headers = outputWrapper.get("headers");
         assertNotNull(headers);
-        assertEquals(1, headers.size());
-        assertTrue(headers.containsKey("Content-Type"));
-        assertEquals("application/json", headers.get("Content-Type"));
-        assertTrue(outputWrapper.hasAttribute("statusCode"));
-        assertEquals(200, outputWrapper.getInt("statusCode"));
-        assertTrue(outputWrapper.hasAttribute("body"));
-        bodyString = outputWrapper.getString("body");
+        assertEquals(4, headers.size());
+        assertTrue(headers.has("Content-Type"));
+        assertEquals("application/json", headers.get("Content-Type").asText());
+        assertTrue(headers.has("ETag"));
+        assertEquals("no-cache", headers.get("Cache-Control").asText());
+        assertEquals("X-Session-Token", headers.get("Vary").asText());
+        assertTrue(outputWrapper.has("statusCode"));
+        assertEquals(200, outputWrapper.get("statusCode").asInt());
+        assertTrue(outputWrapper.has("body"));
+        bodyString = outputWrapper.get("body").asText();
         assertNotNull(bodyString);
-        body = Item.fromJSON(bodyString);
+        body = objectMapper.readTree(bodyString);
         verifyProductItem(body, "box", "2020-10-08 13:00 - 15:00");
 
+        //polling with the ETag we got back should not resend the body
+        os = new ByteArrayOutputStream();
+        getProduct.handleRequest(new ByteArrayInputStream(("{\"pathParameters\": { \"product_id\": \"" + productId
+                + "\"}, \"headers\": { \"If-None-Match\": " + headers.get("ETag") + "}}").getBytes()), os, ctxt);
+        outputWrapper = objectMapper.readTree(os.toString());
+        assertEquals(304, outputWrapper.get("statusCode").asInt());
+        assertEquals("", outputWrapper.get("body").asText());
+
         //now that we can get the singleton lets see if we can get it in a page
         os = new ByteArrayOutputStream();
         getPackages.handleRequest(new ByteArrayInputStream("{}".getBytes()), os, ctxt);
@@ -73,16 +90,16 @@ public class CreateProductHandlerIT extends ProductHandlerTestBase {
         assertTrue(os.toString().contains("200")); //SC_OK
     }
 
-    private void verifyProductItem(Item body, String productType, String deliveryDate) {
-        assertTrue(body.hasAttribute("productId"));
-        String productId = body.getString("productId");
+    private void verifyProductItem(JsonNode body, String productType, String deliveryDate) {
+        assertTrue(body.has("productId"));
+        String productId = body.get("productId").asText();
         assertNotNull(productId);
         assertTrue(productId.contains("-"));
-        assertTrue(body.hasAttribute("productType"));
-        String type = body.getString("productType");
+        assertTrue(body.has("productType"));
+        String type = body.get("productType").asText();
         assertEquals(type, productType);
-        assertTrue(body.hasAttribute("deliveryDate"));
-        String date = body.getString("deliveryDate");
+        assertTrue(body.has("deliveryDate"));
+        String date = body.get("deliveryDate").asText();
         assertEquals(date, deliveryDate);
     }
 
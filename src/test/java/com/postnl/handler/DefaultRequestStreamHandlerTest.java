@@ -0,0 +1,96 @@
+package com.postnl.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.postnl.dao.consistency.ReadConsistency;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class DefaultRequestStreamHandlerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final DefaultRequestStreamHandler sut = new DefaultRequestStreamHandler() {
+        @Override
+        public String route() {
+            return "GET /test";
+        }
+
+        @Override
+        public ObjectMapper objectMapper() {
+            return objectMapper;
+        }
+
+        @Override
+        public void handle(InputStream input, OutputStream output, Context context) {
+        }
+    };
+
+    @Test
+    public void strongETag_whenBodiesEqual_returnsSameQuotedTag() {
+        String etag = sut.strongETag("{\"productId\":\"a\"}");
+        assertEquals(etag, sut.strongETag("{\"productId\":\"a\"}"));
+        assertNotEquals(etag, sut.strongETag("{\"productId\":\"b\"}"));
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    }
+
+    @Test
+    public void writeCacheableResponse_whenNoIfNoneMatch_puts200WithETagAndCacheControl() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        sut.writeCacheableResponse(objectMapper, os, objectMapper.readTree("{}"), "{}", "max-age=5");
+        JsonNode response = objectMapper.readTree(os.toString());
+        assertEquals(200, response.get("statusCode").asInt());
+        assertEquals("{}", response.get("body").asText());
+        assertEquals(sut.strongETag("{}"), response.get("headers").get("ETag").asText());
+        assertEquals("max-age=5", response.get("headers").get("Cache-Control").asText());
+        assertEquals(DefaultRequestStreamHandler.SESSION_TOKEN, response.get("headers").get("Vary").asText());
+    }
+
+    @Test
+    public void writeCacheableResponse_whenIfNoneMatchesETag_puts304WithoutBody() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        JsonNode event = objectMapper.createObjectNode().set("headers",
+                objectMapper.createObjectNode().put("if-none-match", "\"other\", W/" + sut.strongETag("{}")));
+        sut.writeCacheableResponse(objectMapper, os, event, "{}", "max-age=5");
+        JsonNode response = objectMapper.readTree(os.toString());
+        assertEquals(304, response.get("statusCode").asInt());
+        assertEquals("", response.get("body").asText());
+        assertEquals(sut.strongETag("{}"), response.get("headers").get("ETag").asText());
+    }
+
+    @Test
+    public void ifNoneMatch_whenTagDiffers_returnsFalse() throws IOException {
+        JsonNode event = objectMapper.readTree("{\"headers\": {\"If-None-Match\": \"\\\"stale\\\"\"}}");
+        assertFalse(sut.ifNoneMatch(event, sut.strongETag("{}")));
+        assertTrue(sut.ifNoneMatch(objectMapper.readTree("{\"headers\": {\"If-None-Match\": \"*\"}}"), "\"x\""));
+    }
+
+    @Test
+    public void header_matchesNameIgnoringCase() throws IOException {
+        JsonNode event = objectMapper.readTree("{\"headers\": {\"x-session-token\": \"abc.1\"}}");
+        assertEquals("abc.1", sut.header(event, DefaultRequestStreamHandler.SESSION_TOKEN));
+        assertNull(sut.header(objectMapper.readTree("{}"), DefaultRequestStreamHandler.SESSION_TOKEN));
+    }
+
+    @Test
+    public void cacheControl_whenStrong_returnsNoCache() {
+        assertEquals("no-cache", sut.cacheControl(ReadConsistency.STRONG, "max-age=5"));
+        assertEquals("max-age=5", sut.cacheControl(ReadConsistency.EVENTUAL, "max-age=5"));
+    }
+
+    @Test
+    public void readConsistency_whenConsistentReadRequested_returnsStrong() throws IOException {
+        JsonNode event = objectMapper.readTree("{\"queryStringParameters\": {\"consistentRead\": \"true\"}}");
+        assertEquals(ReadConsistency.STRONG, sut.readConsistency(event, ReadConsistency.EVENTUAL));
+        assertEquals(ReadConsistency.EVENTUAL, sut.readConsistency(objectMapper.readTree("{}"), ReadConsistency.EVENTUAL));
+        assertEquals(ReadConsistency.STRONG, sut.readConsistency(objectMapper.readTree("{}"), ReadConsistency.STRONG));
+    }
+}
@@ -0,0 +1,35 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class DeleteProductHandlerTest {
+
+    private DeleteProductHandler sut = new DeleteProductHandler();
+
+    @Test
+    public void handleRequest_whenDeleteProductInputStreamHasNoMappedProductIdPathParam_puts400InOutputStream()
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"pathParameters\": { }}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("product_id was not set"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenExpectedVersionNotANumber_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"pathParameters\": {\"product_id\": \"a\"}, \"queryStringParameters\": {\"expectedVersion\": \"x\"}}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("expectedVersion was not a number"));
+        assertTrue(os.toString().contains("400"));
+    }
+}
@@ -0,0 +1,26 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class GetPackageHandlerTest {
+
+    private GetPackageHandler sut = new GetPackageHandler();
+
+    @Test
+    public void handleRequest_whenGetPackageInputStreamHasNoMappedPackageIdPathParam_puts400InOutputStream()
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"pathParameters\": { }}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("package_id was not set"));
+        assertTrue(os.toString().contains("400"));
+    }
+}
@@ -0,0 +1,33 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class GetProductChangesHandlerTest {
+
+    private GetProductChangesHandler sut = new GetProductChangesHandler();
+
+    @Test
+    public void handleRequest_whenSinceMalformed_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"queryStringParameters\": {\"since\": \"yesterday\"}}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("since must be a cursor of the change feed"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenChangeFeedDisabled_puts404InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        sut.handleRequest(new ByteArrayInputStream("{}".getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("The change feed is not enabled"));
+        assertTrue(os.toString().contains("404"));
+    }
+}
@@ -0,0 +1,33 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class PurgeProductsHandlerTest {
+
+    private PurgeProductsHandler sut = new PurgeProductsHandler();
+
+    @Test
+    public void handleRequest_whenPurgeProductsInputStreamHasNoBody_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        sut.handleRequest(new ByteArrayInputStream("{}".getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("Body was null"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenPurgeProductsInputStreamHasNoPredicate_puts400InOutputStream() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"body\": \"{\\\"segments\\\": 4}\"}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("Refusing to delete all products"));
+        assertTrue(os.toString().contains("400"));
+    }
+}
@@ -0,0 +1,108 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.async.AsyncLoggerConfig;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RequestLogTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void beginAndEnd_scopeTheThreadContextToTheRequest() {
+        final RequestLog requestLog = RequestLog.begin(TestContext.builder().awsRequestId("request-1").build(),
+                "GET /products/{product_id}");
+
+        assertEquals("request-1", ThreadContext.get(RequestLog.REQUEST_ID));
+        assertEquals("GET /products/{product_id}", ThreadContext.get(RequestLog.ROUTE));
+
+        requestLog.end();
+
+        assertTrue(ThreadContext.isEmpty());
+    }
+
+    @Test
+    public void configuration_usesSynchronousLoggersWithoutLocation() {
+        final LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        final LoggerConfig loggerConfig = context.getConfiguration().getLoggerConfig("com.postnl");
+        assertFalse(loggerConfig instanceof AsyncLoggerConfig);
+        assertFalse(loggerConfig.isIncludeLocation());
+    }
+
+    @Test
+    public void layout_writesOneJsonObjectPerEvent() throws IOException {
+        final SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue(RequestLog.REQUEST_ID, "request-1");
+        contextData.putValue(RequestLog.ROUTE, "GET /packages");
+        contextData.putValue(RequestLog.LATENCY_MILLIS, "12");
+
+        final JsonNode line = objectMapper.readTree(layout().toSerializable(Log4jLogEvent.newBuilder()
+                .setLoggerName("com.postnl.dao.ProductDao")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("said \"hi\"\nand left"))
+                .setContextData(contextData)
+                .build()).toString());
+
+        assertEquals("INFO", line.get("level").asText());
+        assertEquals("ProductDao", line.get("logger").asText());
+        assertEquals("request-1", line.get("requestId").asText());
+        assertEquals("GET /packages", line.get("route").asText());
+        assertEquals(12, line.get("latencyMs").asInt());
+        assertEquals("said \"hi\"\nand left", line.get("message").asText());
+        assertNull(line.get("exception"));
+    }
+
+    @Test
+    public void layout_encodesContextFields() throws IOException {
+        final SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue(RequestLog.REQUEST_ID, "a\",\"injected\":\"b");
+        contextData.putValue(RequestLog.ROUTE, "GET /products/\\\n");
+
+        final JsonNode line = objectMapper.readTree(layout().toSerializable(Log4jLogEvent.newBuilder()
+                .setLoggerName("com.postnl.dao.Product\"Dao")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("ok"))
+                .setContextData(contextData)
+                .build()).toString());
+
+        assertEquals("a\",\"injected\":\"b", line.get("requestId").asText());
+        assertEquals("GET /products/\\\n", line.get("route").asText());
+        assertEquals("Product\"Dao", line.get("logger").asText());
+        assertNull(line.get("injected"));
+    }
+
+    @Test
+    public void layout_omitsRequestFieldsOutsideARequest() throws IOException {
+        final JsonNode line = objectMapper.readTree(layout().toSerializable(Log4jLogEvent.newBuilder()
+                .setLoggerName("com.postnl.dao.ProductDao")
+                .setLevel(Level.WARN)
+                .setMessage(new SimpleMessage("cold start"))
+                .setThrown(new IllegalStateException("boom"))
+                .build()).toString());
+
+        assertNull(line.get("requestId"));
+        assertNull(line.get("latencyMs"));
+        assertTrue(line.get("exception").asText().contains("IllegalStateException: boom"));
+    }
+
+    private static Layout<?> layout() {
+        final LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        return context.getConfiguration().getAppender("Lambda").getLayout();
+    }
+}
@@ -0,0 +1,46 @@
+package com.postnl.handler;
+
+import com.postnl.services.lambda.runtime.TestContext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class UpdateProductHandlerTest {
+
+    private UpdateProductHandler sut = new UpdateProductHandler();
+
+    @Test
+    public void handleRequest_whenUpdateProductInputStreamHasNoMappedProductIdPathParam_puts400InOutputStream()
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"pathParameters\": { }, \"body\": \"{}\"}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("product_id was not set"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenUpdateProductInputStreamHasNoExpectedVersion_puts400InOutputStream()
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"pathParameters\": {\"product_id\": \"a\"}, \"body\": \"{\\\"productType\\\": \\\"box\\\"}\"}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("expectedVersion was null or negative"));
+        assertTrue(os.toString().contains("400"));
+    }
+
+    @Test
+    public void handleRequest_whenUpdateProductInputStreamHasWrongTypeForBody_puts400InOutputStream()
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String input = "{\"pathParameters\": {\"product_id\": \"a\"}, \"body\": \"1\"}";
+        sut.handleRequest(new ByteArrayInputStream(input.getBytes()), os, TestContext.builder().build());
+        assertTrue(os.toString().contains("Invalid JSON"));
+        assertTrue(os.toString().contains("400"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.postnl.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProfilingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spans_whenNotRecording_areNone() {
+        assertTrue(Profiling.isAvailable());
+        assertSame(Span.NONE, Profiling.daoCall("GetItem", "products"));
+        assertSame(Span.NONE, Profiling.eventParsed("GET /packages"));
+        assertSame(Span.NONE, Profiling.initPhase("inject"));
+    }
+
+    @Test
+    public void spans_whenRecordedWithBundledSettings_areCommitted() throws IOException, ParseException {
+        final List<RecordedEvent> events;
+        try (Recording recording = new Recording(bundledConfiguration())) {
+            recording.start();
+            Profiling.requestReceived("GET /packages", "request-1");
+            try (Span parsed = Profiling.eventParsed("GET /packages")) {
+                assertTrue(parsed.isRecording());
+            }
+            try (Span call = Profiling.daoCall("Scan", "products")) {
+                call.count(10);
+                call.consumedCapacity(2.5);
+            }
+            try (Span written = Profiling.responseWritten("GET /packages")) {
+                written.count(512);
+            }
+            try (Span init = Profiling.initPhase("dynamodb client")) {
+                assertTrue(init.isRecording());
+            }
+            recording.stop();
+            final Path file = folder.newFile("events.jfr").toPath();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+
+        assertEquals("request-1", only(events, "com.postnl.RequestReceived").getString("requestId"));
+        assertEquals("GET /packages", only(events, "com.postnl.EventParsed").getString("route"));
+        final RecordedEvent call = only(events, "com.postnl.DaoCall");
+        assertEquals("Scan", call.getString("operation"));
+        assertEquals("products", call.getString("table"));
+        assertEquals(10, call.getLong("itemCount"));
+        assertEquals(2.5, call.getDouble("consumedCapacity"), 0.0);
+        assertNotNull(call.getStackTrace());
+        assertEquals(512, only(events, "com.postnl.ResponseWritten").getLong("bytes"));
+        assertEquals("dynamodb client", only(events, "com.postnl.InitPhase").getString("phase"));
+    }
+
+    static Configuration bundledConfiguration() throws IOException, ParseException {
+        try (Reader reader = new InputStreamReader(
+                ProfilingTest.class.getResourceAsStream("/jfr/package-service.jfc"), StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+
+    private static RecordedEvent only(final List<RecordedEvent> events, final String name) {
+        RecordedEvent found = null;
+        for (RecordedEvent event : events) {
+            if (name.equals(event.getEventType().getName())) {
+                assertNull("more than one " + name, found);
+                found = event;
+            }
+        }
+        assertNotNull("no " + name, found);
+        return found;
+    }
+}
@@ -0,0 +1,109 @@
+package com.postnl.runtime;
+
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class BootstrapTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+
+    private StubRuntimeApi runtimeApi;
+    private RuntimeApiClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        runtimeApi = new StubRuntimeApi();
+        client = new RuntimeApiClient(runtimeApi.address());
+    }
+
+    @After
+    public void tearDown() {
+        runtimeApi.close();
+    }
+
+    @Test
+    public void handleNext_postsResponseOfHandler() throws Exception {
+        final AtomicReference<String> requestId = new AtomicReference<>();
+        final AtomicInteger remainingMillis = new AtomicInteger();
+        final RequestStreamHandler echo = (input, output, context) -> {
+            requestId.set(context.getAwsRequestId());
+            remainingMillis.set(context.getRemainingTimeInMillis());
+            int read;
+            while ((read = input.read()) != -1) {
+                output.write(read);
+            }
+        };
+        runtimeApi.enqueue("request-1", NOW + 3000, "{\"hello\":\"world\"}");
+
+        new Bootstrap(client, echo, () -> NOW).handleNext();
+
+        final StubRuntimeApi.Posted posted = runtimeApi.takePosted();
+        assertEquals("/2018-06-01/runtime/invocation/request-1/response", posted.path);
+        assertEquals("{\"hello\":\"world\"}", posted.body);
+        assertEquals("request-1", requestId.get());
+        assertEquals(3000, remainingMillis.get());
+    }
+
+    @Test
+    public void handleNext_whenHandlerThrows_postsErrorAndKeepsServing() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final RequestStreamHandler failsOnce = (input, output, context) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("table is gone");
+            }
+            output.write("ok".getBytes(StandardCharsets.UTF_8));
+        };
+        runtimeApi.enqueue("request-1", NOW + 3000, "{}");
+        runtimeApi.enqueue("request-2", NOW + 3000, "{}");
+        final Bootstrap sut = new Bootstrap(client, failsOnce, () -> NOW);
+
+        sut.handleNext();
+        sut.handleNext();
+
+        final StubRuntimeApi.Posted error = runtimeApi.takePosted();
+        assertEquals("/2018-06-01/runtime/invocation/request-1/error", error.path);
+        assertEquals(IllegalStateException.class.getName(), error.errorType);
+        assertTrue(error.body.contains("\"errorMessage\":\"table is gone\""));
+        final StubRuntimeApi.Posted response = runtimeApi.takePosted();
+        assertEquals("/2018-06-01/runtime/invocation/request-2/response", response.path);
+        assertEquals("ok", response.body);
+    }
+
+    @Test
+    public void handleNext_servesHandlerOfHandlerSetting() throws Exception {
+        final RequestStreamHandler handler = Bootstrap.handler("com.postnl.handler.GetProductHandler::handleRequest");
+        runtimeApi.enqueue("request-1", NOW + 3000, "{\"pathParameters\": { }}");
+
+        new Bootstrap(client, handler, () -> NOW).handleNext();
+
+        final StubRuntimeApi.Posted posted = runtimeApi.takePosted();
+        assertEquals("/2018-06-01/runtime/invocation/request-1/response", posted.path);
+        assertTrue(posted.body.contains("product_id was not set"));
+        assertTrue(posted.body.contains("400"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handler_whenUnknown_throwsIllegalArgumentException() {
+        Bootstrap.handler("com.postnl.handler.MissingHandler::handleRequest");
+    }
+
+    @Test
+    public void initError_postsToInitError() throws Exception {
+        client.initError(new IllegalArgumentException("Unknown handler"));
+
+        final StubRuntimeApi.Posted posted = runtimeApi.takePosted();
+        assertEquals("/2018-06-01/runtime/init/error", posted.path);
+        assertEquals(IllegalArgumentException.class.getName(), posted.errorType);
+        assertTrue(posted.body.contains("\"errorMessage\":\"Unknown handler\""));
+    }
+}
@@ -0,0 +1,123 @@
+package com.postnl.runtime;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in for the Lambda Runtime API. Hands out the queued events and records every
+ * response and error posted back.
+ */
+final class StubRuntimeApi implements AutoCloseable {
+
+    private final HttpServer server;
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Posted> posted = new LinkedBlockingQueue<>();
+
+    StubRuntimeApi() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/2018-06-01/runtime/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return host and port, as the AWS_LAMBDA_RUNTIME_API variable holds them
+     */
+    String address() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void enqueue(final String requestId, final long deadlineMillis, final String event) {
+        events.add(new Event(requestId, deadlineMillis, event));
+    }
+
+    Posted takePosted() throws InterruptedException {
+        final Posted next = posted.poll(5, TimeUnit.SECONDS);
+        if (next == null) {
+            throw new AssertionError("Nothing was posted to the runtime API");
+        }
+        return next;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/invocation/next")) {
+                final Event event = events.poll(5, TimeUnit.SECONDS);
+                if (event == null) {
+                    reply(exchange, 500, "no event queued");
+                    return;
+                }
+                exchange.getResponseHeaders().add(RuntimeApiClient.REQUEST_ID, event.requestId);
+                exchange.getResponseHeaders().add(RuntimeApiClient.DEADLINE_MS, Long.toString(event.deadlineMillis));
+                exchange.getResponseHeaders().add(RuntimeApiClient.INVOKED_FUNCTION_ARN,
+                        "arn:aws:lambda:eu-west-1:123456789012:function:stub");
+                reply(exchange, 200, event.body);
+            } else {
+                posted.add(new Posted(path, exchange.getRequestHeaders().getFirst(RuntimeApiClient.FUNCTION_ERROR_TYPE),
+                        read(exchange.getRequestBody())));
+                reply(exchange, 202, "{\"status\":\"OK\"}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reply(exchange, 500, "interrupted");
+        }
+    }
+
+    private static void reply(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static String read(final InputStream input) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static final class Event {
+        private final String requestId;
+        private final long deadlineMillis;
+        private final String body;
+
+        private Event(final String requestId, final long deadlineMillis, final String body) {
+            this.requestId = requestId;
+            this.deadlineMillis = deadlineMillis;
+            this.body = body;
+        }
+    }
+
+    static final class Posted {
+        final String path;
+        final String errorType;
+        final String body;
+
+        private Posted(final String path, final String errorType, final String body) {
+            this.path = path;
+            this.errorType = errorType;
+            this.body = body;
+        }
+    }
+}